@@ -1,30 +1,77 @@
 package ac.il.bgu.qa;
 
+import ac.il.bgu.qa.util.CopyCounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents a book with its essential details and borrowing status.
+ * A library may hold several copies of the same book, in which case the book counts as borrowed
+ * only once every copy is borrowed.
  */
 public class Book {
+    // Titles with at least this many copies get a striped counter, to spread concurrent checkouts.
+    private static final int STRIPING_THRESHOLD = 8;
+    // Copies per stripe of a striped counter.
+    private static final int COPIES_PER_STRIPE = 4;
+
     // The International Standard Book Number (ISBN) uniquely identifying the book.
     private final String ISBN;
     // The title of the book.
     private final String title;
     // The name of the author of the book.
     private final String author;
-    // Status to check if the book is currently borrowed or not.
-    private boolean isBorrowed;
+    // The available copies of the book, out of its total number of copies.
+    private final CopyCounter copies;
+    // Version stamp of the borrowed state. Every change advances it by two; it is odd while a
+    // transaction is committing changes to the book.
+    private final AtomicLong version = new AtomicLong();
 
     /**
-     * Constructs a new Book object.
+     * Constructs a new Book object with a single copy.
      *
      * @param ISBN   The International Standard Book Number (ISBN) of the book.
      * @param title  The title of the book.
      * @param author The author of the book.
      */
     public Book(String ISBN, String title, String author) {
+        this(ISBN, title, author, 1);
+    }
+
+    /**
+     * Constructs a new Book object with the given number of copies, all available.
+     *
+     * @param ISBN   The International Standard Book Number (ISBN) of the book.
+     * @param title  The title of the book.
+     * @param author The author of the book.
+     * @param copies The number of copies the library holds, at least one.
+     */
+    public Book(String ISBN, String title, String author, int copies) {
+        this(ISBN, title, author, copies, 0, 0);
+    }
+
+    /**
+     * Constructs a Book object from a stored state, for stores that keep books in their own format
+     * and hand out views of them.
+     *
+     * @param ISBN           The International Standard Book Number (ISBN) of the book.
+     * @param title          The title of the book.
+     * @param author         The author of the book.
+     * @param copies         The number of copies the library holds, at least one.
+     * @param borrowedCopies The number of copies on loan.
+     * @param version        The version stamp of the borrowed state, even.
+     */
+    public Book(String ISBN, String title, String author, int copies, int borrowedCopies, long version) {
+        if (version < 0 || (version & 1) != 0) {
+            throw new IllegalArgumentException("Invalid version.");
+        }
         this.ISBN = ISBN;
         this.title = title;
         this.author = author;
-        this.isBorrowed = false;
+        int stripes = copies < STRIPING_THRESHOLD ? 1
+                : Math.min(copies / COPIES_PER_STRIPE, Runtime.getRuntime().availableProcessors());
+        this.copies = new CopyCounter(copies, stripes, copies - borrowedCopies);
+        this.version.set(version);
     }
 
     // Getter methods
@@ -56,36 +103,80 @@ public class Book {
         return author;
     }
 
+    /**
+     * Retrieves the number of copies the library holds.
+     *
+     * @return The total number of copies of the book.
+     */
+    public int getTotalCopies() {
+        return copies.getTotal();
+    }
+
+    /**
+     * Retrieves the number of copies that can currently be borrowed.
+     *
+     * @return The number of available copies.
+     */
+    public int getAvailableCopies() {
+        return copies.getAvailable();
+    }
+
+    /**
+     * Retrieves the number of copies currently on loan.
+     *
+     * @return The number of borrowed copies.
+     */
+    public int getBorrowedCopies() {
+        return copies.getTotal() - copies.getAvailable();
+    }
+
     /**
      * Checks the borrowing status of the book.
      *
-     * @return true if the book is borrowed, otherwise false.
+     * @return true if every copy of the book is borrowed, otherwise false.
      */
     public boolean isBorrowed() {
-        return isBorrowed;
+        return copies.getAvailable() == 0;
+    }
+
+    /**
+     * Retrieves the version stamp of the borrowed state, for optimistic concurrency control.
+     *
+     * @return The current version, odd while a transaction is committing changes to the book.
+     */
+    public long getVersion() {
+        return version.get();
     }
 
     /**
-     * Marks the book as borrowed.
-     * Throws an exception if the book is already borrowed.
+     * Marks one copy of the book as borrowed.
+     * Throws an exception if every copy is already borrowed.
      */
     public void borrow() {
-        if (!isBorrowed) {
-            isBorrowed = true;
-        } else {
+        if (!copies.tryAcquire()) {
             throw new IllegalStateException("Book is already borrowed!");
         }
+        version.addAndGet(2);
     }
 
     /**
-     * Marks the book as returned/not borrowed.
-     * Throws an exception if the book was not previously borrowed.
+     * Marks one copy of the book as returned/not borrowed.
+     * Throws an exception if no copy was previously borrowed.
      */
     public void returnBook() {
-        if (isBorrowed) {
-            isBorrowed = false;
-        } else {
+        if (!copies.tryRelease()) {
             throw new IllegalStateException("ac.il.bgu.qa.Book wasn't borrowed!");
         }
+        version.addAndGet(2);
+    }
+
+    // Claims the book for a committing transaction, if it is still at the version the transaction read.
+    boolean tryLock(long expectedVersion) {
+        return (expectedVersion & 1) == 0 && version.compareAndSet(expectedVersion, expectedVersion + 1);
+    }
+
+    // Releases the claim of a committing transaction.
+    void unlock() {
+        version.incrementAndGet();
     }
 }
@@ -1,26 +1,88 @@
 package ac.il.bgu.qa;
 
+import ac.il.bgu.qa.analytics.TrendingAnalytics;
 import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.feed.ChangeFeed;
+import ac.il.bgu.qa.feed.ChangeType;
+import ac.il.bgu.qa.index.AvailabilityIndex;
+import ac.il.bgu.qa.index.ExistenceFilter;
+import ac.il.bgu.qa.index.LoanIndex;
+import ac.il.bgu.qa.index.MultiVersionLoanStore;
+import ac.il.bgu.qa.loans.OverdueEngine;
+import ac.il.bgu.qa.loans.Waitlist;
 import ac.il.bgu.qa.services.DatabaseService;
 import ac.il.bgu.qa.services.ReviewService;
+import ac.il.bgu.qa.util.Hashing;
+import ac.il.bgu.qa.validation.InputValidator;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents a library which manages a collection of books and users.
  */
 public class Library {
 
+    // Number of locks ordering the changes of books, a power of two.
+    private static final int BOOK_LOCK_STRIPES = 64;
+
     // Service to interact with the database
     private final DatabaseService databaseService;
 
     // Service to fetch reviews for a book
     private final ReviewService reviewService;
 
+    // Index of the books each user currently holds, maintained on borrow and return
+    private final LoanIndex loanIndex = new LoanIndex();
+
+    // Bitmap of the borrowed state of every book added through this library, by dense ordinal
+    private final AvailabilityIndex availabilityIndex = new AvailabilityIndex();
+
+    // Locks striped by ISBN. A loan or return holds the lock of its book only while it updates the
+    // loan index, the availability bit and the version store, so they see the changes of a book in
+    // the order they happened. Database calls and notifications are made outside of it.
+    private final ReentrantLock[] bookLocks = new ReentrantLock[BOOK_LOCK_STRIPES];
+
+    // Loans being lent or returned right now, by encoded ISBN and user Id. A user's loan of a
+    // book is worked on by one operation at a time, without locking the book.
+    private final Set<String> loansInFlight = ConcurrentHashMap.newKeySet();
+
+    // Optional versioned copy of the borrowed state for snapshot reports, null when disabled
+    private volatile MultiVersionLoanStore versionStore;
+
+    // Optional store for lookups that may be slightly stale, e.g. read replicas, null to use the database
+    private volatile DatabaseService lookupDatabaseService;
+
+    // Optional negative lookup cache for ISBNs and user Ids, null when disabled
+    private volatile ExistenceFilter existenceFilter;
+
+    // Optional due date tracking of loans, null when disabled
+    private volatile OverdueEngine overdueEngine;
+
+    // Optional reservation queues of borrowed books, null when disabled
+    private volatile Waitlist waitlist;
+
+    // Optional feed of successful mutations for downstream consumers, null when disabled
+    private volatile ChangeFeed changeFeed;
+
+    // Checks the ISBNs, author names and user Ids given to the library
+    private volatile InputValidator inputValidator = new InputValidator();
+
+    // Optional streaming counts of the most borrowed and reviewed books, null when disabled
+    private volatile TrendingAnalytics trendingAnalytics;
+
+    // Whether routine errors are thrown without stack traces
+    private volatile boolean stacklessExceptions;
+
     // Constructor for Library, initializes both services
     public Library(DatabaseService databaseService, ReviewService reviewService) {
         this.databaseService = databaseService;
         this.reviewService = reviewService;
+        for (int i = 0; i < bookLocks.length; i++) {
+            bookLocks[i] = new ReentrantLock();
+        }
     }
 
     /**
@@ -43,11 +105,24 @@ public class Library {
         }
 
         // If book already exists in the database, throw exception
-        if (databaseService.getBookByISBN(book.getISBN()) != null)
+        if (findBook(book.getISBN()) != null)
             throw new IllegalArgumentException("Book already exists.");
 
         // If all checks pass, add the book to the database
         databaseService.addBook(book.getISBN(), book);
+        ExistenceFilter filter = existenceFilter;
+        if (filter != null) {
+            filter.addBook(book.getISBN());
+        }
+
+        // Assign the new book its ordinal in the availability index.
+        availabilityIndex.register(book.getISBN());
+        MultiVersionLoanStore store = versionStore;
+        if (store != null) {
+            store.registerBook(book.getISBN(), book.getTotalCopies());
+        }
+        reviewService.onBookAdded(book);
+        publish(ChangeType.BOOK_ADDED, book.getISBN(), null);
     }
 
     /**
@@ -57,40 +132,7 @@ public class Library {
      *  @return true if valid, false otherwise.
     */
     private boolean isISBNValid(String isbn) {
-        // Check if the ISBN is null, return false if it is
-        if (isbn == null) {
-            return false;
-        }
-
-        // Remove any hyphen characters from the ISBN for standardization
-        isbn = isbn.replaceAll("-", "");
-
-        // Check if the sanitized ISBN is of length 13 and if contains only digits
-        if (isbn.length() != 13 || !isbn.matches("\\d+")) {
-            return false;
-        }
-
-        // Calculate the sum based on the ISBN-13 rules:
-        // Odd position numbers are multiplied by 1
-        // Even position numbers are multiplied by 3
-        int sum = 0;
-        for (int i = 0; i < 12; i++) {
-            int digit = Integer.parseInt(String.valueOf(isbn.charAt(i)));
-            if (i % 2 == 0) {
-                sum += digit;
-            } else {
-                sum += digit * 3;
-            }
-        }
-
-        // Calculate the check digit
-        int checkDigit = 10 - (sum % 10);
-        if (checkDigit == 10) {
-            checkDigit = 0;
-        }
-
-        // Check if the calculated check digit matches the last digit of the ISBN
-        return checkDigit == Integer.parseInt(String.valueOf(isbn.charAt(12)));
+        return inputValidator.isValidISBN(isbn);
     }
     // shoval
     /**
@@ -100,42 +142,7 @@ public class Library {
      *  @return true if valid, false otherwise.
     */
     private boolean isAuthorValid(String name) {
-        /*
-         * Three key criteria for a valid author name:
-         * 1) The name should only consist of alphabetic characters, hyphens, spaces, dots, and apostrophes.
-         * 2) The name should start and end with an alphabetic character.
-         * 3) The name should not contain consecutive special characters like "--" or "''".
-         */
-
-        // If the name is null or empty, it's invalid.
-        if (name == null || name.isEmpty()) {
-            return false;
-        }
-
-        // Ensure the name starts and finishes with an alphabetic character.
-        if (!Character.isLetter(name.charAt(0)) || !Character.isLetter(name.charAt(name.length() - 1))) {
-            return false;
-        }
-
-        // Check the content of the name for valid characters and consecutive special characters.
-        for (int i = 0; i < name.length() - 1; i++) {
-            char current = name.charAt(i);
-            char next = name.charAt(i + 1);
-
-            // Check if the current character is not one of the valid characters.
-            if (!Character.isLetter(current) && current != '-' && current != ' ' && current != '\'' && current != '.') {
-                return false;
-            }
-
-            // Check for consecutive special characters.
-            if ((current == '-' && next == '-')
-                    || (current == '\'' && next == '\'')) {
-                return false;
-            }
-        }
-
-        // If all checks have passed, the author name is valid.
-        return true;
+        return inputValidator.isValidAuthor(name);
     }
 
     // shoval
@@ -148,7 +155,7 @@ public class Library {
         // Multiple checks to validate the user object's properties.
         if (user == null) {
             throw new IllegalArgumentException("Invalid user.");
-        } else if (user.getId() == null || !user.getId().matches("\\d{12}")) {
+        } else if (!inputValidator.isValidUserId(user.getId())) {
             throw new IllegalArgumentException("Invalid user Id.");
         } else if (user.getName() == null || user.getName().equals("")) {
             throw new IllegalArgumentException("Invalid user name.");
@@ -158,11 +165,98 @@ public class Library {
 
         // Before registering, check if a user with the given Id already exists.
         // If such a user is found, throw an exception.
-        if (databaseService.getUserById(user.getId()) != null)
+        if (findUser(user.getId()) != null)
             throw new IllegalArgumentException("User already exists.");
 
         // If all checks have passed, call the database service to register the user.
         databaseService.registerUser(user.getId(), user);
+        ExistenceFilter filter = existenceFilter;
+        if (filter != null) {
+            filter.addUser(user.getId());
+        }
+        publish(ChangeType.USER_REGISTERED, null, user.getId());
+    }
+
+    /**
+     * Installs the validator of the ISBNs, author names and user Ids given to the library, e.g. one
+     * that memoizes author checks during a bulk load.
+     *
+     * @param inputValidator The validator to use.
+     */
+    public void setInputValidator(InputValidator inputValidator) {
+        if (inputValidator == null) {
+            throw new IllegalArgumentException("Invalid input validator.");
+        }
+        this.inputValidator = inputValidator;
+    }
+
+    /**
+     * Installs a negative lookup cache, so that unknown ISBNs and user Ids are rejected without
+     * a database round-trip. The filter must already hold every key of the database.
+     *
+     * @param existenceFilter The filter to use, or null to always ask the database.
+     */
+    public void setExistenceFilter(ExistenceFilter existenceFilter) {
+        this.existenceFilter = existenceFilter;
+    }
+
+    /**
+     * Installs a store for lookups that don't need the latest state, such as the reviews sent to
+     * a user, e.g. the read replicas of the database. Borrowing and returning books, the borrowed
+     * check of {@link #getBookByISBN}, and the duplicate checks of adding books and users, keep
+     * using the database.
+     *
+     * @param lookupDatabaseService The store to use, or null to always ask the database.
+     */
+    public void setLookupDatabaseService(DatabaseService lookupDatabaseService) {
+        this.lookupDatabaseService = lookupDatabaseService;
+    }
+
+    // Looks up a book for a read that may be stale. A book the lookup store doesn't know yet may
+    // have just been added, so it is looked up in the database too.
+    private Book findBookForRead(String ISBN) {
+        DatabaseService lookup = lookupDatabaseService;
+        if (lookup == null) {
+            return findBook(ISBN);
+        }
+        ExistenceFilter filter = existenceFilter;
+        if (filter != null && !filter.mightContainBook(ISBN)) {
+            return null;
+        }
+        Book book = lookup.getBookByISBN(ISBN);
+        return book != null ? book : databaseService.getBookByISBN(ISBN);
+    }
+
+    // Looks up a user for a read that may be stale, falling back to the database like books do.
+    private User findUserForRead(String userId) {
+        DatabaseService lookup = lookupDatabaseService;
+        if (lookup == null) {
+            return findUser(userId);
+        }
+        ExistenceFilter filter = existenceFilter;
+        if (filter != null && !filter.mightContainUser(userId)) {
+            return null;
+        }
+        User user = lookup.getUserById(userId);
+        return user != null ? user : databaseService.getUserById(userId);
+    }
+
+    // Looks up a book, skipping the database when the existence filter rules the ISBN out.
+    private Book findBook(String ISBN) {
+        ExistenceFilter filter = existenceFilter;
+        if (filter != null && !filter.mightContainBook(ISBN)) {
+            return null;
+        }
+        return databaseService.getBookByISBN(ISBN);
+    }
+
+    // Looks up a user, skipping the database when the existence filter rules the Id out.
+    private User findUser(String userId) {
+        ExistenceFilter filter = existenceFilter;
+        if (filter != null && !filter.mightContainUser(userId)) {
+            return null;
+        }
+        return databaseService.getUserById(userId);
     }
 
 
@@ -173,81 +267,918 @@ public class Library {
      * @param userId The Id of the user borrowing the book.
      */
     public void borrowBook(String ISBN, String userId) {
+        LoanStatus status = tryBorrow(ISBN, userId);
+        if (status != LoanStatus.SUCCESS) {
+            throw failureOf(status);
+        }
+    }
 
-        // Validate the ISBN. If it's invalid, throw an exception.
+    /**
+     * Borrows a book for a user without throwing on routine outcomes.
+     * Performs the same checks, in the same order, as {@link #borrowBook(String, String)}.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user borrowing the book.
+     * @return SUCCESS if the book was borrowed, otherwise the reason it wasn't.
+     */
+    public LoanStatus tryBorrow(String ISBN, String userId) {
+
+        // Validate the ISBN. If it's invalid, report it.
         if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
+            return LoanStatus.INVALID_ISBN;
         }
 
         // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+        Book book = findBook(ISBN);
 
-        // If no book is found for the given ISBN, throw an exception.
+        // If no book is found for the given ISBN, report it.
         if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            return LoanStatus.BOOK_NOT_FOUND;
         }
 
         // Validate the user Id's format (should be a 12-digit number).
-        // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
+        if (!inputValidator.isValidUserId(userId)) {
+            return LoanStatus.INVALID_USER_ID;
         }
 
         // Check if the user Id's corresponds to a registered user in the database.
-        // If not, throw an exception indicating the user is not registered.
-        if (databaseService.getUserById(userId) == null) {
-            throw new UserNotRegisteredException("User not found!");
+        User user = findUser(userId);
+        if (user == null) {
+            return LoanStatus.USER_NOT_REGISTERED;
         }
 
-        // If the book is already borrowed, throw an exception.
-        if (book.isBorrowed()) {
-            throw new BookAlreadyBorrowedException("Book is already borrowed!");
+        // A loan of the book to the user already in progress counts as held.
+        if (!claimLoan(ISBN, userId)) {
+            return LoanStatus.BOOK_ALREADY_BORROWED;
+        }
+        try {
+            // If the user already holds a copy, or every copy of the book is borrowed, report it.
+            // A copy freed while users are waiting is held for them.
+            Waitlist waitlist = this.waitlist;
+            if (loanIndex.holds(ISBN, userId) || book.isBorrowed()
+                    || (waitlist != null && waitlist.hasWaiters(ISBN))) {
+                return LoanStatus.BOOK_ALREADY_BORROWED;
+            }
+
+            // Lend a copy. A concurrent checkout may have taken the last copy.
+            return lend(ISBN, book, userId, user) ? LoanStatus.SUCCESS : LoanStatus.BOOK_ALREADY_BORROWED;
+        } finally {
+            releaseClaim(ISBN, userId);
         }
+    }
+
+    // Claims the loan of a book by a user for the calling operation.
+    // Returns false if another operation is lending or returning it. The ISBN must be valid.
+    private boolean claimLoan(String ISBN, String userId) {
+        return loansInFlight.add(loanKey(ISBN, userId));
+    }
+
+    private void releaseClaim(String ISBN, String userId) {
+        loansInFlight.remove(loanKey(ISBN, userId));
+    }
+
+    private static String loanKey(String ISBN, String userId) {
+        return LoanIndex.encodeISBN(ISBN) + ":" + userId;
+    }
+
+    // Finds the lock ordering the index updates of a book. Spellings of an ISBN with and without
+    // hyphens share a lock. The ISBN must be valid.
+    private ReentrantLock bookLock(String ISBN) {
+        return bookLocks[bookLockIndex(ISBN)];
+    }
 
-        // Mark the book as borrowed.
-        book.borrow();
+    private static int bookLockIndex(String ISBN) {
+        return (int) Hashing.mix64(LoanIndex.encodeISBN(ISBN)) & (BOOK_LOCK_STRIPES - 1);
+    }
+
+    // Marks one copy of a book as borrowed by a user and records the loan.
+    // Returns false if no copy was left. Must hold the claim of the loan.
+    private boolean lend(String ISBN, Book book, String userId, User user) {
+        // Record the holder first, so that a return without a user doesn't give the copy back
+        // before its holder is known.
+        loanIndex.recordLoan(ISBN, userId);
+
+        // Mark one copy of the book as borrowed.
+        try {
+            book.borrow();
+        } catch (IllegalStateException e) {
+            loanIndex.releaseLoan(ISBN, userId);
+            return false;
+        }
 
         // Record the borrowing transaction in the database by associating the book's ISBN with the user's Id.
-        databaseService.borrowBook(ISBN, userId);
+        // Stores that keep the copy counts themselves refuse the loan if their last copy is gone.
+        try {
+            databaseService.borrowBook(ISBN, userId);
+        } catch (IllegalStateException e) {
+            book.returnBook();
+            loanIndex.releaseLoan(ISBN, userId);
+            return false;
+        }
+        indexLoan(ISBN, book, userId, user);
+        return true;
+    }
+
+    // Updates the indexes, due dates and change feed after a loan was recorded in the loan index
+    // and the database. Must hold the claim of the loan.
+    private void indexLoan(String ISBN, Book book, String userId, User user) {
+        // The availability bit is set from the state of the book under its lock, so the last
+        // update of a book wins.
+        ReentrantLock lock = bookLock(ISBN);
+        lock.lock();
+        try {
+            availabilityIndex.setBorrowed(ISBN, book.isBorrowed());
+            MultiVersionLoanStore store = versionStore;
+            if (store != null) {
+                store.recordBorrow(ISBN, userId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        TrendingAnalytics analytics = trendingAnalytics;
+        if (analytics != null) {
+            analytics.recordBorrow(ISBN);
+        }
+
+        // Start the due date clock of the loan.
+        OverdueEngine engine = overdueEngine;
+        if (engine != null) {
+            engine.scheduleLoan(ISBN, book.getTitle(), user);
+        }
+        publish(ChangeType.BOOK_BORROWED, ISBN, userId);
+
+        // Readers of a book often look at the author's other books next, let the review service fetch ahead.
+        reviewService.onBookLent(book);
+    }
+
+    /**
+     * Reserves a book for a user. If a copy is available it is lent right away, otherwise the
+     * user joins the waitlist of the book and is lent the next returned copy, and notified, in
+     * turn. Requires a waitlist to be installed.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user reserving the book.
+     * @return SUCCESS if the book was lent, RESERVED if the user is waiting, otherwise the reason
+     *         the book couldn't be reserved.
+     */
+    public LoanStatus tryReserve(String ISBN, String userId) {
+        Waitlist waitlist = this.waitlist;
+        if (waitlist == null) {
+            throw new IllegalStateException("Reservations are not enabled!");
+        }
+
+        LoanStatus status = tryBorrow(ISBN, userId);
+        if (status != LoanStatus.BOOK_ALREADY_BORROWED || loanIndex.holds(ISBN, userId)) {
+            return status;
+        }
+
+        // Every copy is taken or held for earlier waiters, so join the queue.
+        waitlist.enqueue(ISBN, userId);
+
+        // A copy may have been returned before the user joined the queue.
+        Book book = findBook(ISBN);
+        if (book != null) {
+            handOver(ISBN, book, waitlist);
+        }
+        return LoanStatus.RESERVED;
+    }
+
+    /**
+     * Removes a user from the waitlist of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user.
+     * @return true if the user was waiting for the book, otherwise false.
+     */
+    public boolean cancelReservation(String ISBN, String userId) {
+        // Validate the ISBN. If it's invalid, throw an exception.
+        if (!isISBNValid(ISBN)) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+
+        // Validate the user Id format (should be a 12-digit number).
+        // If it's invalid, throw an exception.
+        if (!inputValidator.isValidUserId(userId)) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+
+        Waitlist waitlist = this.waitlist;
+        return waitlist != null && waitlist.cancel(ISBN, userId);
+    }
+
+    /**
+     * Installs reservation queues. Users can then reserve borrowed books, and returned copies are
+     * lent to waiting users in turn instead of being put back on the shelf.
+     *
+     * @param waitlist The waitlist to use, or null to disable reservations.
+     */
+    public void setWaitlist(Waitlist waitlist) {
+        this.waitlist = waitlist;
+    }
+
+    // Lends the free copies of a book to the users waiting for it, in queue order, and notifies them.
+    private void handOver(String ISBN, Book book, Waitlist waitlist) {
+        while (true) {
+            if (book.isBorrowed()) {
+                return;
+            }
+            String userId = waitlist.poll(ISBN);
+            if (userId == null) {
+                return;
+            }
+
+            // Skip users that are gone.
+            User user = findUser(userId);
+            if (user == null) {
+                continue;
+            }
+
+            // The user's own loan or return of the book may be in progress, keep them first in
+            // line then. Skip users that already hold a copy.
+            if (!claimLoan(ISBN, userId)) {
+                waitlist.requeueFirst(ISBN, userId);
+                return;
+            }
+            try {
+                if (loanIndex.holds(ISBN, userId)) {
+                    continue;
+                }
+
+                // A concurrent checkout may have taken the copy, keep the user first in line then.
+                if (!lend(ISBN, book, userId, user)) {
+                    waitlist.requeueFirst(ISBN, userId);
+                    return;
+                }
+            } finally {
+                releaseClaim(ISBN, userId);
+            }
+
+            // Notify once the loan is done, the notification service may be slow.
+            try {
+                user.sendNotification("The book '" + book.getTitle() + "' you reserved is now on loan to you.");
+            } catch (NotificationException e) {
+                System.err.println("Reservation notification failed for user " + userId + "!");
+            }
+        }
     }
 
     /**
      * Returns a previously borrowed book.
+     * If several users hold a copy of the book, the return is ambiguous and an IllegalStateException
+     * is thrown; use {@link #returnBook(String, String)} instead.
      *
      * @param ISBN The International Standard Book Number of the book.
      */
     public void returnBook(String ISBN) {
-        
-        // Validate the ISBN. If it's not valid, throw an exception.
+        LoanStatus status = tryReturn(ISBN);
+        if (status != LoanStatus.SUCCESS) {
+            throw failureOf(status);
+        }
+    }
+
+    /**
+     * Returns the copy of a book held by a given user.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user returning the book.
+     */
+    public void returnBook(String ISBN, String userId) {
+        LoanStatus status = tryReturn(ISBN, userId);
+        if (status != LoanStatus.SUCCESS) {
+            throw failureOf(status);
+        }
+    }
+
+    /**
+     * Returns a previously borrowed book without throwing on routine outcomes.
+     * Performs the same checks, in the same order, as {@link #returnBook(String)}.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return SUCCESS if the book was returned, otherwise the reason it wasn't.
+     */
+    public LoanStatus tryReturn(String ISBN) {
+        return returnCopy(ISBN, null, false);
+    }
+
+    /**
+     * Returns the copy of a book held by a given user without throwing on routine outcomes.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user returning the book.
+     * @return SUCCESS if the book was returned, otherwise the reason it wasn't.
+     */
+    public LoanStatus tryReturn(String ISBN, String userId) {
+        return returnCopy(ISBN, userId, true);
+    }
+
+    // Returns one copy of a book, on behalf of the given user when userGiven is set.
+    private LoanStatus returnCopy(String ISBN, String userId, boolean userGiven) {
+
+        // Validate the ISBN. If it's not valid, report it.
         if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
+            return LoanStatus.INVALID_ISBN;
         }
 
         // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+        Book book = findBook(ISBN);
 
-        // If no book is found for the given ISBN, throw a book not found exception.
+        // If no book is found for the given ISBN, report it.
         if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            return LoanStatus.BOOK_NOT_FOUND;
+        }
+
+        // Validate the user Id format (should be a 12-digit number), when one is given.
+        if (userGiven && !inputValidator.isValidUserId(userId)) {
+            return LoanStatus.INVALID_USER_ID;
+        }
+
+        // Check if any copy of the book is currently borrowed. If not, it means it was never borrowed
+        // or it has already been returned.
+        if (!book.isBorrowed() && book.getBorrowedCopies() == 0) {
+            return LoanStatus.BOOK_NOT_BORROWED;
+        }
+
+        // Find whose loan is closed. The user must hold a copy, and without a user the holder
+        // must be unambiguous.
+        List<String> holders = loanIndex.getBorrowers(ISBN);
+        if (userGiven && !holders.isEmpty() && !holders.contains(userId)) {
+            return LoanStatus.BOOK_NOT_BORROWED;
+        } else if (!userGiven && holders.size() > 1) {
+            return LoanStatus.AMBIGUOUS_RETURN;
+        }
+        String holder = userGiven ? userId : holders.isEmpty() ? null : holders.get(0);
+
+        // Only one operation closes a loan. A concurrent return of the same loan wins.
+        if (holder != null && !claimLoan(ISBN, holder)) {
+            return LoanStatus.BOOK_NOT_BORROWED;
+        }
+        try {
+            // The loan may have been closed since the holders were read.
+            if (holder != null && !holders.isEmpty() && !loanIndex.holds(ISBN, holder)) {
+                return LoanStatus.BOOK_NOT_BORROWED;
+            }
+
+            // Change the status of one copy to not borrowed. A concurrent return may have beaten us.
+            try {
+                book.returnBook();
+            } catch (IllegalStateException e) {
+                return LoanStatus.BOOK_NOT_BORROWED;
+            }
+
+            // Update the database to reflect the returned status of the book.
+            if (userGiven) {
+                databaseService.returnBook(ISBN, userId);
+            } else {
+                databaseService.returnBook(ISBN);
+            }
+
+            indexReturn(ISBN, book, holder);
+        } finally {
+            if (holder != null) {
+                releaseClaim(ISBN, holder);
+            }
+        }
+
+        // Pass the returned copy on to the next waiting user, if any.
+        Waitlist waitlist = this.waitlist;
+        if (waitlist != null) {
+            handOver(ISBN, book, waitlist);
+        }
+        return LoanStatus.SUCCESS;
+    }
+
+    // Updates the indexes, due dates and change feed after a return was recorded in the database.
+    // Must hold the claim of the loan, if the holder is known.
+    private void indexReturn(String ISBN, Book book, String holder) {
+        // Remove the loan from the per-user loan index.
+        ReentrantLock lock = bookLock(ISBN);
+        lock.lock();
+        try {
+            if (holder != null) {
+                loanIndex.releaseLoan(ISBN, holder);
+            }
+            availabilityIndex.setBorrowed(ISBN, book.isBorrowed());
+            MultiVersionLoanStore store = versionStore;
+            if (store != null) {
+                store.recordReturn(ISBN, holder);
+            }
+        } finally {
+            lock.unlock();
+        }
+        OverdueEngine engine = overdueEngine;
+        if (holder != null && engine != null) {
+            engine.cancelLoan(ISBN, holder);
+        }
+        publish(ChangeType.BOOK_RETURNED, ISBN, holder);
+    }
+
+    /**
+     * Installs a multi-version copy of the borrowed state, for reports that read a consistent
+     * snapshot while loans and returns continue. Like the existence filter, it must be installed
+     * before books are added, since it only knows the books added through this library.
+     *
+     * @param versionStore The store to keep up to date, or null to disable snapshots.
+     */
+    public void setMultiVersionStore(MultiVersionLoanStore versionStore) {
+        this.versionStore = versionStore;
+    }
+
+    /**
+     * Installs trending analytics, fed with every loan and every batch of reviews sent to a user.
+     *
+     * @param trendingAnalytics The analytics to feed, or null to stop feeding them.
+     */
+    public void setTrendingAnalytics(TrendingAnalytics trendingAnalytics) {
+        this.trendingAnalytics = trendingAnalytics;
+    }
+
+    /**
+     * Installs a change feed. Every successful addition, registration, loan and return made
+     * through this library is published to it, in the order the mutations completed.
+     *
+     * @param changeFeed The feed to publish to, or null to stop publishing.
+     */
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    // Publishes a completed mutation to the change feed, if one is installed.
+    private void publish(ChangeType type, String ISBN, String userId) {
+        ChangeFeed feed = changeFeed;
+        if (feed != null) {
+            feed.publish(type, ISBN, userId);
+        }
+    }
+
+    /**
+     * Installs due date tracking. Loans made from now on get a due date, and their borrowers are
+     * reminded before it and notified once the loan is overdue.
+     *
+     * @param overdueEngine The engine to use, or null to stop tracking new loans.
+     */
+    public void setOverdueEngine(OverdueEngine overdueEngine) {
+        this.overdueEngine = overdueEngine;
+    }
+
+    /**
+     * Starts a transaction that borrows and returns several books atomically.
+     *
+     * @return A new, empty transaction.
+     */
+    public Transaction beginTransaction() {
+        return new Transaction();
+    }
+
+    /**
+     * A batch of borrow and return operations applied all together or not at all.
+     * Operations are buffered until commit. Committing validates every operation against the
+     * current state and remembers the version stamp of each book, then claims the books in ISBN
+     * order by moving them from the version it read to a locked version. If any book changed in
+     * between, the claim fails and the commit starts over, up to a bounded number of attempts.
+     * Claims never wait, so transactions don't deadlock, and transactions on different books
+     * never block each other. Single loans and returns don't wait for claims either: copies to
+     * borrow are taken first, and a copy taken by a single loan in the meantime makes the commit
+     * start over. Returned copies are given back only once the database has recorded every
+     * operation, so undoing a commit never has to take a copy back.
+     * Stores that keep the copy counts themselves return a detached copy of a book on every
+     * lookup, so a claim can't see their loans; their refusal of a loan also makes the commit
+     * start over.
+     * Each book may appear in a transaction only once.
+     */
+    public final class Transaction {
+
+        // Number of times a commit is attempted before giving up on conflicts.
+        private static final int MAX_ATTEMPTS = 32;
+
+        /**
+         * A buffered operation, with the state read by the current commit attempt.
+         */
+        private final class Operation {
+            final boolean borrow;
+            final String ISBN;
+            final String userId;
+            Book book;
+            User user;
+            long version;
+
+            Operation(boolean borrow, String ISBN, String userId) {
+                this.borrow = borrow;
+                this.ISBN = ISBN;
+                this.userId = userId;
+            }
+        }
+
+        // The buffered operations, in the order they were added.
+        private final List<Operation> operations = new ArrayList<>();
+        // Whether commit was already called.
+        private boolean committed;
+        // Index of the operation that made the commit fail, or -1.
+        private int failedOperation = -1;
+        // Number of commit attempts made.
+        private int attempts;
+
+        private Transaction() {
+        }
+
+        /**
+         * Adds the loan of a book to a user to the transaction.
+         *
+         * @param ISBN   The International Standard Book Number of the book.
+         * @param userId The Id of the user borrowing the book.
+         * @return This transaction.
+         */
+        public Transaction borrow(String ISBN, String userId) {
+            return add(new Operation(true, ISBN, userId));
+        }
+
+        /**
+         * Adds the return of the copy of a book held by a user to the transaction.
+         *
+         * @param ISBN   The International Standard Book Number of the book.
+         * @param userId The Id of the user returning the book.
+         * @return This transaction.
+         */
+        public Transaction returnBook(String ISBN, String userId) {
+            return add(new Operation(false, ISBN, userId));
+        }
+
+        /**
+         * Applies every operation of the transaction, or none of them.
+         *
+         * @throws IllegalArgumentException     If an ISBN or user Id is invalid.
+         * @throws BookNotFoundException        If a book doesn't exist.
+         * @throws UserNotRegisteredException   If a user isn't registered.
+         * @throws BookAlreadyBorrowedException If a book to borrow isn't available.
+         * @throws BookNotBorrowedException     If a book to return isn't borrowed by the user.
+         * @throws IllegalStateException        If the transaction kept conflicting with concurrent updates.
+         */
+        public void commit() {
+            LoanStatus status = tryCommit();
+            if (status != LoanStatus.SUCCESS) {
+                throw failureOf(status);
+            }
+        }
+
+        /**
+         * Applies every operation of the transaction, or none of them, without throwing on routine outcomes.
+         *
+         * @return SUCCESS if every operation was applied, otherwise the reason nothing was.
+         */
+        public LoanStatus tryCommit() {
+            if (committed) {
+                throw new IllegalStateException("Transaction already committed!");
+            }
+            committed = true;
+
+            // Claim the books in a global order, so that transactions sharing books don't keep
+            // invalidating each other's claims.
+            List<Operation> lockOrder = new ArrayList<>(operations);
+            lockOrder.sort(Comparator.comparing(operation -> operation.ISBN));
+
+            while (attempts < MAX_ATTEMPTS) {
+                attempts++;
+                LoanStatus status = read();
+                if (status == LoanStatus.SUCCESS && apply(lockOrder)) {
+                    return LoanStatus.SUCCESS;
+                } else if (status != LoanStatus.SUCCESS && status != LoanStatus.CONFLICT) {
+                    return status;
+                }
+                backOff();
+            }
+            return LoanStatus.CONFLICT;
+        }
+
+        /**
+         * Retrieves the operation that made the commit fail.
+         *
+         * @return The zero-based index of the operation, in the order it was added, or -1.
+         */
+        public int getFailedOperation() {
+            return failedOperation;
+        }
+
+        /**
+         * Counts the commit attempts made, including the successful one.
+         *
+         * @return The number of attempts.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        private Transaction add(Operation operation) {
+            if (committed) {
+                throw new IllegalStateException("Transaction already committed!");
+            }
+            for (Operation other : operations) {
+                if (other.ISBN != null && other.ISBN.equals(operation.ISBN)) {
+                    throw new IllegalArgumentException("Book already in transaction.");
+                }
+            }
+            operations.add(operation);
+            return this;
+        }
+
+        // Validates every operation against the current state, in the same order as the single
+        // operations do, and remembers the version each decision was based on.
+        private LoanStatus read() {
+            for (int i = 0; i < operations.size(); i++) {
+                LoanStatus status = read(operations.get(i));
+                if (status != LoanStatus.SUCCESS) {
+                    failedOperation = status == LoanStatus.CONFLICT ? -1 : i;
+                    return status;
+                }
+            }
+            failedOperation = -1;
+            return LoanStatus.SUCCESS;
+        }
+
+        private LoanStatus read(Operation operation) {
+            if (!isISBNValid(operation.ISBN)) {
+                return LoanStatus.INVALID_ISBN;
+            }
+            operation.book = findBook(operation.ISBN);
+            if (operation.book == null) {
+                return LoanStatus.BOOK_NOT_FOUND;
+            }
+            if (!inputValidator.isValidUserId(operation.userId)) {
+                return LoanStatus.INVALID_USER_ID;
+            }
+            if (operation.borrow) {
+                operation.user = findUser(operation.userId);
+                if (operation.user == null) {
+                    return LoanStatus.USER_NOT_REGISTERED;
+                }
+            }
+
+            // Read the version before the state, so that any later change is caught at commit.
+            operation.version = operation.book.getVersion();
+            if ((operation.version & 1) != 0) {
+                // Another transaction is committing to this book right now.
+                return LoanStatus.CONFLICT;
+            }
+
+            if (operation.borrow) {
+                Waitlist waitlist = Library.this.waitlist;
+                if (loanIndex.holds(operation.ISBN, operation.userId) || operation.book.isBorrowed()
+                        || (waitlist != null && waitlist.hasWaiters(operation.ISBN))) {
+                    return LoanStatus.BOOK_ALREADY_BORROWED;
+                }
+            } else {
+                if (!operation.book.isBorrowed() && operation.book.getBorrowedCopies() == 0) {
+                    return LoanStatus.BOOK_NOT_BORROWED;
+                }
+                List<String> holders = loanIndex.getBorrowers(operation.ISBN);
+                if (!holders.isEmpty() && !holders.contains(operation.userId)) {
+                    return LoanStatus.BOOK_NOT_BORROWED;
+                }
+            }
+            return LoanStatus.SUCCESS;
+        }
+
+        // Claims the books and applies the operations. Returns false, with nothing applied, on a conflict.
+        private boolean apply(List<Operation> lockOrder) {
+            // Keep single operations on the same loans out until the indexes are updated.
+            int claimed = 0;
+            try {
+                for (Operation operation : operations) {
+                    if (!claimLoan(operation.ISBN, operation.userId)) {
+                        return false;
+                    }
+                    claimed++;
+                }
+                if (!applyClaimed(lockOrder)) {
+                    return false;
+                }
+            } finally {
+                for (int i = 0; i < claimed; i++) {
+                    releaseClaim(operations.get(i).ISBN, operations.get(i).userId);
+                }
+            }
+
+            // Pass the returned copies on to waiting users, outside the claims.
+            Waitlist waitlist = Library.this.waitlist;
+            if (waitlist != null) {
+                for (Operation operation : operations) {
+                    if (!operation.borrow) {
+                        handOver(operation.ISBN, operation.book, waitlist);
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean applyClaimed(List<Operation> lockOrder) {
+            int locked = 0;
+            try {
+                for (Operation operation : lockOrder) {
+                    if (!operation.book.tryLock(operation.version)) {
+                        return false;
+                    }
+                    locked++;
+                }
+
+                // Take the copies to borrow first, recording their holders before. A single loan
+                // may have taken the last copy since it was read, start over then.
+                int taken = 0;
+                for (Operation operation : operations) {
+                    if (operation.borrow) {
+                        loanIndex.recordLoan(operation.ISBN, operation.userId);
+                        try {
+                            operation.book.borrow();
+                        } catch (IllegalStateException e) {
+                            loanIndex.releaseLoan(operation.ISBN, operation.userId);
+                            giveBack(taken);
+                            return false;
+                        }
+                    }
+                    taken++;
+                }
+
+                // Then record the loans and the returns in the database, undoing the recorded ones
+                // if it fails. Stores that keep the copy counts themselves refuse a loan whose last
+                // copy is gone, which is a conflict like any other.
+                List<Operation> recorded = new ArrayList<>(operations.size());
+                try {
+                    for (Operation operation : recordOrder()) {
+                        if (operation.borrow) {
+                            databaseService.borrowBook(operation.ISBN, operation.userId);
+                        } else {
+                            databaseService.returnBook(operation.ISBN, operation.userId);
+                        }
+                        recorded.add(operation);
+                    }
+                } catch (IllegalStateException e) {
+                    undoDatabase(recorded);
+                    giveBack(taken);
+                    return false;
+                } catch (RuntimeException e) {
+                    undoDatabase(recorded);
+                    giveBack(taken);
+                    throw e;
+                }
+
+                // Only now give the returned copies back. The claims of their loans keep other
+                // returns of them out, so they are still borrowed.
+                for (Operation operation : operations) {
+                    if (!operation.borrow) {
+                        try {
+                            operation.book.returnBook();
+                        } catch (IllegalStateException e) {
+                            System.err.println("Copy of book " + operation.ISBN + " was already returned!");
+                        }
+                    }
+                }
+            } finally {
+                for (int i = 0; i < locked; i++) {
+                    lockOrder.get(i).book.unlock();
+                }
+            }
+
+            for (Operation operation : operations) {
+                if (operation.borrow) {
+                    indexLoan(operation.ISBN, operation.book, operation.userId, operation.user);
+                } else {
+                    indexReturn(operation.ISBN, operation.book, operation.userId);
+                }
+            }
+            return true;
+        }
+
+        // Records the loans before the returns, so that a refused loan needs no return undone.
+        private List<Operation> recordOrder() {
+            List<Operation> order = new ArrayList<>(operations.size());
+            for (Operation operation : operations) {
+                if (operation.borrow) {
+                    order.add(operation);
+                }
+            }
+            for (Operation operation : operations) {
+                if (!operation.borrow) {
+                    order.add(operation);
+                }
+            }
+            return order;
+        }
+
+        // Gives back the copies taken by the first count operations.
+        private void giveBack(int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                Operation operation = operations.get(i);
+                if (operation.borrow) {
+                    operation.book.returnBook();
+                    loanIndex.releaseLoan(operation.ISBN, operation.userId);
+                }
+            }
         }
 
-        // Check if the book is currently borrowed. If not, it means it was never borrowed
-        // or it has already been returned, therefore throw an exception.
-        if (!book.isBorrowed()) {
-            throw new BookNotBorrowedException("Book wasn't borrowed!");
+        private void undoDatabase(List<Operation> recorded) {
+            for (int i = recorded.size() - 1; i >= 0; i--) {
+                Operation operation = recorded.get(i);
+                try {
+                    if (operation.borrow) {
+                        databaseService.returnBook(operation.ISBN, operation.userId);
+                    } else {
+                        databaseService.borrowBook(operation.ISBN, operation.userId);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to undo transaction operation on book " + operation.ISBN + "!");
+                }
+            }
         }
 
-        // Change the status of the book to not borrowed.
-        book.returnBook();
+        private void backOff() {
+            if (attempts < 4) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(1000L << Math.min(attempts, 16));
+            }
+        }
+    }
 
-        // Update the database to reflect the returned status of the book.
-        databaseService.returnBook(ISBN);
+    /**
+     * Makes the routine error types thrown by this library stackless.
+     * Filling in a stack trace is the main cost of an exception, and outcomes such as an already
+     * borrowed book are expected under load, so their stack traces carry little information.
+     *
+     * @param stacklessExceptions true to throw exceptions without stack traces.
+     */
+    public void setStacklessExceptions(boolean stacklessExceptions) {
+        this.stacklessExceptions = stacklessExceptions;
+    }
+
+    // Maps a failed loan status to the exception thrown by the throwing API.
+    private RuntimeException failureOf(LoanStatus status) {
+        boolean writableStackTrace = !stacklessExceptions;
+        switch (status) {
+            case INVALID_ISBN:
+                return new IllegalArgumentException("Invalid ISBN.");
+            case INVALID_USER_ID:
+                return new IllegalArgumentException("Invalid user Id.");
+            case BOOK_NOT_FOUND:
+                return new BookNotFoundException("Book not found!", writableStackTrace);
+            case USER_NOT_REGISTERED:
+                return new UserNotRegisteredException("User not found!", writableStackTrace);
+            case BOOK_ALREADY_BORROWED:
+                return new BookAlreadyBorrowedException("Book is already borrowed!", writableStackTrace);
+            case BOOK_NOT_BORROWED:
+                return new BookNotBorrowedException("Book wasn't borrowed!", writableStackTrace);
+            case AMBIGUOUS_RETURN:
+                return new IllegalStateException("Book is borrowed by several users!");
+            case CONFLICT:
+                return new IllegalStateException("Transaction kept conflicting with concurrent updates!");
+            default:
+                throw new IllegalArgumentException("Not a failure status: " + status);
+        }
+    }
+
+    /**
+     * Retrieves the books a user currently holds through this library.
+     *
+     * @param userId The Id of the user.
+     * @return The ISBNs (without hyphens) of the books on loan to the user.
+     */
+    public List<String> getBooksBorrowedBy(String userId) {
+        // Validate the user Id format (should be a 12-digit number).
+        // If it's invalid, throw an exception.
+        if (!inputValidator.isValidUserId(userId)) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+
+        return loanIndex.getBooksBorrowedBy(userId);
+    }
+
+    /**
+     * Retrieves the user currently holding a book borrowed through this library.
+     * For a book with several copies on loan, this is one of its borrowers.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the borrower or null if the book is not on loan.
+     */
+    public String getBorrower(String ISBN) {
+        // Validate the ISBN. If it's invalid, throw an exception.
+        if (!isISBNValid(ISBN)) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+
+        return loanIndex.getBorrower(ISBN);
+    }
+
+    /**
+     * Retrieves the index of available books, for counts, rank/select and scans over the catalog.
+     *
+     * @return The availability index of this library.
+     */
+    public AvailabilityIndex getAvailabilityIndex() {
+        return availabilityIndex;
     }
 
 
     // shoval
     /**
      * Notifies a user with the reviews of a specified book.
+     * A failed notification is retried up to 5 times, unless the notification service shed it as
+     * overloaded, in which case its {@link NotificationServiceOverloadedException} is thrown right away.
      *
      * @param ISBN The ISBN of the book whose reviews are to be sent.
      * @param userId The Id of the user to whom the reviews are to be sent.
@@ -261,24 +1192,24 @@ public class Library {
 
         // Validate the user Id format (should be a 12-digit number).
         // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
+        if (!inputValidator.isValidUserId(userId)) {
             throw new IllegalArgumentException("Invalid user Id.");
         }
 
         // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+        Book book = findBookForRead(ISBN);
 
         // If no book is found for the given ISBN, throw a book not found exception.
         if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            throw new BookNotFoundException("Book not found!", !stacklessExceptions);
         }
 
         // Retrieve the user associated with the user Id from the database.
-        User user = databaseService.getUserById(userId);
+        User user = findUserForRead(userId);
 
         // If the user is not found in the database, throw an exception.
         if (user == null) {
-            throw new UserNotRegisteredException("User not found!");
+            throw new UserNotRegisteredException("User not found!", !stacklessExceptions);
         }
 
         // Fetch the list of reviews for the specified book using the review service.
@@ -288,16 +1219,21 @@ public class Library {
 
             // If no reviews are found or the review list is empty, throw an exception.
             if (reviews == null || reviews.isEmpty()) {
-                throw new NoReviewsFoundException("No reviews found!");
+                throw new NoReviewsFoundException("No reviews found!", !stacklessExceptions);
             }
         } catch (ReviewException e) {
             // If there's an issue fetching the reviews, throw a service unavailable exception.
-            throw new ReviewServiceUnavailableException("Review service unavailable!");
+            throw new ReviewServiceUnavailableException("Review service unavailable!", !stacklessExceptions);
         } finally {
             // Always close the review service connection after attempting to fetch the reviews.
             reviewService.close();
         }
 
+        TrendingAnalytics analytics = trendingAnalytics;
+        if (analytics != null) {
+            analytics.recordReviews(ISBN, reviews.size());
+        }
+
         // Construct the notification message containing the book's title and its reviews.
         String notificationMessage = "Reviews for '" + book.getTitle() + "':\n" + String.join("\n", reviews);
 
@@ -307,6 +1243,10 @@ public class Library {
             try {
                 user.sendNotification(notificationMessage);
                 return;
+            } catch (NotificationServiceOverloadedException e) {
+                // Retrying a shed notification right away would only add to the overload.
+                System.err.println("Notification service overloaded! Not retrying.");
+                throw e;
             } catch (NotificationException e) {
                 retryCount++;
                 System.err.println("Notification failed! Retrying attempt " + retryCount + "/5");
@@ -314,7 +1254,7 @@ public class Library {
         }
 
         // If all retry attempts fail, throw a notification exception.
-        throw new NotificationException("Notification failed!");
+        throw new NotificationException("Notification failed!", !stacklessExceptions);
     }
 
     // shoval
@@ -333,21 +1273,21 @@ public class Library {
 
         // Validate the user Id format (should be a 12-digit number). 
         // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
+        if (!inputValidator.isValidUserId(userId)) {
             throw new IllegalArgumentException("Invalid user Id.");
         }
 
         // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+        Book book = findBook(ISBN);
 
         // If no book is found for the given ISBN, throw a book not found exception.
         if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            throw new BookNotFoundException("Book not found!", !stacklessExceptions);
         }
 
         // If the book is already borrowed, throw an exception.
         if (book.isBorrowed()) {
-            throw new BookAlreadyBorrowedException("Book was already borrowed!");
+            throw new BookAlreadyBorrowedException("Book was already borrowed!", !stacklessExceptions);
         }
 
         // Attempt to notify the user with the book's reviews.
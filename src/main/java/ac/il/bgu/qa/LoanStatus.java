@@ -0,0 +1,27 @@
+package ac.il.bgu.qa;
+
+/**
+ * Represents the outcome of a borrow, return or reservation attempt made through the non-throwing library API.
+ */
+public enum LoanStatus {
+    // The operation was performed.
+    SUCCESS,
+    // The ISBN is not a valid ISBN-13.
+    INVALID_ISBN,
+    // No book exists for the ISBN.
+    BOOK_NOT_FOUND,
+    // The user Id is not a 12-digit number.
+    INVALID_USER_ID,
+    // No user is registered with the user Id.
+    USER_NOT_REGISTERED,
+    // The book is already borrowed.
+    BOOK_ALREADY_BORROWED,
+    // The book is not borrowed, so it can't be returned.
+    BOOK_NOT_BORROWED,
+    // Several users hold a copy of the book, so the returning user must be given.
+    AMBIGUOUS_RETURN,
+    // Every copy is on loan, so the user was added to the waitlist of the book.
+    RESERVED,
+    // A transaction kept conflicting with concurrent updates of its books and gave up.
+    CONFLICT
+}
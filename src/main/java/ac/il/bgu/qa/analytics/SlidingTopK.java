@@ -0,0 +1,148 @@
+package ac.il.bgu.qa.analytics;
+
+import ac.il.bgu.qa.util.CountMinSketch;
+import ac.il.bgu.qa.util.SpaceSaving;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Approximate top-N of the most frequent keys over a sliding time window, in fixed memory.
+ * The window is split into buckets. Each bucket has a Count-Min sketch for frequency estimates
+ * and a Space-Saving tracker for candidate heavy hitters, and the oldest bucket is recycled as
+ * time moves on. A query gathers the candidates of the live buckets and ranks them by the sum of
+ * their sketch estimates, whose error bounds add up likewise.
+ */
+public class SlidingTopK {
+
+    /**
+     * The counts of one slice of the window.
+     */
+    private static final class Bucket {
+        final CountMinSketch sketch;
+        final SpaceSaving candidates;
+        // The slice of time the bucket currently counts, -1 if never used.
+        volatile long epoch = -1;
+
+        Bucket(CountMinSketch sketch, SpaceSaving candidates) {
+            this.sketch = sketch;
+            this.candidates = candidates;
+        }
+    }
+
+    // Source of the current time.
+    private final Clock clock;
+    // Length of the slice of time counted by a bucket, in milliseconds.
+    private final long bucketMillis;
+    // The buckets, used round-robin.
+    private final Bucket[] buckets;
+
+    /**
+     * Constructs a new SlidingTopK.
+     *
+     * @param clock       The source of the current time.
+     * @param window      The length of the sliding window.
+     * @param bucketCount The number of buckets the window is split into.
+     * @param capacity    The number of candidate keys tracked per bucket.
+     * @param epsilon     The relative error bound of the sketches.
+     * @param confidence  The confidence of the sketch error bound.
+     */
+    public SlidingTopK(Clock clock, Duration window, int bucketCount, int capacity, double epsilon, double confidence) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Invalid clock.");
+        } else if (bucketCount <= 0) {
+            throw new IllegalArgumentException("Invalid bucket count.");
+        } else if (window == null || window.toMillis() < bucketCount) {
+            throw new IllegalArgumentException("Invalid window.");
+        }
+        this.clock = clock;
+        this.bucketMillis = window.toMillis() / bucketCount;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket(new CountMinSketch(epsilon, confidence), new SpaceSaving(capacity));
+        }
+    }
+
+    /**
+     * Counts occurrences of a key at the current time.
+     *
+     * @param key   The key to count.
+     * @param count The number of occurrences.
+     */
+    public void add(String key, long count) {
+        Bucket bucket = current();
+        bucket.sketch.add(key, count);
+        bucket.candidates.add(key, count);
+    }
+
+    /**
+     * Estimates how often a key was counted during the window.
+     *
+     * @param key The key to look up.
+     * @return The estimate and its error bound.
+     */
+    public TrendingEntry estimate(String key) {
+        long oldest = epochOf(clock.millis()) - buckets.length + 1;
+        long estimate = 0;
+        long errorBound = 0;
+        for (Bucket bucket : buckets) {
+            if (bucket.epoch >= oldest) {
+                estimate += bucket.sketch.estimate(key);
+                errorBound += bucket.sketch.getErrorBound();
+            }
+        }
+        return new TrendingEntry(key, estimate, errorBound);
+    }
+
+    /**
+     * Lists the keys counted most often during the window.
+     *
+     * @param limit The maximum number of keys to list.
+     * @return The keys with their estimated counts, highest first.
+     */
+    public List<TrendingEntry> top(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit.");
+        }
+        long oldest = epochOf(clock.millis()) - buckets.length + 1;
+        Set<String> keys = new HashSet<>();
+        for (Bucket bucket : buckets) {
+            if (bucket.epoch >= oldest) {
+                for (SpaceSaving.Counter counter : bucket.candidates.top(bucket.candidates.getCapacity())) {
+                    keys.add(counter.getKey());
+                }
+            }
+        }
+        List<TrendingEntry> entries = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            entries.add(estimate(key));
+        }
+        entries.sort(Comparator.comparingLong(TrendingEntry::getEstimate).reversed());
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    // Finds the bucket of the current slice, recycling it if it still holds an older slice.
+    private Bucket current() {
+        long epoch = epochOf(clock.millis());
+        Bucket bucket = buckets[(int) Math.floorMod(epoch, (long) buckets.length)];
+        if (bucket.epoch != epoch) {
+            synchronized (bucket) {
+                if (bucket.epoch < epoch) {
+                    bucket.sketch.clear();
+                    bucket.candidates.clear();
+                    bucket.epoch = epoch;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private long epochOf(long millis) {
+        return Math.floorDiv(millis, bucketMillis);
+    }
+}
@@ -0,0 +1,74 @@
+package ac.il.bgu.qa.analytics;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Live "trending titles" of a library: the most borrowed and the most reviewed books over a
+ * sliding time window, estimated in fixed memory from the library's traffic.
+ */
+public class TrendingAnalytics {
+
+    // Relative error bound of the sketches, as a fraction of the window's total count.
+    private static final double EPSILON = 0.001;
+    // Confidence of the sketch error bound.
+    private static final double CONFIDENCE = 0.99;
+
+    // Loans per book.
+    private final SlidingTopK borrows;
+    // Reviews sent per book.
+    private final SlidingTopK reviews;
+
+    /**
+     * Constructs a new TrendingAnalytics.
+     *
+     * @param clock       The source of the current time.
+     * @param window      The length of the sliding window.
+     * @param bucketCount The number of buckets the window is split into, its granularity.
+     * @param capacity    The number of candidate books tracked per bucket.
+     */
+    public TrendingAnalytics(Clock clock, Duration window, int bucketCount, int capacity) {
+        this.borrows = new SlidingTopK(clock, window, bucketCount, capacity, EPSILON, CONFIDENCE);
+        this.reviews = new SlidingTopK(clock, window, bucketCount, capacity, EPSILON, CONFIDENCE);
+    }
+
+    /**
+     * Counts a loan of a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     */
+    public void recordBorrow(String ISBN) {
+        borrows.add(ISBN, 1);
+    }
+
+    /**
+     * Counts reviews of a book sent to a user.
+     *
+     * @param ISBN        The International Standard Book Number of the book.
+     * @param reviewCount The number of reviews sent.
+     */
+    public void recordReviews(String ISBN, int reviewCount) {
+        reviews.add(ISBN, reviewCount);
+    }
+
+    /**
+     * Lists the most borrowed books of the window.
+     *
+     * @param limit The maximum number of books to list.
+     * @return The books with their estimated loan counts, highest first.
+     */
+    public List<TrendingEntry> getMostBorrowed(int limit) {
+        return borrows.top(limit);
+    }
+
+    /**
+     * Lists the most reviewed books of the window.
+     *
+     * @param limit The maximum number of books to list.
+     * @return The books with their estimated review counts, highest first.
+     */
+    public List<TrendingEntry> getMostReviewed(int limit) {
+        return reviews.top(limit);
+    }
+}
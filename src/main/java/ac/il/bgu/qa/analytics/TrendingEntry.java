@@ -0,0 +1,70 @@
+package ac.il.bgu.qa.analytics;
+
+/**
+ * An approximate count of a book over a sliding window, with its error bound.
+ * The true count lies between {@link #getLowerBound()} and {@link #getEstimate()}, the upper
+ * bound holding always and the lower bound with the confidence of the underlying sketches.
+ */
+public final class TrendingEntry {
+
+    // The ISBN of the book.
+    private final String ISBN;
+    // The estimated count, never lower than the true count.
+    private final long estimate;
+    // The maximum overcount of the estimate.
+    private final long errorBound;
+
+    /**
+     * Constructs a new TrendingEntry.
+     *
+     * @param ISBN       The ISBN of the book.
+     * @param estimate   The estimated count.
+     * @param errorBound The maximum overcount of the estimate.
+     */
+    public TrendingEntry(String ISBN, long estimate, long errorBound) {
+        this.ISBN = ISBN;
+        this.estimate = estimate;
+        this.errorBound = errorBound;
+    }
+
+    /**
+     * Retrieves the ISBN of the book.
+     *
+     * @return The book's ISBN.
+     */
+    public String getISBN() {
+        return ISBN;
+    }
+
+    /**
+     * Retrieves the estimated count.
+     *
+     * @return The estimate, an upper bound of the true count.
+     */
+    public long getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * Retrieves the maximum overcount of the estimate.
+     *
+     * @return The error bound.
+     */
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * Retrieves the lowest possible true count.
+     *
+     * @return The estimate minus the error bound, at least zero.
+     */
+    public long getLowerBound() {
+        return Math.max(0, estimate - errorBound);
+    }
+
+    @Override
+    public String toString() {
+        return ISBN + "=" + estimate + "±" + errorBound;
+    }
+}
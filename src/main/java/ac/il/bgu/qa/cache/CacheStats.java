@@ -0,0 +1,69 @@
+package ac.il.bgu.qa.cache;
+
+/**
+ * An immutable snapshot of the counters of a cache.
+ */
+public class CacheStats {
+    // Number of lookups answered from the cache.
+    private final long hitCount;
+    // Number of lookups that had to go to the backing store.
+    private final long missCount;
+    // Number of entries dropped to respect the capacity bound.
+    private final long evictionCount;
+
+    /**
+     * Constructs a new CacheStats object.
+     *
+     * @param hitCount      The number of cache hits.
+     * @param missCount     The number of cache misses.
+     * @param evictionCount The number of evictions.
+     */
+    public CacheStats(long hitCount, long missCount, long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * Retrieves the number of cache hits.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Retrieves the number of cache misses.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Retrieves the number of evictions.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Computes the share of lookups answered from the cache.
+     *
+     * @return The hit ratio, or 1.0 if there were no lookups.
+     */
+    public double getHitRatio() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+                + ", hitRatio=" + getHitRatio() + "}";
+    }
+}
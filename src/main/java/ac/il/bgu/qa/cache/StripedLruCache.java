@@ -0,0 +1,228 @@
+package ac.il.bgu.qa.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A bounded, thread-safe LRU cache split into independently locked stripes.
+ * Keys are spread over the stripes by hash, so threads working on different keys rarely contend.
+ * Null values are never cached.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the cached values.
+ */
+public class StripedLruCache<K, V> {
+
+    /**
+     * One independently locked LRU segment of the cache.
+     */
+    private final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+        // The cached entries, least recently used first.
+        final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+        // Incremented on every invalidation, so that loads racing with a write can be discarded.
+        long generation;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        // Caches a value, evicting the least recently used entry if the stripe is full.
+        void put(K key, V value) {
+            entries.put(key, value);
+            if (entries.size() > capacity) {
+                Iterator<K> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    // The stripes of the cache, a power of two in number.
+    private final List<Stripe> stripes;
+    // Counters behind the hit-ratio metrics.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a cache with two stripes per available processor, rounded to a power of two.
+     *
+     * @param capacity The maximum number of entries held by the cache.
+     */
+    public StripedLruCache(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Constructs a cache with the given number of stripes, rounded to a power of two.
+     *
+     * @param capacity    The maximum number of entries held by the cache.
+     * @param stripeCount The desired number of stripes.
+     */
+    public StripedLruCache(int capacity, int stripeCount) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity.");
+        } else if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Invalid stripe count.");
+        }
+        // Every stripe must be able to hold at least one entry.
+        int count = 1;
+        while (count < stripeCount && count * 2 <= capacity) {
+            count <<= 1;
+        }
+        stripes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // Spread the capacity so that the stripes add up to the requested bound.
+            stripes.add(new Stripe(capacity / count + (i < capacity % count ? 1 : 0)));
+        }
+    }
+
+    /**
+     * Retrieves a cached value.
+     *
+     * @param key The key to look up.
+     * @return The cached value or null if the key is not cached.
+     */
+    public V getIfPresent(K key) {
+        Stripe stripe = stripeFor(key);
+        V value;
+        stripe.lock.lock();
+        try {
+            value = stripe.entries.get(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    /**
+     * Retrieves a cached value, loading and caching it on a miss.
+     * The loader runs outside the stripe lock. If the key is invalidated while the loader runs,
+     * the loaded value is returned but not cached, since it may already be stale.
+     *
+     * @param key    The key to look up.
+     * @param loader Loads the value from the backing store, may return null.
+     * @return The cached or loaded value, or null if the loader found nothing.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Stripe stripe = stripeFor(key);
+        long generation;
+        stripe.lock.lock();
+        try {
+            V value = stripe.entries.get(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            generation = stripe.generation;
+        } finally {
+            stripe.lock.unlock();
+        }
+        misses.increment();
+        V loaded = loader.apply(key);
+        if (loaded != null) {
+            stripe.lock.lock();
+            try {
+                if (stripe.generation == generation) {
+                    stripe.put(key, loaded);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Caches a value, replacing any previous one.
+     *
+     * @param key   The key of the value.
+     * @param value The value to cache, ignored if null.
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            invalidate(key);
+            return;
+        }
+        Stripe stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            stripe.put(key, value);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the cached value of a key.
+     *
+     * @param key The key to drop.
+     */
+    public void invalidate(K key) {
+        Stripe stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            stripe.generation++;
+            stripe.entries.remove(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every cached value.
+     */
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.generation++;
+                stripe.entries.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Counts the cached entries.
+     *
+     * @return The number of entries currently cached.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.entries.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Takes a snapshot of the cache counters.
+     *
+     * @return The current hit, miss and eviction counts.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private Stripe stripeFor(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return stripes.get(h & (stripes.size() - 1));
+    }
+}
@@ -14,4 +14,14 @@ public class NotificationException extends RuntimeException {
     public NotificationException(String message) {
         super(message);
     }
+
+    /**
+     * Constructs a new NotificationException with the specified detail message, optionally without a stack trace.
+     *
+     * @param message            the detail message.
+     * @param writableStackTrace whether the stack trace should be filled in.
+     */
+    public NotificationException(String message, boolean writableStackTrace) {
+        super(message, null, true, writableStackTrace);
+    }
 }
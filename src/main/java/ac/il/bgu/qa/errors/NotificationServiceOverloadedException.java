@@ -0,0 +1,27 @@
+package ac.il.bgu.qa.errors;
+
+/**
+ * Represents a custom exception that is thrown when a notification is shed because the
+ * notification service is overloaded. Retrying right away would only add to the load.
+ */
+public class NotificationServiceOverloadedException extends NotificationException {
+
+    /**
+     * Constructs a new NotificationServiceOverloadedException with the specified detail message.
+     *
+     * @param message the detail message.
+     */
+    public NotificationServiceOverloadedException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new NotificationServiceOverloadedException with the specified detail message, optionally without a stack trace.
+     *
+     * @param message            the detail message.
+     * @param writableStackTrace whether the stack trace should be filled in.
+     */
+    public NotificationServiceOverloadedException(String message, boolean writableStackTrace) {
+        super(message, writableStackTrace);
+    }
+}
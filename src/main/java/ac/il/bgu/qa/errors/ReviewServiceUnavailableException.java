@@ -14,4 +14,14 @@ public class ReviewServiceUnavailableException extends RuntimeException {
     public ReviewServiceUnavailableException(String message) {
         super(message);
     }
+
+    /**
+     * Constructs a new ReviewServiceUnavailableException with the specified detail message, optionally without a stack trace.
+     *
+     * @param message            the detail message.
+     * @param writableStackTrace whether the stack trace should be filled in.
+     */
+    public ReviewServiceUnavailableException(String message, boolean writableStackTrace) {
+        super(message, null, true, writableStackTrace);
+    }
 }
@@ -0,0 +1,54 @@
+package ac.il.bgu.qa.feed;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Parks waiting consumers on a condition. Uses no CPU while idle, at the cost of wake-up latency.
+ * Producers only take the lock when a consumer is actually waiting.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    // Guards the condition.
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when new events are published.
+    private final Condition published = lock.newCondition();
+    // Whether a consumer may be parked on the condition.
+    private final AtomicBoolean signalNeeded = new AtomicBoolean();
+
+    @Override
+    public long waitFor(long sequence, LongSupplier cursor) throws InterruptedException {
+        long available = cursor.getAsLong();
+        if (available >= sequence) {
+            return available;
+        }
+        lock.lock();
+        try {
+            while ((available = cursor.getAsLong()) < sequence) {
+                signalNeeded.set(true);
+                // Check again, a producer may have published before seeing the flag.
+                if ((available = cursor.getAsLong()) >= sequence) {
+                    break;
+                }
+                published.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return available;
+    }
+
+    @Override
+    public void signalAll() {
+        if (signalNeeded.get() && signalNeeded.getAndSet(false)) {
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
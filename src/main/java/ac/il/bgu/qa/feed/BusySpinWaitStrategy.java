@@ -0,0 +1,25 @@
+package ac.il.bgu.qa.feed;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Spins on the cursor. Lowest latency, but keeps a core busy per waiting consumer.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public long waitFor(long sequence, LongSupplier cursor) throws InterruptedException {
+        long available;
+        while ((available = cursor.getAsLong()) < sequence) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Thread.onSpinWait();
+        }
+        return available;
+    }
+
+    @Override
+    public void signalAll() {
+    }
+}
@@ -0,0 +1,64 @@
+package ac.il.bgu.qa.feed;
+
+/**
+ * A slot of the {@link ChangeFeed} ring buffer describing one library mutation.
+ * Events are preallocated and reused once every consumer has moved past them, so handlers must
+ * copy out whatever they want to keep.
+ */
+public final class ChangeEvent {
+
+    // The position of the event in the feed.
+    private long sequence;
+    // The kind of mutation.
+    private ChangeType type;
+    // The ISBN of the book involved, or null.
+    private String ISBN;
+    // The Id of the user involved, or null.
+    private String userId;
+
+    ChangeEvent() {
+    }
+
+    void set(long sequence, ChangeType type, String ISBN, String userId) {
+        this.sequence = sequence;
+        this.type = type;
+        this.ISBN = ISBN;
+        this.userId = userId;
+    }
+
+    /**
+     * Retrieves the position of the event in the feed.
+     *
+     * @return The sequence number, starting at 0.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Retrieves the kind of mutation.
+     *
+     * @return The change type.
+     */
+    public ChangeType getType() {
+        return type;
+    }
+
+    /**
+     * Retrieves the book involved in the mutation.
+     *
+     * @return The ISBN of the book, or null for user registrations.
+     */
+    public String getISBN() {
+        return ISBN;
+    }
+
+    /**
+     * Retrieves the user involved in the mutation.
+     *
+     * @return The Id of the user, or null if not known.
+     */
+    public String getUserId() {
+        return userId;
+    }
+}
@@ -0,0 +1,254 @@
+package ac.il.bgu.qa.feed;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A change-data-capture feed of library mutations, built on a preallocated single-writer ring buffer.
+ * One producer at a time is the writer: it takes the next sequence number, fills the preallocated
+ * {@link ChangeEvent} in place and then advances the cursor, so it allocates nothing and the cursor
+ * needs no atomic read-modify-write. Any number of {@link Consumer}s read the feed independently
+ * and in sequence order, in batches, up to the cursor. Producers never wait for consumers: a
+ * consumer still holding the event that the writer is about to overwrite is detached right away,
+ * so that a slow consumer can't stall the library mutations that publish.
+ */
+public class ChangeFeed {
+
+    // The preallocated events, one per slot.
+    private final ChangeEvent[] entries;
+    // Maps a sequence to its slot, the capacity is a power of two.
+    private final int mask;
+    // Makes one producer at a time the writer. Held only to fill a slot, never while waiting.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // The highest published sequence, -1 before the first publication. Only the writer sets it.
+    private final AtomicLong cursor = new AtomicLong(-1);
+    // Reads the cursor, shared with the wait strategy.
+    private final LongSupplier cursorReader = cursor::get;
+    // Decides how consumers wait for new events.
+    private final WaitStrategy waitStrategy;
+    // The registered consumers, which the writer must not lap.
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    // The lowest consumer sequence seen by the writer when it last checked, avoids rescanning the
+    // consumers. Guarded by the write lock.
+    private long cachedGatingSequence = -1;
+
+    /**
+     * Reads a {@link ChangeFeed} in sequence order, independently of other consumers.
+     * A consumer must only be used by one thread at a time. A consumer that falls a whole ring
+     * behind is detached, after which reading from it fails; the events of its last batch may
+     * already have been overwritten.
+     */
+    public final class Consumer implements AutoCloseable {
+
+        // The last sequence handled by this consumer.
+        private final AtomicLong sequence;
+        // Whether a producer detached the consumer for falling behind.
+        private volatile boolean detached;
+
+        private Consumer(long sequence) {
+            this.sequence = new AtomicLong(sequence);
+        }
+
+        /**
+         * Handles the events that are already available, without waiting.
+         *
+         * @param handler  The handler receiving the events.
+         * @param maxBatch The maximum number of events to handle.
+         * @return The number of events handled.
+         * @throws IllegalStateException If the consumer was detached for falling behind.
+         */
+        public int poll(ChangeHandler handler, int maxBatch) {
+            if (maxBatch <= 0) {
+                throw new IllegalArgumentException("Invalid batch size.");
+            }
+            checkAttached();
+            long next = sequence.get() + 1;
+            return handle(handler, next, Math.min(cursor.get(), next + maxBatch - 1));
+        }
+
+        /**
+         * Waits until at least one event is available, then handles the available events.
+         *
+         * @param handler  The handler receiving the events.
+         * @param maxBatch The maximum number of events to handle.
+         * @return The number of events handled, at least one.
+         * @throws InterruptedException  If the thread is interrupted while waiting.
+         * @throws IllegalStateException If the consumer was detached for falling behind.
+         */
+        public int take(ChangeHandler handler, int maxBatch) throws InterruptedException {
+            if (maxBatch <= 0) {
+                throw new IllegalArgumentException("Invalid batch size.");
+            }
+            checkAttached();
+            long next = sequence.get() + 1;
+            long available = waitStrategy.waitFor(next, cursorReader);
+            checkAttached();
+            return handle(handler, next, Math.min(available, next + maxBatch - 1));
+        }
+
+        /**
+         * Retrieves the position of this consumer.
+         *
+         * @return The sequence of the last handled event, -1 if none.
+         */
+        public long getSequence() {
+            return sequence.get();
+        }
+
+        /**
+         * Counts the events published but not yet handled by this consumer.
+         *
+         * @return The lag of the consumer.
+         */
+        public long getLag() {
+            return cursor.get() - sequence.get();
+        }
+
+        /**
+         * Checks whether a producer detached the consumer for falling behind.
+         *
+         * @return true if the consumer was detached, otherwise false.
+         */
+        public boolean isDetached() {
+            return detached;
+        }
+
+        /**
+         * Detaches the consumer from the feed, so that it no longer holds producers back.
+         */
+        @Override
+        public void close() {
+            consumers.remove(this);
+        }
+
+        private void checkAttached() {
+            if (detached) {
+                throw new IllegalStateException("Consumer fell behind and was detached!");
+            }
+        }
+
+        private int handle(ChangeHandler handler, long from, long to) {
+            for (long s = from; s <= to; s++) {
+                handler.onEvent(entries[(int) s & mask], s == to);
+            }
+            if (to >= from) {
+                // Only now may producers reuse the slots.
+                sequence.set(to);
+            }
+            return (int) (to - from + 1);
+        }
+    }
+
+    /**
+     * Constructs a new ChangeFeed.
+     *
+     * @param capacity     The number of slots of the ring buffer, a power of two. A consumer that
+     *                     falls this many events behind is detached.
+     * @param waitStrategy Decides how consumers wait for new events.
+     */
+    public ChangeFeed(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Invalid capacity.");
+        } else if (waitStrategy == null) {
+            throw new IllegalArgumentException("Invalid wait strategy.");
+        }
+        this.entries = new ChangeEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new ChangeEvent();
+        }
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Publishes a mutation. Safe to call from any number of threads, which take turns as the
+     * writer. Never waits for consumers.
+     *
+     * @param type   The kind of mutation.
+     * @param ISBN   The ISBN of the book involved, or null.
+     * @param userId The Id of the user involved, or null.
+     * @return The sequence number of the event.
+     */
+    public long publish(ChangeType type, String ISBN, String userId) {
+        long sequence;
+        writeLock.lock();
+        try {
+            sequence = cursor.get() + 1;
+
+            // Detach the consumers that haven't read the event the slot still holds.
+            long wrapPoint = sequence - entries.length;
+            if (wrapPoint > cachedGatingSequence) {
+                long gatingSequence = minimumConsumerSequence(sequence);
+                if (wrapPoint > gatingSequence) {
+                    detachConsumersBefore(wrapPoint);
+                    gatingSequence = minimumConsumerSequence(sequence);
+                }
+                cachedGatingSequence = gatingSequence;
+            }
+
+            entries[(int) sequence & mask].set(sequence, type, ISBN, userId);
+            // Consumers read up to the cursor, so it moves only once the event is in place.
+            cursor.set(sequence);
+        } finally {
+            writeLock.unlock();
+        }
+        waitStrategy.signalAll();
+        return sequence;
+    }
+
+    /**
+     * Registers a consumer that receives every event published from now on.
+     *
+     * @return The new consumer.
+     */
+    public Consumer newConsumer() {
+        // Register between two publications, so that the writer gates every later one on the consumer.
+        writeLock.lock();
+        try {
+            Consumer consumer = new Consumer(cursor.get());
+            consumers.add(consumer);
+            return consumer;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the highest sequence published.
+     *
+     * @return The sequence of the latest event, -1 if none was published.
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Retrieves the number of slots of the ring buffer.
+     *
+     * @return The capacity of the feed.
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    private void detachConsumersBefore(long wrapPoint) {
+        for (Consumer consumer : consumers) {
+            if (consumer.sequence.get() < wrapPoint) {
+                consumer.detached = true;
+                consumers.remove(consumer);
+                System.err.println("Detached a change feed consumer stuck at sequence " + consumer.sequence.get() + "!");
+            }
+        }
+    }
+
+    private long minimumConsumerSequence(long defaultValue) {
+        long minimum = defaultValue;
+        for (Consumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.sequence.get());
+        }
+        return minimum;
+    }
+}
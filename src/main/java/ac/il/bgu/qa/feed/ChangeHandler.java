@@ -0,0 +1,16 @@
+package ac.il.bgu.qa.feed;
+
+/**
+ * Receives the events of a {@link ChangeFeed}, batch by batch.
+ */
+@FunctionalInterface
+public interface ChangeHandler {
+
+    /**
+     * Handles one event.
+     *
+     * @param event      The event, only valid for the duration of the call.
+     * @param endOfBatch true for the last event of the current batch, e.g. to flush buffered work.
+     */
+    void onEvent(ChangeEvent event, boolean endOfBatch);
+}
@@ -0,0 +1,15 @@
+package ac.il.bgu.qa.feed;
+
+/**
+ * Represents the kind of library mutation carried by a {@link ChangeEvent}.
+ */
+public enum ChangeType {
+    // A book was added to the collection.
+    BOOK_ADDED,
+    // A user was registered.
+    USER_REGISTERED,
+    // A copy of a book was lent to a user.
+    BOOK_BORROWED,
+    // A copy of a book was returned.
+    BOOK_RETURNED
+}
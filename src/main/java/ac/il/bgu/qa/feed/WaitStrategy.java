@@ -0,0 +1,25 @@
+package ac.il.bgu.qa.feed;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Decides how a consumer of a {@link ChangeFeed} waits for new events, trading latency for CPU.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until a sequence has been published.
+     *
+     * @param sequence The sequence to wait for.
+     * @param cursor   Supplies the highest published sequence.
+     * @return The highest published sequence, at least the given one.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    long waitFor(long sequence, LongSupplier cursor) throws InterruptedException;
+
+    /**
+     * Wakes up the consumers blocked in {@link #waitFor(long, LongSupplier)}.
+     * Called after every publication, so it must be cheap when nobody is waiting.
+     */
+    void signalAll();
+}
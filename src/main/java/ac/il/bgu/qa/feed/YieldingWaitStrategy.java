@@ -0,0 +1,34 @@
+package ac.il.bgu.qa.feed;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Spins for a while, then yields the processor between checks of the cursor.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    // Number of checks before the consumer starts yielding.
+    private static final int SPIN_TRIES = 100;
+
+    @Override
+    public long waitFor(long sequence, LongSupplier cursor) throws InterruptedException {
+        long available;
+        int tries = 0;
+        while ((available = cursor.getAsLong()) < sequence) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (tries < SPIN_TRIES) {
+                tries++;
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public void signalAll() {
+    }
+}
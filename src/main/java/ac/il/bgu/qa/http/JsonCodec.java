@@ -0,0 +1,279 @@
+package ac.il.bgu.qa.http;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A minimal JSON codec for the flat objects exchanged by {@link LibraryHttpServer}.
+ * Encoding appends straight into a caller-supplied builder, and decoding makes a single pass
+ * over the text, only allocating the extracted keys and values. Nested objects and arrays are
+ * not supported on input.
+ */
+public final class JsonCodec {
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Appends the JSON form of a book.
+     *
+     * @param book The book to encode.
+     * @param out  The builder receiving the JSON.
+     * @return The given builder.
+     */
+    public static StringBuilder writeBook(Book book, StringBuilder out) {
+        out.append("{\"isbn\":");
+        writeString(book.getISBN(), out);
+        out.append(",\"title\":");
+        writeString(book.getTitle(), out);
+        out.append(",\"author\":");
+        writeString(book.getAuthor(), out);
+        out.append(",\"borrowed\":").append(book.isBorrowed());
+        out.append(",\"totalCopies\":").append(book.getTotalCopies());
+        out.append(",\"availableCopies\":").append(book.getAvailableCopies());
+        return out.append('}');
+    }
+
+    /**
+     * Appends the JSON form of a user. The notification service is not part of it.
+     *
+     * @param user The user to encode.
+     * @param out  The builder receiving the JSON.
+     * @return The given builder.
+     */
+    public static StringBuilder writeUser(User user, StringBuilder out) {
+        out.append("{\"id\":");
+        writeString(user.getId(), out);
+        out.append(",\"name\":");
+        writeString(user.getName(), out);
+        return out.append('}');
+    }
+
+    /**
+     * Appends a JSON object with a single string member.
+     *
+     * @param key   The name of the member.
+     * @param value The value of the member, may be null.
+     * @param out   The builder receiving the JSON.
+     * @return The given builder.
+     */
+    public static StringBuilder writeObject(String key, String value, StringBuilder out) {
+        out.append('{');
+        writeString(key, out);
+        out.append(':');
+        writeString(value, out);
+        return out.append('}');
+    }
+
+    /**
+     * Appends a JSON string literal, escaping as needed.
+     *
+     * @param value The string to encode, null is written as null.
+     * @param out   The builder receiving the JSON.
+     */
+    public static void writeString(String value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u00");
+                        out.append(Character.forDigit(c >> 4, 16));
+                        out.append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Parses a flat JSON object. String members are unescaped, other scalars are kept as their
+     * literal text, and null members are mapped to null.
+     *
+     * @param json The JSON text.
+     * @return The members of the object, by name.
+     */
+    public static Map<String, String> readObject(CharSequence json) {
+        Parser parser = new Parser(json);
+        Map<String, String> members = new HashMap<>();
+        parser.skipWhitespace();
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.position++;
+        } else {
+            while (true) {
+                parser.skipWhitespace();
+                String key = parser.readString();
+                parser.skipWhitespace();
+                parser.expect(':');
+                parser.skipWhitespace();
+                members.put(key, parser.readValue());
+                parser.skipWhitespace();
+                char c = parser.next();
+                if (c == '}') {
+                    break;
+                } else if (c != ',') {
+                    throw new IllegalArgumentException("Invalid JSON.");
+                }
+            }
+        }
+        parser.skipWhitespace();
+        if (parser.position != json.length()) {
+            throw new IllegalArgumentException("Invalid JSON.");
+        }
+        return members;
+    }
+
+    /**
+     * A cursor over JSON text.
+     */
+    private static final class Parser {
+        private final CharSequence text;
+        private int position;
+
+        Parser(CharSequence text) {
+            this.text = text;
+        }
+
+        char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("Invalid JSON.");
+            }
+            return text.charAt(position);
+        }
+
+        char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        void expect(char expected) {
+            if (next() != expected) {
+                throw new IllegalArgumentException("Invalid JSON.");
+            }
+        }
+
+        void skipWhitespace() {
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            } else if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("Invalid JSON.");
+            }
+            int start = position;
+            while (position < text.length()) {
+                c = text.charAt(position);
+                if (c == ',' || c == '}' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    break;
+                }
+                position++;
+            }
+            String literal = text.subSequence(start, position).toString();
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Invalid JSON.");
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        String readString() {
+            expect('"');
+            int start = position;
+            // Fast path: no escapes, a single substring.
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c == '"') {
+                    return text.subSequence(start, position++).toString();
+                } else if (c == '\\') {
+                    break;
+                }
+                position++;
+            }
+            StringBuilder value = new StringBuilder().append(text, start, position);
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                } else if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(c);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Invalid JSON.");
+                        }
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(text.charAt(position++), 16);
+                            if (digit < 0) {
+                                throw new IllegalArgumentException("Invalid JSON.");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        value.append((char) code);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid JSON.");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package ac.il.bgu.qa.http;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.LoanStatus;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.services.NotificationService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An optional embedded HTTP front-end for a {@link Library}, built on the JDK's HTTP server.
+ * Every request runs on its own virtual thread, so slow clients park cheaply instead of holding
+ * platform threads. Admission control caps the number of requests being processed at once; when
+ * the cap is reached, further requests are shed right away with 503 and a Retry-After header.
+ *
+ * <p>Endpoints, with JSON bodies:
+ * <ul>
+ *     <li>GET /books/{ISBN}?userId={userId} - looks the book up and notifies the user with its reviews.</li>
+ *     <li>POST /users {"id", "name"} - registers a user, notified through the server's notification service.</li>
+ *     <li>POST /books/{ISBN}/borrow {"userId"} - borrows the book.</li>
+ *     <li>POST /books/{ISBN}/return {"userId"} - returns the book, the user Id is optional.</li>
+ *     <li>POST /books/{ISBN}/notify {"userId"} - notifies the user with the reviews of the book.</li>
+ * </ul>
+ */
+public class LibraryHttpServer implements AutoCloseable {
+
+    // Largest accepted request body, in bytes.
+    private static final int MAX_BODY_SIZE = 16 * 1024;
+
+    // The library being served.
+    private final Library library;
+    // Notification service of the users registered over HTTP.
+    private final NotificationService notificationService;
+    // The underlying JDK server.
+    private final HttpServer server;
+    // Runs one virtual thread per request.
+    private final ExecutorService executor;
+    // Permits for the requests being processed.
+    private final Semaphore inFlight;
+    // Number of requests rejected by admission control.
+    private final AtomicLong shedCount = new AtomicLong();
+
+    /**
+     * Constructs a new LibraryHttpServer. The server doesn't accept requests until started.
+     *
+     * @param library             The library to serve.
+     * @param notificationService The notification service of users registered over HTTP.
+     * @param address             The address to bind to, port 0 for an ephemeral port.
+     * @param maxInFlight         The maximum number of requests processed at once.
+     * @throws IOException If the address can't be bound.
+     */
+    public LibraryHttpServer(Library library, NotificationService notificationService,
+                             InetSocketAddress address, int maxInFlight) throws IOException {
+        if (library == null) {
+            throw new IllegalArgumentException("Invalid library.");
+        } else if (notificationService == null) {
+            throw new IllegalArgumentException("Invalid notification service.");
+        } else if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid in-flight limit.");
+        }
+        this.library = library;
+        this.notificationService = notificationService;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        // A deep accept backlog, so that bursts of connections queue in the kernel.
+        this.server = HttpServer.create(address, 4096);
+        this.server.setExecutor(executor);
+        this.server.createContext("/books/", this::handleBooks);
+        this.server.createContext("/users", this::handleUsers);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Retrieves the port the server is bound to.
+     *
+     * @return The local port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Counts the requests rejected because the in-flight limit was reached.
+     *
+     * @return The number of shed requests.
+     */
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    /**
+     * Stops the server, giving exchanges in progress some time to finish.
+     *
+     * @param delaySeconds The maximum time to wait for exchanges in progress, in seconds.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Stops the server right away.
+     */
+    @Override
+    public void close() {
+        stop(0);
+    }
+
+    private void handleBooks(HttpExchange exchange) throws IOException {
+        admit(exchange, () -> {
+            // Path is /books/{ISBN} or /books/{ISBN}/{action}.
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            if (parts.length == 3 && exchange.getRequestMethod().equals("GET")) {
+                String userId = queryParameter(exchange, "userId");
+                Book book = library.getBookByISBN(parts[2], userId);
+                send(exchange, 200, JsonCodec.writeBook(book, new StringBuilder(128)));
+            } else if (parts.length == 4 && exchange.getRequestMethod().equals("POST")) {
+                String ISBN = parts[2];
+                Map<String, String> body = readBody(exchange);
+                String userId = body.get("userId");
+                switch (parts[3]) {
+                    case "borrow":
+                        sendStatus(exchange, library.tryBorrow(ISBN, userId));
+                        break;
+                    case "return":
+                        sendStatus(exchange, userId == null ? library.tryReturn(ISBN) : library.tryReturn(ISBN, userId));
+                        break;
+                    case "notify":
+                        library.notifyUserWithBookReviews(ISBN, userId);
+                        send(exchange, 204, null);
+                        break;
+                    default:
+                        sendError(exchange, 404, "Not found!");
+                }
+            } else {
+                sendError(exchange, 404, "Not found!");
+            }
+        });
+    }
+
+    private void handleUsers(HttpExchange exchange) throws IOException {
+        admit(exchange, () -> {
+            if (!exchange.getRequestURI().getPath().equals("/users") || !exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 404, "Not found!");
+                return;
+            }
+            Map<String, String> body = readBody(exchange);
+            User user = new User(body.get("name"), body.get("id"), notificationService);
+            library.registerUser(user);
+            send(exchange, 201, JsonCodec.writeUser(user, new StringBuilder(64)));
+        });
+    }
+
+    /**
+     * The work of an admitted request.
+     */
+    @FunctionalInterface
+    interface Handler {
+        void handle() throws IOException;
+    }
+
+    // Runs a request if a permit is free, otherwise sheds it. Library errors are mapped to statuses.
+    final void admit(HttpExchange exchange, Handler handler) throws IOException {
+        if (!inFlight.tryAcquire()) {
+            shedCount.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, "Server overloaded!");
+            exchange.close();
+            return;
+        }
+        try {
+            handler.handle();
+        } catch (IllegalArgumentException e) {
+            sendFailure(exchange, 400, e.getMessage());
+        } catch (BookNotFoundException | UserNotRegisteredException | NoReviewsFoundException e) {
+            sendFailure(exchange, 404, e.getMessage());
+        } catch (BookAlreadyBorrowedException | BookNotBorrowedException e) {
+            sendFailure(exchange, 409, e.getMessage());
+        } catch (NotificationException e) {
+            sendFailure(exchange, 502, e.getMessage());
+        } catch (ReviewServiceUnavailableException e) {
+            sendFailure(exchange, 503, e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Request failed: " + e);
+            sendFailure(exchange, 500, "Internal error!");
+        } finally {
+            inFlight.release();
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_SIZE + 1);
+            if (bytes.length > MAX_BODY_SIZE) {
+                throw new IllegalArgumentException("Request body too large.");
+            }
+            return bytes.length == 0 ? Map.of() : JsonCodec.readObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0 && pair.substring(0, separator).equals(name)) {
+                return URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void sendStatus(HttpExchange exchange, LoanStatus status) throws IOException {
+        int code;
+        switch (status) {
+            case SUCCESS:
+                code = 200;
+                break;
+            case INVALID_ISBN:
+            case INVALID_USER_ID:
+                code = 400;
+                break;
+            case BOOK_NOT_FOUND:
+            case USER_NOT_REGISTERED:
+                code = 404;
+                break;
+            default:
+                code = 409;
+        }
+        send(exchange, code, JsonCodec.writeObject("status", status.name(), new StringBuilder(32)));
+    }
+
+    // Sends the error status of a failed request, unless the handler already sent its response
+    // headers: they can't be sent twice, the client only sees the exchange closed then.
+    private static void sendFailure(HttpExchange exchange, int code, String message) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            System.err.println("Request failed after its response was sent: " + message);
+            return;
+        }
+        sendError(exchange, code, message);
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        send(exchange, code, JsonCodec.writeObject("error", message, new StringBuilder(64)));
+    }
+
+    private static void send(HttpExchange exchange, int code, CharSequence json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package ac.il.bgu.qa.index;
+
+import ac.il.bgu.qa.util.CompressedBitmap;
+import ac.il.bgu.qa.util.LongLongHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Tracks which books of the catalog are available, for constant time counts and fast scans.
+ * Every book gets a dense ordinal when it is registered, and the borrowed state of all books is
+ * kept in a compressed bitmap indexed by those ordinals. A book with several copies counts as
+ * borrowed once every copy is on loan.
+ */
+public class AvailabilityIndex {
+
+    // Marker for an ISBN that has no ordinal yet.
+    private static final long NO_ORDINAL = -1L;
+
+    // The ordinal of each book, keyed by the encoded ISBN.
+    private final LongLongHashMap ordinalByBook = new LongLongHashMap();
+    // The encoded ISBN of each ordinal.
+    private long[] bookByOrdinal = new long[16];
+    // Number of ordinals assigned so far.
+    private int bookCount;
+    // Ordinals of the books that are currently borrowed.
+    private final CompressedBitmap borrowed = new CompressedBitmap();
+    // Reports share the lock, registrations and state changes take it exclusively.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Assigns an ordinal to a book, if it doesn't have one yet.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The ordinal of the book.
+     */
+    public int register(String ISBN) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        lock.writeLock().lock();
+        try {
+            return ordinalOf(book);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the borrowed state of a book, registering the book if needed.
+     *
+     * @param ISBN     The International Standard Book Number of the book.
+     * @param borrowed true if the book is now borrowed, false if it is available.
+     */
+    public void setBorrowed(String ISBN, boolean borrowed) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        lock.writeLock().lock();
+        try {
+            int ordinal = ordinalOf(book);
+            if (borrowed) {
+                this.borrowed.add(ordinal);
+            } else {
+                this.borrowed.remove(ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a book is currently available.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return true if the book is registered and not borrowed, otherwise false.
+     */
+    public boolean isAvailable(String ISBN) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        lock.readLock().lock();
+        try {
+            long ordinal = ordinalByBook.get(book, NO_ORDINAL);
+            return ordinal != NO_ORDINAL && !borrowed.contains((int) ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the ordinal of a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The ordinal of the book or -1 if the book is not registered.
+     */
+    public int getOrdinal(String ISBN) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        lock.readLock().lock();
+        try {
+            return (int) ordinalByBook.get(book, NO_ORDINAL);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the book of an ordinal.
+     *
+     * @param ordinal The ordinal of the book.
+     * @return The ISBN (without hyphens) of the book.
+     */
+    public String getISBN(int ordinal) {
+        lock.readLock().lock();
+        try {
+            if (ordinal < 0 || ordinal >= bookCount) {
+                throw new IllegalArgumentException("Invalid ordinal.");
+            }
+            return LoanIndex.decodeISBN(bookByOrdinal[ordinal]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the registered books.
+     *
+     * @return The number of books in the index.
+     */
+    public int getBookCount() {
+        lock.readLock().lock();
+        try {
+            return bookCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the books that are currently available.
+     *
+     * @return The number of available books.
+     */
+    public int getAvailableCount() {
+        lock.readLock().lock();
+        try {
+            return bookCount - borrowed.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the books that are currently borrowed.
+     *
+     * @return The number of borrowed books.
+     */
+    public int getBorrowedCount() {
+        lock.readLock().lock();
+        try {
+            return borrowed.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the available books whose ordinal is lower than the given one.
+     *
+     * @param ordinal The ordinal to rank, exclusive.
+     * @return The number of available books before the ordinal.
+     */
+    public int rankAvailable(int ordinal) {
+        lock.readLock().lock();
+        try {
+            int bound = Math.min(Math.max(ordinal, 0), bookCount);
+            return bound - borrowed.rank(bound - 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the ordinal of the n-th available book, in ordinal order.
+     *
+     * @param index The zero-based position among the available books.
+     * @return The ordinal of the book or -1 if fewer books are available.
+     */
+    public int selectAvailable(int index) {
+        lock.readLock().lock();
+        try {
+            return selectAvailableLocked(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists a page of available books, in ordinal order.
+     *
+     * @param fromIndex The zero-based position of the first available book to list.
+     * @param limit     The maximum number of books to list.
+     * @return The ISBNs (without hyphens) of the listed books.
+     */
+    public List<String> listAvailable(int fromIndex, int limit) {
+        if (fromIndex < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid range.");
+        }
+        lock.readLock().lock();
+        try {
+            List<String> ISBNs = new ArrayList<>(Math.min(limit, 1024));
+            int ordinal = selectAvailableLocked(fromIndex);
+            while (ordinal >= 0 && ordinal < bookCount && ISBNs.size() < limit) {
+                ISBNs.add(LoanIndex.decodeISBN(bookByOrdinal[ordinal]));
+                ordinal = ordinal + 1 < bookCount ? borrowed.nextAbsent(ordinal + 1) : -1;
+            }
+            return ISBNs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes the ordinal of every available book, in ascending order, to the given consumer.
+     * The index is read-locked for the duration of the iteration.
+     *
+     * @param consumer The consumer receiving the ordinals.
+     */
+    public void forEachAvailable(IntConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            int ordinal = bookCount == 0 ? -1 : borrowed.nextAbsent(0);
+            while (ordinal >= 0 && ordinal < bookCount) {
+                consumer.accept(ordinal);
+                ordinal = ordinal + 1 < bookCount ? borrowed.nextAbsent(ordinal + 1) : -1;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Must be called while holding the read lock.
+    private int selectAvailableLocked(int index) {
+        if (index < 0 || index >= bookCount - borrowed.cardinality()) {
+            return -1;
+        }
+        // Skip whole chunks by their number of available books, then select inside the chunk.
+        int lastKey = (bookCount - 1) >>> 16;
+        for (int key = 0; key <= lastKey; key++) {
+            int chunkStart = key << 16;
+            int chunkSize = Math.min(bookCount - chunkStart, 1 << 16);
+            int available = chunkSize - borrowed.chunkCardinality((char) key);
+            if (index < available) {
+                return chunkStart | borrowed.selectAbsentInChunk((char) key, index);
+            }
+            index -= available;
+        }
+        return -1;
+    }
+
+    // Must be called while holding the write lock.
+    private int ordinalOf(long book) {
+        long ordinal = ordinalByBook.get(book, NO_ORDINAL);
+        if (ordinal != NO_ORDINAL) {
+            return (int) ordinal;
+        }
+        if (bookCount == bookByOrdinal.length) {
+            bookByOrdinal = Arrays.copyOf(bookByOrdinal, bookCount * 2);
+        }
+        bookByOrdinal[bookCount] = book;
+        ordinalByBook.put(book, bookCount);
+        return bookCount++;
+    }
+}
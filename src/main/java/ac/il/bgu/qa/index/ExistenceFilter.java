@@ -0,0 +1,137 @@
+package ac.il.bgu.qa.index;
+
+import ac.il.bgu.qa.util.BloomFilter;
+
+import java.util.function.Function;
+
+/**
+ * An in-process negative lookup cache for ISBNs and user Ids known to the database.
+ * A key the filter has never seen definitely doesn't exist in the store, so lookups for it can be
+ * answered without a round-trip. Keys that may exist still have to be confirmed by the store.
+ * <p>
+ * The filter has to be built from the store contents (see {@link #rebuild}) before it is used,
+ * otherwise every existing key would be reported as missing.
+ */
+public class ExistenceFilter {
+
+    /**
+     * Holds the filters for both key spaces, so that they can be swapped together.
+     */
+    private static final class Filters {
+        final BloomFilter books;
+        final BloomFilter users;
+
+        Filters(BloomFilter books, BloomFilter users) {
+            this.books = books;
+            this.users = users;
+        }
+    }
+
+    // Sizing configuration, reused on rebuild.
+    private final long expectedBooks;
+    private final long expectedUsers;
+    private final double fpp;
+
+    // The filters answering lookups.
+    private volatile Filters active;
+    // Filters being rebuilt, which must also see keys added during the rebuild.
+    private volatile Filters pending;
+
+    /**
+     * Constructs an empty existence filter.
+     *
+     * @param expectedBooks The number of books the filter is sized for.
+     * @param expectedUsers The number of users the filter is sized for.
+     * @param fpp           The desired false positive probability.
+     */
+    public ExistenceFilter(long expectedBooks, long expectedUsers, double fpp) {
+        this.expectedBooks = expectedBooks;
+        this.expectedUsers = expectedUsers;
+        this.fpp = fpp;
+        this.active = newFilters();
+    }
+
+    /**
+     * Records that a book exists in the store.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     */
+    public void addBook(String ISBN) {
+        add(ISBN, filters -> filters.books);
+    }
+
+    /**
+     * Records that a user exists in the store.
+     *
+     * @param userId The Id of the user.
+     */
+    public void addUser(String userId) {
+        add(userId, filters -> filters.users);
+    }
+
+    /**
+     * Checks whether a book may exist in the store.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return false if the book definitely doesn't exist, true if it may exist.
+     */
+    public boolean mightContainBook(String ISBN) {
+        return active.books.mightContain(ISBN);
+    }
+
+    /**
+     * Checks whether a user may exist in the store.
+     *
+     * @param userId The Id of the user.
+     * @return false if the user definitely doesn't exist, true if it may exist.
+     */
+    public boolean mightContainUser(String userId) {
+        return active.users.mightContain(userId);
+    }
+
+    /**
+     * Rebuilds the filter from a scan of the store, then replaces the current contents atomically.
+     * Keys added while the rebuild runs are kept. The scans must read the store during the call,
+     * so that a key added before the rebuild starts is either scanned or added to the new filters.
+     *
+     * @param ISBNs   Every ISBN in the store.
+     * @param userIds Every user Id in the store.
+     */
+    public synchronized void rebuild(Iterable<String> ISBNs, Iterable<String> userIds) {
+        Filters rebuilt = newFilters();
+        pending = rebuilt;
+        try {
+            for (String ISBN : ISBNs) {
+                rebuilt.books.add(ISBN);
+            }
+            for (String userId : userIds) {
+                rebuilt.users.add(userId);
+            }
+            active = rebuilt;
+        } finally {
+            pending = null;
+        }
+    }
+
+    // Adds a key to the active filters and to the filters being rebuilt. A rebuild may swap the
+    // active filters between the two, after which the key is added again to the new ones.
+    private void add(String key, Function<Filters, BloomFilter> keySpace) {
+        Filters filters = active;
+        while (true) {
+            keySpace.apply(filters).add(key);
+            Filters rebuilding = pending;
+            if (rebuilding != null) {
+                keySpace.apply(rebuilding).add(key);
+            }
+            Filters current = active;
+            if (current == filters) {
+                return;
+            }
+            filters = current;
+        }
+    }
+
+    private Filters newFilters() {
+        return new Filters(new BloomFilter(expectedBooks, fpp), new BloomFilter(expectedUsers, fpp));
+    }
+}
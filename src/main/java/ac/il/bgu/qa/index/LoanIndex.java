@@ -0,0 +1,367 @@
+package ac.il.bgu.qa.index;
+
+import ac.il.bgu.qa.util.LongHashSet;
+import ac.il.bgu.qa.util.LongLongHashMap;
+import ac.il.bgu.qa.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps track of the books each user currently holds.
+ * ISBNs and user Ids are numeric, so both are kept as primitive longs: each user is mapped to
+ * the set of ISBNs they hold, and each ISBN is mapped to its borrowers. Most books have a single
+ * borrower, which is kept inline; only titles with several copies on loan get a holder set.
+ */
+public class LoanIndex {
+
+    // Marker for a book without a borrower.
+    private static final long NO_BORROWER = -1L;
+
+    // The ISBNs held by each user, keyed by the encoded user Id.
+    private final LongObjectHashMap<LongHashSet> booksByUser = new LongObjectHashMap<>();
+    // The encoded user Id of the first borrower of each ISBN, keyed by the encoded ISBN.
+    private final LongLongHashMap borrowerByBook = new LongLongHashMap();
+    // The other borrowers of ISBNs with several copies on loan, keyed by the encoded ISBN.
+    private final LongObjectHashMap<LongHashSet> extraBorrowersByBook = new LongObjectHashMap<>();
+    // Number of loans in the index.
+    private int loanCount;
+    // Readers (dashboards, limit checks) share the lock, loans take it exclusively.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Records that a user has borrowed a copy of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the borrowed book.
+     * @param userId The Id of the user borrowing the book.
+     * @return true if the loan was recorded, false if the user already held a copy.
+     */
+    public boolean recordLoan(String ISBN, String userId) {
+        long book = encodeISBN(ISBN);
+        long user = encodeUserId(userId);
+        lock.writeLock().lock();
+        try {
+            long first = borrowerByBook.get(book, NO_BORROWER);
+            if (first == NO_BORROWER) {
+                borrowerByBook.put(book, user);
+            } else if (first == user) {
+                return false;
+            } else {
+                LongHashSet extra = extraBorrowersByBook.get(book);
+                if (extra == null) {
+                    extra = new LongHashSet();
+                    extraBorrowersByBook.put(book, extra);
+                }
+                if (!extra.add(user)) {
+                    return false;
+                }
+            }
+            LongHashSet books = booksByUser.get(user);
+            if (books == null) {
+                books = new LongHashSet();
+                booksByUser.put(user, books);
+            }
+            books.add(book);
+            loanCount++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the loan of a book held by a single user.
+     *
+     * @param ISBN The International Standard Book Number of the returned book.
+     * @return The Id of the user who held the book or null if the book was not on loan.
+     * @throws IllegalStateException If several users hold a copy of the book.
+     */
+    public String releaseLoan(String ISBN) {
+        long book = encodeISBN(ISBN);
+        lock.writeLock().lock();
+        try {
+            long user = borrowerByBook.get(book, NO_BORROWER);
+            if (user == NO_BORROWER) {
+                return null;
+            }
+            if (extraBorrowersByBook.get(book) != null) {
+                throw new IllegalStateException("Book is held by several users!");
+            }
+            unlink(book, user);
+            return decodeUserId(user);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the loan of a book to a given user.
+     *
+     * @param ISBN   The International Standard Book Number of the returned book.
+     * @param userId The Id of the user returning the book.
+     * @return true if the user held the book, otherwise false.
+     */
+    public boolean releaseLoan(String ISBN, String userId) {
+        long book = encodeISBN(ISBN);
+        long user = encodeUserId(userId);
+        lock.writeLock().lock();
+        try {
+            return unlink(book, user);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the books a user currently holds.
+     * Runs in time proportional to the number of loans of that user.
+     *
+     * @param userId The Id of the user.
+     * @return The normalized (hyphen-free) ISBNs held by the user, empty if there are none.
+     */
+    public List<String> getBooksBorrowedBy(String userId) {
+        long user = encodeUserId(userId);
+        lock.readLock().lock();
+        try {
+            LongHashSet books = booksByUser.get(user);
+            if (books == null) {
+                return Collections.emptyList();
+            }
+            List<String> ISBNs = new ArrayList<>(books.size());
+            books.forEach(book -> ISBNs.add(decodeISBN(book)));
+            return ISBNs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the books a user currently holds.
+     *
+     * @param userId The Id of the user.
+     * @return The number of books on loan to the user.
+     */
+    public int countBooksBorrowedBy(String userId) {
+        long user = encodeUserId(userId);
+        lock.readLock().lock();
+        try {
+            LongHashSet books = booksByUser.get(user);
+            return books == null ? 0 : books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves a current borrower of a book, one of them if several users hold a copy.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the borrower or null if the book is not on loan.
+     */
+    public String getBorrower(String ISBN) {
+        long book = encodeISBN(ISBN);
+        lock.readLock().lock();
+        try {
+            long user = borrowerByBook.get(book, NO_BORROWER);
+            return user == NO_BORROWER ? null : decodeUserId(user);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves every current borrower of a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the users holding a copy, empty if the book is not on loan.
+     */
+    public List<String> getBorrowers(String ISBN) {
+        long book = encodeISBN(ISBN);
+        lock.readLock().lock();
+        try {
+            long first = borrowerByBook.get(book, NO_BORROWER);
+            if (first == NO_BORROWER) {
+                return Collections.emptyList();
+            }
+            LongHashSet extra = extraBorrowersByBook.get(book);
+            List<String> userIds = new ArrayList<>(extra == null ? 1 : extra.size() + 1);
+            userIds.add(decodeUserId(first));
+            if (extra != null) {
+                extra.forEach(user -> userIds.add(decodeUserId(user)));
+            }
+            return userIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a user holds a copy of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user.
+     * @return true if the user holds a copy, otherwise false.
+     */
+    public boolean holds(String ISBN, String userId) {
+        long book = encodeISBN(ISBN);
+        long user = encodeUserId(userId);
+        lock.readLock().lock();
+        try {
+            LongHashSet books = booksByUser.get(user);
+            return books != null && books.contains(book);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes every loan of the index to the given consumer, in no particular order.
+     * The index is read-locked for the duration of the iteration.
+     *
+     * @param consumer Receives the normalized ISBN and the user Id of each loan.
+     */
+    public void forEachLoan(BiConsumer<String, String> consumer) {
+        lock.readLock().lock();
+        try {
+            booksByUser.forEach((user, books) -> {
+                String userId = decodeUserId(user);
+                books.forEach(book -> consumer.accept(decodeISBN(book), userId));
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts all loans in the index.
+     *
+     * @return The number of copies currently on loan.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return loanCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Must be called while holding the write lock.
+    private boolean unlink(long book, long user) {
+        long first = borrowerByBook.get(book, NO_BORROWER);
+        if (first == NO_BORROWER) {
+            return false;
+        }
+        LongHashSet extra = extraBorrowersByBook.get(book);
+        if (first == user) {
+            if (extra == null) {
+                borrowerByBook.remove(book);
+            } else {
+                // Promote another holder to the inline slot.
+                long next = extra.toArray()[0];
+                extra.remove(next);
+                borrowerByBook.put(book, next);
+                if (extra.isEmpty()) {
+                    extraBorrowersByBook.remove(book);
+                }
+            }
+        } else if (extra != null && extra.remove(user)) {
+            if (extra.isEmpty()) {
+                extraBorrowersByBook.remove(book);
+            }
+        } else {
+            return false;
+        }
+        LongHashSet books = booksByUser.get(user);
+        if (books != null) {
+            books.remove(book);
+            if (books.isEmpty()) {
+                booksByUser.remove(user);
+            }
+        }
+        loanCount--;
+        return true;
+    }
+
+    /**
+     * Encodes an ISBN-13, with or without hyphens, as a long.
+     *
+     * @param ISBN The International Standard Book Number.
+     * @return The numeric value of the ISBN.
+     */
+    public static long encodeISBN(String ISBN) {
+        if (ISBN == null) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < ISBN.length(); i++) {
+            char c = ISBN.charAt(i);
+            if (c == '-') {
+                continue;
+            }
+            if (c < '0' || c > '9' || ++digits > 13) {
+                throw new IllegalArgumentException("Invalid ISBN.");
+            }
+            value = value * 10 + (c - '0');
+        }
+        if (digits != 13) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a long produced by {@link #encodeISBN(String)} into a hyphen-free ISBN-13.
+     *
+     * @param value The numeric value of the ISBN.
+     * @return The 13 digit ISBN.
+     */
+    public static String decodeISBN(long value) {
+        return pad(value, 13);
+    }
+
+    /**
+     * Encodes a 12 digit user Id as a long.
+     *
+     * @param userId The Id of the user.
+     * @return The numeric value of the user Id.
+     */
+    public static long encodeUserId(String userId) {
+        if (userId == null || userId.length() != 12) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        long value = 0;
+        for (int i = 0; i < 12; i++) {
+            char c = userId.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid user Id.");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a long produced by {@link #encodeUserId(String)} into a 12 digit user Id.
+     *
+     * @param value The numeric value of the user Id.
+     * @return The 12 digit user Id.
+     */
+    public static String decodeUserId(long value) {
+        return pad(value, 12);
+    }
+
+    private static String pad(long value, int length) {
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,350 @@
+package ac.il.bgu.qa.index;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the borrowed state and loans of every book as a chain of immutable versions, so that
+ * reports can read a consistent point-in-time snapshot while loans and returns keep going.
+ * Each change installs a new version stamped with a global commit sequence; a snapshot sees, for
+ * every book, the newest version stamped at or before the sequence it was opened at. Versions
+ * that no open snapshot can see anymore are dropped as writers pass by and when snapshots close.
+ * Writers of different books never wait for each other: a version is published at the head of
+ * its chain before it is stamped, and a snapshot that meets an unstamped version waits for its
+ * writer to stamp it.
+ */
+public class MultiVersionLoanStore {
+
+    /**
+     * One immutable state of a book.
+     */
+    private static final class Version {
+        // The commit sequence, UNSTAMPED until the writer assigns it.
+        volatile long sequence;
+        final int totalCopies;
+        final int borrowedCopies;
+        // Ids of the users holding a copy, sorted.
+        final String[] holders;
+        // The previous state, null once no snapshot can see it.
+        volatile Version older;
+
+        Version(long sequence, int totalCopies, int borrowedCopies, String[] holders, Version older) {
+            this.sequence = sequence;
+            this.totalCopies = totalCopies;
+            this.borrowedCopies = borrowedCopies;
+            this.holders = holders;
+            this.older = older;
+        }
+    }
+
+    /**
+     * The versions of one book, newest first.
+     */
+    private static final class Chain {
+        volatile Version head;
+    }
+
+    /**
+     * Receives the state of a book seen by a snapshot.
+     */
+    @FunctionalInterface
+    public interface BookStateConsumer {
+        void accept(String ISBN, int totalCopies, int borrowedCopies, List<String> holders);
+    }
+
+    // Sequence of a version published but not stamped yet.
+    private static final long UNSTAMPED = -1;
+
+    // Version chains, keyed by ISBN.
+    private final Map<String, Chain> chains = new ConcurrentHashMap<>();
+    // The last assigned commit sequence.
+    private final AtomicLong clock = new AtomicLong();
+    // Number of snapshots being opened. Versions aren't dropped meanwhile, since the oldest
+    // open sequence may not include them yet.
+    private final AtomicInteger openingSnapshots = new AtomicInteger();
+    // Number of open snapshots per sequence, guarded by its own monitor.
+    private final TreeMap<Long, Integer> openSnapshots = new TreeMap<>();
+    // The sequence of the oldest open snapshot, Long.MAX_VALUE if none.
+    private volatile long oldestSnapshot = Long.MAX_VALUE;
+
+    /**
+     * Records a book that was added, with all its copies available.
+     *
+     * @param ISBN        The International Standard Book Number of the book.
+     * @param totalCopies The number of copies of the book.
+     */
+    public void registerBook(String ISBN, int totalCopies) {
+        install(ISBN, totalCopies, 0, null, null);
+    }
+
+    /**
+     * Records that a copy of a book was lent.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     */
+    public void recordBorrow(String ISBN, String userId) {
+        install(ISBN, -1, 1, userId, null);
+    }
+
+    /**
+     * Records that a copy of a book was returned. The changes of a book must be recorded in the
+     * order they happened, so a return always follows its loan. A return of a book with no copy
+     * recorded as borrowed, e.g. one lent before the store was installed, is ignored.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user who returned it, or null if not known.
+     */
+    public void recordReturn(String ISBN, String userId) {
+        install(ISBN, -1, -1, null, userId);
+    }
+
+    /**
+     * Opens a point-in-time view of every book. Must be closed, so that old versions can be dropped.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot openSnapshot() {
+        long sequence;
+        openingSnapshots.incrementAndGet();
+        try {
+            sequence = clock.get();
+            synchronized (openSnapshots) {
+                openSnapshots.merge(sequence, 1, Integer::sum);
+                oldestSnapshot = openSnapshots.firstKey();
+            }
+        } finally {
+            openingSnapshots.decrementAndGet();
+        }
+        return new Snapshot(sequence);
+    }
+
+    /**
+     * Counts the versions currently kept, over all books.
+     *
+     * @return The number of versions.
+     */
+    public int getVersionCount() {
+        int count = 0;
+        for (Chain chain : chains.values()) {
+            for (Version version = chain.head; version != null; version = version.older) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A consistent view of the borrowed state and loans of every book at one point in time.
+     * Safe to read from several threads.
+     */
+    public final class Snapshot implements AutoCloseable {
+
+        // The commit sequence the snapshot was opened at.
+        private final long sequence;
+        // Whether the snapshot was closed.
+        private volatile boolean closed;
+
+        private Snapshot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * Retrieves the commit sequence of the snapshot.
+         *
+         * @return The sequence of the last change the snapshot sees.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Retrieves the number of borrowed copies of a book.
+         *
+         * @param ISBN The International Standard Book Number of the book.
+         * @return The number of borrowed copies, -1 if the book didn't exist at the snapshot.
+         */
+        public int getBorrowedCopies(String ISBN) {
+            Version version = visible(chains.get(ISBN));
+            return version == null ? -1 : version.borrowedCopies;
+        }
+
+        /**
+         * Checks whether a copy of a book was available.
+         *
+         * @param ISBN The International Standard Book Number of the book.
+         * @return true if the book existed and had an available copy, otherwise false.
+         */
+        public boolean isAvailable(String ISBN) {
+            Version version = visible(chains.get(ISBN));
+            return version != null && version.borrowedCopies < version.totalCopies;
+        }
+
+        /**
+         * Retrieves the users holding a copy of a book.
+         *
+         * @param ISBN The International Standard Book Number of the book.
+         * @return The Ids of the borrowers, sorted.
+         */
+        public List<String> getBorrowers(String ISBN) {
+            Version version = visible(chains.get(ISBN));
+            return version == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(version.holders));
+        }
+
+        /**
+         * Passes the state of every book that existed at the snapshot to the given consumer.
+         *
+         * @param consumer The consumer receiving the book states.
+         */
+        public void forEachBook(BookStateConsumer consumer) {
+            for (Map.Entry<String, Chain> entry : chains.entrySet()) {
+                Version version = visible(entry.getValue());
+                if (version != null) {
+                    consumer.accept(entry.getKey(), version.totalCopies, version.borrowedCopies,
+                            Collections.unmodifiableList(Arrays.asList(version.holders)));
+                }
+            }
+        }
+
+        /**
+         * Passes every loan of the snapshot, as an ISBN and user Id pair, to the given consumer.
+         *
+         * @param consumer The consumer receiving the loans.
+         */
+        public void forEachLoan(BiConsumer<String, String> consumer) {
+            for (Map.Entry<String, Chain> entry : chains.entrySet()) {
+                Version version = visible(entry.getValue());
+                if (version != null) {
+                    for (String holder : version.holders) {
+                        consumer.accept(entry.getKey(), holder);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes the snapshot and drops the versions only it could see.
+         */
+        @Override
+        public void close() {
+            synchronized (openSnapshots) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                openSnapshots.computeIfPresent(sequence, (key, count) -> count == 1 ? null : count - 1);
+                oldestSnapshot = openSnapshots.isEmpty() ? Long.MAX_VALUE : openSnapshots.firstKey();
+            }
+            for (Chain chain : chains.values()) {
+                synchronized (chain) {
+                    trim(chain);
+                }
+            }
+        }
+
+        private Version visible(Chain chain) {
+            if (closed) {
+                throw new IllegalStateException("Snapshot is closed!");
+            }
+            if (chain == null) {
+                return null;
+            }
+            Version version = chain.head;
+            while (version != null && stampOf(chain, version) > sequence) {
+                version = version.older;
+            }
+            return version;
+        }
+    }
+
+    // Reads the sequence of a version, waiting for its writer, which holds the chain's monitor
+    // until then, if it isn't stamped yet.
+    private static long stampOf(Chain chain, Version version) {
+        long sequence = version.sequence;
+        if (sequence == UNSTAMPED) {
+            synchronized (chain) {
+                sequence = version.sequence;
+            }
+        }
+        return sequence;
+    }
+
+    // Stamps and installs a new version of a book, derived from its current one.
+    private void install(String ISBN, int totalCopies, int borrowedDelta, String addedHolder, String removedHolder) {
+        Chain chain = borrowedDelta < 0 ? chains.get(ISBN) : chains.computeIfAbsent(ISBN, key -> new Chain());
+        if (chain == null) {
+            // Nothing recorded to return.
+            return;
+        }
+        synchronized (chain) {
+            Version current = chain.head;
+            int total = totalCopies >= 0 ? totalCopies : current == null ? 0 : current.totalCopies;
+            int borrowed = (current == null ? 0 : current.borrowedCopies) + borrowedDelta;
+            if (borrowed < 0) {
+                // Nothing recorded to return.
+                return;
+            }
+            String[] holders = current == null ? new String[0] : current.holders;
+            if (addedHolder != null) {
+                holders = withHolder(holders, addedHolder);
+            } else if (removedHolder != null) {
+                holders = withoutHolder(holders, removedHolder);
+            }
+
+            // Publish first, then stamp. A snapshot that finds the version unstamped waits for the
+            // stamp, so it never misses a version stamped at or before its sequence.
+            Version version = new Version(UNSTAMPED, total, borrowed, holders, current);
+            chain.head = version;
+            version.sequence = clock.incrementAndGet();
+            trim(chain);
+        }
+    }
+
+    // Cuts off the versions older than the one the oldest open snapshot sees. Must hold the chain's
+    // monitor. A snapshot being opened may not be counted in the oldest sequence yet, so nothing
+    // is cut meanwhile.
+    private void trim(Chain chain) {
+        if (openingSnapshots.get() != 0) {
+            return;
+        }
+        long oldest = oldestSnapshot;
+        Version version = chain.head;
+        while (version != null && version.sequence > oldest) {
+            version = version.older;
+        }
+        if (version != null) {
+            version.older = null;
+        }
+    }
+
+    private static String[] withHolder(String[] holders, String userId) {
+        int index = Arrays.binarySearch(holders, userId);
+        if (index >= 0) {
+            return holders;
+        }
+        int insertion = -index - 1;
+        String[] updated = new String[holders.length + 1];
+        System.arraycopy(holders, 0, updated, 0, insertion);
+        updated[insertion] = userId;
+        System.arraycopy(holders, insertion, updated, insertion + 1, holders.length - insertion);
+        return updated;
+    }
+
+    private static String[] withoutHolder(String[] holders, String userId) {
+        int index = Arrays.binarySearch(holders, userId);
+        if (index < 0) {
+            return holders;
+        }
+        String[] updated = new String[holders.length - 1];
+        System.arraycopy(holders, 0, updated, 0, index);
+        System.arraycopy(holders, index + 1, updated, index, holders.length - index - 1);
+        return updated;
+    }
+}
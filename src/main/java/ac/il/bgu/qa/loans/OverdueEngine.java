@@ -0,0 +1,245 @@
+package ac.il.bgu.qa.loans;
+
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.NotificationException;
+import ac.il.bgu.qa.index.LoanIndex;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives loans a due date and notifies borrowers before and when a loan becomes overdue.
+ * Every loan schedules a reminder and an overdue timer in a {@link TimingWheel}, and returning the
+ * book cancels both, so the cost per loan is constant and no scan over outstanding loans is ever
+ * needed. Time comes from a pluggable {@link Clock}; the engine fires timers when
+ * {@link #advance()} is called, either by the caller or by the background ticker of {@link #start()}.
+ */
+public class OverdueEngine implements AutoCloseable {
+
+    /**
+     * The kind of notification a timer sends.
+     */
+    private enum Kind {
+        REMINDER, OVERDUE
+    }
+
+    /**
+     * A loan being tracked, with its timers.
+     */
+    private static final class Loan {
+        final String ISBN;
+        final String title;
+        final User user;
+        final Instant dueDate;
+        TimingWheel.Timer<Event> reminder;
+        TimingWheel.Timer<Event> overdue;
+        volatile boolean isOverdue;
+
+        Loan(String ISBN, String title, User user, Instant dueDate) {
+            this.ISBN = ISBN;
+            this.title = title;
+            this.user = user;
+            this.dueDate = dueDate;
+        }
+    }
+
+    /**
+     * The payload of a timer.
+     */
+    private static final class Event {
+        final Loan loan;
+        final Kind kind;
+
+        Event(Loan loan, Kind kind) {
+            this.loan = loan;
+            this.kind = kind;
+        }
+    }
+
+    // Source of the current time.
+    private final Clock clock;
+    // How long a book may be kept.
+    private final Duration loanPeriod;
+    // How long before the due date the reminder is sent, zero for no reminder.
+    private final Duration reminderLead;
+    // Length of one wheel tick in milliseconds.
+    private final long tickMillis;
+    // The timers of every tracked loan.
+    private final TimingWheel<Event> wheel;
+    // The tracked loans, keyed by ISBN and user Id.
+    private final Map<String, Loan> loans = new ConcurrentHashMap<>();
+    // The background ticker, if started.
+    private ScheduledExecutorService ticker;
+
+    /**
+     * Constructs a new OverdueEngine.
+     *
+     * @param clock        The source of the current time.
+     * @param loanPeriod   How long a book may be kept.
+     * @param reminderLead How long before the due date to remind the borrower, zero for no reminder.
+     * @param tick         The resolution of the engine, notifications fire at most one tick late.
+     */
+    public OverdueEngine(Clock clock, Duration loanPeriod, Duration reminderLead, Duration tick) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Invalid clock.");
+        } else if (loanPeriod == null || loanPeriod.isNegative() || loanPeriod.isZero()) {
+            throw new IllegalArgumentException("Invalid loan period.");
+        } else if (reminderLead == null || reminderLead.isNegative() || reminderLead.compareTo(loanPeriod) >= 0) {
+            throw new IllegalArgumentException("Invalid reminder lead.");
+        } else if (tick == null || tick.toMillis() <= 0) {
+            throw new IllegalArgumentException("Invalid tick.");
+        }
+        this.clock = clock;
+        this.loanPeriod = loanPeriod;
+        this.reminderLead = reminderLead;
+        this.tickMillis = tick.toMillis();
+        this.wheel = new TimingWheel<>(tickOf(clock.instant()));
+    }
+
+    /**
+     * Starts tracking a loan, replacing any previous loan of the same book to the same user.
+     *
+     * @param ISBN  The International Standard Book Number of the borrowed book.
+     * @param title The title of the book, used in the notifications.
+     * @param user  The borrower, notified through their notification service.
+     * @return The due date of the loan.
+     */
+    public Instant scheduleLoan(String ISBN, String title, User user) {
+        Instant dueDate = clock.instant().plus(loanPeriod);
+        Loan loan = new Loan(ISBN, title, user, dueDate);
+        if (!reminderLead.isZero()) {
+            loan.reminder = wheel.schedule(tickOf(dueDate.minus(reminderLead)), new Event(loan, Kind.REMINDER));
+        }
+        loan.overdue = wheel.schedule(tickOf(dueDate), new Event(loan, Kind.OVERDUE));
+        Loan previous = loans.put(key(ISBN, user.getId()), loan);
+        if (previous != null) {
+            cancelTimers(previous);
+        }
+        return dueDate;
+    }
+
+    /**
+     * Stops tracking a loan, typically because the book was returned.
+     *
+     * @param ISBN   The International Standard Book Number of the returned book.
+     * @param userId The Id of the borrower.
+     * @return true if the loan was tracked, otherwise false.
+     */
+    public boolean cancelLoan(String ISBN, String userId) {
+        Loan loan = loans.remove(key(ISBN, userId));
+        if (loan == null) {
+            return false;
+        }
+        cancelTimers(loan);
+        return true;
+    }
+
+    /**
+     * Retrieves the due date of a tracked loan.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     * @return The due date or null if the loan is not tracked.
+     */
+    public Instant getDueDate(String ISBN, String userId) {
+        Loan loan = loans.get(key(ISBN, userId));
+        return loan == null ? null : loan.dueDate;
+    }
+
+    /**
+     * Checks whether a tracked loan has passed its due date.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     * @return true if the overdue notification of the loan has fired, otherwise false.
+     */
+    public boolean isOverdue(String ISBN, String userId) {
+        Loan loan = loans.get(key(ISBN, userId));
+        return loan != null && loan.isOverdue;
+    }
+
+    /**
+     * Counts the tracked loans.
+     *
+     * @return The number of outstanding loans.
+     */
+    public int getLoanCount() {
+        return loans.size();
+    }
+
+    /**
+     * Fires every timer that is due according to the clock and sends its notification.
+     *
+     * @return The number of notifications attempted.
+     */
+    public int advance() {
+        List<Event> fired = wheel.advanceTo(tickOf(clock.instant()));
+        for (Event event : fired) {
+            Loan loan = event.loan;
+            String message;
+            if (event.kind == Kind.REMINDER) {
+                message = "Reminder: '" + loan.title + "' is due on " + loan.dueDate + ".";
+            } else {
+                loan.isOverdue = true;
+                message = "'" + loan.title + "' is overdue since " + loan.dueDate + ".";
+            }
+            try {
+                loan.user.sendNotification(message);
+            } catch (NotificationException e) {
+                System.err.println("Due date notification failed for user " + loan.user.getId() + "!");
+            }
+        }
+        return fired.size();
+    }
+
+    /**
+     * Starts a daemon thread that advances the engine once per tick.
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            throw new IllegalStateException("Engine already started!");
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "overdue-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background ticker, if started.
+     */
+    @Override
+    public synchronized void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    private void cancelTimers(Loan loan) {
+        if (loan.reminder != null) {
+            wheel.cancel(loan.reminder);
+        }
+        wheel.cancel(loan.overdue);
+    }
+
+    // Rounds up, so that a notification never fires before its time.
+    private long tickOf(Instant instant) {
+        long millis = instant.toEpochMilli();
+        return Math.floorDiv(millis + tickMillis - 1, tickMillis);
+    }
+
+    // Drops the hyphens of the ISBN, as the loan index does, so a loan is found however its ISBN is written.
+    private static String key(String ISBN, String userId) {
+        return LoanIndex.decodeISBN(LoanIndex.encodeISBN(ISBN)) + '/' + userId;
+    }
+}
@@ -0,0 +1,203 @@
+package ac.il.bgu.qa.loans;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel holding timers with payloads.
+ * Time is divided into ticks. Level 0 has one slot per tick for the next 64 ticks, and every
+ * higher level has 64 slots each spanning 64 times the slots of the level below. Timers are filed
+ * by deadline in the lowest level that can hold them and move down a level each time their slot
+ * comes up, so scheduling and cancelling are O(1) and advancing only touches due slots; there is
+ * never a scan over all outstanding timers.
+ *
+ * @param <T> The type of the timer payloads.
+ */
+public class TimingWheel<T> {
+
+    // Slots per level, and the bits of a tick number consumed per level.
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 7;
+    // Timers further ahead than this many ticks can't be scheduled.
+    private static final long MAX_DELAY = 1L << (SLOT_BITS * LEVELS);
+
+    /**
+     * A scheduled timer, linked into the slot it is filed in.
+     *
+     * @param <T> The type of the payload.
+     */
+    public static final class Timer<T> {
+        private final T payload;
+        private final long deadline;
+        private Timer<T> prev;
+        private Timer<T> next;
+        private boolean linked;
+
+        private Timer(T payload, long deadline) {
+            this.payload = payload;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Retrieves the payload of the timer.
+         *
+         * @return The payload given when the timer was scheduled.
+         */
+        public T getPayload() {
+            return payload;
+        }
+
+        /**
+         * Retrieves the tick at which the timer fires.
+         *
+         * @return The deadline tick.
+         */
+        public long getDeadlineTick() {
+            return deadline;
+        }
+    }
+
+    // Sentinel heads of the circular slot lists, level by level.
+    private final Timer<T>[] slots;
+    // The last tick that has been processed.
+    private long currentTick;
+    // Number of timers currently scheduled.
+    private int size;
+
+    /**
+     * Constructs an empty wheel positioned at the given tick.
+     *
+     * @param startTick The tick the wheel starts at.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long startTick) {
+        this.currentTick = startTick;
+        this.slots = (Timer<T>[]) new Timer<?>[LEVELS * SLOTS];
+        for (int i = 0; i < slots.length; i++) {
+            Timer<T> head = new Timer<>(null, -1);
+            head.prev = head;
+            head.next = head;
+            slots[i] = head;
+        }
+    }
+
+    /**
+     * Schedules a timer. Deadlines that have already passed fire on the next tick.
+     *
+     * @param deadlineTick The tick at which the timer fires.
+     * @param payload      The payload handed back when the timer fires.
+     * @return The timer, which can be cancelled.
+     */
+    public synchronized Timer<T> schedule(long deadlineTick, T payload) {
+        long deadline = Math.max(deadlineTick, currentTick + 1);
+        if (deadline - currentTick >= MAX_DELAY) {
+            throw new IllegalArgumentException("Deadline too far ahead.");
+        }
+        Timer<T> timer = new Timer<>(payload, deadline);
+        file(timer);
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancels a timer, if it hasn't fired yet.
+     *
+     * @param timer The timer to cancel.
+     * @return true if the timer was cancelled, false if it had already fired or been cancelled.
+     */
+    public synchronized boolean cancel(Timer<T> timer) {
+        if (!timer.linked) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel up to a tick and collects the timers that fired.
+     *
+     * @param tick The tick to advance to, inclusive.
+     * @return The payloads of the fired timers, in deadline order.
+     */
+    public synchronized List<T> advanceTo(long tick) {
+        List<T> fired = new ArrayList<>();
+        while (currentTick < tick) {
+            currentTick++;
+            cascade();
+            Timer<T> head = slots[(int) (currentTick & (SLOTS - 1))];
+            while (head.next != head) {
+                Timer<T> timer = head.next;
+                unlink(timer);
+                size--;
+                fired.add(timer.payload);
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Retrieves the last processed tick.
+     *
+     * @return The current tick of the wheel.
+     */
+    public synchronized long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Counts the scheduled timers.
+     *
+     * @return The number of timers that haven't fired or been cancelled.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    // Moves the timers of every higher-level slot that starts at the current tick down the wheel,
+    // highest level first so that timers cascaded twice in one tick are handled.
+    private void cascade() {
+        int level = 0;
+        while (level + 1 < LEVELS && (currentTick & ((1L << (SLOT_BITS * (level + 1))) - 1)) == 0) {
+            level++;
+        }
+        for (; level > 0; level--) {
+            int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+            Timer<T> head = slots[level * SLOTS + slot];
+            Timer<T> timer = head.next;
+            head.next = head;
+            head.prev = head;
+            while (timer != head) {
+                Timer<T> next = timer.next;
+                timer.linked = false;
+                file(timer);
+                timer = next;
+            }
+        }
+    }
+
+    // Files a timer in the lowest level whose span covers its remaining delay.
+    private void file(Timer<T> timer) {
+        long delay = timer.deadline - currentTick;
+        int level = 0;
+        while (level + 1 < LEVELS && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((timer.deadline >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        Timer<T> head = slots[level * SLOTS + slot];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+        timer.linked = true;
+    }
+
+    private static <T> void unlink(Timer<T> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        timer.linked = false;
+    }
+}
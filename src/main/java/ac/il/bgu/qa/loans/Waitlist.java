@@ -0,0 +1,287 @@
+package ac.il.bgu.qa.loans;
+
+import ac.il.bgu.qa.index.LoanIndex;
+import ac.il.bgu.qa.util.Hashing;
+import ac.il.bgu.qa.util.LongArrayDeque;
+import ac.il.bgu.qa.util.LongHashSet;
+import ac.il.bgu.qa.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * First-come, first-served reservation queues, one per book.
+ * ISBNs and user Ids are stored in their numeric encoding, so a waiting user costs eight bytes
+ * and books without waiters cost nothing. A queue that grows long also keeps a set of its users,
+ * about sixteen more bytes per user, so that checking whether a user already waits doesn't scan
+ * it. The queues are spread over several locks by ISBN, each only held for the duration of a
+ * single queue operation, so reservations of different books rarely contend.
+ */
+public class Waitlist {
+
+    // Number of locks the queues are spread over.
+    private static final int LOCK_STRIPES = 64;
+    // Length from which a queue keeps a set of its users.
+    private static final int MEMBERSHIP_THRESHOLD = 8;
+
+    /**
+     * The queue of waiting users of a book.
+     */
+    private static final class Queue {
+
+        // The waiting users, in arrival order.
+        private final LongArrayDeque order = new LongArrayDeque(2);
+        // The waiting users, once the queue reached the membership threshold, otherwise null.
+        private LongHashSet members;
+
+        boolean contains(long user) {
+            return members != null ? members.contains(user) : order.indexOf(user) >= 0;
+        }
+
+        void addLast(long user) {
+            order.addLast(user);
+            track(user);
+        }
+
+        void addFirst(long user) {
+            order.addFirst(user);
+            track(user);
+        }
+
+        long pollFirst() {
+            long user = order.pollFirst();
+            if (members != null) {
+                members.remove(user);
+            }
+            return user;
+        }
+
+        boolean remove(long user) {
+            if (members != null && !members.remove(user)) {
+                return false;
+            }
+            return order.remove(user);
+        }
+
+        // Adds a new user to the set, building it when the queue reaches the threshold.
+        private void track(long user) {
+            if (members != null) {
+                members.add(user);
+            } else if (order.size() >= MEMBERSHIP_THRESHOLD) {
+                members = new LongHashSet(order.size() * 2);
+                for (int i = 0; i < order.size(); i++) {
+                    members.add(order.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * The queues of the books whose ISBN falls in one stripe, with their lock.
+     */
+    private static final class Stripe {
+
+        // The queue of each book, keyed by the encoded ISBN. Empty queues are removed.
+        private final LongObjectHashMap<Queue> queues = new LongObjectHashMap<>();
+        // Guards the queues.
+        private final ReentrantLock lock = new ReentrantLock();
+    }
+
+    // The queues, spread by ISBN.
+    private final Stripe[] stripes = new Stripe[LOCK_STRIPES];
+    // Number of waiting users over all books.
+    private final AtomicInteger waiterCount = new AtomicInteger();
+
+    /**
+     * Constructs an empty Waitlist.
+     */
+    public Waitlist() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Adds a user to the end of the queue of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the waiting user.
+     * @return true if the user was added, false if they were already waiting for the book.
+     */
+    public boolean enqueue(String ISBN, String userId) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        long user = LoanIndex.encodeUserId(userId);
+        Stripe stripe = stripeFor(book);
+        stripe.lock.lock();
+        try {
+            Queue queue = stripe.queues.get(book);
+            if (queue == null) {
+                queue = new Queue();
+                stripe.queues.put(book, queue);
+            } else if (queue.contains(user)) {
+                return false;
+            }
+            queue.addLast(user);
+            waiterCount.incrementAndGet();
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a user back at the head of the queue of a book, e.g. after a hand-over that lost a race.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the waiting user.
+     */
+    public void requeueFirst(String ISBN, String userId) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        long user = LoanIndex.encodeUserId(userId);
+        Stripe stripe = stripeFor(book);
+        stripe.lock.lock();
+        try {
+            Queue queue = stripe.queues.get(book);
+            if (queue == null) {
+                queue = new Queue();
+                stripe.queues.put(book, queue);
+            } else if (queue.remove(user)) {
+                waiterCount.decrementAndGet();
+            }
+            queue.addFirst(user);
+            waiterCount.incrementAndGet();
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the user at the head of the queue of a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the user who waited longest or null if nobody is waiting.
+     */
+    public String poll(String ISBN) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        Stripe stripe = stripeFor(book);
+        stripe.lock.lock();
+        try {
+            Queue queue = stripe.queues.get(book);
+            if (queue == null) {
+                return null;
+            }
+            long user = queue.pollFirst();
+            if (queue.order.isEmpty()) {
+                stripe.queues.remove(book);
+            }
+            waiterCount.decrementAndGet();
+            return LoanIndex.decodeUserId(user);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a user from the queue of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the waiting user.
+     * @return true if the user was waiting for the book, otherwise false.
+     */
+    public boolean cancel(String ISBN, String userId) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        long user = LoanIndex.encodeUserId(userId);
+        Stripe stripe = stripeFor(book);
+        stripe.lock.lock();
+        try {
+            Queue queue = stripe.queues.get(book);
+            if (queue == null || !queue.remove(user)) {
+                return false;
+            }
+            if (queue.order.isEmpty()) {
+                stripe.queues.remove(book);
+            }
+            waiterCount.decrementAndGet();
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the position of a user in the queue of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user.
+     * @return The zero-based position of the user, 0 being next in line, or -1 if they are not waiting.
+     */
+    public int getPosition(String ISBN, String userId) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        long user = LoanIndex.encodeUserId(userId);
+        Stripe stripe = stripeFor(book);
+        stripe.lock.lock();
+        try {
+            Queue queue = stripe.queues.get(book);
+            return queue == null || !queue.contains(user) ? -1 : queue.order.indexOf(user);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether anyone is waiting for a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return true if the queue of the book is not empty, otherwise false.
+     */
+    public boolean hasWaiters(String ISBN) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        Stripe stripe = stripeFor(book);
+        stripe.lock.lock();
+        try {
+            return stripe.queues.get(book) != null;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the users waiting for a book, in queue order.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the waiting users.
+     */
+    public List<String> getWaiters(String ISBN) {
+        long book = LoanIndex.encodeISBN(ISBN);
+        Stripe stripe = stripeFor(book);
+        stripe.lock.lock();
+        try {
+            Queue queue = stripe.queues.get(book);
+            if (queue == null) {
+                return new ArrayList<>();
+            }
+            List<String> userIds = new ArrayList<>(queue.order.size());
+            for (int i = 0; i < queue.order.size(); i++) {
+                userIds.add(LoanIndex.decodeUserId(queue.order.get(i)));
+            }
+            return userIds;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the waiting users over all books.
+     *
+     * @return The number of reservations.
+     */
+    public int size() {
+        return waiterCount.get();
+    }
+
+    private Stripe stripeFor(long book) {
+        return stripes[(int) (Hashing.mix64(book) & (LOCK_STRIPES - 1))];
+    }
+}
@@ -0,0 +1,228 @@
+package ac.il.bgu.qa.services;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the number of calls in flight to a remote service, adapting the cap to the latency the
+ * service shows. Every completed call is a sample: while its round trip stays within a tolerance of
+ * the long-term average, the limit grows by about the square root of itself; when round trips get
+ * longer than that, the limit shrinks in proportion, down to half per sample. A failed call cuts
+ * the limit multiplicatively. The limit only grows while at least half of it is used, so that a
+ * quiet period doesn't leave a limit that was never tested.
+ * A call over the limit waits a bounded time for a permit, with a bounded number of callers waiting,
+ * and is shed otherwise.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    // Weight of a sample in the long-term average round trip.
+    private static final double LONG_RTT_WEIGHT = 0.01;
+    // How much longer than the long-term average a round trip may be before the limit shrinks.
+    private static final double RTT_TOLERANCE = 1.5;
+    // Weight of a new estimate in the smoothed limit.
+    private static final double SMOOTHING = 0.2;
+    // Factor applied to the limit when a call fails.
+    private static final double FAILURE_BACKOFF = 0.9;
+
+    /**
+     * A permit to make one call. Must be released exactly once, when the call completes.
+     */
+    public final class Permit {
+
+        // When the call started, in the limiter's time.
+        private final long startNanos;
+        // Calls in flight when the permit was taken, this one included.
+        private final int inFlightAtStart;
+        // Whether the permit was released.
+        private boolean released;
+
+        private Permit(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * Releases the permit and feeds the round trip of the call to the limit.
+         *
+         * @param failed Whether the call failed, e.g. timed out or was refused by the service.
+         */
+        public void release(boolean failed) {
+            if (released) {
+                throw new IllegalStateException("Permit already released!");
+            }
+            released = true;
+            complete(nanoTime.getAsLong() - startNanos, inFlightAtStart, failed);
+        }
+    }
+
+    // Bounds of the limit.
+    private final int minLimit;
+    private final int maxLimit;
+    // Maximum number of callers waiting for a permit.
+    private final int maxQueued;
+    // Maximum time a caller waits for a permit, in nanoseconds.
+    private final long maxWaitNanos;
+    // Source of the round trip times.
+    private final LongSupplier nanoTime;
+    // Number of calls shed.
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // Guards the fields below; permits are signalled on its condition.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitFreed = lock.newCondition();
+    // The current limit, kept fractional so that small steps add up.
+    private double limit;
+    // The long-term average round trip, 0 until the first sample.
+    private double longRtt;
+    // Calls in flight.
+    private int inFlight;
+    // Callers waiting for a permit.
+    private int queued;
+
+    /**
+     * Constructs a new AdaptiveConcurrencyLimiter.
+     *
+     * @param initialLimit The limit to start from.
+     * @param minLimit     The lowest the limit may go.
+     * @param maxLimit     The highest the limit may go.
+     * @param maxQueued    The maximum number of callers waiting for a permit, 0 to shed right away.
+     * @param maxWait      The maximum time a caller waits for a permit.
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, Duration maxWait) {
+        this(initialLimit, minLimit, maxLimit, maxQueued, maxWait, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, Duration maxWait, LongSupplier nanoTime) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limit bounds.");
+        } else if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid initial limit.");
+        } else if (maxQueued < 0) {
+            throw new IllegalArgumentException("Invalid queue size.");
+        } else if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException("Invalid wait.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.nanoTime = nanoTime;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Takes a permit, waiting for one if the limit is reached.
+     *
+     * @return The permit, or null if the call is shed because too many callers are waiting or no
+     * permit was freed in time.
+     */
+    public Permit tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                if (queued >= maxQueued || maxWaitNanos == 0) {
+                    rejectedCount.incrementAndGet();
+                    return null;
+                }
+                queued++;
+                try {
+                    long remaining = maxWaitNanos;
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            rejectedCount.incrementAndGet();
+                            return null;
+                        }
+                        remaining = permitFreed.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejectedCount.incrementAndGet();
+                    return null;
+                } finally {
+                    queued--;
+                }
+            }
+            inFlight++;
+            return new Permit(nanoTime.getAsLong(), inFlight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the current limit.
+     *
+     * @return The maximum number of calls allowed in flight now.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the calls in flight.
+     *
+     * @return The number of permits taken and not released.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the callers waiting for a permit.
+     *
+     * @return The number of queued callers.
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the calls shed since the limiter was created.
+     *
+     * @return The number of rejected calls.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    // Frees a permit and adapts the limit to the round trip of its call.
+    private void complete(long rttNanos, int inFlightAtStart, boolean failed) {
+        lock.lock();
+        try {
+            inFlight--;
+            double rtt = Math.max(1, rttNanos);
+            if (failed) {
+                limit = limit * FAILURE_BACKOFF;
+            } else {
+                longRtt = longRtt == 0 ? rtt : longRtt + (rtt - longRtt) * LONG_RTT_WEIGHT;
+                double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRtt / rtt));
+                // Don't grow a limit the callers aren't using.
+                if (gradient < 1.0 || inFlightAtStart * 2 >= limit) {
+                    double estimate = limit * gradient + Math.sqrt(limit);
+                    limit = limit * (1 - SMOOTHING) + estimate * SMOOTHING;
+                }
+            }
+            limit = Math.max(minLimit, Math.min(maxLimit, limit));
+            permitFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.cache.CacheStats;
+import ac.il.bgu.qa.cache.StripedLruCache;
+
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+
+/**
+ * A read-through caching decorator for a remote {@link DatabaseService}.
+ * Books and users are kept in bounded, striped LRU caches. Writes go to the underlying store first
+ * and then update the caches: added books and registered users are cached right away, while
+ * borrowing or returning a book drops its cached copy so that the borrow state is always reloaded.
+ * Scans go straight to the underlying store and bypass the caches, so a catalog-wide job doesn't
+ * evict the entries that point lookups keep hitting.
+ */
+public class CachingDatabaseService implements DatabaseService {
+
+    // The store being cached.
+    private final DatabaseService delegate;
+    // Cached books, keyed by ISBN.
+    private final StripedLruCache<String, Book> books;
+    // Cached users, keyed by user Id.
+    private final StripedLruCache<String, User> users;
+
+    /**
+     * Constructs a new CachingDatabaseService.
+     *
+     * @param delegate     The store being cached.
+     * @param bookCapacity The maximum number of cached books.
+     * @param userCapacity The maximum number of cached users.
+     */
+    public CachingDatabaseService(DatabaseService delegate, int bookCapacity, int userCapacity) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid database service.");
+        }
+        this.delegate = delegate;
+        this.books = new StripedLruCache<>(bookCapacity);
+        this.users = new StripedLruCache<>(userCapacity);
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        delegate.addBook(ISBN, book);
+        books.put(ISBN, book);
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        delegate.registerUser(id, user);
+        users.put(id, user);
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return books.get(ISBN, delegate::getBookByISBN);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return users.get(userId, delegate::getUserById);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        try {
+            delegate.borrowBook(ISBN, userId);
+        } finally {
+            // Drop the cached copy even if the store failed, its state is unknown now.
+            books.invalidate(ISBN);
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        try {
+            delegate.returnBook(ISBN);
+        } finally {
+            books.invalidate(ISBN);
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        try {
+            delegate.returnBook(ISBN, userId);
+        } finally {
+            books.invalidate(ISBN);
+        }
+    }
+
+    @Override
+    public Set<String> getBorrowers(String ISBN) {
+        return delegate.getBorrowers(ISBN);
+    }
+
+    @Override
+    public boolean tracksBorrowedCopies() {
+        return delegate.tracksBorrowedCopies();
+    }
+
+    @Override
+    public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        return delegate.scanBooks(fromISBN, toISBN, filter);
+    }
+
+    @Override
+    public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        return delegate.scanUsers(fromId, toId, filter);
+    }
+
+    /**
+     * Drops every cached book and user, e.g. after the store was changed behind this decorator.
+     */
+    public void invalidateAll() {
+        books.invalidateAll();
+        users.invalidateAll();
+    }
+
+    /**
+     * Retrieves the counters of the book cache.
+     *
+     * @return The hit, miss and eviction counts of book lookups.
+     */
+    public CacheStats getBookCacheStats() {
+        return books.stats();
+    }
+
+    /**
+     * Retrieves the counters of the user cache.
+     *
+     * @return The hit, miss and eviction counts of user lookups.
+     */
+    public CacheStats getUserCacheStats() {
+        return users.stats();
+    }
+}
@@ -0,0 +1,339 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.cache.CacheStats;
+import ac.il.bgu.qa.cache.StripedLruCache;
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.util.SpaceSaving;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A caching decorator for a remote {@link ReviewService} that fills its cache ahead of demand.
+ * After a restart, {@link #warmUp(Path, int)} fetches the reviews of the books that were most
+ * requested before, as saved by {@link #savePopularity(Path, int)}. When a copy of a book is lent,
+ * {@link #prefetchRelated(Book)} fetches the reviews of the other books by the same author, found
+ * through an index of the catalog by author. The index is built from one scan of the catalog and
+ * then kept up to date with the books added through the library and the books lent.
+ * Both run in the background on a fixed number of threads, so the review service never sees more
+ * than that many prefetches at once. A lookup that misses while the same book is being fetched
+ * waits for that fetch instead of starting another one.
+ * Every fetch closes the connection of the underlying service right after it, so {@link #close()}
+ * has nothing left to do; {@link #shutdown()} stops the prefetch threads. To limit the calls to the
+ * remote service, wrap it in a {@link LimitedReviewService} and cache that, never the other way round,
+ * so that cache hits take no permit.
+ */
+public class CachingReviewService implements ReviewService {
+
+    // Maximum number of books by the same author prefetched for one loan.
+    private static final int MAX_RELATED = 8;
+    // Number of prefetches that may wait for a thread per thread, further related prefetches are dropped.
+    private static final int QUEUED_PER_THREAD = 64;
+    // Number of books whose request counts are tracked by default.
+    private static final int DEFAULT_TRACKED_BOOKS = 1024;
+
+    // The service being cached.
+    private final ReviewService delegate;
+    // The catalog searched for books by the same author, null to not prefetch related books.
+    private final DatabaseService catalog;
+    // Cached non-empty review lists, keyed by ISBN.
+    private final StripedLruCache<String, List<String>> reviews;
+    // Approximate request counts of the most requested books.
+    private final SpaceSaving popularity;
+    // ISBNs of the catalog's books by author, to find related books without scanning the catalog.
+    private final Map<String, Set<String>> booksByAuthor = new ConcurrentHashMap<>();
+    // Fetches in progress, keyed by ISBN.
+    private final Map<String, CompletableFuture<List<String>>> inFlight = new ConcurrentHashMap<>();
+    // Authors whose books are being prefetched.
+    private final Set<String> authorsInFlight = ConcurrentHashMap.newKeySet();
+    // Runs the warm-up and related prefetches.
+    private final ThreadPoolExecutor prefetcher;
+
+    /**
+     * Constructs a new CachingReviewService that tracks the request counts of up to 1024 books.
+     *
+     * @param delegate    The service being cached.
+     * @param catalog     The catalog searched for books by the same author, or null to not prefetch related books.
+     * @param capacity    The maximum number of books whose reviews are cached.
+     * @param parallelism The maximum number of prefetches running at once.
+     */
+    public CachingReviewService(ReviewService delegate, DatabaseService catalog, int capacity, int parallelism) {
+        this(delegate, catalog, capacity, parallelism, DEFAULT_TRACKED_BOOKS);
+    }
+
+    /**
+     * Constructs a new CachingReviewService.
+     *
+     * @param delegate     The service being cached.
+     * @param catalog      The catalog searched for books by the same author, or null to not prefetch related books.
+     * @param capacity     The maximum number of books whose reviews are cached.
+     * @param parallelism  The maximum number of prefetches running at once.
+     * @param trackedBooks The maximum number of books whose request counts are tracked, for
+     *                     {@link #savePopularity(Path, int)}; more than are ever saved, not the cache capacity.
+     */
+    public CachingReviewService(ReviewService delegate, DatabaseService catalog, int capacity, int parallelism, int trackedBooks) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid review service.");
+        } else if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism.");
+        }
+        this.delegate = delegate;
+        this.catalog = catalog;
+        this.reviews = new StripedLruCache<>(capacity);
+        this.popularity = new SpaceSaving(trackedBooks);
+        AtomicInteger threads = new AtomicInteger();
+        this.prefetcher = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "review-prefetcher-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (catalog != null) {
+            indexCatalog();
+        }
+    }
+
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        // The counts only rank books for the warm-up, losing some under contention is fine.
+        popularity.offer(ISBN);
+        List<String> cached = reviews.getIfPresent(ISBN);
+        return cached != null ? cached : fetch(ISBN);
+    }
+
+    /**
+     * Does nothing, the connection of the underlying service is closed after every fetch.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Prefetches the reviews of the books listed in a popularity file, most popular first.
+     * A missing file, as on the very first start, warms nothing up.
+     *
+     * @param popularityFile The file saved by {@link #savePopularity(Path, int)}.
+     * @param limit          The maximum number of books to warm up.
+     * @return A future completed with the number of books whose reviews were cached, once every
+     * prefetch is done.
+     */
+    public CompletableFuture<Integer> warmUp(Path popularityFile, int limit) {
+        if (!Files.exists(popularityFile)) {
+            return CompletableFuture.completedFuture(0);
+        }
+        List<String> ISBNs = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(popularityFile, StandardCharsets.UTF_8)) {
+                String ISBN = line.trim();
+                if (!ISBN.isEmpty() && ISBNs.size() < limit) {
+                    ISBNs.add(ISBN);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read review popularity: " + e.getMessage());
+            return CompletableFuture.completedFuture(0);
+        }
+        return warmUp(ISBNs);
+    }
+
+    /**
+     * Prefetches the reviews of the given books.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books, most important first.
+     * @return A future completed with the number of books whose reviews were cached, once every
+     * prefetch is done.
+     */
+    public CompletableFuture<Integer> warmUp(Collection<String> ISBNs) {
+        AtomicInteger warmed = new AtomicInteger();
+        List<CompletableFuture<Void>> prefetches = new ArrayList<>(ISBNs.size());
+        for (String ISBN : new LinkedHashSet<>(ISBNs)) {
+            prefetches.add(CompletableFuture.runAsync(() -> {
+                if (prefetch(ISBN)) {
+                    warmed.incrementAndGet();
+                }
+            }, prefetcher));
+        }
+        return CompletableFuture.allOf(prefetches.toArray(new CompletableFuture<?>[0])).thenApply(done -> warmed.get());
+    }
+
+    /**
+     * Prefetches, in the background, the reviews of up to eight other books by the
+     * author of the given book. Skipped when no catalog was given, when the catalog can't be
+     * scanned, when the author's books are already being prefetched, or when the prefetch threads
+     * are too far behind.
+     *
+     * @param book The book that was lent.
+     */
+    public void prefetchRelated(Book book) {
+        String author = book.getAuthor();
+        if (catalog != null) {
+            index(book);
+        }
+        if (catalog == null || author == null || prefetcher.getQueue().size() >= QUEUED_PER_THREAD * prefetcher.getMaximumPoolSize()
+                || !authorsInFlight.add(author)) {
+            return;
+        }
+        try {
+            prefetcher.execute(() -> {
+                try {
+                    for (String ISBN : booksBy(author, book.getISBN())) {
+                        prefetch(ISBN);
+                    }
+                } finally {
+                    authorsInFlight.remove(author);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            authorsInFlight.remove(author);
+        }
+    }
+
+    /**
+     * Prefetches the reviews of other books by the same author, see {@link #prefetchRelated(Book)}.
+     */
+    @Override
+    public void onBookLent(Book book) {
+        prefetchRelated(book);
+    }
+
+    /**
+     * Indexes the book by its author, for {@link #prefetchRelated(Book)}.
+     */
+    @Override
+    public void onBookAdded(Book book) {
+        if (catalog != null) {
+            index(book);
+        }
+    }
+
+    /**
+     * Saves the most requested books to a popularity file, for {@link #warmUp(Path, int)} to read
+     * after the next start. The file is replaced atomically.
+     *
+     * @param popularityFile The file to write.
+     * @param limit          The maximum number of books to save.
+     * @throws IOException If the file can't be written.
+     */
+    public void savePopularity(Path popularityFile, int limit) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (SpaceSaving.Counter counter : popularity.top(limit)) {
+            lines.add(counter.getKey());
+        }
+        Path temporary = popularityFile.resolveSibling(popularityFile.getFileName() + ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        Files.move(temporary, popularityFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Retrieves the hit-ratio metrics of the review cache. Prefetches look the cache up too.
+     *
+     * @return A snapshot of the cache counters.
+     */
+    public CacheStats getStats() {
+        return reviews.stats();
+    }
+
+    /**
+     * Stops the prefetch threads. Prefetches not started yet are dropped.
+     */
+    public void shutdown() {
+        prefetcher.shutdownNow();
+    }
+
+    // Caches the reviews of a book unless they already are. Returns true if they are cached.
+    private boolean prefetch(String ISBN) {
+        if (reviews.getIfPresent(ISBN) != null) {
+            return true;
+        }
+        try {
+            return !fetch(ISBN).isEmpty();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to prefetch reviews of " + ISBN + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Fetches the reviews of a book, or waits for the fetch already in progress, and caches them.
+    // Empty lists are not cached, so that the next lookup asks again.
+    private List<String> fetch(String ISBN) {
+        CompletableFuture<List<String>> fetch = new CompletableFuture<>();
+        CompletableFuture<List<String>> running = inFlight.putIfAbsent(ISBN, fetch);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            List<String> fetched;
+            try {
+                fetched = delegate.getReviewsForBook(ISBN);
+            } finally {
+                delegate.close();
+            }
+            List<String> result = fetched == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(fetched));
+            if (!result.isEmpty()) {
+                reviews.put(ISBN, result);
+            }
+            fetch.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(ISBN, fetch);
+        }
+    }
+
+    // Lists the other books by an author, up to the related prefetch limit.
+    private List<String> booksBy(String author, String excludedISBN) {
+        List<String> ISBNs = new ArrayList<>();
+        for (String ISBN : booksByAuthor.getOrDefault(author, Collections.emptySet())) {
+            if (ISBNs.size() == MAX_RELATED) {
+                break;
+            } else if (!ISBN.equals(excludedISBN)) {
+                ISBNs.add(ISBN);
+            }
+        }
+        return ISBNs;
+    }
+
+    // Indexes the books already in the catalog by author. A catalog that can't be scanned is
+    // only indexed as books are added and lent.
+    private void indexCatalog() {
+        Spliterator<Book> scan;
+        try {
+            scan = catalog.scanBooks();
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        scan.forEachRemaining(this::index);
+    }
+
+    private void index(Book book) {
+        if (book.getAuthor() != null && book.getISBN() != null) {
+            booksByAuthor.computeIfAbsent(book.getAuthor(), author -> ConcurrentHashMap.newKeySet()).add(book.getISBN());
+        }
+    }
+}
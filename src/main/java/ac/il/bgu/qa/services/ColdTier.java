@@ -0,0 +1,301 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The memory-mapped tier of a {@link TieredDatabaseService}: a scratch file of book and user
+ * records, mapped segment by segment, with an in-memory index of record positions.
+ * Rewriting or removing an entry frees the slot of its old record, and new records take the
+ * smallest free slot they fit in before the file grows, so a store whose entries keep moving
+ * between the tiers reuses the same part of the file. The copy counts and version of a book record
+ * are updated in place. Callers serialize the operations on a key, which is what makes reusing a
+ * slot safe: only the key that held it could still read it; allocations are serialized here.
+ */
+final class ColdTier implements AutoCloseable {
+
+    // Smallest slot worth keeping apart: an int size, two null strings and a service code.
+    private static final int MIN_SLOT = 16;
+
+    // The scratch file.
+    private final FileChannel channel;
+    // Size of a mapped segment; no record spans two segments.
+    private final int segmentSize;
+    // The mapped segments, in file order.
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    // Position of the record of each book and user.
+    private final Map<String, Long> books = new ConcurrentHashMap<>();
+    private final Map<String, Long> users = new ConcurrentHashMap<>();
+    // Position of the next record, guarded by this.
+    private long end;
+    // Bytes of the free slots, guarded by this.
+    private long garbageBytes;
+    // Positions of the free slots, by slot size, guarded by this.
+    private final TreeMap<Integer, ArrayDeque<Long>> freeSlots = new TreeMap<>();
+
+    /**
+     * A decoded user record.
+     */
+    record UserRecord(String name, int serviceCode) {
+    }
+
+    ColdTier(Path file, int segmentSize) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Invalid segment size.");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segmentSize = segmentSize;
+    }
+
+    Book readBook(String ISBN) {
+        Long position = books.get(ISBN);
+        if (position == null) {
+            return null;
+        }
+        MappedByteBuffer segment = segment(position);
+        int offset = skipString(segment, record(position));
+        String title = readString(segment, offset);
+        offset = skipString(segment, offset);
+        String author = readString(segment, offset);
+        offset = skipString(segment, offset);
+        return new Book(ISBN, title, author, segment.getInt(offset), segment.getInt(offset + 4), segment.getLong(offset + 8));
+    }
+
+    void writeBook(String ISBN, Book book) {
+        byte[][] strings = {encode(ISBN), encode(book.getTitle()), encode(book.getAuthor())};
+        int size = 4 + 16;
+        for (byte[] string : strings) {
+            size += 4 + (string == null ? 0 : string.length);
+        }
+        synchronized (this) {
+            long position = allocate(size);
+            MappedByteBuffer segment = segment(position);
+            int offset = record(position);
+            for (byte[] string : strings) {
+                offset = writeString(segment, offset, string);
+            }
+            segment.putInt(offset, book.getTotalCopies());
+            segment.putInt(offset + 4, book.getBorrowedCopies());
+            segment.putLong(offset + 8, book.getVersion() & ~1L);
+            release(books.put(ISBN, position));
+        }
+    }
+
+    boolean removeBook(String ISBN) {
+        Long position = books.remove(ISBN);
+        synchronized (this) {
+            release(position);
+        }
+        return position != null;
+    }
+
+    /**
+     * Takes or puts back copies of a book, in place.
+     *
+     * @return The new number of borrowed copies, -1 if the book is not in the tier or the change
+     * would go out of bounds.
+     */
+    int addBorrowed(String ISBN, int delta) {
+        Long position = books.get(ISBN);
+        if (position == null) {
+            return -1;
+        }
+        MappedByteBuffer segment = segment(position);
+        int offset = counts(segment, record(position));
+        int borrowed = segment.getInt(offset + 4) + delta;
+        if (borrowed < 0 || borrowed > segment.getInt(offset)) {
+            return -1;
+        }
+        segment.putInt(offset + 4, borrowed);
+        segment.putLong(offset + 8, segment.getLong(offset + 8) + 2);
+        return borrowed;
+    }
+
+    /**
+     * Reads the number of available copies of a book.
+     *
+     * @return The number of available copies, -1 if the book is not in the tier.
+     */
+    int availableCopies(String ISBN) {
+        Long position = books.get(ISBN);
+        if (position == null) {
+            return -1;
+        }
+        MappedByteBuffer segment = segment(position);
+        int offset = counts(segment, record(position));
+        return segment.getInt(offset) - segment.getInt(offset + 4);
+    }
+
+    UserRecord readUser(String userId) {
+        Long position = users.get(userId);
+        if (position == null) {
+            return null;
+        }
+        MappedByteBuffer segment = segment(position);
+        int offset = skipString(segment, record(position));
+        return new UserRecord(readString(segment, offset), segment.getInt(skipString(segment, offset)));
+    }
+
+    void writeUser(String userId, String name, int serviceCode) {
+        byte[][] strings = {encode(userId), encode(name)};
+        int size = 4 + 4;
+        for (byte[] string : strings) {
+            size += 4 + (string == null ? 0 : string.length);
+        }
+        synchronized (this) {
+            long position = allocate(size);
+            MappedByteBuffer segment = segment(position);
+            int offset = record(position);
+            for (byte[] string : strings) {
+                offset = writeString(segment, offset, string);
+            }
+            segment.putInt(offset, serviceCode);
+            release(users.put(userId, position));
+        }
+    }
+
+    boolean removeUser(String userId) {
+        Long position = users.remove(userId);
+        synchronized (this) {
+            release(position);
+        }
+        return position != null;
+    }
+
+    Set<String> bookKeys() {
+        return books.keySet();
+    }
+
+    Set<String> userKeys() {
+        return users.keySet();
+    }
+
+    // The size of the used part of the file, free slots included.
+    synchronized long getFileBytes() {
+        return end;
+    }
+
+    // The bytes of the free slots.
+    synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Reserves a slot for a record, in the smallest free slot it fits in, else at the end of the
+    // file, mapping a new segment when the current one is full. Must hold this.
+    private long allocate(int size) {
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("Record too large.");
+        }
+        Map.Entry<Integer, ArrayDeque<Long>> free = freeSlots.ceilingEntry(size);
+        if (free != null) {
+            int slot = free.getKey();
+            long position = free.getValue().poll();
+            if (free.getValue().isEmpty()) {
+                freeSlots.remove(slot);
+            }
+            garbageBytes -= slot;
+            if (slot - size >= MIN_SLOT) {
+                // Keep the rest apart for a smaller record.
+                free(position + size, slot - size);
+                slot = size;
+            }
+            segment(position).putInt(offset(position), slot);
+            return position;
+        }
+        if (end + size > (long) segments.size() * segmentSize) {
+            long start = (long) segments.size() * segmentSize;
+            try {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to grow the cold tier!", e);
+            }
+            if (start - end >= MIN_SLOT) {
+                free(end, (int) (start - end));
+            }
+            end = start;
+        }
+        long position = end;
+        end += size;
+        segment(position).putInt(offset(position), size);
+        return position;
+    }
+
+    // Frees the slot an index entry pointed to before. Must hold this.
+    private void release(Long position) {
+        if (position != null) {
+            free(position, segment(position).getInt(offset(position)));
+        }
+    }
+
+    // Adds a slot to the free ones. Must hold this.
+    private void free(long position, int slot) {
+        segment(position).putInt(offset(position), slot);
+        freeSlots.computeIfAbsent(slot, key -> new ArrayDeque<>()).add(position);
+        garbageBytes += slot;
+    }
+
+    private MappedByteBuffer segment(long position) {
+        return segments.get((int) (position / segmentSize));
+    }
+
+    private int offset(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    // Finds the fields of a record, after the size of its slot.
+    private int record(long position) {
+        return offset(position) + 4;
+    }
+
+    // Finds the copy counts of a book record.
+    private static int counts(MappedByteBuffer segment, int offset) {
+        return skipString(segment, skipString(segment, skipString(segment, offset)));
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int writeString(MappedByteBuffer segment, int offset, byte[] bytes) {
+        if (bytes == null) {
+            segment.putInt(offset, -1);
+            return offset + 4;
+        }
+        segment.putInt(offset, bytes.length);
+        segment.put(offset + 4, bytes);
+        return offset + 4 + bytes.length;
+    }
+
+    private static String readString(MappedByteBuffer segment, int offset) {
+        int length = segment.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        segment.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int skipString(MappedByteBuffer segment, int offset) {
+        return offset + 4 + Math.max(0, segment.getInt(offset));
+    }
+}
@@ -0,0 +1,446 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.util.Hashing;
+import ac.il.bgu.qa.util.Utf8Pool;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A compact in-process {@link DatabaseService} that stores the catalog column by column instead of
+ * one object per book. Each book is a row: ISBNs and titles are kept as UTF-8 bytes in a shared
+ * pool, authors are dictionary-encoded so that an author's name is stored once however many books
+ * they wrote, and the copy counts and version stamps are plain int and long arrays. Rows are found
+ * through an open-addressing table of row numbers, so a book costs a few dozen bytes and no objects.
+ * <p>
+ * {@link #getBookByISBN} materializes a fresh {@link Book} view of a row on every call. Since views
+ * are detached, the store keeps the copy counts itself: {@link #borrowBook} and {@link #returnBook}
+ * update the row with a compare-and-set, and borrowing a book with no copy left fails with an
+ * {@link IllegalStateException}. Users are few compared to books and are kept in a plain map.
+ */
+public class ColumnarDatabaseService implements DatabaseService {
+
+    // Atomic access to the elements of the copy count and version columns.
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    // Marks a missing title or author.
+    private static final int NONE = -1;
+
+    // ISBNs and titles, as UTF-8 bytes.
+    private final Utf8Pool strings;
+    // Pool offset of the ISBN of each row.
+    private int[] isbns;
+    // Hash of the ISBN of each row, checked before comparing the bytes.
+    private int[] hashes;
+    // Pool offset of the title of each row, NONE if the book has no title.
+    private int[] titles;
+    // Dictionary code of the author of each row, NONE if the book has no author.
+    private int[] authors;
+    // Total copies of each row.
+    private int[] totalCopies;
+    // Borrowed copies of each row, updated atomically.
+    private int[] borrowedCopies;
+    // Version stamp of the borrowed state of each row, updated atomically.
+    private long[] versions;
+    // Number of rows in use.
+    private int rowCount;
+    // Row number plus one of each ISBN, by hash, 0 marks a free slot. Its length is a power of two.
+    private int[] table;
+    // The distinct author names, indexed by dictionary code.
+    private final List<String> authorNames = new ArrayList<>();
+    // The dictionary code of each author name.
+    private final Map<String, Integer> authorCodes = new HashMap<>();
+    // The users of the store, keyed by user Id.
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    // The Ids of the users holding a copy of each borrowed book, keyed by ISBN.
+    private final Map<String, Set<String>> loans = new ConcurrentHashMap<>();
+    // Adding books takes it exclusively, since the columns may be reallocated. Everything else shares it.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructs an empty ColumnarDatabaseService.
+     *
+     * @param expectedBooks The expected number of books, used to size the columns.
+     */
+    public ColumnarDatabaseService(int expectedBooks) {
+        if (expectedBooks < 0) {
+            throw new IllegalArgumentException("Invalid expected size.");
+        }
+        int capacity = Math.max(16, expectedBooks);
+        this.strings = new Utf8Pool(capacity * 32);
+        this.isbns = new int[capacity];
+        this.hashes = new int[capacity];
+        this.titles = new int[capacity];
+        this.authors = new int[capacity];
+        this.totalCopies = new int[capacity];
+        this.borrowedCopies = new int[capacity];
+        this.versions = new long[capacity];
+        this.table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    /**
+     * Adds a book, or replaces the row of a book with the same ISBN. The state of the book, including
+     * its borrowed copies, is copied into the columns; the book object itself is not kept.
+     *
+     * @param ISBN The International Standard Book Number identifying the book.
+     * @param book The book to be added.
+     */
+    @Override
+    public void addBook(String ISBN, Book book) {
+        if (ISBN == null) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        } else if (book == null) {
+            throw new IllegalArgumentException("Invalid book.");
+        }
+        lock.writeLock().lock();
+        try {
+            int hash = hash(ISBN);
+            int row = find(ISBN, hash);
+            if (row < 0) {
+                ensureCapacity();
+                row = rowCount++;
+                isbns[row] = strings.append(ISBN);
+                hashes[row] = hash;
+                insert(row, hash);
+            }
+            // The bytes of a replaced title stay in the pool.
+            titles[row] = book.getTitle() == null ? NONE : strings.append(book.getTitle());
+            authors[row] = book.getAuthor() == null ? NONE
+                    : authorCodes.computeIfAbsent(book.getAuthor(), name -> {
+                        authorNames.add(name);
+                        return authorNames.size() - 1;
+                    });
+            totalCopies[row] = book.getTotalCopies();
+            borrowedCopies[row] = book.getBorrowedCopies();
+            // A book caught in the middle of a commit is stored at the version it had before.
+            versions[row] = book.getVersion() & ~1L;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        users.put(id, user);
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        if (ISBN == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int row = find(ISBN, hash(ISBN));
+            return row < 0 ? null : view(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return users.get(userId);
+    }
+
+    /**
+     * Records a loan and takes one copy of the book.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     * @throws IllegalStateException If every copy of the book is already borrowed.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        lock.readLock().lock();
+        try {
+            int row = ISBN == null ? -1 : find(ISBN, hash(ISBN));
+            if (row >= 0) {
+                int borrowed;
+                do {
+                    borrowed = (int) INTS.getVolatile(borrowedCopies, row);
+                    if (borrowed >= totalCopies[row]) {
+                        throw new IllegalStateException("Book is already borrowed!");
+                    }
+                } while (!INTS.compareAndSet(borrowedCopies, row, borrowed, borrowed + 1));
+                LONGS.getAndAdd(versions, row, 2L);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        loans.computeIfAbsent(ISBN, key -> ConcurrentHashMap.newKeySet()).add(userId);
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        releaseCopy(ISBN);
+        // Without a user Id, close the loan only when it is unambiguous.
+        loans.computeIfPresent(ISBN, (key, holders) -> holders.size() <= 1 ? null : holders);
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        releaseCopy(ISBN);
+        loans.computeIfPresent(ISBN, (key, holders) -> {
+            holders.remove(userId);
+            return holders.isEmpty() ? null : holders;
+        });
+    }
+
+    @Override
+    public int getAvailableCopies(String ISBN) {
+        if (ISBN == null) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            int row = find(ISBN, hash(ISBN));
+            return row < 0 ? 0 : totalCopies[row] - (int) INTS.getVolatile(borrowedCopies, row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scans the rows, materializing a view only for the rows whose ISBN is within the range.
+     * The scan covers the rows that existed when it started and splits them into halves.
+     */
+    @Override
+    public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        lock.readLock().lock();
+        try {
+            return new RowSpliterator(0, rowCount, fromISBN, toISBN, filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        return new ScanSpliterator<Map.Entry<String, User>, User>(users.entrySet().spliterator(), entry ->
+                ScanSpliterator.inRange(entry.getKey(), fromId, toId) && (filter == null || filter.test(entry.getValue()))
+                        ? entry.getValue() : null);
+    }
+
+    @Override
+    public Set<String> getBorrowers(String ISBN) {
+        Set<String> holders = loans.get(ISBN);
+        return holders == null ? Collections.emptySet() : Collections.unmodifiableSet(holders);
+    }
+
+    @Override
+    public boolean tracksBorrowedCopies() {
+        return true;
+    }
+
+    /**
+     * Counts the books in the store.
+     *
+     * @return The number of books.
+     */
+    public int getBookCount() {
+        lock.readLock().lock();
+        try {
+            return rowCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the distinct authors in the store.
+     *
+     * @return The number of entries of the author dictionary.
+     */
+    public int getAuthorCount() {
+        lock.readLock().lock();
+        try {
+            return authorNames.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimates the heap used by the book columns, the string pool and the row table.
+     *
+     * @return The approximate size of the catalog, in bytes.
+     */
+    public long getCatalogBytes() {
+        lock.readLock().lock();
+        try {
+            long columns = (long) isbns.length * (6 * Integer.BYTES + Long.BYTES);
+            long dictionary = 0;
+            for (String name : authorNames) {
+                // The name, its map entry and its boxed code.
+                dictionary += 40 + name.length() + 48;
+            }
+            return columns + (long) table.length * Integer.BYTES + strings.size() + dictionary;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Puts one copy of a book back, if any was borrowed.
+    private void releaseCopy(String ISBN) {
+        lock.readLock().lock();
+        try {
+            int row = ISBN == null ? -1 : find(ISBN, hash(ISBN));
+            if (row >= 0) {
+                int borrowed;
+                do {
+                    borrowed = (int) INTS.getVolatile(borrowedCopies, row);
+                    if (borrowed == 0) {
+                        return;
+                    }
+                } while (!INTS.compareAndSet(borrowedCopies, row, borrowed, borrowed - 1));
+                LONGS.getAndAdd(versions, row, 2L);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Materializes a row. Must hold the lock.
+    private Book view(int row) {
+        return new Book(strings.get(isbns[row]),
+                titles[row] == NONE ? null : strings.get(titles[row]),
+                authors[row] == NONE ? null : authorNames.get(authors[row]),
+                totalCopies[row], (int) INTS.getVolatile(borrowedCopies, row), (long) LONGS.getVolatile(versions, row));
+    }
+
+    // Finds the row of an ISBN, -1 if there is none. Must hold the lock.
+    private int find(String ISBN, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int row = table[slot] - 1;
+            if (hashes[row] == hash && strings.matches(isbns[row], ISBN)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // Adds a row to the row table. Must hold the write lock.
+    private void insert(int row, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = row + 1;
+    }
+
+    // Grows the columns and the row table when full. Must hold the write lock.
+    private void ensureCapacity() {
+        if (rowCount < isbns.length) {
+            return;
+        }
+        int capacity = isbns.length * 2;
+        isbns = Arrays.copyOf(isbns, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        authors = Arrays.copyOf(authors, capacity);
+        totalCopies = Arrays.copyOf(totalCopies, capacity);
+        borrowedCopies = Arrays.copyOf(borrowedCopies, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        // Keep the row table at most half full, and its size a power of two for the slot mask.
+        if (capacity * 2 > table.length) {
+            table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            for (int row = 0; row < rowCount; row++) {
+                insert(row, hashes[row]);
+            }
+        }
+    }
+
+    private static int hash(String ISBN) {
+        return (int) Hashing.mix64(ISBN.hashCode());
+    }
+
+    /**
+     * Scans a range of rows, splitting it into halves.
+     */
+    private final class RowSpliterator implements Spliterator<Book> {
+
+        // The next row to scan.
+        private int row;
+        // The row after the last one to scan.
+        private final int end;
+        // The ISBN range and filter pushed down to the scan.
+        private final String fromISBN;
+        private final String toISBN;
+        private final Predicate<? super Book> filter;
+
+        RowSpliterator(int row, int end, String fromISBN, String toISBN, Predicate<? super Book> filter) {
+            this.row = row;
+            this.end = end;
+            this.fromISBN = fromISBN;
+            this.toISBN = toISBN;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Book> action) {
+            while (row < end) {
+                Book book = load(row++);
+                if (book != null) {
+                    action.accept(book);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Book> trySplit() {
+            int middle = (row + end) >>> 1;
+            if (middle <= row) {
+                return null;
+            }
+            Spliterator<Book> prefix = new RowSpliterator(row, middle, fromISBN, toISBN, filter);
+            row = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - row;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | CONCURRENT;
+        }
+
+        // Materializes a row if it is within the range and passes the filter, otherwise returns null.
+        private Book load(int row) {
+            Book book;
+            lock.readLock().lock();
+            try {
+                if ((fromISBN != null || toISBN != null)
+                        && !ScanSpliterator.inRange(strings.get(isbns[row]), fromISBN, toISBN)) {
+                    return null;
+                }
+                book = view(row);
+            } finally {
+                lock.readLock().unlock();
+            }
+            return filter == null || filter.test(book) ? book : null;
+        }
+    }
+}
@@ -3,6 +3,11 @@ package ac.il.bgu.qa.services;
 import ac.il.bgu.qa.Book;
 import ac.il.bgu.qa.User;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+
 /**
  * Provides an interface for services responsible for managing the database of books and users.
  */
@@ -43,6 +48,7 @@ public interface DatabaseService {
     /**
      * Borrows a book identified by its ISBN for a user identified by their userId.
      * This method should appropriately mark the book as borrowed and associate it with the user.
+     * For books with several copies, this borrows one copy.
      *
      * @param ISBN   The International Standard Book Number of the book to be borrowed.
      * @param userId The unique identifier for the user borrowing the book.
@@ -56,4 +62,103 @@ public interface DatabaseService {
      * @param ISBN The International Standard Book Number of the book to be returned.
      */
     void returnBook(String ISBN);
+
+    /**
+     * Marks the copy of a book held by a given user as returned in the database.
+     * Stores that track several copies per ISBN should override this method, so that the right
+     * loan is closed. By default it behaves like {@link #returnBook(String)}.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     */
+    default void returnBook(String ISBN, String userId) {
+        returnBook(ISBN);
+    }
+
+    /**
+     * Fetches the number of copies of a book that can currently be borrowed.
+     * By default it is read from the book returned by {@link #getBookByISBN(String)}.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The number of available copies, or 0 if the book does not exist in the database.
+     */
+    default int getAvailableCopies(String ISBN) {
+        Book book = getBookByISBN(ISBN);
+        return book == null ? 0 : book.getAvailableCopies();
+    }
+
+    /**
+     * Fetches the users holding a copy of a book, e.g. to copy the loans to another store.
+     * By default, loans are not tracked and no borrower is known.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the borrowers, empty if the book is not on loan.
+     */
+    default Set<String> getBorrowers(String ISBN) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Tells whether {@link #borrowBook} and {@link #returnBook} update the borrowed copies the store
+     * keeps for a book, rather than leaving it to the caller to change the book object.
+     * Stores that copy the state of added books instead of keeping the objects should override this.
+     * By default, they don't.
+     *
+     * @return true if loans and returns change the stored copy counts, otherwise false.
+     */
+    default boolean tracksBorrowedCopies() {
+        return false;
+    }
+
+    /**
+     * Scans the books of the database, e.g. for catalog-wide reports and revalidation jobs.
+     * The returned spliterator can be split, so {@code StreamSupport.stream(spliterator, true)}
+     * spreads the scan over several threads. The range and filter are applied by the store while
+     * traversing, so skipped books are never materialized. Scans are weakly consistent: books
+     * added or changed during the scan may or may not be seen.
+     * By default, scans are not supported.
+     *
+     * @param fromISBN The lowest ISBN to scan, inclusive, or null for no lower bound.
+     * @param toISBN   The highest ISBN to scan, exclusive, or null for no upper bound.
+     * @param filter   The condition the scanned books must meet, or null for all books.
+     * @return A spliterator over the matching books, in no particular order.
+     * @throws UnsupportedOperationException If the store can't enumerate its books.
+     */
+    default Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        throw new UnsupportedOperationException("Book scans are not supported!");
+    }
+
+    /**
+     * Scans every book of the database.
+     *
+     * @return A spliterator over all books, in no particular order.
+     * @throws UnsupportedOperationException If the store can't enumerate its books.
+     */
+    default Spliterator<Book> scanBooks() {
+        return scanBooks(null, null, null);
+    }
+
+    /**
+     * Scans the users of the database, like {@link #scanBooks(String, String, Predicate)} does for books.
+     * By default, scans are not supported.
+     *
+     * @param fromId The lowest user Id to scan, inclusive, or null for no lower bound.
+     * @param toId   The highest user Id to scan, exclusive, or null for no upper bound.
+     * @param filter The condition the scanned users must meet, or null for all users.
+     * @return A spliterator over the matching users, in no particular order.
+     * @throws UnsupportedOperationException If the store can't enumerate its users.
+     */
+    default Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        throw new UnsupportedOperationException("User scans are not supported!");
+    }
+
+    /**
+     * Scans every user of the database.
+     *
+     * @return A spliterator over all users, in no particular order.
+     * @throws UnsupportedOperationException If the store can't enumerate its users.
+     */
+    default Spliterator<User> scanUsers() {
+        return scanUsers(null, null, null);
+    }
 }
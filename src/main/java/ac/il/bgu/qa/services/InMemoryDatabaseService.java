@@ -0,0 +1,105 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * An in-process {@link DatabaseService} backed by concurrent hash maps.
+ * Useful as a local store and as a stand-in for remote stores in tests.
+ * Like the library, it relies on the caller to update the borrowed state of the {@link Book}
+ * object, and records which users hold a copy of each borrowed book.
+ * Scans split along the bins of the underlying maps, so parallel scans need no copying.
+ */
+public class InMemoryDatabaseService implements DatabaseService {
+
+    // The books of the store, keyed by ISBN.
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+    // The users of the store, keyed by user Id.
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    // The Ids of the users holding a copy of each borrowed book, keyed by ISBN.
+    private final Map<String, Set<String>> loans = new ConcurrentHashMap<>();
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        books.put(ISBN, book);
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        users.put(id, user);
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return books.get(ISBN);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return users.get(userId);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        loans.computeIfAbsent(ISBN, key -> ConcurrentHashMap.newKeySet()).add(userId);
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        // Without a user Id, close the loan only when it is unambiguous.
+        loans.computeIfPresent(ISBN, (key, holders) -> holders.size() <= 1 ? null : holders);
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        loans.computeIfPresent(ISBN, (key, holders) -> {
+            holders.remove(userId);
+            return holders.isEmpty() ? null : holders;
+        });
+    }
+
+    @Override
+    public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        return new ScanSpliterator<Map.Entry<String, Book>, Book>(books.entrySet().spliterator(), entry ->
+                ScanSpliterator.inRange(entry.getKey(), fromISBN, toISBN) && (filter == null || filter.test(entry.getValue()))
+                        ? entry.getValue() : null);
+    }
+
+    @Override
+    public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        return new ScanSpliterator<Map.Entry<String, User>, User>(users.entrySet().spliterator(), entry ->
+                ScanSpliterator.inRange(entry.getKey(), fromId, toId) && (filter == null || filter.test(entry.getValue()))
+                        ? entry.getValue() : null);
+    }
+
+    @Override
+    public Set<String> getBorrowers(String ISBN) {
+        Set<String> holders = loans.get(ISBN);
+        return holders == null ? Collections.emptySet() : Collections.unmodifiableSet(holders);
+    }
+
+    /**
+     * Counts the books in the store.
+     *
+     * @return The number of books.
+     */
+    public int getBookCount() {
+        return books.size();
+    }
+
+    /**
+     * Counts the users in the store.
+     *
+     * @return The number of users.
+     */
+    public int getUserCount() {
+        return users.size();
+    }
+}
@@ -0,0 +1,59 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.NotificationException;
+import ac.il.bgu.qa.errors.NotificationServiceOverloadedException;
+
+/**
+ * A {@link NotificationService} decorator that keeps the calls to the notification service under an
+ * {@link AdaptiveConcurrencyLimiter}. A shed call fails with a
+ * {@link NotificationServiceOverloadedException}, a {@link NotificationException} that the library
+ * doesn't retry.
+ */
+public class LimitedNotificationService implements NotificationService {
+
+    // The service being protected.
+    private final NotificationService delegate;
+    // The limiter of the calls to the service.
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * Constructs a new LimitedNotificationService.
+     *
+     * @param delegate The service being protected.
+     * @param limiter  The limiter of the calls to the service.
+     */
+    public LimitedNotificationService(NotificationService delegate, AdaptiveConcurrencyLimiter limiter) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid notification service.");
+        } else if (limiter == null) {
+            throw new IllegalArgumentException("Invalid limiter.");
+        }
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void notifyUser(String userId, String message) throws NotificationException {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            // Shed calls are frequent under overload, skip the stack trace.
+            throw new NotificationServiceOverloadedException("Notification service overloaded!", false);
+        }
+        boolean failed = true;
+        try {
+            delegate.notifyUser(userId, message);
+            failed = false;
+        } finally {
+            permit.release(failed);
+        }
+    }
+
+    /**
+     * Retrieves the limiter of the calls to the service, with its current limit and rejection count.
+     *
+     * @return The limiter.
+     */
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+}
@@ -0,0 +1,88 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.util.List;
+
+/**
+ * A {@link ReviewService} decorator that keeps the calls to the review service under an
+ * {@link AdaptiveConcurrencyLimiter}. A shed call fails with a {@link ReviewException}, which the
+ * library reports as the review service being unavailable.
+ * <p>
+ * The limiter learns the round trip of the protected service from the calls it lets through, so it
+ * must sit right in front of the remote service, below any cache:
+ * {@code new CachingReviewService(new LimitedReviewService(remote, limiter), ...)}. Wrapping a
+ * {@link CachingReviewService} instead would make cache hits take permits and report their short
+ * round trips, which drags the baseline down until every remote call looks congested and the
+ * limit collapses.
+ */
+public class LimitedReviewService implements ReviewService {
+
+    // The service being protected.
+    private final ReviewService delegate;
+    // The limiter of the calls to the service.
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * Constructs a new LimitedReviewService.
+     *
+     * @param delegate The service being protected.
+     * @param limiter  The limiter of the calls to the service.
+     */
+    public LimitedReviewService(ReviewService delegate, AdaptiveConcurrencyLimiter limiter) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid review service.");
+        } else if (limiter == null) {
+            throw new IllegalArgumentException("Invalid limiter.");
+        }
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            throw new ReviewException("Review service overloaded!");
+        }
+        boolean failed = true;
+        try {
+            List<String> reviews = delegate.getReviewsForBook(ISBN);
+            failed = false;
+            return reviews;
+        } finally {
+            permit.release(failed);
+        }
+    }
+
+    /**
+     * Forwards the loan to the protected service, without taking a permit, since it must not block.
+     */
+    @Override
+    public void onBookLent(Book book) {
+        delegate.onBookLent(book);
+    }
+
+    /**
+     * Forwards the addition to the protected service, without taking a permit, since it must not block.
+     */
+    @Override
+    public void onBookAdded(Book book) {
+        delegate.onBookAdded(book);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Retrieves the limiter of the calls to the service, with its current limit and rejection count.
+     *
+     * @return The limiter.
+     */
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+}
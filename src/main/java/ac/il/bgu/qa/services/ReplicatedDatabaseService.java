@@ -0,0 +1,440 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.util.Hashing;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A {@link DatabaseService} that replicates a primary store to read replicas.
+ * Every operation of this service goes to the primary, so it always sees the latest state.
+ * Once the primary accepted a mutation, it is queued for every replica, and each replica applies
+ * its queue in order on its own thread. Mutations of the same book or user reach the replicas in
+ * the order the primary accepted them; mutations of different keys may be reordered.
+ * <p>
+ * {@link #replicaReads()} returns a read-only view that sends lookups to the replica with the
+ * fewest pending mutations, for reads that can be slightly stale. Replicas hold their own copies of
+ * the books, and the appliers update them the way the library updates the books of the primary.
+ * The lag of each replica is reported as a number of pending mutations and as the age of the
+ * oldest one.
+ */
+public class ReplicatedDatabaseService implements DatabaseService, AutoCloseable {
+
+    // Number of locks ordering the mutations of each key.
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * The kinds of replicated mutations.
+     */
+    private enum Operation {
+        ADD_BOOK, REGISTER_USER, BORROW_BOOK, RETURN_BOOK, RETURN_BOOK_BY_USER
+    }
+
+    /**
+     * A mutation accepted by the primary. Added books are copied, so later changes to the
+     * primary's book don't leak into the replicas before their own mutations do.
+     */
+    private record Mutation(Operation operation, String key, String userId, Book book, User user, long acceptedNanos) {
+    }
+
+    /**
+     * A replica with its queue of pending mutations and the thread applying them.
+     */
+    private final class Replica implements Runnable {
+        // The replica store.
+        final DatabaseService store;
+        // Mutations not yet applied, in order.
+        final BlockingQueue<Mutation> pending = new LinkedBlockingQueue<>();
+        // Number of mutations queued and applied.
+        final AtomicLong queued = new AtomicLong();
+        final AtomicLong applied = new AtomicLong();
+        // The mutation being applied, null if idle.
+        volatile Mutation current;
+        // Applies the mutations.
+        final Thread applier;
+
+        Replica(DatabaseService store, int index) {
+            this.store = store;
+            this.applier = new Thread(this, "replica-applier-" + index);
+            this.applier.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Mutation mutation = pending.take();
+                    current = mutation;
+                    try {
+                        apply(mutation);
+                    } catch (RuntimeException e) {
+                        System.err.println("Failed to apply " + mutation.operation() + " of " + mutation.key() + " to replica: " + e);
+                    } finally {
+                        current = null;
+                        applied.incrementAndGet();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Closed.
+            }
+        }
+
+        private void apply(Mutation mutation) {
+            switch (mutation.operation()) {
+                case ADD_BOOK:
+                    store.addBook(mutation.key(), copyOf(mutation.book()));
+                    break;
+                case REGISTER_USER:
+                    store.registerUser(mutation.key(), mutation.user());
+                    break;
+                case BORROW_BOOK: {
+                    // Stores that keep the copy counts themselves hand out detached books, updating
+                    // the fetched book is harmless for them.
+                    Book book = store.getBookByISBN(mutation.key());
+                    store.borrowBook(mutation.key(), mutation.userId());
+                    if (book != null && !book.isBorrowed()) {
+                        book.borrow();
+                    }
+                    break;
+                }
+                default: {
+                    Book book = store.getBookByISBN(mutation.key());
+                    if (mutation.operation() == Operation.RETURN_BOOK) {
+                        store.returnBook(mutation.key());
+                    } else {
+                        store.returnBook(mutation.key(), mutation.userId());
+                    }
+                    if (book != null && book.getBorrowedCopies() > 0) {
+                        book.returnBook();
+                    }
+                }
+            }
+        }
+
+        long getLag() {
+            return queued.get() - applied.get();
+        }
+
+        Duration getDelay() {
+            Mutation oldest = current;
+            if (oldest == null) {
+                oldest = pending.peek();
+            }
+            return oldest == null ? Duration.ZERO : Duration.ofNanos(System.nanoTime() - oldest.acceptedNanos());
+        }
+    }
+
+    // The store receiving every operation.
+    private final DatabaseService primary;
+    // The read replicas.
+    private final List<Replica> replicas = new ArrayList<>();
+    // Order the mutations of a key between being accepted and being queued, by hash.
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    // Rotates the replica picked among equally lagging ones.
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    // The read-only view over the replicas.
+    private final DatabaseService replicaReads = new ReplicaReads();
+
+    /**
+     * Constructs a new ReplicatedDatabaseService and starts applying mutations to the replicas.
+     * The replicas should start out empty.
+     *
+     * @param primary  The store receiving every operation.
+     * @param replicas The read replicas, at least one.
+     */
+    public ReplicatedDatabaseService(DatabaseService primary, List<? extends DatabaseService> replicas) {
+        if (primary == null) {
+            throw new IllegalArgumentException("Invalid database service.");
+        } else if (replicas == null || replicas.isEmpty()) {
+            throw new IllegalArgumentException("Invalid replicas.");
+        }
+        this.primary = primary;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        for (DatabaseService store : replicas) {
+            if (store == null) {
+                throw new IllegalArgumentException("Invalid replicas.");
+            }
+            this.replicas.add(new Replica(store, this.replicas.size()));
+        }
+        for (Replica replica : this.replicas) {
+            replica.applier.start();
+        }
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            primary.addBook(ISBN, book);
+            replicate(new Mutation(Operation.ADD_BOOK, ISBN, null, copyOf(book), null, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            primary.registerUser(id, user);
+            replicate(new Mutation(Operation.REGISTER_USER, id, null, null, user, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return primary.getBookByISBN(ISBN);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return primary.getUserById(userId);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            primary.borrowBook(ISBN, userId);
+            replicate(new Mutation(Operation.BORROW_BOOK, ISBN, userId, null, null, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            primary.returnBook(ISBN);
+            replicate(new Mutation(Operation.RETURN_BOOK, ISBN, null, null, null, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            primary.returnBook(ISBN, userId);
+            replicate(new Mutation(Operation.RETURN_BOOK_BY_USER, ISBN, userId, null, null, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getAvailableCopies(String ISBN) {
+        return primary.getAvailableCopies(ISBN);
+    }
+
+    @Override
+    public Set<String> getBorrowers(String ISBN) {
+        return primary.getBorrowers(ISBN);
+    }
+
+    @Override
+    public boolean tracksBorrowedCopies() {
+        return primary.tracksBorrowedCopies();
+    }
+
+    @Override
+    public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        return primary.scanBooks(fromISBN, toISBN, filter);
+    }
+
+    @Override
+    public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        return primary.scanUsers(fromId, toId, filter);
+    }
+
+    /**
+     * Retrieves a read-only view of the replicas, for lookups that may be slightly stale.
+     * Each lookup goes to the replica with the fewest pending mutations. Mutations through the
+     * view throw {@link UnsupportedOperationException}.
+     *
+     * @return The replica view.
+     */
+    public DatabaseService replicaReads() {
+        return replicaReads;
+    }
+
+    /**
+     * Counts the replicas.
+     *
+     * @return The number of read replicas.
+     */
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * Counts the mutations a replica has yet to apply.
+     *
+     * @param replica The index of the replica.
+     * @return The number of pending mutations.
+     */
+    public long getReplicaLag(int replica) {
+        return replicas.get(replica).getLag();
+    }
+
+    /**
+     * Measures how far behind the primary a replica is.
+     *
+     * @param replica The index of the replica.
+     * @return The time since the oldest pending mutation was accepted, zero if the replica is up to date.
+     */
+    public Duration getReplicaDelay(int replica) {
+        return replicas.get(replica).getDelay();
+    }
+
+    /**
+     * Waits until every replica applied every mutation accepted so far.
+     *
+     * @param timeout The maximum time to wait.
+     * @return true if the replicas caught up, false if the timeout elapsed first.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public boolean awaitReplication(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Replica replica : replicas) {
+            long target = replica.queued.get();
+            while (replica.applied.get() < target) {
+                if (System.nanoTime() >= deadline) {
+                    return false;
+                } else if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops applying mutations to the replicas. Pending mutations are dropped.
+     */
+    @Override
+    public void close() {
+        for (Replica replica : replicas) {
+            replica.applier.interrupt();
+        }
+    }
+
+    // Queues a mutation accepted by the primary. Must hold the lock of its key.
+    private void replicate(Mutation mutation) {
+        for (Replica replica : replicas) {
+            replica.queued.incrementAndGet();
+            replica.pending.add(mutation);
+        }
+    }
+
+    // Picks the replica with the fewest pending mutations, rotating among ties.
+    private DatabaseService pickReplica() {
+        int count = replicas.size();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), count);
+        Replica best = null;
+        long bestLag = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            long lag = replica.getLag();
+            if (lag < bestLag) {
+                best = replica;
+                bestLag = lag;
+            }
+        }
+        return best.store;
+    }
+
+    private ReentrantLock lockFor(String key) {
+        return locks[key == null ? 0 : (int) (Hashing.mix64(key.hashCode()) & (LOCK_STRIPES - 1))];
+    }
+
+    private static Book copyOf(Book book) {
+        return new Book(book.getISBN(), book.getTitle(), book.getAuthor(), book.getTotalCopies(),
+                book.getBorrowedCopies(), book.getVersion() & ~1L);
+    }
+
+    /**
+     * The read-only view over the replicas.
+     */
+    private final class ReplicaReads implements DatabaseService {
+
+        @Override
+        public void addBook(String ISBN, Book book) {
+            throw new UnsupportedOperationException("Replica reads are read-only!");
+        }
+
+        @Override
+        public void registerUser(String id, User user) {
+            throw new UnsupportedOperationException("Replica reads are read-only!");
+        }
+
+        @Override
+        public Book getBookByISBN(String ISBN) {
+            return pickReplica().getBookByISBN(ISBN);
+        }
+
+        @Override
+        public User getUserById(String userId) {
+            return pickReplica().getUserById(userId);
+        }
+
+        @Override
+        public void borrowBook(String ISBN, String userId) {
+            throw new UnsupportedOperationException("Replica reads are read-only!");
+        }
+
+        @Override
+        public void returnBook(String ISBN) {
+            throw new UnsupportedOperationException("Replica reads are read-only!");
+        }
+
+        @Override
+        public void returnBook(String ISBN, String userId) {
+            throw new UnsupportedOperationException("Replica reads are read-only!");
+        }
+
+        @Override
+        public int getAvailableCopies(String ISBN) {
+            return pickReplica().getAvailableCopies(ISBN);
+        }
+
+        @Override
+        public Set<String> getBorrowers(String ISBN) {
+            return pickReplica().getBorrowers(ISBN);
+        }
+
+        @Override
+        public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+            return pickReplica().scanBooks(fromISBN, toISBN, filter);
+        }
+
+        @Override
+        public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+            return pickReplica().scanUsers(fromId, toId, filter);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ac.il.bgu.qa.services;
 
+import ac.il.bgu.qa.Book;
 import ac.il.bgu.qa.errors.ReviewException;
 
 import java.util.List;
@@ -18,6 +19,26 @@ public interface ReviewService {
      */
     List<String> getReviewsForBook(String ISBN) throws ReviewException;
 
+    /**
+     * Tells the service that a copy of a book was lent, e.g. to fetch the reviews readers will ask
+     * for next. Called while the library updates the loan, so it must not block.
+     * By default, it does nothing.
+     *
+     * @param book The book that was lent.
+     */
+    default void onBookLent(Book book) {
+    }
+
+    /**
+     * Tells the service that a book was added to the catalog, e.g. to index it for later lookups.
+     * Called while the library adds the book, so it must not block.
+     * By default, it does nothing.
+     *
+     * @param book The book that was added.
+     */
+    default void onBookAdded(Book book) {
+    }
+
     /**
      * Closes the review service, performing any necessary cleanup operations.
      */
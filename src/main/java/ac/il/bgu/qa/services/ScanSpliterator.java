@@ -0,0 +1,92 @@
+package ac.il.bgu.qa.services;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link Spliterator} that maps the elements of a source spliterator and skips those mapped to null.
+ * Range and filter checks are folded into the mapping, so stores push them down to the raw entries
+ * they traverse. Splitting is delegated to the source, so scans fan out as well as the source does.
+ *
+ * @param <E> The type of the source elements.
+ * @param <T> The type of the scanned elements.
+ */
+final class ScanSpliterator<E, T> implements Spliterator<T>, Consumer<E> {
+
+    // The raw entries of the store.
+    private final Spliterator<E> source;
+    // Maps an entry to its scanned element, or to null to skip it.
+    private final Function<? super E, ? extends T> mapper;
+    // The action of the current tryAdvance call.
+    private Consumer<? super T> action;
+    // Whether the current tryAdvance call produced an element.
+    private boolean matched;
+
+    ScanSpliterator(Spliterator<E> source, Function<? super E, ? extends T> mapper) {
+        this.source = source;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Checks whether a key falls within a scan range.
+     *
+     * @param key  The key to check.
+     * @param from The lowest key of the range, inclusive, or null for no lower bound.
+     * @param to   The highest key of the range, exclusive, or null for no upper bound.
+     * @return true if the key is within the range, otherwise false.
+     */
+    static boolean inRange(String key, String from, String to) {
+        return (from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) < 0);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        this.action = action;
+        matched = false;
+        try {
+            while (!matched && source.tryAdvance(this)) {
+                // Skip entries mapped to null.
+            }
+        } finally {
+            this.action = null;
+        }
+        return matched;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        source.forEachRemaining(entry -> {
+            T element = mapper.apply(entry);
+            if (element != null) {
+                action.accept(element);
+            }
+        });
+    }
+
+    @Override
+    public void accept(E entry) {
+        T element = mapper.apply(entry);
+        if (element != null) {
+            matched = true;
+            action.accept(element);
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        Spliterator<E> prefix = source.trySplit();
+        return prefix == null ? null : new ScanSpliterator<>(prefix, mapper);
+    }
+
+    @Override
+    public long estimateSize() {
+        // An upper bound, entries may still be skipped.
+        return source.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return (source.characteristics() & (CONCURRENT | IMMUTABLE)) | NONNULL;
+    }
+}
@@ -0,0 +1,335 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.util.ConsistentHashRing;
+import ac.il.bgu.qa.util.Hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A {@link DatabaseService} that partitions the catalog across several underlying stores.
+ * Books are routed by ISBN and users by user Id over a consistent hash ring, so writes to
+ * different keys go to different shards.
+ * <p>
+ * A loan belongs to the shard of its book: {@link #borrowBook} and {@link #returnBook} are sent
+ * to the shard owning the ISBN, whichever shard holds the user. When a shard is added, the books,
+ * users and loans whose keys move to it are copied over before the new routing takes effect.
+ * <p>
+ * The router keeps no keys of its own, so its memory doesn't grow with the catalog. The shards
+ * are scanned instead, both by {@link #scanBooks} and {@link #scanUsers} and when a shard is
+ * added, so they must support scans, and must track borrowers for loans to move with their books.
+ * A scanned entry is returned only by the shard it is routed to, so the stale copies left behind
+ * by rebalancing are never returned twice. Scans split across the shards first, then within them.
+ * <p>
+ * Reads route off the current ring, an immutable snapshot, without locking. Writes hold the read
+ * lock of one of several stripes, by key, so that {@link #addShard} can hold every stripe while it
+ * copies the moving keys and only then publish the new ring; writes to keys of different stripes
+ * share no lock. A read that still routes by the previous ring sees its key as it was when the new
+ * ring was published, since no write reaches the previous owner afterwards.
+ */
+public class ShardedDatabaseService implements DatabaseService {
+
+    // Number of virtual points per shard on the hash ring.
+    private static final int VIRTUAL_NODES = 128;
+    // Number of locks writes are spread over.
+    private static final int WRITE_STRIPES = 64;
+
+    // The current routing of keys to shards, replaced as a whole.
+    private volatile ConsistentHashRing<DatabaseService> ring = new ConsistentHashRing<>(VIRTUAL_NODES);
+    // Writes share the lock of their key's stripe, rebalancing takes every stripe exclusively.
+    private final StampedLock[] stripes = new StampedLock[WRITE_STRIPES];
+
+    /**
+     * Constructs a new ShardedDatabaseService over the given shards.
+     *
+     * @param shards The initial shards, at least one.
+     */
+    public ShardedDatabaseService(List<? extends DatabaseService> shards) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("Invalid shards.");
+        }
+        for (int i = 0; i < WRITE_STRIPES; i++) {
+            stripes[i] = new StampedLock();
+        }
+        for (DatabaseService shard : shards) {
+            ring = ring.withNode(shardName(ring.getNodes().size()), shard);
+        }
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        StampedLock stripe = stripeFor(ISBN);
+        long stamp = stripe.readLock();
+        try {
+            ring.nodeFor(ISBN).addBook(ISBN, book);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        StampedLock stripe = stripeFor(id);
+        long stamp = stripe.readLock();
+        try {
+            ring.nodeFor(id).registerUser(id, user);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return ring.nodeFor(ISBN).getBookByISBN(ISBN);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return ring.nodeFor(userId).getUserById(userId);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        StampedLock stripe = stripeFor(ISBN);
+        long stamp = stripe.readLock();
+        try {
+            ring.nodeFor(ISBN).borrowBook(ISBN, userId);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        StampedLock stripe = stripeFor(ISBN);
+        long stamp = stripe.readLock();
+        try {
+            ring.nodeFor(ISBN).returnBook(ISBN);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        StampedLock stripe = stripeFor(ISBN);
+        long stamp = stripe.readLock();
+        try {
+            ring.nodeFor(ISBN).returnBook(ISBN, userId);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int getAvailableCopies(String ISBN) {
+        return ring.nodeFor(ISBN).getAvailableCopies(ISBN);
+    }
+
+    @Override
+    public Set<String> getBorrowers(String ISBN) {
+        return ring.nodeFor(ISBN).getBorrowers(ISBN);
+    }
+
+    /**
+     * Tells whether every shard updates its own copy counts on loans and returns.
+     */
+    @Override
+    public boolean tracksBorrowedCopies() {
+        for (DatabaseService shard : ring.getNodes()) {
+            if (!shard.tracksBorrowedCopies()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        ConsistentHashRing<DatabaseService> routing = ring;
+        return scanShards(routing, (shard, owned) -> shard.scanBooks(fromISBN, toISBN,
+                book -> owned.test(book.getISBN()) && (filter == null || filter.test(book))));
+    }
+
+    @Override
+    public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        ConsistentHashRing<DatabaseService> routing = ring;
+        return scanShards(routing, (shard, owned) -> shard.scanUsers(fromId, toId,
+                user -> owned.test(user.getId()) && (filter == null || filter.test(user))));
+    }
+
+    /**
+     * Adds a shard and moves the keys it now owns onto it.
+     * Writes wait while the keys are moved, reads don't. Since {@link DatabaseService} has no delete
+     * operation, the previous owners keep stale copies of moved keys, which are no longer routed to.
+     *
+     * @param shard The shard to add.
+     * @throws UnsupportedOperationException If a shard can't enumerate its books or users.
+     */
+    public void addShard(DatabaseService shard) {
+        if (shard == null) {
+            throw new IllegalArgumentException("Invalid shard.");
+        }
+        long[] stamps = new long[WRITE_STRIPES];
+        // Always in the same order, so that concurrent rebalancing can't deadlock.
+        for (int i = 0; i < WRITE_STRIPES; i++) {
+            stamps[i] = stripes[i].writeLock();
+        }
+        try {
+            ConsistentHashRing<DatabaseService> current = ring;
+            ConsistentHashRing<DatabaseService> next = current.withNode(shardName(current.getNodes().size()), shard);
+            for (DatabaseService from : current.getNodes()) {
+                // Only the entries the shard owns now and won't own after the new shard is added.
+                Predicate<String> moving = key -> current.nodeFor(key) == from && next.nodeFor(key) != from;
+                from.scanBooks(null, null, book -> moving.test(book.getISBN())).forEachRemaining(book -> {
+                    DatabaseService to = next.nodeFor(book.getISBN());
+                    Set<String> borrowers = from.getBorrowers(book.getISBN());
+                    to.addBook(book.getISBN(), withoutReplayedLoans(to, book, borrowers.size()));
+                    for (String borrower : borrowers) {
+                        to.borrowBook(book.getISBN(), borrower);
+                    }
+                });
+                from.scanUsers(null, null, user -> moving.test(user.getId())).forEachRemaining(user ->
+                        next.nodeFor(user.getId()).registerUser(user.getId(), user));
+            }
+            ring = next;
+        } finally {
+            for (int i = WRITE_STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Finds the shard owning a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The shard the book is routed to.
+     */
+    public DatabaseService shardForBook(String ISBN) {
+        return ring.nodeFor(ISBN);
+    }
+
+    /**
+     * Finds the shard owning a user.
+     *
+     * @param userId The Id of the user.
+     * @return The shard the user is routed to.
+     */
+    public DatabaseService shardForUser(String userId) {
+        return ring.nodeFor(userId);
+    }
+
+    /**
+     * Retrieves the shards of the service.
+     *
+     * @return The shards, in the order they were added.
+     */
+    public List<DatabaseService> getShards() {
+        return ring.getNodes();
+    }
+
+    // A store that counts its own copies counts the replayed loans again, so they are taken out of
+    // the state it is given. Other stores keep the book object as it is.
+    private static Book withoutReplayedLoans(DatabaseService to, Book book, int loans) {
+        if (loans == 0 || !to.tracksBorrowedCopies()) {
+            return book;
+        }
+        return new Book(book.getISBN(), book.getTitle(), book.getAuthor(), book.getTotalCopies(),
+                Math.max(0, book.getBorrowedCopies() - loans), book.getVersion() & ~1L);
+    }
+
+    // Scans every shard, keeping only the entries a shard is routed to under the given routing.
+    private static <T> Spliterator<T> scanShards(ConsistentHashRing<DatabaseService> routing,
+                                                 BiFunction<DatabaseService, Predicate<String>, Spliterator<T>> scan) {
+        List<Spliterator<T>> parts = new ArrayList<>();
+        for (DatabaseService shard : routing.getNodes()) {
+            parts.add(scan.apply(shard, key -> routing.nodeFor(key) == shard));
+        }
+        return new ShardsSpliterator<>(parts);
+    }
+
+    /**
+     * Traverses the scans of several shards one after the other. Splits hand over half of the
+     * remaining shards, and the last shard splits its own scan.
+     *
+     * @param <T> The type of the scanned elements.
+     */
+    private static final class ShardsSpliterator<T> implements Spliterator<T> {
+
+        // The scans not finished yet, the current one first.
+        private final List<Spliterator<T>> parts;
+
+        ShardsSpliterator(List<Spliterator<T>> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (!parts.isEmpty()) {
+                if (parts.get(0).tryAdvance(action)) {
+                    return true;
+                }
+                parts.remove(0);
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            for (Spliterator<T> part : parts) {
+                part.forEachRemaining(action);
+            }
+            parts.clear();
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (parts.size() > 1) {
+                List<Spliterator<T>> prefix = parts.subList(0, parts.size() / 2);
+                Spliterator<T> split = new ShardsSpliterator<>(new ArrayList<>(prefix));
+                prefix.clear();
+                return split;
+            }
+            return parts.isEmpty() ? null : parts.get(0).trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = 0;
+            for (Spliterator<T> part : parts) {
+                size += part.estimateSize();
+                if (size < 0) {
+                    return Long.MAX_VALUE;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            int characteristics = CONCURRENT | IMMUTABLE;
+            for (Spliterator<T> part : parts) {
+                characteristics &= part.characteristics();
+            }
+            return characteristics | NONNULL;
+        }
+    }
+
+    private StampedLock stripeFor(String key) {
+        return stripes[(int) (Hashing.mix64(Objects.hashCode(key)) & (WRITE_STRIPES - 1))];
+    }
+
+    private static String shardName(int index) {
+        return "shard-" + index;
+    }
+}
@@ -0,0 +1,568 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.cache.CacheStats;
+import ac.il.bgu.qa.util.CountMinSketch;
+import ac.il.bgu.qa.util.Hashing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * A {@link DatabaseService} that keeps frequently accessed books and users on the heap and the long
+ * tail in a memory-mapped file. The heap tier is capped by an estimate of the bytes its entries
+ * use; new entries go to the heap tier while it has room and to the file tier afterwards.
+ * <p>
+ * Every lookup is counted in a frequency sketch, whose counts are halved about once every 100,000
+ * lookups so that popularity fades. The halving is scheduled by a lookup picked at random and runs
+ * on a background thread, so lookups neither share a counter nor wait for it. A lookup served by the file tier promotes the entry to the heap tier, if
+ * there is room or if the entry is looked up more often than the heap entries it would displace;
+ * those are demoted to the file tier, least recently promoted first, with a second chance for the
+ * ones that are still popular. Lookups made by scans are not counted and never promote.
+ * <p>
+ * Since entries move between tiers, the store keeps the copy counts itself, like a
+ * {@link ColumnarDatabaseService}: {@link #getBookByISBN} returns a copy of the stored book, and
+ * {@link #borrowBook} and {@link #returnBook} update the stored state, whichever tier it is in.
+ * Borrowing a book with no copy left fails with an {@link IllegalStateException}. The file tier
+ * is scratch space, truncated when the store is created.
+ */
+public class TieredDatabaseService implements DatabaseService, AutoCloseable {
+
+    // Approximate heap used by a book entry besides its strings: the book, its copy counter and
+    // version, the map entry and the resident queue node.
+    private static final long BOOK_OVERHEAD = 300;
+    // Approximate heap used by a user entry besides its strings.
+    private static final long USER_OVERHEAD = 120;
+    // Number of heap entries looked at before giving up on a promotion.
+    private static final int SAMPLE_SIZE = 8;
+    // Average number of lookups between two halvings of the frequency counts.
+    private static final int AGING_PERIOD = 100_000;
+    // Number of locks serializing the operations on each key.
+    private static final int LOCK_STRIPES = 64;
+    // Size of a mapped segment of the file tier.
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * An entry of the heap tier, in the order it was promoted.
+     */
+    private record Resident(String key, boolean book) {
+    }
+
+    // The maximum estimated bytes of the heap tier.
+    private final long heapCapacity;
+    // The estimated bytes of the heap tier.
+    private final AtomicLong heapBytes = new AtomicLong();
+    // The books and users of the heap tier.
+    private final Map<String, Book> hotBooks = new ConcurrentHashMap<>();
+    private final Map<String, User> hotUsers = new ConcurrentHashMap<>();
+    // The entries of the heap tier, oldest promotion first, the demotion candidates.
+    private final Queue<Resident> residents = new ConcurrentLinkedQueue<>();
+    // The file tier.
+    private final ColdTier cold;
+    // Lookup frequencies of books and users.
+    private final CountMinSketch bookFrequencies = new CountMinSketch(4, 1 << 16);
+    private final CountMinSketch userFrequencies = new CountMinSketch(4, 1 << 16);
+    // Halves the frequencies in the background.
+    private final ExecutorService ager;
+    // Whether a halving is scheduled and not done yet.
+    private final AtomicBoolean aging = new AtomicBoolean();
+    // Serialize the operations on a key, by hash.
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    // The notification services of the users, indexed by the code stored in the file tier.
+    private final List<NotificationService> notificationServices = new CopyOnWriteArrayList<>();
+    // The Ids of the users holding a copy of each borrowed book, keyed by ISBN.
+    private final Map<String, Set<String>> loans = new ConcurrentHashMap<>();
+    // Lookup outcomes: served by the heap tier, by the file tier, or not found.
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder coldHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // Entries moved between the tiers.
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder demotions = new LongAdder();
+
+    /**
+     * Constructs a new TieredDatabaseService.
+     *
+     * @param heapCapacity The maximum estimated bytes of the heap tier.
+     * @param coldFile     The scratch file of the file tier, truncated if it exists.
+     * @throws IOException If the file can't be created.
+     */
+    public TieredDatabaseService(long heapCapacity, Path coldFile) throws IOException {
+        if (heapCapacity < 0) {
+            throw new IllegalArgumentException("Invalid heap capacity.");
+        } else if (coldFile == null) {
+            throw new IllegalArgumentException("Invalid file.");
+        }
+        this.heapCapacity = heapCapacity;
+        this.cold = new ColdTier(coldFile, SEGMENT_SIZE);
+        this.ager = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tiered-database-ager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        if (ISBN == null) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        } else if (book == null) {
+            throw new IllegalArgumentException("Invalid book.");
+        }
+        Book stored = copyOf(book);
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            Book replaced = hotBooks.get(ISBN);
+            if (replaced != null) {
+                hotBooks.put(ISBN, stored);
+                heapBytes.addAndGet(bytesOf(stored) - bytesOf(replaced));
+            } else if (!cold.bookKeys().contains(ISBN) && heapBytes.get() + bytesOf(stored) <= heapCapacity) {
+                hotBooks.put(ISBN, stored);
+                heapBytes.addAndGet(bytesOf(stored));
+                residents.add(new Resident(ISBN, true));
+            } else {
+                cold.writeBook(ISBN, stored);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        if (id == null) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        } else if (user == null) {
+            throw new IllegalArgumentException("Invalid user.");
+        }
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            User replaced = hotUsers.get(id);
+            if (replaced != null) {
+                hotUsers.put(id, user);
+                heapBytes.addAndGet(bytesOf(user) - bytesOf(replaced));
+            } else if (!cold.userKeys().contains(id) && heapBytes.get() + bytesOf(user) <= heapCapacity) {
+                hotUsers.put(id, user);
+                heapBytes.addAndGet(bytesOf(user));
+                residents.add(new Resident(id, false));
+            } else {
+                cold.writeUser(id, user.getName(), serviceCode(user.getNotificationService()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        if (ISBN == null) {
+            return null;
+        }
+        long frequency = count(bookFrequencies, ISBN);
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            Book hot = hotBooks.get(ISBN);
+            if (hot != null) {
+                hotHits.increment();
+                return copyOf(hot);
+            }
+            Book book = cold.readBook(ISBN);
+            if (book == null) {
+                misses.increment();
+                return null;
+            }
+            coldHits.increment();
+            if (promote(new Resident(ISBN, true), book, bytesOf(book), frequency)) {
+                // The promoted book is the stored one now.
+                return copyOf(book);
+            }
+            return book;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        long frequency = count(userFrequencies, userId);
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            User hot = hotUsers.get(userId);
+            if (hot != null) {
+                hotHits.increment();
+                return hot;
+            }
+            User user = readColdUser(userId);
+            if (user == null) {
+                misses.increment();
+                return null;
+            }
+            coldHits.increment();
+            promote(new Resident(userId, false), user, bytesOf(user), frequency);
+            return user;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a loan and takes one copy of the book, in whichever tier it is.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     * @throws IllegalStateException If every copy of the book is already borrowed.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        if (ISBN == null) {
+            return;
+        }
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            Book hot = hotBooks.get(ISBN);
+            if (hot != null) {
+                hot.borrow();
+            } else if (cold.availableCopies(ISBN) >= 0 && cold.addBorrowed(ISBN, 1) < 0) {
+                throw new IllegalStateException("Book is already borrowed!");
+            }
+        } finally {
+            lock.unlock();
+        }
+        loans.computeIfAbsent(ISBN, key -> ConcurrentHashMap.newKeySet()).add(userId);
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        releaseCopy(ISBN);
+        // Without a user Id, close the loan only when it is unambiguous.
+        loans.computeIfPresent(ISBN, (key, holders) -> holders.size() <= 1 ? null : holders);
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        releaseCopy(ISBN);
+        loans.computeIfPresent(ISBN, (key, holders) -> {
+            holders.remove(userId);
+            return holders.isEmpty() ? null : holders;
+        });
+    }
+
+    @Override
+    public int getAvailableCopies(String ISBN) {
+        if (ISBN == null) {
+            return 0;
+        }
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            Book hot = hotBooks.get(ISBN);
+            return hot != null ? hot.getAvailableCopies() : Math.max(0, cold.availableCopies(ISBN));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getBorrowers(String ISBN) {
+        Set<String> holders = loans.get(ISBN);
+        return holders == null ? Collections.emptySet() : Collections.unmodifiableSet(holders);
+    }
+
+    @Override
+    public boolean tracksBorrowedCopies() {
+        return true;
+    }
+
+    /**
+     * Scans both tiers, without counting the lookups. An entry moving between the tiers during
+     * the scan may be seen twice or not at all.
+     */
+    @Override
+    public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        return new ScanSpliterator<String, Book>(Stream.concat(hotBooks.keySet().stream(), cold.bookKeys().stream()).spliterator(), ISBN -> {
+            if (!ScanSpliterator.inRange(ISBN, fromISBN, toISBN)) {
+                return null;
+            }
+            Book book = peekBook(ISBN);
+            return book != null && (filter == null || filter.test(book)) ? book : null;
+        });
+    }
+
+    /**
+     * Scans both tiers, without counting the lookups. An entry moving between the tiers during
+     * the scan may be seen twice or not at all.
+     */
+    @Override
+    public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        return new ScanSpliterator<String, User>(Stream.concat(hotUsers.keySet().stream(), cold.userKeys().stream()).spliterator(), userId -> {
+            if (!ScanSpliterator.inRange(userId, fromId, toId)) {
+                return null;
+            }
+            User user = peekUser(userId);
+            return user != null && (filter == null || filter.test(user)) ? user : null;
+        });
+    }
+
+    /**
+     * Retrieves the counters of the heap tier: lookups it served, lookups it didn't, and demotions.
+     *
+     * @return The hit, miss and eviction counts of the heap tier.
+     */
+    public CacheStats getHeapTierStats() {
+        return new CacheStats(hotHits.sum(), coldHits.sum() + misses.sum(), demotions.sum());
+    }
+
+    /**
+     * Retrieves the counters of the file tier: lookups it served, lookups that found nothing, and
+     * promotions out of it. Lookups served by the heap tier don't count.
+     *
+     * @return The hit, miss and eviction counts of the file tier.
+     */
+    public CacheStats getFileTierStats() {
+        return new CacheStats(coldHits.sum(), misses.sum(), promotions.sum());
+    }
+
+    /**
+     * Retrieves the estimated heap used by the heap tier.
+     *
+     * @return The estimated bytes of the heap tier entries.
+     */
+    public long getHeapBytes() {
+        return heapBytes.get();
+    }
+
+    /**
+     * Retrieves the bytes used in the file tier, including the free slots left by moved entries.
+     *
+     * @return The size of the used part of the file.
+     */
+    public long getFileBytes() {
+        return cold.getFileBytes();
+    }
+
+    /**
+     * Checks whether a book is in the heap tier.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return true if the book is kept on the heap, otherwise false.
+     */
+    public boolean isHot(String ISBN) {
+        return hotBooks.containsKey(ISBN);
+    }
+
+    /**
+     * Stops the aging and closes the file tier. The store must not be used afterwards.
+     *
+     * @throws IOException If the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        ager.shutdownNow();
+        cold.close();
+    }
+
+    // Counts a lookup and returns the updated frequency of the key.
+    private long count(CountMinSketch frequencies, String key) {
+        frequencies.add(key, 1);
+        if (ThreadLocalRandom.current().nextInt(AGING_PERIOD) == 0 && aging.compareAndSet(false, true)) {
+            try {
+                ager.execute(this::age);
+            } catch (RejectedExecutionException e) {
+                // Closed.
+                aging.set(false);
+            }
+        }
+        return frequencies.estimate(key);
+    }
+
+    private void age() {
+        try {
+            bookFrequencies.halve();
+            userFrequencies.halve();
+        } finally {
+            aging.set(false);
+        }
+    }
+
+    // Moves an entry of the file tier to the heap tier, if room can be made for it. Must hold the lock of the entry.
+    private boolean promote(Resident candidate, Object entry, long bytes, long frequency) {
+        if (!makeRoom(bytes, frequency)) {
+            return false;
+        }
+        if (candidate.book()) {
+            hotBooks.put(candidate.key(), (Book) entry);
+            cold.removeBook(candidate.key());
+        } else {
+            hotUsers.put(candidate.key(), (User) entry);
+            cold.removeUser(candidate.key());
+        }
+        heapBytes.addAndGet(bytes);
+        residents.add(candidate);
+        promotions.increment();
+        return true;
+    }
+
+    // Demotes heap entries less frequent than the candidate until it fits. Returns false if it can't fit.
+    private boolean makeRoom(long bytes, long frequency) {
+        if (bytes > heapCapacity) {
+            return false;
+        }
+        for (int examined = 0; heapBytes.get() + bytes > heapCapacity; examined++) {
+            Resident victim = examined < SAMPLE_SIZE ? residents.poll() : null;
+            if (victim == null) {
+                return false;
+            }
+            CountMinSketch frequencies = victim.book() ? bookFrequencies : userFrequencies;
+            if (frequencies.estimate(victim.key()) >= frequency || !demote(victim)) {
+                // Still popular, or busy: give it a second chance.
+                residents.add(victim);
+            }
+        }
+        return true;
+    }
+
+    // Moves a heap entry to the file tier, unless another thread holds its lock.
+    private boolean demote(Resident victim) {
+        ReentrantLock lock = lockFor(victim.key());
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (victim.book()) {
+                Book book = hotBooks.get(victim.key());
+                if (book == null) {
+                    return true;
+                }
+                cold.writeBook(victim.key(), book);
+                hotBooks.remove(victim.key());
+                heapBytes.addAndGet(-bytesOf(book));
+            } else {
+                User user = hotUsers.get(victim.key());
+                if (user == null) {
+                    return true;
+                }
+                cold.writeUser(victim.key(), user.getName(), serviceCode(user.getNotificationService()));
+                hotUsers.remove(victim.key());
+                heapBytes.addAndGet(-bytesOf(user));
+            }
+            demotions.increment();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Puts one copy of a book back, if any was borrowed.
+    private void releaseCopy(String ISBN) {
+        if (ISBN == null) {
+            return;
+        }
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            Book hot = hotBooks.get(ISBN);
+            if (hot != null) {
+                if (hot.getBorrowedCopies() > 0) {
+                    hot.returnBook();
+                }
+            } else {
+                cold.addBorrowed(ISBN, -1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Book peekBook(String ISBN) {
+        ReentrantLock lock = lockFor(ISBN);
+        lock.lock();
+        try {
+            Book hot = hotBooks.get(ISBN);
+            return hot != null ? copyOf(hot) : cold.readBook(ISBN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private User peekUser(String userId) {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            User hot = hotUsers.get(userId);
+            return hot != null ? hot : readColdUser(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private User readColdUser(String userId) {
+        ColdTier.UserRecord record = cold.readUser(userId);
+        return record == null ? null : new User(record.name(), userId, notificationServices.get(record.serviceCode()));
+    }
+
+    // Finds the code of a notification service, by identity, adding it if new.
+    private int serviceCode(NotificationService notificationService) {
+        synchronized (notificationServices) {
+            for (int i = 0; i < notificationServices.size(); i++) {
+                if (notificationServices.get(i) == notificationService) {
+                    return i;
+                }
+            }
+            notificationServices.add(notificationService);
+            return notificationServices.size() - 1;
+        }
+    }
+
+    private ReentrantLock lockFor(String key) {
+        return locks[(int) (Hashing.mix64(key.hashCode()) & (LOCK_STRIPES - 1))];
+    }
+
+    private static Book copyOf(Book book) {
+        return new Book(book.getISBN(), book.getTitle(), book.getAuthor(), book.getTotalCopies(),
+                book.getBorrowedCopies(), book.getVersion() & ~1L);
+    }
+
+    private static long bytesOf(Book book) {
+        return BOOK_OVERHEAD + bytesOf(book.getISBN()) + bytesOf(book.getTitle()) + bytesOf(book.getAuthor());
+    }
+
+    private static long bytesOf(User user) {
+        return USER_OVERHEAD + bytesOf(user.getId()) + bytesOf(user.getName());
+    }
+
+    // A string header and its array, with one byte per Latin-1 character.
+    private static long bytesOf(String value) {
+        return value == null ? 0 : 40 + value.length();
+    }
+}
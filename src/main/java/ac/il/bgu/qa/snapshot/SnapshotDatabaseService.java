@@ -0,0 +1,350 @@
+package ac.il.bgu.qa.snapshot;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.DatabaseService;
+import ac.il.bgu.qa.services.NotificationService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+/**
+ * A {@link DatabaseService} that starts from a snapshot file written by {@link SnapshotWriter},
+ * for a cold start that doesn't replay every book and user through the library.
+ * <p>
+ * Opening maps the file into memory and checks only its header, so the store can take traffic
+ * right away: a lookup binary searches the sorted index of the file and decodes just the entry it
+ * needs. Decoded entries, and everything written after opening, live in in-memory maps like those
+ * of an in-memory store, so a book is decoded at most once and the library keeps updating the same
+ * {@link Book} object. {@link #load()} verifies the checksum of the whole file and decodes the
+ * remaining entries in the background, and reports how long loading took. Users are re-created
+ * with the notification service given when opening, since notification channels can't be stored.
+ */
+public class SnapshotDatabaseService implements DatabaseService {
+
+    // The mapped snapshot file.
+    private final ByteBuffer snapshot;
+    // Numbers of entries and offsets of the indexes, from the header.
+    private final int bookCount;
+    private final int userCount;
+    private final int bookIndex;
+    private final int userIndex;
+    // The expected checksum of the body, from the header.
+    private final int bodyChecksum;
+    // Notification service of the re-created users.
+    private final NotificationService notificationService;
+    // Time taken to open the snapshot.
+    private final Duration openDuration;
+    // Decoded and added books, keyed by ISBN.
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+    // Decoded and registered users, keyed by user Id.
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    // The Ids of the users holding a copy of each borrowed book, keyed by ISBN.
+    private final Map<String, Set<String>> loans = new ConcurrentHashMap<>();
+    // Completes with the total load time once every entry is decoded, started on first use.
+    private final CompletableFuture<Duration> loading = new CompletableFuture<>();
+    // Whether the background load was started.
+    private boolean loadStarted;
+    // Whether every entry of the snapshot was decoded, so lookups no longer search the file.
+    private volatile boolean loaded;
+    // Whether the body failed its checksum.
+    private volatile boolean corrupt;
+
+    private SnapshotDatabaseService(ByteBuffer snapshot, NotificationService notificationService, long startNanos) {
+        this.snapshot = snapshot;
+        this.bookCount = snapshot.getInt(SnapshotFormat.BOOK_COUNT);
+        this.userCount = snapshot.getInt(SnapshotFormat.USER_COUNT);
+        this.bookIndex = (int) snapshot.getLong(SnapshotFormat.BOOK_INDEX);
+        this.userIndex = (int) snapshot.getLong(SnapshotFormat.USER_INDEX);
+        this.bodyChecksum = snapshot.getInt(SnapshotFormat.BODY_CRC);
+        this.notificationService = notificationService;
+        this.openDuration = Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Opens a snapshot file. Only the header is read and checked; the body is decoded on demand.
+     *
+     * @param file                The snapshot file.
+     * @param notificationService The notification service of the users of the snapshot.
+     * @return The store, ready to take requests.
+     * @throws IOException If the file can't be read, or isn't a valid snapshot of a supported version.
+     */
+    public static SnapshotDatabaseService open(Path file, NotificationService notificationService) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("Invalid file.");
+        } else if (notificationService == null) {
+            throw new IllegalArgumentException("Invalid notification service.");
+        }
+        long start = System.nanoTime();
+        MappedByteBuffer snapshot;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SnapshotFormat.HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size: " + size);
+            }
+            // The mapping stays valid after the channel is closed.
+            snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (snapshot.getInt(0) != SnapshotFormat.MAGIC) {
+            throw new IOException("Not a snapshot file!");
+        }
+        CRC32C headerChecksum = new CRC32C();
+        headerChecksum.update(snapshot.slice(0, SnapshotFormat.HEADER_CRC));
+        if ((int) headerChecksum.getValue() != snapshot.getInt(SnapshotFormat.HEADER_CRC)) {
+            throw new IOException("Corrupt snapshot header!");
+        } else if (snapshot.getShort(4) != SnapshotFormat.VERSION) {
+            throw new IOException("Unsupported snapshot version: " + snapshot.getShort(4));
+        } else if (snapshot.getLong(SnapshotFormat.FILE_LENGTH) != snapshot.capacity()) {
+            throw new IOException("Truncated snapshot!");
+        }
+        return new SnapshotDatabaseService(snapshot, notificationService, start);
+    }
+
+    /**
+     * Starts verifying the checksum of the snapshot and decoding its remaining entries on a
+     * background thread, if not started yet. Requests keep being served meanwhile.
+     *
+     * @return A future completing with the total load time, opening included, or exceptionally
+     * with an {@link IOException} if the snapshot is corrupt.
+     */
+    public CompletableFuture<Duration> load() {
+        synchronized (loading) {
+            if (!loadStarted) {
+                loadStarted = true;
+                Thread loader = new Thread(this::loadAll, "snapshot-loader");
+                loader.setDaemon(true);
+                loader.start();
+            }
+        }
+        return loading;
+    }
+
+    /**
+     * Retrieves the time taken to open the snapshot, after which requests were served.
+     *
+     * @return The open time.
+     */
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Retrieves the time taken to fully load the snapshot.
+     *
+     * @return The total load time, opening included, or null if loading didn't finish yet.
+     */
+    public Duration getLoadDuration() {
+        return loaded ? loading.join() : null;
+    }
+
+    /**
+     * Checks whether every entry of the snapshot was decoded.
+     *
+     * @return true if loading finished, otherwise false.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        // Decode the replaced entry first, so its loans are kept.
+        findBook(ISBN);
+        books.put(ISBN, book);
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        users.put(id, user);
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return findBook(ISBN);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        if (userId == null) {
+            return null;
+        } else if (loaded) {
+            return users.get(userId);
+        }
+        return users.computeIfAbsent(userId, this::decodeUser);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        findBook(ISBN);
+        loans.computeIfAbsent(ISBN, key -> ConcurrentHashMap.newKeySet()).add(userId);
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        findBook(ISBN);
+        // Without a user Id, close the loan only when it is unambiguous.
+        loans.computeIfPresent(ISBN, (key, holders) -> holders.size() <= 1 ? null : holders);
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        findBook(ISBN);
+        loans.computeIfPresent(ISBN, (key, holders) -> {
+            holders.remove(userId);
+            return holders.isEmpty() ? null : holders;
+        });
+    }
+
+    @Override
+    public Set<String> getBorrowers(String ISBN) {
+        findBook(ISBN);
+        Set<String> holders = loans.get(ISBN);
+        return holders == null ? Collections.emptySet() : Collections.unmodifiableSet(holders);
+    }
+
+    /**
+     * Scans the books. The scan waits for the snapshot to finish loading first.
+     */
+    @Override
+    public Spliterator<Book> scanBooks(String fromISBN, String toISBN, Predicate<? super Book> filter) {
+        awaitLoaded();
+        return books.entrySet().stream()
+                .filter(entry -> inRange(entry.getKey(), fromISBN, toISBN))
+                .map(Map.Entry::getValue)
+                .filter(book -> filter == null || filter.test(book))
+                .spliterator();
+    }
+
+    /**
+     * Scans the users. The scan waits for the snapshot to finish loading first.
+     */
+    @Override
+    public Spliterator<User> scanUsers(String fromId, String toId, Predicate<? super User> filter) {
+        awaitLoaded();
+        return users.entrySet().stream()
+                .filter(entry -> inRange(entry.getKey(), fromId, toId))
+                .map(Map.Entry::getValue)
+                .filter(user -> filter == null || filter.test(user))
+                .spliterator();
+    }
+
+    private Book findBook(String ISBN) {
+        if (ISBN == null) {
+            return null;
+        } else if (loaded) {
+            return books.get(ISBN);
+        }
+        return books.computeIfAbsent(ISBN, this::decodeBook);
+    }
+
+    private void loadAll() {
+        long start = System.nanoTime();
+        try {
+            CRC32C checksum = new CRC32C();
+            checksum.update(snapshot.slice(SnapshotFormat.HEADER_SIZE, snapshot.capacity() - SnapshotFormat.HEADER_SIZE));
+            if ((int) checksum.getValue() != bodyChecksum) {
+                corrupt = true;
+                throw new IOException("Corrupt snapshot body!");
+            }
+            for (int i = 0; i < bookCount; i++) {
+                String ISBN = SnapshotFormat.readString(snapshot, snapshot.getInt(bookIndex + i * 4));
+                books.computeIfAbsent(ISBN, this::decodeBook);
+            }
+            for (int i = 0; i < userCount; i++) {
+                String userId = SnapshotFormat.readString(snapshot, snapshot.getInt(userIndex + i * 4));
+                users.computeIfAbsent(userId, this::decodeUser);
+            }
+            loaded = true;
+            loading.complete(openDuration.plusNanos(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to load snapshot: " + e.getMessage());
+            loading.completeExceptionally(e);
+        }
+    }
+
+    private void awaitLoaded() {
+        try {
+            load().join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Snapshot failed to load!", e.getCause());
+        }
+    }
+
+    // Decodes the book with the given ISBN from the snapshot, with its loans. Returns null if absent.
+    private Book decodeBook(String ISBN) {
+        int offset = search(bookIndex, bookCount, ISBN);
+        if (offset < 0) {
+            return null;
+        }
+        offset += SnapshotFormat.stringSize(snapshot, offset);
+        String title = SnapshotFormat.readString(snapshot, offset);
+        offset += SnapshotFormat.stringSize(snapshot, offset);
+        String author = SnapshotFormat.readString(snapshot, offset);
+        offset += SnapshotFormat.stringSize(snapshot, offset);
+        int totalCopies = snapshot.getInt(offset);
+        int borrowedCopies = snapshot.getInt(offset + 4);
+        long version = snapshot.getLong(offset + 8);
+        int holderCount = snapshot.getInt(offset + 16);
+        offset += 20;
+        if (holderCount > 0) {
+            Set<String> holders = loans.computeIfAbsent(ISBN, key -> ConcurrentHashMap.newKeySet());
+            for (int i = 0; i < holderCount; i++) {
+                holders.add(SnapshotFormat.readString(snapshot, offset));
+                offset += SnapshotFormat.stringSize(snapshot, offset);
+            }
+        }
+        return new Book(ISBN, title, author, totalCopies, borrowedCopies, version);
+    }
+
+    // Decodes the user with the given Id from the snapshot. Returns null if absent.
+    private User decodeUser(String userId) {
+        int offset = search(userIndex, userCount, userId);
+        if (offset < 0) {
+            return null;
+        }
+        offset += SnapshotFormat.stringSize(snapshot, offset);
+        return new User(SnapshotFormat.readString(snapshot, offset), userId, notificationService);
+    }
+
+    // Binary searches an index for a key, returning the offset of its record or -1.
+    private int search(int index, int count, String key) {
+        if (corrupt) {
+            throw new IllegalStateException("Snapshot is corrupt!");
+        }
+        byte[] encoded = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = snapshot.getInt(index + middle * 4);
+            int comparison = SnapshotFormat.compareKey(snapshot, offset, encoded);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean inRange(String key, String from, String to) {
+        return (from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) < 0);
+    }
+}
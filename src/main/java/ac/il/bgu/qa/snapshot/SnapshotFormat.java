@@ -0,0 +1,78 @@
+package ac.il.bgu.qa.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of a catalog snapshot file. All numbers are big-endian.
+ * <pre>
+ * header, HEADER_SIZE bytes:
+ *   int  magic, "LIBS"
+ *   short format version
+ *   short reserved, 0
+ *   int  number of books
+ *   int  number of users
+ *   long offset of the book index
+ *   long offset of the user index
+ *   long length of the file
+ *   int  CRC32C of the body, from HEADER_SIZE to the end of the file
+ *   int  CRC32C of the header bytes before it
+ * body:
+ *   book records: key, title, author, int total copies, int borrowed copies, long version,
+ *                 int number of borrowers, borrower Ids
+ *   user records: key, name
+ *   book index: int offset of each book record, sorted by key
+ *   user index: int offset of each user record, sorted by key
+ * </pre>
+ * Strings are written as an int length, -1 for null, followed by their UTF-8 bytes. Keys are
+ * sorted by their unsigned UTF-8 bytes, so that lookups can binary search without decoding.
+ */
+final class SnapshotFormat {
+
+    // Identifies a snapshot file.
+    static final int MAGIC = 0x4C494253;
+    // The version written by this code; files with other versions are rejected.
+    static final short VERSION = 1;
+    // Size of the header, in bytes.
+    static final int HEADER_SIZE = 48;
+    // Offsets of the header fields.
+    static final int BOOK_COUNT = 8;
+    static final int USER_COUNT = 12;
+    static final int BOOK_INDEX = 16;
+    static final int USER_INDEX = 24;
+    static final int FILE_LENGTH = 32;
+    static final int BODY_CRC = 40;
+    static final int HEADER_CRC = 44;
+
+    private SnapshotFormat() {
+    }
+
+    // Compares the key of the record at an offset with an encoded key.
+    static int compareKey(ByteBuffer buffer, int offset, byte[] key) {
+        int length = buffer.getInt(offset);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(offset + 4 + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    // Decodes the string at an offset, or null.
+    static String readString(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Size of an encoded string, length included.
+    static int stringSize(ByteBuffer buffer, int offset) {
+        return 4 + Math.max(0, buffer.getInt(offset));
+    }
+}
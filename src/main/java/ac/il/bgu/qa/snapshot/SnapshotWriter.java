@@ -0,0 +1,199 @@
+package ac.il.bgu.qa.snapshot;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.DatabaseService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes the books, users and loans of a {@link DatabaseService} to a snapshot file, in the layout
+ * described by {@link SnapshotFormat}. The store is read with a parallel scan, and the file is
+ * written sequentially through a single buffer, then moved into place, so a reader never sees a
+ * partially written snapshot. The file can be copied to other nodes and opened with
+ * {@link SnapshotDatabaseService}.
+ */
+public final class SnapshotWriter {
+
+    // Size of the write buffer, in bytes.
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The file being written.
+    private final FileChannel channel;
+    // Bytes waiting to be written.
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Checksum of the body written so far.
+    private final CRC32C checksum = new CRC32C();
+    // Position of the next byte in the file.
+    private long position;
+
+    /**
+     * A scanned entry with its encoded key.
+     */
+    private record Entry<T>(byte[] key, T value) {
+    }
+
+    private SnapshotWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes a snapshot of a store. The store must support scans, and entries changed during the
+     * scan may or may not be included.
+     *
+     * @param source The store to take the snapshot of.
+     * @param file   The file to write, replaced if it exists.
+     * @return The size of the snapshot, in bytes.
+     * @throws IOException If the file can't be written, or the snapshot would exceed 2 GB.
+     */
+    public static long write(DatabaseService source, Path file) throws IOException {
+        if (source == null) {
+            throw new IllegalArgumentException("Invalid database service.");
+        } else if (file == null) {
+            throw new IllegalArgumentException("Invalid file.");
+        }
+        Comparator<Entry<?>> byKey = (a, b) -> Arrays.compareUnsigned(a.key(), b.key());
+        @SuppressWarnings("unchecked")
+        Entry<Book>[] books = StreamSupport.stream(source.scanBooks(), true)
+                .map(book -> new Entry<>(book.getISBN().getBytes(StandardCharsets.UTF_8), book))
+                .sorted(byKey)
+                .toArray(Entry[]::new);
+        @SuppressWarnings("unchecked")
+        Entry<User>[] users = StreamSupport.stream(source.scanUsers(), true)
+                .map(user -> new Entry<>(user.getId().getBytes(StandardCharsets.UTF_8), user))
+                .sorted(byKey)
+                .toArray(Entry[]::new);
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        long length;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            length = new SnapshotWriter(channel).writeBody(source, books, users);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return length;
+    }
+
+    private long writeBody(DatabaseService source, Entry<Book>[] books, Entry<User>[] users) throws IOException {
+        position = SnapshotFormat.HEADER_SIZE;
+        channel.position(position);
+
+        int[] bookOffsets = new int[books.length];
+        for (int i = 0; i < books.length; i++) {
+            Book book = books[i].value();
+            bookOffsets[i] = offset();
+            writeBytes(books[i].key());
+            writeString(book.getTitle());
+            writeString(book.getAuthor());
+            writeInt(book.getTotalCopies());
+            writeInt(book.getBorrowedCopies());
+            writeLong(book.getVersion() & ~1L);
+            Collection<String> borrowers = source.getBorrowers(book.getISBN());
+            String[] holders = borrowers.toArray(new String[0]);
+            writeInt(holders.length);
+            for (String holder : holders) {
+                writeString(holder);
+            }
+        }
+        int[] userOffsets = new int[users.length];
+        for (int i = 0; i < users.length; i++) {
+            userOffsets[i] = offset();
+            writeBytes(users[i].key());
+            writeString(users[i].value().getName());
+        }
+        long bookIndex = position;
+        for (int offset : bookOffsets) {
+            writeInt(offset);
+        }
+        long userIndex = position;
+        for (int offset : userOffsets) {
+            writeInt(offset);
+        }
+        flush();
+
+        ByteBuffer header = ByteBuffer.allocate(SnapshotFormat.HEADER_SIZE);
+        header.putInt(SnapshotFormat.MAGIC)
+                .putShort(SnapshotFormat.VERSION)
+                .putShort((short) 0)
+                .putInt(books.length)
+                .putInt(users.length)
+                .putLong(bookIndex)
+                .putLong(userIndex)
+                .putLong(position)
+                .putInt((int) checksum.getValue());
+        CRC32C headerChecksum = new CRC32C();
+        headerChecksum.update(header.array(), 0, SnapshotFormat.HEADER_CRC);
+        header.putInt((int) headerChecksum.getValue());
+        header.flip();
+        channel.write(header, 0);
+        return position;
+    }
+
+    // The offset of the next record, which must be addressable by an int.
+    private int offset() throws IOException {
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot exceeds 2 GB!");
+        }
+        return (int) position;
+    }
+
+    private void writeInt(int value) throws IOException {
+        ensureRoom(4);
+        buffer.putInt(value);
+        position += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        ensureRoom(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeInt(-1);
+        } else {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeInt(bytes.length);
+        int written = 0;
+        while (written < bytes.length) {
+            ensureRoom(1);
+            int chunk = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, chunk);
+            written += chunk;
+        }
+        position += bytes.length;
+    }
+
+    private void ensureRoom(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
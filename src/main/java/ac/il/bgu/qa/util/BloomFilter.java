@@ -0,0 +1,98 @@
+package ac.il.bgu.qa.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter of strings.
+ * A negative answer is definite, a positive answer is wrong with roughly the configured false
+ * positive probability once the expected number of keys has been added.
+ * Bits are set with lock-free compare-and-set, so concurrent adds and lookups never block.
+ * Probe positions are derived from one 64-bit hash by Kirsch-Mitzenmacher double hashing.
+ */
+public class BloomFilter {
+
+    // The bits of the filter, 64 per word.
+    private final AtomicLongArray words;
+    // Number of bits in the filter.
+    private final long bitCount;
+    // Number of bits set (and probed) per key.
+    private final int hashCount;
+
+    /**
+     * Constructs a Bloom filter sized for an expected number of keys and a false positive probability.
+     *
+     * @param expectedKeys The number of keys expected to be added.
+     * @param fpp          The desired false positive probability, between 0 and 1 exclusive.
+     */
+    public BloomFilter(long expectedKeys, double fpp) {
+        if (expectedKeys <= 0) {
+            throw new IllegalArgumentException("Invalid expected key count.");
+        } else if (!(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("Invalid false positive probability.");
+        }
+        // Optimal sizing: m = -n ln(p) / ln(2)^2 and k = m / n ln(2).
+        long bits = (long) Math.ceil(-expectedKeys * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(64, (bits + 63) / 64 * 64);
+        if (bits / 64 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large.");
+        }
+        this.bitCount = bits;
+        this.hashCount = Math.max(1, (int) Math.round((double) bits / expectedKeys * Math.log(2)));
+        this.words = new AtomicLongArray((int) (bits / 64));
+    }
+
+    /**
+     * Adds a key to the filter.
+     *
+     * @param key The key to add.
+     */
+    public void add(String key) {
+        long h1 = Hashing.hash64(key);
+        long h2 = Long.rotateLeft(h1, 32) * 0x9E3779B97F4A7C15L | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.weakCompareAndSetVolatile(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a key may have been added to the filter.
+     *
+     * @param key The key to look up.
+     * @return false if the key was definitely never added, true if it may have been.
+     */
+    public boolean mightContain(String key) {
+        long h1 = Hashing.hash64(key);
+        long h2 = Long.rotateLeft(h1, 32) * 0x9E3779B97F4A7C15L | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the size of the filter.
+     *
+     * @return The number of bits in the filter.
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Retrieves the number of hash functions of the filter.
+     *
+     * @return The number of bits set per key.
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+}
@@ -0,0 +1,444 @@
+package ac.il.bgu.qa.util;
+
+import java.util.Arrays;
+
+/**
+ * A compressed bitmap of non-negative int values in the style of Roaring bitmaps.
+ * The value space is split into chunks of 65536 values keyed by the high 16 bits. Sparse chunks
+ * are stored as sorted arrays of the low 16 bits, dense chunks as plain 8KB bitmaps.
+ * Cardinality is tracked incrementally, so it is available in constant time.
+ * This class is not thread-safe.
+ */
+public class CompressedBitmap {
+
+    // Chunks holding more values than this are stored as bitmaps.
+    static final int ARRAY_LIMIT = 4096;
+    // Number of values covered by one chunk.
+    static final int CHUNK_SIZE = 1 << 16;
+
+    // High 16 bits of each chunk, sorted ascending.
+    private char[] keys = new char[4];
+    // The container of each chunk, at the same index as its key.
+    private Container[] containers = new Container[4];
+    // Number of chunks in use.
+    private int chunkCount;
+    // Total number of values in the bitmap.
+    private int cardinality;
+
+    /**
+     * Adds a value to the bitmap.
+     *
+     * @param value The non-negative value to add.
+     * @return true if the value was added, false if it was already present.
+     */
+    public boolean add(int value) {
+        checkValue(value);
+        char key = (char) (value >>> 16);
+        int i = findChunk(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, key, new ArrayContainer());
+        }
+        Container container = containers[i];
+        int before = container.cardinality();
+        containers[i] = container.add((char) value);
+        if (containers[i].cardinality() == before) {
+            return false;
+        }
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * Removes a value from the bitmap.
+     *
+     * @param value The value to remove.
+     * @return true if the value was present, otherwise false.
+     */
+    public boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = findChunk((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Container container = containers[i];
+        int before = container.cardinality();
+        container = container.remove((char) value);
+        if (container.cardinality() == before) {
+            return false;
+        }
+        cardinality--;
+        if (container.cardinality() == 0) {
+            removeChunk(i);
+        } else {
+            containers[i] = container;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a value is present in the bitmap.
+     *
+     * @param value The value to look up.
+     * @return true if the value is present, otherwise false.
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = findChunk((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    /**
+     * Retrieves the number of values in the bitmap.
+     *
+     * @return The cardinality of the bitmap.
+     */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Counts the values lower than or equal to the given value.
+     *
+     * @param value The upper bound, inclusive.
+     * @return The number of values in the bitmap that are at most the given value.
+     */
+    public int rank(int value) {
+        if (value < 0) {
+            return 0;
+        }
+        char key = (char) (value >>> 16);
+        int rank = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (keys[i] < key) {
+                rank += containers[i].cardinality();
+            } else {
+                if (keys[i] == key) {
+                    rank += containers[i].rank((char) value);
+                }
+                break;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Finds the value at a given position in ascending order.
+     *
+     * @param index The zero-based position.
+     * @return The value at the position or -1 if the bitmap holds fewer values.
+     */
+    public int select(int index) {
+        if (index < 0 || index >= cardinality) {
+            return -1;
+        }
+        for (int i = 0; i < chunkCount; i++) {
+            int size = containers[i].cardinality();
+            if (index < size) {
+                return keys[i] << 16 | containers[i].select(index);
+            }
+            index -= size;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the smallest value, not lower than the given one, that is absent from the bitmap.
+     *
+     * @param from The value to start from, inclusive.
+     * @return The first absent value at or after from.
+     */
+    public int nextAbsent(int from) {
+        checkValue(from);
+        int value = from;
+        int i = findChunk((char) (value >>> 16));
+        if (i < 0) {
+            return value;
+        }
+        // Walk consecutive chunks until one has a gap at or after the current position.
+        while (i < chunkCount && keys[i] == (value >>> 16)) {
+            int low = containers[i].nextAbsent((char) value);
+            if (low >= 0) {
+                return (value & ~0xFFFF) | low;
+            }
+            value = (value & ~0xFFFF) + CHUNK_SIZE;
+            if (value < 0) {
+                return -1;
+            }
+            i++;
+        }
+        return value;
+    }
+
+    /**
+     * Counts the values present in one chunk, used to skip whole chunks during scans.
+     *
+     * @param key The high 16 bits of the chunk.
+     * @return The number of values of the chunk present in the bitmap.
+     */
+    public int chunkCardinality(char key) {
+        int i = findChunk(key);
+        return i < 0 ? 0 : containers[i].cardinality();
+    }
+
+    /**
+     * Finds the n-th absent low value of a chunk.
+     *
+     * @param key   The high 16 bits of the chunk.
+     * @param index The zero-based position among the absent values of the chunk.
+     * @return The low 16 bits of the absent value.
+     */
+    public int selectAbsentInChunk(char key, int index) {
+        int i = findChunk(key);
+        return i < 0 ? index : containers[i].selectAbsent(index);
+    }
+
+    private int findChunk(char key) {
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    private void insertChunk(int i, char key, Container container) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            containers = Arrays.copyOf(containers, chunkCount * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, chunkCount - i);
+        System.arraycopy(containers, i, containers, i + 1, chunkCount - i);
+        keys[i] = key;
+        containers[i] = container;
+        chunkCount++;
+    }
+
+    private void removeChunk(int i) {
+        System.arraycopy(keys, i + 1, keys, i, chunkCount - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, chunkCount - i - 1);
+        containers[--chunkCount] = null;
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid value.");
+        }
+    }
+
+    /**
+     * Holds the low 16 bits of the values of one chunk.
+     * Mutators return the container to use afterwards, which may be a converted one.
+     */
+    private interface Container {
+        Container add(char low);
+
+        Container remove(char low);
+
+        boolean contains(char low);
+
+        int cardinality();
+
+        int rank(char low);
+
+        char select(int index);
+
+        int selectAbsent(int index);
+
+        int nextAbsent(char low);
+    }
+
+    /**
+     * A sparse chunk stored as a sorted array.
+     */
+    private static final class ArrayContainer implements Container {
+        private char[] values = new char[4];
+        private int size;
+
+        @Override
+        public Container add(char low) {
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if (i >= 0) {
+                return this;
+            }
+            if (size == ARRAY_LIMIT) {
+                return toBitmap().add(low);
+            }
+            i = -i - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = low;
+            size++;
+            return this;
+        }
+
+        @Override
+        public Container remove(char low) {
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public int rank(char low) {
+            int i = Arrays.binarySearch(values, 0, size, low);
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+
+        @Override
+        public char select(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int selectAbsent(int index) {
+            // The answer is index plus the number of present values below it.
+            int low = index;
+            for (int i = 0; i < size && values[i] <= low; i++) {
+                low++;
+            }
+            return low;
+        }
+
+        @Override
+        public int nextAbsent(char low) {
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if (i < 0) {
+                return low;
+            }
+            int candidate = low;
+            while (i < size && values[i] == candidate) {
+                i++;
+                candidate++;
+            }
+            return candidate < CHUNK_SIZE ? candidate : -1;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * A dense chunk stored as a 65536 bit bitmap.
+     */
+    private static final class BitmapContainer implements Container {
+        private final long[] words = new long[CHUNK_SIZE / 64];
+        private int size;
+
+        @Override
+        public Container add(char low) {
+            long mask = 1L << low;
+            int word = low >>> 6;
+            if ((words[word] & mask) == 0) {
+                words[word] |= mask;
+                size++;
+            }
+            return this;
+        }
+
+        @Override
+        public Container remove(char low) {
+            long mask = 1L << low;
+            int word = low >>> 6;
+            if ((words[word] & mask) != 0) {
+                words[word] &= ~mask;
+                size--;
+                if (size <= ARRAY_LIMIT) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public int rank(char low) {
+            int word = low >>> 6;
+            int rank = 0;
+            for (int i = 0; i < word; i++) {
+                rank += Long.bitCount(words[i]);
+            }
+            // Include the bits up to and including the low value itself.
+            long mask = -1L >>> (63 - (low & 63));
+            return rank + Long.bitCount(words[word] & mask);
+        }
+
+        @Override
+        public char select(int index) {
+            return (char) selectIn(words, index, false);
+        }
+
+        @Override
+        public int selectAbsent(int index) {
+            return selectIn(words, index, true);
+        }
+
+        @Override
+        public int nextAbsent(char low) {
+            int word = low >>> 6;
+            long inverted = ~words[word] & (-1L << low);
+            while (inverted == 0) {
+                if (++word == words.length) {
+                    return -1;
+                }
+                inverted = ~words[word];
+            }
+            return word * 64 + Long.numberOfTrailingZeros(inverted);
+        }
+
+        private ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer();
+            for (int word = 0; word < words.length; word++) {
+                long bits = words[word];
+                while (bits != 0) {
+                    array.add((char) (word * 64 + Long.numberOfTrailingZeros(bits)));
+                    bits &= bits - 1;
+                }
+            }
+            return array;
+        }
+
+        private static int selectIn(long[] words, int index, boolean absent) {
+            for (int word = 0; word < words.length; word++) {
+                long bits = absent ? ~words[word] : words[word];
+                int count = Long.bitCount(bits);
+                if (index < count) {
+                    for (int j = 0; j < index; j++) {
+                        bits &= bits - 1;
+                    }
+                    return word * 64 + Long.numberOfTrailingZeros(bits);
+                }
+                index -= count;
+            }
+            return -1;
+        }
+    }
+}
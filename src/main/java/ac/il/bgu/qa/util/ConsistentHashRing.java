@@ -0,0 +1,83 @@
+package ac.il.bgu.qa.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable consistent hash ring mapping string keys to nodes.
+ * Each node is placed on the ring at several virtual points, and a key belongs to the first point
+ * clockwise from its hash. Adding a node only moves the keys that now fall on its points.
+ *
+ * @param <T> The type of the nodes.
+ */
+public class ConsistentHashRing<T> {
+
+    // The virtual points of the ring, keyed by position.
+    private final TreeMap<Long, T> points;
+    // The nodes of the ring, in insertion order.
+    private final List<T> nodes;
+    // Number of virtual points per node.
+    private final int virtualNodes;
+
+    /**
+     * Constructs an empty ring.
+     *
+     * @param virtualNodes The number of virtual points per node, higher values balance better.
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        this(new TreeMap<>(), Collections.emptyList(), virtualNodes);
+    }
+
+    private ConsistentHashRing(TreeMap<Long, T> points, List<T> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Invalid virtual node count.");
+        }
+        this.points = points;
+        this.nodes = nodes;
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Creates a ring that also holds the given node.
+     *
+     * @param name The unique name of the node, which determines its points.
+     * @param node The node to add.
+     * @return The new ring, this ring is left unchanged.
+     */
+    public ConsistentHashRing<T> withNode(String name, T node) {
+        TreeMap<Long, T> newPoints = new TreeMap<>(points);
+        for (int i = 0; i < virtualNodes; i++) {
+            // Collisions are resolved in favour of the earlier node, keeping existing keys in place.
+            newPoints.putIfAbsent(Hashing.hash64(name + "#" + i), node);
+        }
+        List<T> newNodes = new ArrayList<>(nodes);
+        newNodes.add(node);
+        return new ConsistentHashRing<>(newPoints, Collections.unmodifiableList(newNodes), virtualNodes);
+    }
+
+    /**
+     * Finds the node owning a key.
+     *
+     * @param key The key to route.
+     * @return The owning node.
+     */
+    public T nodeFor(String key) {
+        if (points.isEmpty()) {
+            throw new IllegalStateException("Hash ring is empty!");
+        }
+        Map.Entry<Long, T> entry = points.ceilingEntry(Hashing.hash64(key));
+        return entry != null ? entry.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Retrieves the nodes of the ring.
+     *
+     * @return The nodes, in the order they were added.
+     */
+    public List<T> getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,135 @@
+package ac.il.bgu.qa.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A lock-free counter of the available copies of a title, bounded by its total number of copies.
+ * The copies are split over stripes, each with its own capacity, so concurrent checkouts of a hot
+ * title update different cache lines. A thread starts at its own stripe and moves on to the
+ * others only when that stripe has no copy left (or no room for a returned one), so the total
+ * stays exact without any global lock.
+ */
+public class CopyCounter {
+
+    // Ints between the counters of two stripes, so that each stripe sits on its own cache line.
+    private static final int PADDING = 16;
+
+    // Available copies of each stripe, at index stripe * PADDING.
+    private final AtomicIntegerArray available;
+    // The number of copies owned by each stripe.
+    private final int[] capacity;
+    // The total number of copies.
+    private final int total;
+
+    /**
+     * Constructs a counter with every copy available.
+     *
+     * @param total   The total number of copies, at least one.
+     * @param stripes The desired number of stripes, capped at the number of copies.
+     */
+    public CopyCounter(int total, int stripes) {
+        this(total, stripes, total);
+    }
+
+    /**
+     * Constructs a counter with the given number of available copies.
+     *
+     * @param total     The total number of copies, at least one.
+     * @param stripes   The desired number of stripes, capped at the number of copies.
+     * @param available The number of available copies, between zero and the total.
+     */
+    public CopyCounter(int total, int stripes, int available) {
+        if (total <= 0) {
+            throw new IllegalArgumentException("Invalid number of copies.");
+        } else if (stripes <= 0) {
+            throw new IllegalArgumentException("Invalid stripe count.");
+        } else if (available < 0 || available > total) {
+            throw new IllegalArgumentException("Invalid number of available copies.");
+        }
+        int count = Math.min(stripes, total);
+        this.total = total;
+        this.capacity = new int[count];
+        this.available = new AtomicIntegerArray(count * PADDING);
+        int remaining = available;
+        for (int i = 0; i < count; i++) {
+            capacity[i] = total / count + (i < total % count ? 1 : 0);
+            int stripeAvailable = Math.min(capacity[i], remaining);
+            this.available.set(i * PADDING, stripeAvailable);
+            remaining -= stripeAvailable;
+        }
+    }
+
+    /**
+     * Takes one available copy.
+     *
+     * @return true if a copy was taken, false if none was available.
+     */
+    public boolean tryAcquire() {
+        int stripes = capacity.length;
+        int start = probe(stripes);
+        for (int n = 0; n < stripes; n++) {
+            int index = ((start + n) % stripes) * PADDING;
+            int current = available.get(index);
+            while (current > 0) {
+                if (available.compareAndSet(index, current, current - 1)) {
+                    return true;
+                }
+                current = available.get(index);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts one copy back.
+     *
+     * @return true if a copy was put back, false if every copy was already available.
+     */
+    public boolean tryRelease() {
+        int stripes = capacity.length;
+        int start = probe(stripes);
+        for (int n = 0; n < stripes; n++) {
+            int stripe = (start + n) % stripes;
+            int index = stripe * PADDING;
+            int current = available.get(index);
+            while (current < capacity[stripe]) {
+                if (available.compareAndSet(index, current, current + 1)) {
+                    return true;
+                }
+                current = available.get(index);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the available copies.
+     * The result is exact when no checkout or return is in progress.
+     *
+     * @return The number of available copies.
+     */
+    public int getAvailable() {
+        int sum = 0;
+        for (int i = 0; i < capacity.length; i++) {
+            sum += available.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Retrieves the total number of copies.
+     *
+     * @return The number of copies, available or not.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    private static int probe(int stripes) {
+        if (stripes == 1) {
+            return 0;
+        }
+        int h = (int) Hashing.mix64(Thread.currentThread().threadId());
+        return (h & Integer.MAX_VALUE) % stripes;
+    }
+}
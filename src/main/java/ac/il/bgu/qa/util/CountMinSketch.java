@@ -0,0 +1,161 @@
+package ac.il.bgu.qa.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe Count-Min sketch estimating how often each string was counted, in fixed memory.
+ * An estimate never undercounts, and with probability at least the configured confidence it
+ * overcounts by at most epsilon times the total of all counts. Counters are updated with atomic
+ * adds, so concurrent updates and queries never block.
+ * Row positions are derived from one 64-bit hash by Kirsch-Mitzenmacher double hashing.
+ */
+public class CountMinSketch {
+
+    // Number of rows, one counter per row is updated per key.
+    private final int depth;
+    // Number of counters per row.
+    private final int width;
+    // The counters, row after row.
+    private final AtomicLongArray counters;
+    // The total of all counts added.
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * Constructs a sketch sized for an error bound and a confidence.
+     *
+     * @param epsilon    The relative error bound, as a fraction of the total count, between 0 and 1 exclusive.
+     * @param confidence The probability that an estimate is within the bound, between 0 and 1 exclusive.
+     */
+    public CountMinSketch(double epsilon, double confidence) {
+        this(depthFor(confidence), widthFor(epsilon));
+    }
+
+    /**
+     * Constructs a sketch with the given dimensions.
+     *
+     * @param depth The number of rows.
+     * @param width The number of counters per row.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0 || (long) depth * width > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid sketch dimensions.");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    /**
+     * Counts occurrences of a key.
+     *
+     * @param key   The key to count.
+     * @param count The number of occurrences, not negative.
+     */
+    public void add(String key, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid count.");
+        }
+        long h1 = Hashing.hash64(key);
+        long h2 = Long.rotateLeft(h1, 32) * 0x9E3779B97F4A7C15L | 1;
+        for (int row = 0; row < depth; row++) {
+            counters.getAndAdd(row * width + column(h1, h2, row), count);
+        }
+        total.add(count);
+    }
+
+    /**
+     * Estimates how often a key was counted.
+     *
+     * @param key The key to look up.
+     * @return The estimate, never lower than the true count.
+     */
+    public long estimate(String key) {
+        long h1 = Hashing.hash64(key);
+        long h2 = Long.rotateLeft(h1, 32) * 0x9E3779B97F4A7C15L | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(row * width + column(h1, h2, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Retrieves the total of all counts added.
+     *
+     * @return The total count.
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Retrieves the bound on the overcount of an estimate, for the current total.
+     *
+     * @return The maximum overcount, holding with the configured confidence.
+     */
+    public long getErrorBound() {
+        return (long) Math.ceil(Math.E / width * total.sum());
+    }
+
+    /**
+     * Halves every counter and the total, so that old counts weigh less than recent ones.
+     * Counts added concurrently may be halved too.
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            long value;
+            do {
+                value = counters.get(i);
+            } while (!counters.compareAndSet(i, value, value >>> 1));
+        }
+        total.add(-((total.sum() + 1) >>> 1));
+    }
+
+    /**
+     * Resets every counter. Counts added concurrently may be partly lost.
+     */
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        total.reset();
+    }
+
+    /**
+     * Retrieves the number of rows of the sketch.
+     *
+     * @return The depth.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Retrieves the number of counters per row.
+     *
+     * @return The width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    private int column(long h1, long h2, int row) {
+        return (int) (((h1 + row * h2) & Long.MAX_VALUE) % width);
+    }
+
+    // Optimal sizing: w = e / epsilon and d = ln(1 / (1 - confidence)).
+    private static int widthFor(double epsilon) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("Invalid epsilon.");
+        }
+        return (int) Math.ceil(Math.E / epsilon);
+    }
+
+    private static int depthFor(double confidence) {
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("Invalid confidence.");
+        }
+        return Math.max(1, (int) Math.ceil(Math.log(1 / (1 - confidence))));
+    }
+}
@@ -0,0 +1,64 @@
+package ac.il.bgu.qa.util;
+
+/**
+ * Shared helpers for the open-addressing primitive collections in this package.
+ */
+final class HashSupport {
+
+    // Tables are resized once they are three quarters full.
+    private static final int MAX_FILL_NUMERATOR = 3;
+    private static final int MAX_FILL_DENOMINATOR = 4;
+
+    private HashSupport() {
+    }
+
+    /**
+     * Spreads the bits of a key so that sequential keys land on distant slots.
+     *
+     * @param key The key to hash.
+     * @return The mixed hash.
+     */
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Computes a power-of-two table size able to hold the expected number of keys.
+     *
+     * @param expectedSize The expected number of keys.
+     * @return The table size.
+     */
+    static int tableSize(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Invalid expected size.");
+        }
+        long needed = (long) expectedSize * MAX_FILL_DENOMINATOR / MAX_FILL_NUMERATOR + 1;
+        int size = 4;
+        while (size < needed) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Computes the number of keys a table may hold before it has to grow.
+     *
+     * @param tableSize The current table size.
+     * @return The maximum number of keys.
+     */
+    static int maxFill(int tableSize) {
+        return tableSize / MAX_FILL_DENOMINATOR * MAX_FILL_NUMERATOR;
+    }
+
+    /**
+     * Validates that a key can be stored, negative keys are reserved as slot markers.
+     *
+     * @param key The key to validate.
+     */
+    static void checkKey(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid key.");
+        }
+    }
+}
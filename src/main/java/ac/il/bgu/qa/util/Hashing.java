@@ -0,0 +1,41 @@
+package ac.il.bgu.qa.util;
+
+/**
+ * String hashing shared by the probabilistic and partitioning structures of the library.
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * Computes a well-mixed 64-bit hash of a string.
+     * Uses 64-bit FNV-1a over the chars, finished with the murmur3 avalanche step.
+     *
+     * @param key The string to hash.
+     * @return The 64-bit hash.
+     */
+    public static long hash64(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * Applies the murmur3 finalizer to a 64-bit value.
+     *
+     * @param h The value to mix.
+     * @return The mixed value.
+     */
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
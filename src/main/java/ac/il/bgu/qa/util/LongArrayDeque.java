@@ -0,0 +1,153 @@
+package ac.il.bgu.qa.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A compact double-ended queue of long values backed by a growable ring buffer.
+ * Values are stored unboxed, so a queue costs eight bytes per element plus a small header.
+ * This class is not thread-safe.
+ */
+public class LongArrayDeque {
+
+    // The ring buffer, its length is always a power of two.
+    private long[] elements;
+    // Index of the first element.
+    private int head;
+    // Number of elements currently stored.
+    private int size;
+
+    /**
+     * Constructs an empty queue with a small initial capacity.
+     */
+    public LongArrayDeque() {
+        this(4);
+    }
+
+    /**
+     * Constructs an empty queue able to hold the expected number of elements without resizing.
+     *
+     * @param expectedSize The expected number of elements.
+     */
+    public LongArrayDeque(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Invalid expected size.");
+        }
+        this.elements = new long[Math.max(2, Integer.highestOneBit(Math.max(1, expectedSize - 1)) << 1)];
+    }
+
+    /**
+     * Appends a value at the tail of the queue.
+     *
+     * @param value The value to append.
+     */
+    public void addLast(long value) {
+        ensureCapacity();
+        elements[(head + size) & (elements.length - 1)] = value;
+        size++;
+    }
+
+    /**
+     * Inserts a value at the head of the queue.
+     *
+     * @param value The value to insert.
+     */
+    public void addFirst(long value) {
+        ensureCapacity();
+        head = (head - 1) & (elements.length - 1);
+        elements[head] = value;
+        size++;
+    }
+
+    /**
+     * Removes and returns the value at the head of the queue.
+     *
+     * @return The first value.
+     */
+    public long pollFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException("Queue is empty!");
+        }
+        long value = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return value;
+    }
+
+    /**
+     * Retrieves, without removing, the value at a position of the queue.
+     *
+     * @param index The zero-based position, 0 being the head.
+     * @return The value at the position.
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index);
+        }
+        return elements[(head + index) & (elements.length - 1)];
+    }
+
+    /**
+     * Finds the position of the first occurrence of a value.
+     *
+     * @param value The value to look for.
+     * @return The zero-based position of the value or -1 if it is not in the queue.
+     */
+    public int indexOf(long value) {
+        int mask = elements.length - 1;
+        for (int i = 0; i < size; i++) {
+            if (elements[(head + i) & mask] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the first occurrence of a value, keeping the order of the other values.
+     *
+     * @param value The value to remove.
+     * @return true if the value was in the queue, otherwise false.
+     */
+    public boolean remove(long value) {
+        int index = indexOf(value);
+        if (index < 0) {
+            return false;
+        }
+        int mask = elements.length - 1;
+        for (int i = index; i < size - 1; i++) {
+            elements[(head + i) & mask] = elements[(head + i + 1) & mask];
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Counts the values in the queue.
+     *
+     * @return The number of values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the queue is empty.
+     *
+     * @return true if the queue holds no values, otherwise false.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void ensureCapacity() {
+        if (size < elements.length) {
+            return;
+        }
+        long[] grown = new long[elements.length * 2];
+        for (int i = 0; i < size; i++) {
+            grown[i] = elements[(head + i) & (elements.length - 1)];
+        }
+        elements = grown;
+        head = 0;
+    }
+}
@@ -0,0 +1,182 @@
+package ac.il.bgu.qa.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A compact open-addressing set of non-negative long values.
+ * Values are stored inline in a single array, so no boxing or per-entry objects are allocated.
+ * This class is not thread-safe.
+ */
+public class LongHashSet {
+    // Marker for a free slot. Stored values must be non-negative.
+    static final long EMPTY = -1L;
+
+    // Slots of the linear-probing table.
+    private long[] slots;
+    // Number of values currently stored.
+    private int size;
+
+    /**
+     * Constructs an empty set with a small initial capacity.
+     */
+    public LongHashSet() {
+        this(4);
+    }
+
+    /**
+     * Constructs an empty set able to hold the expected number of values without resizing.
+     *
+     * @param expectedSize The expected number of values.
+     */
+    public LongHashSet(int expectedSize) {
+        slots = new long[HashSupport.tableSize(expectedSize)];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value The non-negative value to add.
+     * @return true if the value was added, false if it was already present.
+     */
+    public boolean add(long value) {
+        HashSupport.checkKey(value);
+        int mask = slots.length - 1;
+        int i = HashSupport.mix(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        if (++size > HashSupport.maxFill(slots.length)) {
+            rehash(slots.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a value is present in the set.
+     *
+     * @param value The value to look up.
+     * @return true if the value is present, otherwise false.
+     */
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Removes a value from the set.
+     *
+     * @param value The value to remove.
+     * @return true if the value was present, otherwise false.
+     */
+    public boolean remove(long value) {
+        int i = indexOf(value);
+        if (i < 0) {
+            return false;
+        }
+        shiftBack(i);
+        size--;
+        return true;
+    }
+
+    /**
+     * Retrieves the number of values in the set.
+     *
+     * @return The size of the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the set holds no values.
+     *
+     * @return true if the set is empty, otherwise false.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Passes every value of the set to the given consumer, in no particular order.
+     *
+     * @param consumer The consumer receiving the values.
+     */
+    public void forEach(LongConsumer consumer) {
+        for (long slot : slots) {
+            if (slot != EMPTY) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    /**
+     * Copies the values of the set into a new array, in no particular order.
+     *
+     * @return An array holding every value of the set.
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int n = 0;
+        for (long slot : slots) {
+            if (slot != EMPTY) {
+                values[n++] = slot;
+            }
+        }
+        return values;
+    }
+
+    private int indexOf(long value) {
+        if (value < 0) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        int i = HashSupport.mix(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones.
+    private void shiftBack(int hole) {
+        int mask = slots.length - 1;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            long value = slots[i];
+            if (value == EMPTY) {
+                break;
+            }
+            int home = HashSupport.mix(value) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                slots[hole] = value;
+                hole = i;
+            }
+        }
+        slots[hole] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        slots = new long[capacity];
+        Arrays.fill(slots, EMPTY);
+        int mask = capacity - 1;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int i = HashSupport.mix(value) & mask;
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ac.il.bgu.qa.util;
+
+import java.util.Arrays;
+
+/**
+ * A compact open-addressing map from non-negative long keys to long values.
+ * Both keys and values are stored unboxed in parallel arrays. This class is not thread-safe.
+ */
+public class LongLongHashMap {
+
+    // Keys of the linear-probing table, LongHashSet.EMPTY marks a free slot.
+    private long[] keys;
+    // Values stored at the same index as their keys.
+    private long[] values;
+    // Number of entries currently stored.
+    private int size;
+
+    /**
+     * Constructs an empty map with a small initial capacity.
+     */
+    public LongLongHashMap() {
+        this(4);
+    }
+
+    /**
+     * Constructs an empty map able to hold the expected number of entries without resizing.
+     *
+     * @param expectedSize The expected number of entries.
+     */
+    public LongLongHashMap(int expectedSize) {
+        int capacity = HashSupport.tableSize(expectedSize);
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, LongHashSet.EMPTY);
+    }
+
+    /**
+     * Retrieves the value mapped to a key.
+     *
+     * @param key          The key to look up.
+     * @param missingValue The value to return when the key is absent.
+     * @return The mapped value or missingValue if the key is absent.
+     */
+    public long get(long key, long missingValue) {
+        int i = indexOf(key);
+        return i < 0 ? missingValue : values[i];
+    }
+
+    /**
+     * Checks whether a key is mapped.
+     *
+     * @param key The key to look up.
+     * @return true if the key is present, otherwise false.
+     */
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous mapping.
+     *
+     * @param key   The non-negative key.
+     * @param value The value to map.
+     */
+    public void put(long key, long value) {
+        HashSupport.checkKey(key);
+        int mask = keys.length - 1;
+        int i = HashSupport.mix(key) & mask;
+        while (keys[i] != LongHashSet.EMPTY) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > HashSupport.maxFill(keys.length)) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Removes the mapping of a key.
+     *
+     * @param key The key to remove.
+     * @return true if the key was present, otherwise false.
+     */
+    public boolean remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return false;
+        }
+        shiftBack(i);
+        size--;
+        return true;
+    }
+
+    /**
+     * Retrieves the number of entries in the map.
+     *
+     * @return The size of the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int indexOf(long key) {
+        if (key < 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int i = HashSupport.mix(key) & mask;
+        while (keys[i] != LongHashSet.EMPTY) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones.
+    private void shiftBack(int hole) {
+        int mask = keys.length - 1;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == LongHashSet.EMPTY) {
+                break;
+            }
+            int home = HashSupport.mix(key) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = key;
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = LongHashSet.EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, LongHashSet.EMPTY);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != LongHashSet.EMPTY) {
+                int i = HashSupport.mix(oldKeys[j]) & mask;
+                while (keys[i] != LongHashSet.EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
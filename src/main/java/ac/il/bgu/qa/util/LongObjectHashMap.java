@@ -0,0 +1,184 @@
+package ac.il.bgu.qa.util;
+
+import java.util.Arrays;
+
+/**
+ * A compact open-addressing map from non-negative long keys to object values.
+ * Keys are stored unboxed in a parallel array. This class is not thread-safe.
+ *
+ * @param <V> The type of the mapped values.
+ */
+public class LongObjectHashMap<V> {
+
+    /**
+     * Receives the entries of a map during iteration.
+     *
+     * @param <V> The type of the mapped values.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    // Keys of the linear-probing table, LongHashSet.EMPTY marks a free slot.
+    private long[] keys;
+    // Values stored at the same index as their keys.
+    private Object[] values;
+    // Number of entries currently stored.
+    private int size;
+
+    /**
+     * Constructs an empty map with a small initial capacity.
+     */
+    public LongObjectHashMap() {
+        this(4);
+    }
+
+    /**
+     * Constructs an empty map able to hold the expected number of entries without resizing.
+     *
+     * @param expectedSize The expected number of entries.
+     */
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = HashSupport.tableSize(expectedSize);
+        keys = new long[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keys, LongHashSet.EMPTY);
+    }
+
+    /**
+     * Retrieves the value mapped to a key.
+     *
+     * @param key The key to look up.
+     * @return The mapped value or null if the key is absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous mapping.
+     *
+     * @param key   The non-negative key.
+     * @param value The value to map.
+     * @return The previously mapped value or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        HashSupport.checkKey(key);
+        int mask = keys.length - 1;
+        int i = HashSupport.mix(key) & mask;
+        while (keys[i] != LongHashSet.EMPTY) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > HashSupport.maxFill(keys.length)) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of a key.
+     *
+     * @param key The key to remove.
+     * @return The previously mapped value or null if the key was absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        V previous = (V) values[i];
+        shiftBack(i);
+        size--;
+        return previous;
+    }
+
+    /**
+     * Retrieves the number of entries in the map.
+     *
+     * @return The size of the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Passes every entry of the map to the given consumer, in no particular order.
+     *
+     * @param consumer The consumer receiving the entries.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != LongHashSet.EMPTY) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private int indexOf(long key) {
+        if (key < 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int i = HashSupport.mix(key) & mask;
+        while (keys[i] != LongHashSet.EMPTY) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones.
+    private void shiftBack(int hole) {
+        int mask = keys.length - 1;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == LongHashSet.EMPTY) {
+                break;
+            }
+            int home = HashSupport.mix(key) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = key;
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = LongHashSet.EMPTY;
+        values[hole] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keys, LongHashSet.EMPTY);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != LongHashSet.EMPTY) {
+                int i = HashSupport.mix(oldKeys[j]) & mask;
+                while (keys[i] != LongHashSet.EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
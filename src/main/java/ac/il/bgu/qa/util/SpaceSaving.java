@@ -0,0 +1,282 @@
+package ac.il.bgu.qa.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe Space-Saving tracker of the most frequent strings, in fixed memory.
+ * At most a fixed number of keys are monitored. A new key replaces the key with the lowest count
+ * and inherits that count as its possible overcount, so that every key whose true count exceeds
+ * the total divided by the capacity is guaranteed to be monitored.
+ * Counting a monitored key is a lock-free atomic add. The keys are also kept in a stream-summary:
+ * buckets of equal counts in a list sorted by count, so that the key with the lowest count is the
+ * first of the first bucket. Lock-free adds don't move keys between buckets, so a key's bucket may
+ * be lower than its count; replacing a key, which takes a lock, moves such keys forward as it
+ * meets them at the front. A key moves at most once per bucket it was counted past, so replacing
+ * a key takes amortized constant time instead of a scan over the monitored keys.
+ */
+public class SpaceSaving {
+
+    /**
+     * The count of a monitored key.
+     */
+    public static final class Counter {
+        private final String key;
+        private final AtomicLong count;
+        private final long error;
+        // The bucket holding the counter and its neighbours there, guarded by the lock.
+        private Bucket bucket;
+        private Counter previous;
+        private Counter next;
+
+        private Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = new AtomicLong(count);
+            this.error = error;
+        }
+
+        /**
+         * Retrieves the monitored key.
+         *
+         * @return The key.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Retrieves the count of the key, which may overcount by up to the error.
+         *
+         * @return The count.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Retrieves the maximum overcount, the count inherited when the key started being monitored.
+         *
+         * @return The error of the count.
+         */
+        public long getError() {
+            return error;
+        }
+    }
+
+    /**
+     * The counters placed at one count, in a list of buckets sorted by count.
+     */
+    private static final class Bucket {
+        final long count;
+        Counter first;
+        Counter last;
+        Bucket previous;
+        Bucket next;
+
+        Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    // Maximum number of monitored keys.
+    private final int capacity;
+    // The monitored keys.
+    private final Map<String, Counter> counters;
+    // Guards the replacement of keys and the buckets.
+    private final ReentrantLock lock = new ReentrantLock();
+    // The bucket of the lowest count, null when no key is monitored. Guarded by the lock.
+    private Bucket lowest;
+
+    /**
+     * Constructs a new tracker.
+     *
+     * @param capacity The maximum number of monitored keys.
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity.");
+        }
+        this.capacity = capacity;
+        this.counters = new ConcurrentHashMap<>(capacity * 2);
+    }
+
+    /**
+     * Counts occurrences of a key.
+     *
+     * @param key   The key to count.
+     * @param count The number of occurrences, not negative.
+     */
+    public void add(String key, long count) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            // A count racing with the replacement of this key may land in the dropped counter.
+            counter.count.addAndGet(count);
+            return;
+        }
+        lock.lock();
+        addLocked(key, count);
+    }
+
+    /**
+     * Counts one occurrence of a key, unless it isn't monitored and another thread is replacing a
+     * key right now. For callers on a hot path that can afford to lose counts under contention.
+     *
+     * @param key The key to count.
+     * @return true if the occurrence was counted, otherwise false.
+     */
+    public boolean offer(String key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count.incrementAndGet();
+            return true;
+        }
+        if (!lock.tryLock()) {
+            return false;
+        }
+        addLocked(key, 1);
+        return true;
+    }
+
+    // Counts occurrences of a key that may not be monitored. Must hold the lock, which it releases.
+    private void addLocked(String key, long count) {
+        try {
+            Counter counter = counters.get(key);
+            if (counter != null) {
+                counter.count.addAndGet(count);
+            } else if (counters.size() < capacity) {
+                counter = new Counter(key, count, 0);
+                place(counter, count, null);
+                counters.put(key, counter);
+            } else {
+                Counter minimum = lowestCounter();
+                Bucket from = minimum.bucket;
+                unlink(minimum);
+                counters.remove(minimum.key);
+                long inherited = minimum.count.get();
+                counter = new Counter(key, inherited + count, inherited);
+                place(counter, inherited + count, from.first == null ? lowest : from);
+                counters.put(key, counter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Finds the counter with the lowest count, moving the counters counted past their bucket
+    // forward on the way. Must hold the lock, with at least one key monitored.
+    private Counter lowestCounter() {
+        while (true) {
+            Counter candidate = lowest.first;
+            long count = candidate.count.get();
+            if (count == lowest.count) {
+                return candidate;
+            }
+            Bucket from = lowest;
+            unlink(candidate);
+            place(candidate, count, from.first == null ? lowest : from);
+        }
+    }
+
+    // Adds a counter to the bucket of the given count, creating it if needed. Searches forward from
+    // the given bucket, whose count must not be higher, or from the lowest one if null.
+    // Must hold the lock.
+    private void place(Counter counter, long count, Bucket from) {
+        Bucket before = null;
+        Bucket bucket = from == null ? lowest : from;
+        while (bucket != null && bucket.count < count) {
+            before = bucket;
+            bucket = bucket.next;
+        }
+        if (bucket == null || bucket.count != count) {
+            Bucket created = new Bucket(count);
+            created.previous = before;
+            created.next = bucket;
+            if (bucket != null) {
+                bucket.previous = created;
+            }
+            if (before != null) {
+                before.next = created;
+            } else {
+                lowest = created;
+            }
+            bucket = created;
+        }
+        counter.bucket = bucket;
+        counter.previous = bucket.last;
+        counter.next = null;
+        if (bucket.last != null) {
+            bucket.last.next = counter;
+        } else {
+            bucket.first = counter;
+        }
+        bucket.last = counter;
+    }
+
+    // Removes a counter from its bucket, and the bucket from the list once it is empty.
+    // Must hold the lock.
+    private void unlink(Counter counter) {
+        Bucket bucket = counter.bucket;
+        if (counter.previous != null) {
+            counter.previous.next = counter.next;
+        } else {
+            bucket.first = counter.next;
+        }
+        if (counter.next != null) {
+            counter.next.previous = counter.previous;
+        } else {
+            bucket.last = counter.previous;
+        }
+        counter.bucket = null;
+        counter.previous = null;
+        counter.next = null;
+        if (bucket.first == null) {
+            if (bucket.previous != null) {
+                bucket.previous.next = bucket.next;
+            } else {
+                lowest = bucket.next;
+            }
+            if (bucket.next != null) {
+                bucket.next.previous = bucket.previous;
+            }
+        }
+    }
+
+    /**
+     * Lists the monitored keys with the highest counts.
+     *
+     * @param limit The maximum number of keys to list.
+     * @return The counters, highest count first.
+     */
+    public List<Counter> top(int limit) {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        sorted.sort(Comparator.comparingLong(Counter::getCount).reversed());
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+
+    /**
+     * Stops monitoring every key.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            counters.clear();
+            lowest = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the maximum number of monitored keys.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,125 @@
+package ac.il.bgu.qa.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An append-only pool of strings stored back to back as UTF-8 bytes in a single growable array.
+ * Each string is prefixed with its length as a variable-length integer, so a string is referenced
+ * by its int offset and costs its encoded size plus one or two bytes, with no object header.
+ * This class is not thread-safe.
+ */
+public class Utf8Pool {
+
+    // The encoded strings, back to back.
+    private byte[] bytes;
+    // Number of bytes in use.
+    private int size;
+
+    /**
+     * Constructs an empty pool.
+     *
+     * @param initialCapacity The initial capacity, in bytes.
+     */
+    public Utf8Pool(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity.");
+        }
+        this.bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Appends a string to the pool.
+     *
+     * @param value The string to append.
+     * @return The offset referencing the string.
+     */
+    public int append(String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(size + 5 + encoded.length);
+        int offset = size;
+        int length = encoded.length;
+        while (length >= 0x80) {
+            bytes[size++] = (byte) (length | 0x80);
+            length >>>= 7;
+        }
+        bytes[size++] = (byte) length;
+        System.arraycopy(encoded, 0, bytes, size, encoded.length);
+        size += encoded.length;
+        return offset;
+    }
+
+    /**
+     * Decodes the string at an offset.
+     *
+     * @param offset The offset returned when the string was appended.
+     * @return The string.
+     */
+    public String get(int offset) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[offset++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether the string at an offset equals a given string, without decoding it.
+     *
+     * @param offset The offset returned when the string was appended.
+     * @param value  The string to compare with.
+     * @return true if the strings are equal, otherwise false.
+     */
+    public boolean matches(int offset, String value) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[offset++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        if (length == value.length()) {
+            // Pure ASCII strings compare char by char.
+            int i = 0;
+            while (i < length && value.charAt(i) < 0x80 && bytes[offset + i] == value.charAt(i)) {
+                i++;
+            }
+            if (i == length) {
+                return true;
+            } else if (value.charAt(i) < 0x80 && bytes[offset + i] >= 0) {
+                return false;
+            }
+        }
+        return get(offset - varintSize(length)).equals(value);
+    }
+
+    /**
+     * Retrieves the number of bytes in use.
+     *
+     * @return The size of the pool, in bytes.
+     */
+    public int size() {
+        return size;
+    }
+
+    private static int varintSize(int value) {
+        int count = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            count++;
+        }
+        return count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            byte[] grown = new byte[Math.max(capacity, bytes.length + (bytes.length >> 1))];
+            System.arraycopy(bytes, 0, grown, 0, size);
+            bytes = grown;
+        }
+    }
+}
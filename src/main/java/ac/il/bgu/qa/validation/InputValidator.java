@@ -0,0 +1,161 @@
+package ac.il.bgu.qa.validation;
+
+import ac.il.bgu.qa.cache.CacheStats;
+import ac.il.bgu.qa.cache.StripedLruCache;
+
+/**
+ * Validates the ISBNs, author names and user Ids given to the library, without regular expressions.
+ * Author names are checked a character at a time: ASCII characters are classified with a lookup
+ * table, and only other characters fall back to {@link Character#isLetter(char)}.
+ * The outcome of author checks can be memoized, for bulk loads that repeat the same authors.
+ * Safe to share between threads.
+ */
+public class InputValidator {
+
+    // Classes of characters in author names.
+    private static final byte INVALID = 0;
+    private static final byte LETTER = 1;
+    // May follow itself.
+    private static final byte SEPARATOR = 2;
+    // Must not follow itself.
+    private static final byte UNREPEATABLE = 3;
+
+    // The class of every ASCII character.
+    private static final byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII_CLASSES[c] = LETTER;
+            ASCII_CLASSES[Character.toUpperCase(c)] = LETTER;
+        }
+        ASCII_CLASSES[' '] = SEPARATOR;
+        ASCII_CLASSES['.'] = SEPARATOR;
+        ASCII_CLASSES['-'] = UNREPEATABLE;
+        ASCII_CLASSES['\''] = UNREPEATABLE;
+    }
+
+    // Memoized outcomes of author checks, null when disabled.
+    private final StripedLruCache<String, Boolean> authors;
+
+    /**
+     * Constructs a validator that doesn't memoize author checks.
+     */
+    public InputValidator() {
+        this.authors = null;
+    }
+
+    /**
+     * Constructs a validator that memoizes the outcome of author checks.
+     *
+     * @param authorCacheCapacity The maximum number of memoized author names.
+     */
+    public InputValidator(int authorCacheCapacity) {
+        this.authors = new StripedLruCache<>(authorCacheCapacity);
+    }
+
+    /**
+     * Validates a user Id, which must be exactly 12 ASCII digits.
+     *
+     * @param userId The user Id to validate.
+     * @return true if valid, false otherwise.
+     */
+    public boolean isValidUserId(String userId) {
+        if (userId == null || userId.length() != 12) {
+            return false;
+        }
+        for (int i = 0; i < 12; i++) {
+            char c = userId.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates an ISBN-13: once hyphens are removed, 13 ASCII digits whose last digit is the
+     * check digit of the first twelve.
+     *
+     * @param ISBN The International Standard Book Number to validate.
+     * @return true if valid, false otherwise.
+     */
+    public boolean isValidISBN(String ISBN) {
+        if (ISBN == null) {
+            return false;
+        }
+        int digits = 0;
+        int sum = 0;
+        int last = 0;
+        for (int i = 0; i < ISBN.length(); i++) {
+            char c = ISBN.charAt(i);
+            if (c == '-') {
+                continue;
+            } else if (c < '0' || c > '9' || digits == 13) {
+                return false;
+            }
+            last = c - '0';
+            // Digits at even positions count once, at odd positions three times.
+            if (digits < 12) {
+                sum += (digits & 1) == 0 ? last : last * 3;
+            }
+            digits++;
+        }
+        return digits == 13 && (10 - sum % 10) % 10 == last;
+    }
+
+    /**
+     * Validates an author name. A valid name starts and ends with a letter, contains only letters,
+     * hyphens, spaces, dots and apostrophes, and has no "--" or "''". Other runs of these, such as
+     * ". " or "-'", are allowed.
+     *
+     * @param name The name of the author.
+     * @return true if valid, false otherwise.
+     */
+    public boolean isValidAuthor(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        StripedLruCache<String, Boolean> cache = authors;
+        if (cache == null) {
+            return checkAuthor(name);
+        }
+        Boolean valid = cache.getIfPresent(name);
+        if (valid == null) {
+            valid = checkAuthor(name);
+            cache.put(name, valid);
+        }
+        return valid;
+    }
+
+    /**
+     * Retrieves the hit-ratio metrics of the memoized author checks.
+     *
+     * @return A snapshot of the cache counters, or null if author checks aren't memoized.
+     */
+    public CacheStats getAuthorCacheStats() {
+        return authors == null ? null : authors.stats();
+    }
+
+    private static boolean checkAuthor(String name) {
+        int length = name.length();
+        if (classOf(name.charAt(0)) != LETTER || classOf(name.charAt(length - 1)) != LETTER) {
+            return false;
+        }
+        // The last character is a letter, so only the ones before it can be invalid or doubled.
+        for (int i = 1; i < length - 1; i++) {
+            char c = name.charAt(i);
+            byte current = classOf(c);
+            if (current == INVALID || (current == UNREPEATABLE && name.charAt(i - 1) == c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte classOf(char c) {
+        if (c < 128) {
+            return ASCII_CLASSES[c];
+        }
+        return Character.isLetter(c) ? LETTER : INVALID;
+    }
+}
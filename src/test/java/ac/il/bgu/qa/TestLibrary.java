@@ -1,6 +1,13 @@
 package ac.il.bgu.qa;
 
 import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.feed.BusySpinWaitStrategy;
+import ac.il.bgu.qa.feed.ChangeFeed;
+import ac.il.bgu.qa.feed.ChangeType;
+import ac.il.bgu.qa.index.ExistenceFilter;
+import ac.il.bgu.qa.index.MultiVersionLoanStore;
+import ac.il.bgu.qa.loans.OverdueEngine;
+import ac.il.bgu.qa.loans.Waitlist;
 import ac.il.bgu.qa.services.*;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -14,9 +21,16 @@ import org.mockito.stubbing.Answer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.bytebuddy.matcher.ElementMatchers.is;
 
@@ -39,6 +53,27 @@ public class TestLibrary {
 
     Book book = Mockito.mock(Book.class);
     User user = Mockito.mock(User.class);
+
+    // A library over a real in-memory database, for tests that follow state across several calls.
+    InMemoryDatabaseService inMemoryDatabaseService;
+    Library inMemoryLibrary;
+
+    @BeforeEach
+    void BeforeEach() {
+        inMemoryDatabaseService = new InMemoryDatabaseService();
+        inMemoryLibrary = new Library(inMemoryDatabaseService, reviewServiceMock);
+    }
+
+    // Adds a single copy of a book for each ISBN, then registers a user for each Id, to the in-memory library.
+    private void addBooksAndUsers(List<String> ISBNs, List<String> userIds) {
+        for (String ISBN : ISBNs) {
+            inMemoryLibrary.addBook(new Book(ISBN, "TITLE", "AUTHOR"));
+        }
+        for (String userId : userIds) {
+            inMemoryLibrary.registerUser(new User("Test User", userId, notificationServiceMock));
+        }
+    }
+
     @AfterEach
     void AfterEach() {
         Mockito.reset(databaseServiceMock, reviewServiceMock);
@@ -151,6 +186,343 @@ public class TestLibrary {
         Mockito.verify(databaseServiceMock).borrowBook("0000000000000", "111111111111");
         Mockito.verify(book).borrow();
     }
+    @Test
+    public void GivenExistenceFilterMiss_WhenBorrowBook_ThenThrowsBookNotFoundExceptionWithoutDatabaseLookup() {
+        library.setExistenceFilter(new ExistenceFilter(100, 100, 0.01));
+        Assertions.assertThrows(BookNotFoundException.class, () -> library.borrowBook("0000000000000", "111111111111"), "Book not found!");
+        Mockito.verify(databaseServiceMock, Mockito.never()).getBookByISBN("0000000000000");
+    }
+
+    @Test
+    public void GivenBookIsAlreadyBorrowed_WhenTryBorrow_ThenReturnsBookAlreadyBorrowed() {
+        Mockito.when(databaseServiceMock.getBookByISBN("0000000000000")).thenReturn(book);
+        Mockito.when(databaseServiceMock.getUserById("111111111111")).thenReturn(user);
+        Mockito.when(book.isBorrowed()).thenReturn(true);
+        Assertions.assertEquals(LoanStatus.BOOK_ALREADY_BORROWED, library.tryBorrow("0000000000000", "111111111111"));
+        Mockito.verify(databaseServiceMock, Mockito.never()).borrowBook(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void GivenAllGood_WhenTryBorrowAndTryReturn_ThenReturnsSuccess() {
+        Mockito.when(databaseServiceMock.getBookByISBN("0000000000000")).thenReturn(book);
+        Mockito.when(databaseServiceMock.getUserById("111111111111")).thenReturn(user);
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryBorrow("0000000000000", "111111111111"));
+        Mockito.when(book.isBorrowed()).thenReturn(true);
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryReturn("0000000000000"));
+        Assertions.assertEquals(LoanStatus.INVALID_ISBN, library.tryReturn("1"));
+    }
+
+    @Test
+    public void GivenStacklessExceptions_WhenBorrowBorrowedBook_ThenExceptionHasNoStackTrace() {
+        library.setStacklessExceptions(true);
+        Mockito.when(databaseServiceMock.getBookByISBN("0000000000000")).thenReturn(book);
+        Mockito.when(databaseServiceMock.getUserById("111111111111")).thenReturn(user);
+        Mockito.when(book.isBorrowed()).thenReturn(true);
+        BookAlreadyBorrowedException e = Assertions.assertThrows(BookAlreadyBorrowedException.class, () -> library.borrowBook("0000000000000", "111111111111"));
+        Assertions.assertEquals("Book is already borrowed!", e.getMessage());
+        Assertions.assertEquals(0, e.getStackTrace().length);
+        e.addSuppressed(new IllegalStateException());
+        Assertions.assertEquals(1, e.getSuppressed().length);
+    }
+
+    @Test
+    public void GivenBookWithSeveralCopies_WhenBorrowBook_ThenEachUserGetsACopyUntilNoneLeft() {
+        inMemoryLibrary.addBook(new Book("0000000000000", "TITLE", "AUTHOR", 2));
+        addBooksAndUsers(List.of(), List.of("111111111111", "222222222222", "333333333333"));
+        inMemoryLibrary.borrowBook("0000000000000", "111111111111");
+        Assertions.assertThrows(BookAlreadyBorrowedException.class, () -> inMemoryLibrary.borrowBook("0000000000000", "111111111111"), "Book is already borrowed!");
+        inMemoryLibrary.borrowBook("0000000000000", "222222222222");
+        Assertions.assertThrows(BookAlreadyBorrowedException.class, () -> inMemoryLibrary.borrowBook("0000000000000", "333333333333"), "Book is already borrowed!");
+        Assertions.assertEquals(LoanStatus.AMBIGUOUS_RETURN, inMemoryLibrary.tryReturn("0000000000000"));
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> inMemoryLibrary.returnBook("0000000000000"));
+        Assertions.assertEquals("Book is borrowed by several users!", e.getMessage());
+        Assertions.assertEquals(LoanStatus.BOOK_NOT_BORROWED, inMemoryLibrary.tryReturn("0000000000000", "333333333333"));
+        inMemoryLibrary.returnBook("0000000000000", "111111111111");
+        inMemoryLibrary.borrowBook("0000000000000", "333333333333");
+        Assertions.assertEquals(List.of("0000000000000"), inMemoryLibrary.getBooksBorrowedBy("333333333333"));
+        Assertions.assertTrue(inMemoryLibrary.getBooksBorrowedBy("111111111111").isEmpty());
+    }
+
+    @Test
+    public void GivenSameUserBorrowingConcurrently_WhenBookHasSeveralCopies_ThenUserGetsOneCopy() throws InterruptedException {
+        inMemoryLibrary.addBook(new Book("0000000000000", "TITLE", "AUTHOR", 2));
+        addBooksAndUsers(List.of(), List.of("111111111111"));
+        for (int round = 0; round < 200; round++) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                threads.add(Thread.ofPlatform().start(() -> inMemoryLibrary.tryBorrow("0000000000000", "111111111111")));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assertions.assertEquals(1, inMemoryDatabaseService.getBookByISBN("0000000000000").getBorrowedCopies());
+            Assertions.assertEquals(LoanStatus.SUCCESS, inMemoryLibrary.tryReturn("0000000000000", "111111111111"));
+        }
+    }
+
+    @Test
+    public void GivenConcurrentBorrowsAndReturns_WhenDone_ThenAvailabilityIndexMatchesBook() throws InterruptedException {
+        addBooksAndUsers(List.of("0000000000000"), List.of());
+        Book shared = inMemoryDatabaseService.getBookByISBN("0000000000000");
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String userId = String.format("%012d", t + 1);
+            addBooksAndUsers(List.of(), List.of(userId));
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    // Return the copy whoever holds it, so that borrows and returns interleave across threads.
+                    if (inMemoryLibrary.tryBorrow("0000000000000", userId) != LoanStatus.SUCCESS) {
+                        inMemoryLibrary.tryReturn("0000000000000");
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(!shared.isBorrowed(), inMemoryLibrary.getAvailabilityIndex().isAvailable("0000000000000"));
+        inMemoryLibrary.tryReturn("0000000000000");
+        Assertions.assertTrue(inMemoryLibrary.getAvailabilityIndex().isAvailable("0000000000000"));
+    }
+
+    @Test
+    public void GivenOverdueEngine_WhenBorrowAndReturnBook_ThenLoanIsTrackedUntilReturned() {
+        OverdueEngine overdueEngine = new OverdueEngine(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC), Duration.ofDays(14), Duration.ofDays(2), Duration.ofMinutes(1));
+        inMemoryLibrary.setOverdueEngine(overdueEngine);
+        addBooksAndUsers(List.of("0000000000000"), List.of("111111111111"));
+        inMemoryLibrary.borrowBook("0000000000000", "111111111111");
+        Assertions.assertEquals(Instant.EPOCH.plus(Duration.ofDays(14)), overdueEngine.getDueDate("0000000000000", "111111111111"));
+        inMemoryLibrary.returnBook("0000000000000");
+        Assertions.assertNull(overdueEngine.getDueDate("0000000000000", "111111111111"));
+        Assertions.assertEquals(0, overdueEngine.getLoanCount());
+    }
+
+    @Test
+    public void GivenWaitlist_WhenBorrowedBookIsReturned_ThenNextWaiterGetsItAndIsNotified() throws NotificationException {
+        inMemoryLibrary.setWaitlist(new Waitlist());
+        addBooksAndUsers(List.of("0000000000000"), List.of("111111111111", "222222222222", "333333333333"));
+        Assertions.assertEquals(LoanStatus.SUCCESS, inMemoryLibrary.tryReserve("0000000000000", "111111111111"));
+        Assertions.assertEquals(LoanStatus.RESERVED, inMemoryLibrary.tryReserve("0000000000000", "222222222222"));
+        Assertions.assertEquals(LoanStatus.RESERVED, inMemoryLibrary.tryReserve("0000000000000", "333333333333"));
+        inMemoryLibrary.returnBook("0000000000000");
+        Assertions.assertEquals("222222222222", inMemoryLibrary.getBorrower("0000000000000"));
+        Mockito.verify(notificationServiceMock).notifyUser(Mockito.eq("222222222222"), Mockito.contains("TITLE"));
+        Assertions.assertTrue(inMemoryLibrary.cancelReservation("0000000000000", "333333333333"));
+        inMemoryLibrary.returnBook("0000000000000");
+        Assertions.assertNull(inMemoryLibrary.getBorrower("0000000000000"));
+        Assertions.assertTrue(inMemoryLibrary.getAvailabilityIndex().isAvailable("0000000000000"));
+    }
+
+    @Test
+    public void GivenChangeFeed_WhenLibraryIsMutated_ThenEachMutationIsPublished() {
+        ChangeFeed changeFeed = new ChangeFeed(16, new BusySpinWaitStrategy());
+        ChangeFeed.Consumer consumer = changeFeed.newConsumer();
+        inMemoryLibrary.setChangeFeed(changeFeed);
+        addBooksAndUsers(List.of("0000000000000"), List.of("111111111111"));
+        inMemoryLibrary.borrowBook("0000000000000", "111111111111");
+        Assertions.assertThrows(BookAlreadyBorrowedException.class, () -> inMemoryLibrary.borrowBook("0000000000000", "111111111111"));
+        inMemoryLibrary.returnBook("0000000000000");
+        List<String> events = new ArrayList<>();
+        consumer.poll((event, endOfBatch) -> events.add(event.getType() + " " + event.getISBN() + " " + event.getUserId()), 16);
+        Assertions.assertEquals(List.of("BOOK_ADDED 0000000000000 null", "USER_REGISTERED null 111111111111",
+                "BOOK_BORROWED 0000000000000 111111111111", "BOOK_RETURNED 0000000000000 111111111111"), events);
+    }
+
+    @Test
+    public void GivenOneBookUnavailable_WhenTransactionCommits_ThenNothingIsBorrowed() {
+        addBooksAndUsers(List.of("0000000000000", "9780306406157"), List.of("111111111111", "222222222222"));
+        inMemoryLibrary.borrowBook("9780306406157", "222222222222");
+        Library.Transaction transaction = inMemoryLibrary.beginTransaction()
+                .borrow("0000000000000", "111111111111")
+                .borrow("9780306406157", "111111111111");
+        Assertions.assertThrows(BookAlreadyBorrowedException.class, transaction::commit);
+        Assertions.assertEquals(1, transaction.getFailedOperation());
+        Assertions.assertNull(inMemoryLibrary.getBorrower("0000000000000"));
+        Assertions.assertTrue(inMemoryLibrary.getAvailabilityIndex().isAvailable("0000000000000"));
+    }
+
+    @Test
+    public void GivenValidOperations_WhenTransactionCommits_ThenAllAreApplied() {
+        addBooksAndUsers(List.of("0000000000000", "9780306406157"), List.of("111111111111"));
+        inMemoryLibrary.borrowBook("0000000000000", "111111111111");
+        Library.Transaction transaction = inMemoryLibrary.beginTransaction()
+                .returnBook("0000000000000", "111111111111")
+                .borrow("9780306406157", "111111111111");
+        Assertions.assertEquals(LoanStatus.SUCCESS, transaction.tryCommit());
+        Assertions.assertEquals(List.of("9780306406157"), inMemoryLibrary.getBooksBorrowedBy("111111111111"));
+        Assertions.assertThrows(IllegalStateException.class, transaction::commit);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> inMemoryLibrary.beginTransaction()
+                .borrow("0000000000000", "111111111111").returnBook("0000000000000", "111111111111"));
+    }
+
+    @Test
+    public void GivenSlowDatabaseLoan_WhenOthersUseTheSameAndOtherBooks_ThenTheyAreNotBlocked() throws InterruptedException {
+        InMemoryDatabaseService databaseService = Mockito.spy(inMemoryDatabaseService);
+        inMemoryLibrary = new Library(databaseService, reviewServiceMock);
+        inMemoryLibrary.addBook(new Book("0000000000000", "TITLE", "AUTHOR", 2));
+        addBooksAndUsers(List.of("9780306406157"), List.of("111111111111", "222222222222"));
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            entered.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(databaseService).borrowBook("0000000000000", "111111111111");
+        Thread slow = Thread.ofPlatform().start(() -> inMemoryLibrary.tryBorrow("0000000000000", "111111111111"));
+        Assertions.assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            Assertions.assertEquals(LoanStatus.SUCCESS, inMemoryLibrary.tryBorrow("0000000000000", "222222222222"));
+            Assertions.assertEquals(LoanStatus.SUCCESS, inMemoryLibrary.beginTransaction().borrow("9780306406157", "222222222222").tryCommit());
+        });
+        release.countDown();
+        slow.join();
+        Assertions.assertEquals(List.of("0000000000000"), inMemoryLibrary.getBooksBorrowedBy("111111111111"));
+        Assertions.assertEquals(2, databaseService.getBookByISBN("0000000000000").getBorrowedCopies());
+        Assertions.assertFalse(inMemoryLibrary.getAvailabilityIndex().isAvailable("0000000000000"));
+    }
+
+    @Test
+    public void GivenSelfCountingStore_WhenLastCopyIsTakenDuringCommit_ThenTransactionStartsOverAndFails() {
+        ColumnarDatabaseService databaseService = Mockito.spy(new ColumnarDatabaseService(16));
+        inMemoryLibrary = new Library(databaseService, reviewServiceMock);
+        addBooksAndUsers(List.of("0000000000000", "9780306406157"), List.of("111111111111", "222222222222"));
+
+        // Lend the last copy through the store right after the transaction read the book.
+        AtomicInteger reads = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+            Object book = invocation.callRealMethod();
+            if (reads.incrementAndGet() == 1) {
+                databaseService.borrowBook("9780306406157", "222222222222");
+            }
+            return book;
+        }).when(databaseService).getBookByISBN("9780306406157");
+
+        Library.Transaction transaction = inMemoryLibrary.beginTransaction()
+                .borrow("0000000000000", "111111111111")
+                .borrow("9780306406157", "111111111111");
+        Assertions.assertEquals(LoanStatus.BOOK_ALREADY_BORROWED, transaction.tryCommit());
+        Assertions.assertEquals(1, transaction.getFailedOperation());
+        Assertions.assertEquals(2, transaction.getAttempts());
+        Assertions.assertFalse(databaseService.getBookByISBN("0000000000000").isBorrowed());
+        Assertions.assertTrue(inMemoryLibrary.getBooksBorrowedBy("111111111111").isEmpty());
+        Assertions.assertTrue(inMemoryLibrary.getAvailabilityIndex().isAvailable("0000000000000"));
+    }
+
+    @Test
+    public void GivenDatabaseFailure_WhenTransactionCommits_ThenAppliedOperationsAreUndone() {
+        InMemoryDatabaseService databaseService = Mockito.spy(inMemoryDatabaseService);
+        inMemoryLibrary = new Library(databaseService, reviewServiceMock);
+        addBooksAndUsers(List.of("0000000000000", "9780306406157"), List.of("111111111111"));
+        Book first = databaseService.getBookByISBN("0000000000000");
+        Mockito.doThrow(new RuntimeException("Database down")).when(databaseService).borrowBook("9780306406157", "111111111111");
+        Library.Transaction transaction = inMemoryLibrary.beginTransaction()
+                .borrow("0000000000000", "111111111111")
+                .borrow("9780306406157", "111111111111");
+        Assertions.assertThrows(RuntimeException.class, transaction::tryCommit);
+        Mockito.verify(databaseService).returnBook("0000000000000", "111111111111");
+        Assertions.assertFalse(first.isBorrowed());
+        Assertions.assertEquals(0, first.getVersion() & 1);
+        Assertions.assertTrue(databaseService.getBorrowers("0000000000000").isEmpty());
+    }
+
+    @Test
+    public void GivenConcurrentTransactionsOnSharedBooks_WhenCommitted_ThenStateStaysConsistent() throws InterruptedException {
+        List<String> ISBNs = List.of("0000000000000", "9780306406157", "9780306406164", "9780306406171");
+        addBooksAndUsers(ISBNs, List.of());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            String userId = String.format("%012d", t + 1);
+            addBooksAndUsers(List.of(), List.of(userId));
+            String firstISBN = ISBNs.get(t % 4);
+            String secondISBN = ISBNs.get((t + 1) % 4);
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 200; i++) {
+                    LoanStatus status = inMemoryLibrary.beginTransaction()
+                            .borrow(firstISBN, userId).borrow(secondISBN, userId).tryCommit();
+                    if (status == LoanStatus.SUCCESS) {
+                        Assertions.assertEquals(LoanStatus.SUCCESS, inMemoryLibrary.beginTransaction()
+                                .returnBook(secondISBN, userId).returnBook(firstISBN, userId).tryCommit());
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(4, inMemoryLibrary.getAvailabilityIndex().getAvailableCount());
+        for (String ISBN : ISBNs) {
+            Assertions.assertNull(inMemoryLibrary.getBorrower(ISBN));
+        }
+    }
+
+    @Test
+    public void GivenTransactionsAndSingleLoansOnSharedBooks_WhenDone_ThenEveryReturnSucceedsAndStateIsConsistent() throws InterruptedException {
+        List<String> ISBNs = List.of("0000000000000", "9780306406157", "9780306406164", "9780306406171");
+        addBooksAndUsers(ISBNs, List.of());
+        AtomicInteger failedReturns = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            String userId = String.format("%012d", t + 1);
+            addBooksAndUsers(List.of(), List.of(userId));
+            String firstISBN = ISBNs.get(t % 4);
+            String secondISBN = ISBNs.get((t + 1) % 4);
+            boolean transactional = t % 2 == 0;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 500; i++) {
+                    if (transactional) {
+                        if (inMemoryLibrary.beginTransaction().borrow(firstISBN, userId).borrow(secondISBN, userId).tryCommit() == LoanStatus.SUCCESS
+                                && inMemoryLibrary.beginTransaction().returnBook(secondISBN, userId).returnBook(firstISBN, userId).tryCommit() != LoanStatus.SUCCESS) {
+                            failedReturns.incrementAndGet();
+                        }
+                    } else if (inMemoryLibrary.tryBorrow(firstISBN, userId) == LoanStatus.SUCCESS
+                            && inMemoryLibrary.tryReturn(firstISBN, userId) != LoanStatus.SUCCESS) {
+                        failedReturns.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(0, failedReturns.get());
+        Assertions.assertEquals(4, inMemoryLibrary.getAvailabilityIndex().getAvailableCount());
+        for (String ISBN : ISBNs) {
+            Assertions.assertNull(inMemoryLibrary.getBorrower(ISBN));
+            Assertions.assertEquals(0, inMemoryDatabaseService.getBookByISBN(ISBN).getBorrowedCopies());
+            Assertions.assertTrue(inMemoryDatabaseService.getBorrowers(ISBN).isEmpty());
+        }
+    }
+
+    @Test
+    public void GivenMultiVersionStore_WhenBookReturnedAfterSnapshot_ThenSnapshotStillSeesLoan() {
+        MultiVersionLoanStore versionStore = new MultiVersionLoanStore();
+        inMemoryLibrary.setMultiVersionStore(versionStore);
+        addBooksAndUsers(List.of("0000000000000"), List.of("111111111111"));
+        inMemoryLibrary.borrowBook("0000000000000", "111111111111");
+        try (MultiVersionLoanStore.Snapshot snapshot = versionStore.openSnapshot()) {
+            inMemoryLibrary.returnBook("0000000000000");
+            Assertions.assertEquals(List.of("111111111111"), snapshot.getBorrowers("0000000000000"));
+            Assertions.assertFalse(snapshot.isAvailable("0000000000000"));
+        }
+        try (MultiVersionLoanStore.Snapshot snapshot = versionStore.openSnapshot()) {
+            Assertions.assertTrue(snapshot.isAvailable("0000000000000"));
+        }
+    }
+
+    @Test
+    public void GivenMultiVersionStoreInstalledDuringLoan_WhenBookReturned_ThenReturnSucceedsAndIsPublished() {
+        ChangeFeed changeFeed = new ChangeFeed(16, new BusySpinWaitStrategy());
+        ChangeFeed.Consumer consumer = changeFeed.newConsumer();
+        addBooksAndUsers(List.of("0000000000000"), List.of("111111111111"));
+        inMemoryLibrary.borrowBook("0000000000000", "111111111111");
+        inMemoryLibrary.setMultiVersionStore(new MultiVersionLoanStore());
+        inMemoryLibrary.setChangeFeed(changeFeed);
+        Assertions.assertEquals(LoanStatus.SUCCESS, inMemoryLibrary.tryReturn("0000000000000", "111111111111"));
+        List<ChangeType> events = new ArrayList<>();
+        consumer.poll((event, endOfBatch) -> events.add(event.getType()), 16);
+        Assertions.assertEquals(List.of(ChangeType.BOOK_RETURNED), events);
+    }
+
     @ParameterizedTest
     @ValueSource(strings = {"","a111111111111", "11111111111","1111111111111","aaaaaaaaaaaa","            "})
     public void GivenISBNInvalid_WhenReturnBook_ThenThrowsIllegalArgumentException(String ISBN) {
@@ -0,0 +1,107 @@
+package ac.il.bgu.qa.analytics;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestSlidingTopK {
+
+    /**
+     * A clock that only moves when told to.
+     */
+    private static class ManualClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private ManualClock clock;
+    private SlidingTopK slidingTopK;
+
+    @BeforeEach
+    public void init() {
+        clock = new ManualClock();
+        slidingTopK = new SlidingTopK(clock, Duration.ofMinutes(10), 10, 64, 0.001, 0.99);
+    }
+
+    @Test
+    public void GivenSkewedTraffic_WhenTop_ThenHeavyHittersAreRankedWithinErrorBounds() {
+        Random random = new Random(3);
+        long[] trueCounts = new long[1000];
+        for (int i = 0; i < 50_000; i++) {
+            // Zipf-like: low ids are far more popular.
+            int id = (int) Math.min(999, Math.floor(Math.pow(random.nextDouble(), 3) * 1000));
+            trueCounts[id]++;
+            slidingTopK.add(String.valueOf(id), 1);
+        }
+        List<TrendingEntry> top = slidingTopK.top(3);
+        Assertions.assertEquals(List.of("0", "1", "2"), List.of(top.get(0).getISBN(), top.get(1).getISBN(), top.get(2).getISBN()));
+        for (TrendingEntry entry : top) {
+            long trueCount = trueCounts[Integer.parseInt(entry.getISBN())];
+            Assertions.assertTrue(entry.getEstimate() >= trueCount);
+            Assertions.assertTrue(entry.getLowerBound() <= trueCount);
+        }
+    }
+
+    @Test
+    public void GivenOldTraffic_WhenWindowSlidesPast_ThenItIsForgotten() {
+        slidingTopK.add("old", 100);
+        clock.advance(Duration.ofMinutes(5));
+        slidingTopK.add("new", 10);
+        Assertions.assertEquals("old", slidingTopK.top(1).get(0).getISBN());
+        clock.advance(Duration.ofMinutes(6));
+        Assertions.assertEquals(List.of("new"), names(slidingTopK.top(5)));
+        Assertions.assertEquals(10, slidingTopK.estimate("new").getEstimate());
+        clock.advance(Duration.ofMinutes(10));
+        Assertions.assertTrue(slidingTopK.top(5).isEmpty());
+    }
+
+    @Test
+    public void GivenConcurrentAdds_WhenCounted_ThenNoCountIsLost() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    slidingTopK.add("hot", 1);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(40_000, slidingTopK.estimate("hot").getEstimate());
+        Assertions.assertEquals(40_000, slidingTopK.top(1).get(0).getEstimate());
+    }
+
+    private static List<String> names(List<TrendingEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (TrendingEntry entry : entries) {
+            names.add(entry.getISBN());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,123 @@
+package ac.il.bgu.qa.feed;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+public class TestChangeFeed {
+
+    @Test
+    public void GivenPublishedEvents_WhenPoll_ThenHandledInOrderAndInBatches() {
+        ChangeFeed changeFeed = new ChangeFeed(8, new BusySpinWaitStrategy());
+        ChangeFeed.Consumer consumer = changeFeed.newConsumer();
+        changeFeed.publish(ChangeType.BOOK_ADDED, "9780306406157", null);
+        changeFeed.publish(ChangeType.USER_REGISTERED, null, "123456789012");
+        changeFeed.publish(ChangeType.BOOK_BORROWED, "9780306406157", "123456789012");
+        List<ChangeType> types = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        Assertions.assertEquals(2, consumer.poll((event, endOfBatch) -> {
+            types.add(event.getType());
+            ends.add(endOfBatch);
+        }, 2));
+        Assertions.assertEquals(List.of(ChangeType.BOOK_ADDED, ChangeType.USER_REGISTERED), types);
+        Assertions.assertEquals(List.of(false, true), ends);
+        Assertions.assertEquals(1, consumer.getLag());
+        Assertions.assertEquals(1, consumer.poll((event, endOfBatch) -> Assertions.assertEquals("123456789012", event.getUserId()), 16));
+        Assertions.assertEquals(0, consumer.poll((event, endOfBatch) -> Assertions.fail(), 16));
+    }
+
+    @Test
+    public void GivenConsumerKeepingUp_WhenRingWraps_ThenEveryEventIsReadInOrder() throws InterruptedException {
+        ChangeFeed changeFeed = new ChangeFeed(4, new YieldingWaitStrategy());
+        ChangeFeed.Consumer consumer = changeFeed.newConsumer();
+        List<String> ISBNs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            changeFeed.publish(ChangeType.BOOK_RETURNED, String.valueOf(i), null);
+            if (i % 3 == 2) {
+                consumer.take((event, endOfBatch) -> ISBNs.add(event.getISBN()), 4);
+            }
+        }
+        consumer.poll((event, endOfBatch) -> ISBNs.add(event.getISBN()), 4);
+        Assertions.assertFalse(consumer.isDetached());
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(String.valueOf(i), ISBNs.get(i));
+        }
+    }
+
+    @Test
+    public void GivenConcurrentProducers_WhenBlockingConsumerTakes_ThenEverySequenceIsSeenOnce() throws InterruptedException {
+        ChangeFeed changeFeed = new ChangeFeed(1 << 16, new BlockingWaitStrategy());
+        ChangeFeed.Consumer consumer = changeFeed.newConsumer();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            producers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    changeFeed.publish(ChangeType.BOOK_BORROWED, "9780306406157", "123456789012");
+                }
+            }));
+        }
+        long[] expected = {0};
+        while (expected[0] < 40_000) {
+            consumer.take((event, endOfBatch) -> Assertions.assertEquals(expected[0]++, event.getSequence()), 256);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Assertions.assertEquals(39_999, consumer.getSequence());
+        consumer.close();
+    }
+
+    @Test
+    public void GivenStuckConsumer_WhenRingWraps_ThenProducerDetachesItWithoutWaiting() {
+        ChangeFeed changeFeed = new ChangeFeed(4, new BusySpinWaitStrategy());
+        ChangeFeed.Consumer stuck = changeFeed.newConsumer();
+        ChangeFeed.Consumer reader = changeFeed.newConsumer();
+        List<String> ISBNs = new ArrayList<>();
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            for (int i = 0; i < 10; i++) {
+                changeFeed.publish(ChangeType.BOOK_RETURNED, String.valueOf(i), null);
+                reader.poll((event, endOfBatch) -> ISBNs.add(event.getISBN()), 16);
+                Assertions.assertEquals(i >= 4, stuck.isDetached());
+            }
+        });
+        Assertions.assertEquals(10, ISBNs.size());
+        Assertions.assertTrue(stuck.isDetached());
+        Assertions.assertFalse(reader.isDetached());
+        Assertions.assertThrows(IllegalStateException.class, () -> stuck.poll((event, endOfBatch) -> Assertions.fail(), 16));
+    }
+
+    @Test
+    public void GivenConcurrentProducers_WhenConsumersRegister_ThenEachReadsTheNextEvent() throws InterruptedException {
+        ChangeFeed changeFeed = new ChangeFeed(1 << 16, new YieldingWaitStrategy());
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            producers.add(Thread.ofPlatform().start(() -> {
+                while (!done.get()) {
+                    changeFeed.publish(ChangeType.BOOK_BORROWED, "9780306406157", "123456789012");
+                    // Keep well within the ring, so that the new consumers aren't lapped.
+                    LockSupport.parkNanos(1_000);
+                }
+            }));
+        }
+        try {
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                for (int i = 0; i < 1_000; i++) {
+                    try (ChangeFeed.Consumer consumer = changeFeed.newConsumer()) {
+                        long expected = consumer.getSequence() + 1;
+                        consumer.take((event, endOfBatch) -> Assertions.assertEquals(expected, event.getSequence()), 1);
+                    }
+                }
+            });
+        } finally {
+            done.set(true);
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        }
+    }
+}
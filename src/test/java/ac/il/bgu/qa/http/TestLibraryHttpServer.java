@@ -0,0 +1,168 @@
+package ac.il.bgu.qa.http;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.services.InMemoryDatabaseService;
+import ac.il.bgu.qa.services.NotificationService;
+import ac.il.bgu.qa.services.ReviewService;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestLibraryHttpServer {
+
+    private Library library;
+    private ReviewService mockReviewService;
+    private NotificationService mockNotificationService;
+    private LibraryHttpServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    public void init() throws IOException {
+        mockReviewService = Mockito.mock(ReviewService.class);
+        mockNotificationService = Mockito.mock(NotificationService.class);
+        library = new Library(new InMemoryDatabaseService(), mockReviewService);
+        library.addBook(new Book("9780306406157", "Title", "Author"));
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    public void close() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private void startServer(int maxInFlight) throws IOException {
+        server = new LibraryHttpServer(library, mockNotificationService,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), maxInFlight);
+        server.start();
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void GivenRegisteredUser_WhenBorrowAndReturnOverHttp_ThenLibraryIsUpdated() throws IOException, InterruptedException {
+        startServer(16);
+        HttpResponse<String> registered = post("/users", "{\"id\": \"123456789012\", \"name\": \"Reader\"}");
+        Assertions.assertEquals(201, registered.statusCode());
+        Assertions.assertEquals("{\"id\":\"123456789012\",\"name\":\"Reader\"}", registered.body());
+
+        HttpResponse<String> borrowed = post("/books/9780306406157/borrow", "{\"userId\":\"123456789012\"}");
+        Assertions.assertEquals(200, borrowed.statusCode());
+        Assertions.assertEquals("123456789012", library.getBorrower("9780306406157"));
+        HttpResponse<String> again = post("/books/9780306406157/borrow", "{\"userId\":\"123456789012\"}");
+        Assertions.assertEquals(409, again.statusCode());
+        Assertions.assertEquals("{\"status\":\"BOOK_ALREADY_BORROWED\"}", again.body());
+
+        Assertions.assertEquals(200, post("/books/9780306406157/return", "{}").statusCode());
+        Assertions.assertNull(library.getBorrower("9780306406157"));
+    }
+
+    @Test
+    public void GivenBook_WhenLookedUpOverHttp_ThenBookIsReturnedAsJson() throws IOException, InterruptedException {
+        startServer(16);
+        post("/users", "{\"id\":\"123456789012\",\"name\":\"Reader\"}");
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort()
+                + "/books/9780306406157?userId=123456789012")).GET().build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals("{\"isbn\":\"9780306406157\",\"title\":\"Title\",\"author\":\"Author\",\"borrowed\":false,"
+                + "\"totalCopies\":1,\"availableCopies\":1}", response.body());
+    }
+
+    @Test
+    public void GivenUnknownBookOrBadInput_WhenRequested_ThenErrorStatusIsReturned() throws IOException, InterruptedException {
+        startServer(16);
+        Assertions.assertEquals(404, post("/books/9780306406164/borrow", "{\"userId\":\"123456789012\"}").statusCode());
+        Assertions.assertEquals(400, post("/users", "{\"id\":\"12\",\"name\":\"Reader\"}").statusCode());
+        Assertions.assertEquals(400, post("/users", "{\"id\":").statusCode());
+    }
+
+    @Test
+    public void GivenInFlightLimitReached_WhenAnotherRequestArrives_ThenItIsShed() throws Exception {
+        startServer(1);
+        post("/users", "{\"id\":\"123456789012\",\"name\":\"Reader\"}");
+        Mockito.when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(List.of("Great"));
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            entered.countDown();
+            release.await();
+            return null;
+        }).when(mockNotificationService).notifyUser(Mockito.anyString(), Mockito.anyString());
+
+        CompletableFuture<HttpResponse<String>> slow = CompletableFuture.supplyAsync(() -> {
+            try {
+                return post("/books/9780306406157/notify", "{\"userId\":\"123456789012\"}");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        entered.await();
+        HttpResponse<String> shed = post("/books/9780306406157/borrow", "{\"userId\":\"123456789012\"}");
+        Assertions.assertEquals(503, shed.statusCode());
+        Assertions.assertEquals("1", shed.headers().firstValue("Retry-After").orElse(null));
+        release.countDown();
+        Assertions.assertEquals(204, slow.get().statusCode());
+        Assertions.assertEquals(1, server.getShedCount());
+    }
+
+    @Test
+    public void GivenHandlerFailingAfterItsResponse_WhenAdmitted_ThenHeadersAreSentOnceAndExchangeIsClosed() throws IOException {
+        startServer(1);
+        HttpExchange exchange = Mockito.mock(HttpExchange.class);
+        AtomicInteger responseCode = new AtomicInteger(-1);
+        Mockito.when(exchange.getResponseCode()).thenAnswer(invocation -> responseCode.get());
+        Mockito.when(exchange.getResponseHeaders()).thenReturn(new Headers());
+        Mockito.when(exchange.getResponseBody()).thenReturn(new ByteArrayOutputStream());
+        Mockito.doAnswer(invocation -> {
+            responseCode.set(invocation.getArgument(0));
+            return null;
+        }).when(exchange).sendResponseHeaders(Mockito.anyInt(), Mockito.anyLong());
+
+        server.admit(exchange, () -> {
+            exchange.sendResponseHeaders(204, -1);
+            throw new IllegalStateException("Failed after the response!");
+        });
+
+        Mockito.verify(exchange, Mockito.times(1)).sendResponseHeaders(Mockito.anyInt(), Mockito.anyLong());
+        Mockito.verify(exchange).close();
+        // The permit was released: a request failing before its response still gets its error status.
+        responseCode.set(-1);
+        server.admit(exchange, () -> {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        });
+        Mockito.verify(exchange).sendResponseHeaders(Mockito.eq(400), Mockito.anyLong());
+        Assertions.assertEquals(0, server.getShedCount());
+    }
+
+    @Test
+    public void GivenEscapedJson_WhenReadObject_ThenValuesAreUnescaped() {
+        Assertions.assertEquals("a\"b\\c\u00e9", JsonCodec.readObject("{\"k\":\"a\\\"b\\\\c\\u00e9\"}").get("k"));
+        Assertions.assertNull(JsonCodec.readObject("{\"k\":null}").get("k"));
+        Assertions.assertEquals("12", JsonCodec.readObject(" { \"k\" : 12 } ").get("k"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> JsonCodec.readObject("{\"k\":{}}"));
+        StringBuilder out = new StringBuilder();
+        JsonCodec.writeString("line\n\"q\"\u0001", out);
+        Assertions.assertEquals("\"line\\n\\\"q\\\"\\u0001\"", out.toString());
+    }
+}
@@ -0,0 +1,64 @@
+package ac.il.bgu.qa.index;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+public class TestAvailabilityIndex {
+
+    AvailabilityIndex availabilityIndex = new AvailabilityIndex();
+
+    private static String isbn(int i) {
+        return String.format("%013d", i);
+    }
+
+    @Test
+    public void GivenRegisteredBooks_WhenBorrowAndReturn_ThenCountsAreUpdated() {
+        availabilityIndex.register(isbn(1));
+        availabilityIndex.register(isbn(2));
+        availabilityIndex.register(isbn(1));
+        availabilityIndex.setBorrowed(isbn(2), true);
+        Assertions.assertEquals(2, availabilityIndex.getBookCount());
+        Assertions.assertEquals(1, availabilityIndex.getAvailableCount());
+        Assertions.assertFalse(availabilityIndex.isAvailable(isbn(2)));
+        availabilityIndex.setBorrowed(isbn(2), false);
+        Assertions.assertEquals(2, availabilityIndex.getAvailableCount());
+        Assertions.assertEquals(List.of(isbn(1), isbn(2)), availabilityIndex.listAvailable(0, 10));
+    }
+
+    @Test
+    public void GivenRandomBorrowState_WhenQueryingIndex_ThenMatchesBitSet() {
+        int books = 200_000;
+        for (int i = 0; i < books; i++) {
+            availabilityIndex.register(isbn(i));
+        }
+        BitSet expected = new BitSet(books);
+        Random random = new Random(42);
+        for (int step = 0; step < 300_000; step++) {
+            // Concentrate borrows in the first chunk so that it turns into a dense bitmap.
+            int ordinal = step % 3 == 0 ? random.nextInt(books) : random.nextInt(20_000);
+            boolean borrowed = random.nextInt(4) != 0;
+            availabilityIndex.setBorrowed(isbn(ordinal), borrowed);
+            expected.set(ordinal, borrowed);
+        }
+        Assertions.assertEquals(books - expected.cardinality(), availabilityIndex.getAvailableCount());
+
+        List<Integer> available = new ArrayList<>();
+        availabilityIndex.forEachAvailable(available::add);
+        List<Integer> expectedAvailable = new ArrayList<>();
+        for (int i = expected.nextClearBit(0); i < books; i = expected.nextClearBit(i + 1)) {
+            expectedAvailable.add(i);
+        }
+        Assertions.assertEquals(expectedAvailable, available);
+
+        for (int k = 0; k < expectedAvailable.size(); k += 997) {
+            int ordinal = expectedAvailable.get(k);
+            Assertions.assertEquals(ordinal, availabilityIndex.selectAvailable(k));
+            Assertions.assertEquals(k, availabilityIndex.rankAvailable(ordinal));
+        }
+        Assertions.assertEquals(-1, availabilityIndex.selectAvailable(expectedAvailable.size()));
+    }
+}
@@ -0,0 +1,89 @@
+package ac.il.bgu.qa.index;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TestExistenceFilter {
+
+    ExistenceFilter existenceFilter = new ExistenceFilter(10_000, 10_000, 0.01);
+
+    @Test
+    public void GivenAddedKeys_WhenMightContain_ThenReturnsTrue() {
+        for (int i = 0; i < 10_000; i++) {
+            existenceFilter.addBook(String.format("%013d", i));
+            existenceFilter.addUser(String.format("%012d", i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            Assertions.assertTrue(existenceFilter.mightContainBook(String.format("%013d", i)));
+            Assertions.assertTrue(existenceFilter.mightContainUser(String.format("%012d", i)));
+        }
+    }
+
+    @Test
+    public void GivenFullFilter_WhenLookingUpUnknownKeys_ThenFalsePositiveRateIsNearConfigured() {
+        for (int i = 0; i < 10_000; i++) {
+            existenceFilter.addBook(String.format("%013d", i));
+        }
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) {
+            if (existenceFilter.mightContainBook(String.format("%013d", i))) {
+                falsePositives++;
+            }
+        }
+        Assertions.assertTrue(falsePositives < 2_000, "False positives: " + falsePositives);
+    }
+
+    @Test
+    public void GivenStoreScan_WhenRebuild_ThenOnlyScannedKeysAreKnown() {
+        existenceFilter.addBook("0000000000000");
+        List<String> ISBNs = new ArrayList<>(List.of("1290000000004"));
+        existenceFilter.rebuild(ISBNs, List.of("111111111111"));
+        Assertions.assertTrue(existenceFilter.mightContainBook("1290000000004"));
+        Assertions.assertTrue(existenceFilter.mightContainUser("111111111111"));
+        Assertions.assertFalse(existenceFilter.mightContainBook("0000000000000"));
+    }
+
+    @Test
+    public void GivenAddsDuringRepeatedRebuilds_WhenDone_ThenEveryAddedKeyIsKnown() throws InterruptedException {
+        // The store, which the rebuilds scan while keys are added to it.
+        Set<String> ISBNs = ConcurrentHashMap.newKeySet();
+        Set<String> userIds = ConcurrentHashMap.newKeySet();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread rebuilder = new Thread(() -> {
+            while (!done.get()) {
+                existenceFilter.rebuild(ISBNs, userIds);
+            }
+        });
+        rebuilder.start();
+        List<Thread> adders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int first = t * 2_500;
+            Thread adder = new Thread(() -> {
+                for (int i = first; i < first + 2_500; i++) {
+                    String ISBN = String.format("%013d", i);
+                    String userId = String.format("%012d", i);
+                    ISBNs.add(ISBN);
+                    existenceFilter.addBook(ISBN);
+                    userIds.add(userId);
+                    existenceFilter.addUser(userId);
+                }
+            });
+            adders.add(adder);
+            adder.start();
+        }
+        for (Thread adder : adders) {
+            adder.join();
+        }
+        done.set(true);
+        rebuilder.join();
+        for (int i = 0; i < 10_000; i++) {
+            Assertions.assertTrue(existenceFilter.mightContainBook(String.format("%013d", i)));
+            Assertions.assertTrue(existenceFilter.mightContainUser(String.format("%012d", i)));
+        }
+    }
+}
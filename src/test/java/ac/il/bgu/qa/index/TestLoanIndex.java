@@ -0,0 +1,60 @@
+package ac.il.bgu.qa.index;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+public class TestLoanIndex {
+
+    LoanIndex loanIndex = new LoanIndex();
+
+    @Test
+    public void GivenNoLoans_WhenGetBooksBorrowedBy_ThenReturnsEmptyList() {
+        Assertions.assertTrue(loanIndex.getBooksBorrowedBy("111111111111").isEmpty());
+        Assertions.assertNull(loanIndex.getBorrower("0000000000000"));
+    }
+
+    @Test
+    public void GivenLoans_WhenGetBooksBorrowedBy_ThenReturnsBooksOfUser() {
+        loanIndex.recordLoan("0000000000000", "111111111111");
+        loanIndex.recordLoan("1290-000000004", "111111111111");
+        loanIndex.recordLoan("1000000000009", "222222222222");
+        List<String> books = loanIndex.getBooksBorrowedBy("111111111111");
+        Assertions.assertEquals(2, books.size());
+        Assertions.assertTrue(books.containsAll(List.of("0000000000000", "1290000000004")));
+        Assertions.assertEquals("222222222222", loanIndex.getBorrower("1000000000009"));
+        Assertions.assertEquals(3, loanIndex.size());
+    }
+
+    @Test
+    public void GivenLoan_WhenReleaseLoan_ThenBookIsRemovedFromUser() {
+        loanIndex.recordLoan("0000000000000", "111111111111");
+        Assertions.assertEquals("111111111111", loanIndex.releaseLoan("0000000000000"));
+        Assertions.assertNull(loanIndex.releaseLoan("0000000000000"));
+        Assertions.assertEquals(0, loanIndex.countBooksBorrowedBy("111111111111"));
+        Assertions.assertEquals(0, loanIndex.size());
+    }
+
+    @Test
+    public void GivenManyLoans_WhenReleasingHalf_ThenRemainingLoansAreKept() {
+        for (int i = 0; i < 1000; i++) {
+            loanIndex.recordLoan(String.format("%013d", i), String.format("%012d", i % 7));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            loanIndex.releaseLoan(String.format("%013d", i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            String expected = i % 2 == 0 ? null : String.format("%012d", i % 7);
+            Assertions.assertEquals(expected, loanIndex.getBorrower(String.format("%013d", i)));
+        }
+        Assertions.assertEquals(500, loanIndex.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "11111111111", "1111111111111", "a11111111111"})
+    public void GivenInvalidUserId_WhenEncodeUserId_ThenThrowsIllegalArgumentException(String userId) {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LoanIndex.encodeUserId(userId));
+    }
+}
@@ -0,0 +1,105 @@
+package ac.il.bgu.qa.index;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestMultiVersionLoanStore {
+
+    MultiVersionLoanStore store = new MultiVersionLoanStore();
+
+    @Test
+    public void GivenSnapshot_WhenBooksChangeAfterwards_ThenSnapshotStillSeesOldState() {
+        store.registerBook("0000000000000", 2);
+        store.recordBorrow("0000000000000", "111111111111");
+        try (MultiVersionLoanStore.Snapshot snapshot = store.openSnapshot()) {
+            store.recordBorrow("0000000000000", "222222222222");
+            store.registerBook("9780306406157", 1);
+            Assertions.assertEquals(1, snapshot.getBorrowedCopies("0000000000000"));
+            Assertions.assertTrue(snapshot.isAvailable("0000000000000"));
+            Assertions.assertEquals(List.of("111111111111"), snapshot.getBorrowers("0000000000000"));
+            Assertions.assertEquals(-1, snapshot.getBorrowedCopies("9780306406157"));
+            List<String> loans = new ArrayList<>();
+            snapshot.forEachLoan((ISBN, userId) -> loans.add(ISBN + "/" + userId));
+            Assertions.assertEquals(List.of("0000000000000/111111111111"), loans);
+        }
+        try (MultiVersionLoanStore.Snapshot snapshot = store.openSnapshot()) {
+            Assertions.assertFalse(snapshot.isAvailable("0000000000000"));
+            Assertions.assertEquals(List.of("111111111111", "222222222222"), snapshot.getBorrowers("0000000000000"));
+        }
+    }
+
+    @Test
+    public void GivenNoBorrowedCopy_WhenRecordReturn_ThenReturnIsIgnored() {
+        store.registerBook("0000000000000", 1);
+        store.recordReturn("0000000000000", "111111111111");
+        store.recordReturn("9780306406157", null);
+        Assertions.assertEquals(1, store.getVersionCount());
+        try (MultiVersionLoanStore.Snapshot snapshot = store.openSnapshot()) {
+            Assertions.assertEquals(0, snapshot.getBorrowedCopies("0000000000000"));
+            Assertions.assertTrue(snapshot.isAvailable("0000000000000"));
+        }
+    }
+
+    @Test
+    public void GivenClosedSnapshots_WhenWritersContinue_ThenOldVersionsAreCollected() {
+        store.registerBook("0000000000000", 1);
+        MultiVersionLoanStore.Snapshot snapshot = store.openSnapshot();
+        for (int i = 0; i < 10; i++) {
+            store.recordBorrow("0000000000000", "111111111111");
+            store.recordReturn("0000000000000", "111111111111");
+        }
+        Assertions.assertEquals(21, store.getVersionCount());
+        snapshot.close();
+        Assertions.assertEquals(1, store.getVersionCount());
+        Assertions.assertThrows(IllegalStateException.class, () -> snapshot.getBorrowedCopies("0000000000000"));
+        store.recordBorrow("0000000000000", "111111111111");
+        Assertions.assertEquals(1, store.getVersionCount());
+    }
+
+    @Test
+    public void GivenConcurrentWriters_WhenSnapshotsAreRead_ThenEachSnapshotIsConsistent() throws InterruptedException {
+        // Writers keep moving copies between books; a snapshot must read the same state on every pass.
+        List<String> ISBNs = List.of("0000000000000", "9780306406157", "9780306406164", "9780306406171");
+        for (String ISBN : ISBNs) {
+            store.registerBook(ISBN, 4);
+            store.recordBorrow(ISBN, "000000000000");
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String from = ISBNs.get(t);
+            String to = ISBNs.get((t + 1) % 4);
+            writers.add(Thread.ofPlatform().start(() -> {
+                while (running.get()) {
+                    store.recordReturn(from, null);
+                    store.recordBorrow(to, null);
+                    store.recordReturn(to, null);
+                    store.recordBorrow(from, null);
+                }
+            }));
+        }
+        AtomicInteger inconsistent = new AtomicInteger();
+        for (int i = 0; i < 2000; i++) {
+            try (MultiVersionLoanStore.Snapshot snapshot = store.openSnapshot()) {
+                int[] borrowed = {0};
+                snapshot.forEachBook((ISBN, total, borrowedCopies, holders) -> borrowed[0] += borrowedCopies);
+                int again = 0;
+                for (String ISBN : ISBNs) {
+                    again += snapshot.getBorrowedCopies(ISBN);
+                }
+                if (borrowed[0] != again) {
+                    inconsistent.incrementAndGet();
+                }
+            }
+        }
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Assertions.assertEquals(0, inconsistent.get());
+    }
+}
@@ -0,0 +1,131 @@
+package ac.il.bgu.qa.loans;
+
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.NotificationException;
+import ac.il.bgu.qa.services.NotificationService;
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestOverdueEngine {
+
+    /**
+     * A clock that only moves when told to.
+     */
+    private static class ManualClock extends Clock {
+        private Instant now;
+
+        ManualClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private ManualClock clock;
+    private OverdueEngine overdueEngine;
+    private NotificationService mockNotificationService;
+    private User user;
+
+    @BeforeEach
+    public void init() {
+        clock = new ManualClock(Instant.parse("2024-01-01T00:00:00Z"));
+        overdueEngine = new OverdueEngine(clock, Duration.ofDays(14), Duration.ofDays(2), Duration.ofMinutes(1));
+        mockNotificationService = Mockito.mock(NotificationService.class);
+        user = new User("Reader", "123456789012", mockNotificationService);
+    }
+
+    @Test
+    public void GivenLoan_WhenReminderTimeArrives_ThenUserIsReminded() throws NotificationException {
+        overdueEngine.scheduleLoan("9780306406157", "Title", user);
+        clock.advance(Duration.ofDays(12).minusMinutes(1));
+        Assertions.assertEquals(0, overdueEngine.advance());
+        clock.advance(Duration.ofMinutes(1));
+        Assertions.assertEquals(1, overdueEngine.advance());
+        Mockito.verify(mockNotificationService).notifyUser(Mockito.eq("123456789012"), Mockito.startsWith("Reminder:"));
+        Assertions.assertFalse(overdueEngine.isOverdue("9780306406157", "123456789012"));
+    }
+
+    @Test
+    public void GivenLoan_WhenDueDatePasses_ThenLoanIsOverdue() throws NotificationException {
+        Instant dueDate = overdueEngine.scheduleLoan("9780306406157", "Title", user);
+        Assertions.assertEquals(dueDate, overdueEngine.getDueDate("9780306406157", "123456789012"));
+        clock.advance(Duration.ofDays(15));
+        Assertions.assertEquals(2, overdueEngine.advance());
+        Mockito.verify(mockNotificationService).notifyUser(Mockito.eq("123456789012"), Mockito.contains("is overdue"));
+        Assertions.assertTrue(overdueEngine.isOverdue("9780306406157", "123456789012"));
+    }
+
+    @Test
+    public void GivenCancelledLoan_WhenDueDatePasses_ThenUserIsNotNotified() {
+        overdueEngine.scheduleLoan("9780306406157", "Title", user);
+        Assertions.assertTrue(overdueEngine.cancelLoan("9780306406157", "123456789012"));
+        clock.advance(Duration.ofDays(30));
+        Assertions.assertEquals(0, overdueEngine.advance());
+        Mockito.verifyNoInteractions(mockNotificationService);
+        Assertions.assertEquals(0, overdueEngine.getLoanCount());
+    }
+
+    @Test
+    public void GivenLoanWithHyphenatedISBN_WhenCancelLoanWithoutHyphens_ThenLoanIsCancelled() {
+        overdueEngine.scheduleLoan("978-0-306-40615-7", "Title", user);
+        Assertions.assertNotNull(overdueEngine.getDueDate("9780306406157", "123456789012"));
+        Assertions.assertTrue(overdueEngine.cancelLoan("9780306406157", "123456789012"));
+        Assertions.assertEquals(0, overdueEngine.getLoanCount());
+    }
+
+    @Test
+    public void GivenTimersAcrossLevels_WhenAdvancing_ThenEachFiresExactlyAtItsDeadline() {
+        TimingWheel<Long> wheel = new TimingWheel<>(1000);
+        Random random = new Random(7);
+        List<TimingWheel.Timer<Long>> timers = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            long deadline = 1001 + (long) (Math.pow(random.nextDouble(), 4) * 20_000_000);
+            timers.add(wheel.schedule(deadline, deadline));
+        }
+        int cancelled = 0;
+        for (int i = 0; i < timers.size(); i += 10) {
+            Assertions.assertTrue(wheel.cancel(timers.get(i)));
+            cancelled++;
+        }
+        int fired = 0;
+        long tick = 1000;
+        while (wheel.size() > 0) {
+            long lastTick = tick;
+            tick += 1 + random.nextInt(5000);
+            List<Long> deadlines = wheel.advanceTo(tick);
+            long previous = lastTick + 1;
+            for (long deadline : deadlines) {
+                Assertions.assertTrue(deadline >= previous && deadline <= tick);
+                previous = deadline;
+            }
+            fired += deadlines.size();
+        }
+        Assertions.assertEquals(timers.size() - cancelled, fired);
+    }
+}
@@ -0,0 +1,85 @@
+package ac.il.bgu.qa.loans;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestWaitlist {
+
+    private Waitlist waitlist;
+
+    @BeforeEach
+    public void init() {
+        waitlist = new Waitlist();
+    }
+
+    @Test
+    public void GivenSeveralWaiters_WhenPoll_ThenServedInArrivalOrder() {
+        Assertions.assertTrue(waitlist.enqueue("978-0-306-40615-7", "111111111111"));
+        Assertions.assertTrue(waitlist.enqueue("978-0-306-40615-7", "222222222222"));
+        Assertions.assertFalse(waitlist.enqueue("978-0-306-40615-7", "111111111111"));
+        Assertions.assertEquals(1, waitlist.getPosition("9780306406157", "222222222222"));
+        Assertions.assertEquals("111111111111", waitlist.poll("9780306406157"));
+        Assertions.assertEquals("222222222222", waitlist.poll("9780306406157"));
+        Assertions.assertNull(waitlist.poll("9780306406157"));
+        Assertions.assertFalse(waitlist.hasWaiters("9780306406157"));
+    }
+
+    @Test
+    public void GivenWaiter_WhenCancelAndRequeueFirst_ThenQueueOrderIsKept() {
+        waitlist.enqueue("9780306406157", "111111111111");
+        waitlist.enqueue("9780306406157", "222222222222");
+        waitlist.enqueue("9780306406157", "333333333333");
+        Assertions.assertTrue(waitlist.cancel("9780306406157", "222222222222"));
+        Assertions.assertFalse(waitlist.cancel("9780306406157", "222222222222"));
+        waitlist.requeueFirst("9780306406157", "333333333333");
+        Assertions.assertEquals(List.of("333333333333", "111111111111"), waitlist.getWaiters("9780306406157"));
+        Assertions.assertEquals(2, waitlist.size());
+    }
+
+    @Test
+    public void GivenConcurrentEnqueues_WhenDrained_ThenEveryWaiterIsServedOnce() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 1000;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    waitlist.enqueue("9780306406157", String.format("%012d", offset + i));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(4000, waitlist.size());
+        int served = 0;
+        while (waitlist.poll("9780306406157") != null) {
+            served++;
+        }
+        Assertions.assertEquals(4000, served);
+        Assertions.assertEquals(0, waitlist.size());
+    }
+
+    @Test
+    public void GivenLongQueue_WhenEnqueueAndCancel_ThenUsersAreFoundWithoutScanningIt() {
+        // A scan of the queue per reservation would take tens of seconds here.
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            for (int i = 0; i < 200_000; i++) {
+                Assertions.assertTrue(waitlist.enqueue("9780306406157", String.format("%012d", i)));
+            }
+            for (int i = 0; i < 200_000; i++) {
+                Assertions.assertFalse(waitlist.enqueue("9780306406157", String.format("%012d", i)));
+            }
+        });
+        Assertions.assertTrue(waitlist.cancel("9780306406157", String.format("%012d", 5)));
+        Assertions.assertFalse(waitlist.cancel("9780306406157", String.format("%012d", 5)));
+        Assertions.assertEquals(-1, waitlist.getPosition("9780306406157", String.format("%012d", 5)));
+        Assertions.assertTrue(waitlist.enqueue("9780306406157", String.format("%012d", 5)));
+        Assertions.assertEquals(199_999, waitlist.getPosition("9780306406157", String.format("%012d", 5)));
+        Assertions.assertEquals(String.format("%012d", 0), waitlist.poll("9780306406157"));
+        Assertions.assertTrue(waitlist.enqueue("9780306406157", String.format("%012d", 0)));
+        Assertions.assertEquals(200_000, waitlist.size());
+    }
+}
@@ -0,0 +1,190 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.NotificationException;
+import ac.il.bgu.qa.errors.NotificationServiceOverloadedException;
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestAdaptiveConcurrencyLimiter {
+
+    AtomicLong now = new AtomicLong();
+
+    // Runs calls of the given round trip, keeping the limit saturated.
+    private void runCalls(AdaptiveConcurrencyLimiter limiter, int count, long rttNanos) {
+        for (int i = 0; i < count; i++) {
+            List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            AdaptiveConcurrencyLimiter.Permit permit;
+            while (permits.size() < limiter.getLimit() && (permit = limiter.tryAcquire()) != null) {
+                permits.add(permit);
+            }
+            now.addAndGet(rttNanos);
+            for (AdaptiveConcurrencyLimiter.Permit taken : permits) {
+                taken.release(false);
+            }
+        }
+    }
+
+    @Test
+    public void GivenSteadyLatency_WhenCallsSaturateTheLimit_ThenLimitGrowsUpToMaximum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 50, 0, Duration.ZERO, now::get);
+
+        runCalls(limiter, 20, 1_000_000);
+
+        Assertions.assertEquals(50, limiter.getLimit());
+    }
+
+    @Test
+    public void GivenLatencySpike_WhenCallsComplete_ThenLimitShrinks() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, 1, 50, 0, Duration.ZERO, now::get);
+        runCalls(limiter, 5, 1_000_000);
+        int before = limiter.getLimit();
+
+        runCalls(limiter, 3, 10_000_000);
+
+        Assertions.assertTrue(limiter.getLimit() < before / 2);
+    }
+
+    @Test
+    public void GivenFailedCall_WhenReleased_ThenLimitIsCutMultiplicatively() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 50, 0, Duration.ZERO, now::get);
+
+        limiter.tryAcquire().release(true);
+
+        Assertions.assertEquals(18, limiter.getLimit());
+        Assertions.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void GivenQuietCallers_WhenCallsComplete_ThenLimitDoesNotGrow() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 50, 0, Duration.ZERO, now::get);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire().release(false);
+        }
+
+        Assertions.assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void GivenLimitReached_WhenNoWaitAllowed_ThenCallIsShed() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0, Duration.ZERO, now::get);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+
+        Assertions.assertNull(limiter.tryAcquire());
+        Assertions.assertEquals(1, limiter.getRejectedCount());
+        permit.release(false);
+        Assertions.assertNotNull(limiter.tryAcquire());
+        Assertions.assertThrows(IllegalStateException.class, () -> permit.release(false));
+    }
+
+    @Test
+    public void GivenLimitReached_WhenPermitFreedWithinWait_ThenWaiterGetsIt() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 1, Duration.ofSeconds(5));
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiter = CompletableFuture.supplyAsync(limiter::tryAcquire);
+
+        while (limiter.getQueued() == 0) {
+            Thread.onSpinWait();
+        }
+        // The queue holds a single waiter, a second caller is shed.
+        Assertions.assertNull(limiter.tryAcquire());
+        permit.release(false);
+
+        Assertions.assertNotNull(waiter.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void GivenOverloadedReviewService_WhenGetBookByISBN_ThenReviewServiceIsReportedUnavailable() {
+        ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+        NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0, Duration.ZERO);
+        LimitedReviewService limitedReviewService = new LimitedReviewService(reviewServiceMock, limiter);
+        InMemoryDatabaseService databaseService = new InMemoryDatabaseService();
+        Library library = new Library(databaseService, limitedReviewService);
+        library.addBook(new Book("978-0-306-40615-7", "TITLE", "AUTHOR", 1));
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+
+        Assertions.assertThrows(ReviewServiceUnavailableException.class,
+                () -> library.notifyUserWithBookReviews("978-0-306-40615-7", "111111111111"));
+        Mockito.verify(reviewServiceMock, Mockito.never()).getReviewsForBook(Mockito.anyString());
+        Mockito.verify(reviewServiceMock).close();
+        Assertions.assertEquals(1, limiter.getRejectedCount());
+        permit.release(false);
+    }
+
+    @Test
+    public void GivenFailingService_WhenCalledThroughDecorators_ThenPermitsAreReleasedAsFailures() {
+        ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+        NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString())).thenThrow(new ReviewException("Down"));
+        Mockito.doThrow(new NotificationException("Down")).when(notificationServiceMock).notifyUser(Mockito.anyString(), Mockito.anyString());
+        AdaptiveConcurrencyLimiter reviewLimiter = new AdaptiveConcurrencyLimiter(10, 1, 10, 0, Duration.ZERO);
+        AdaptiveConcurrencyLimiter notificationLimiter = new AdaptiveConcurrencyLimiter(10, 1, 10, 0, Duration.ZERO);
+
+        Assertions.assertThrows(ReviewException.class,
+                () -> new LimitedReviewService(reviewServiceMock, reviewLimiter).getReviewsForBook("978-0-306-40615-7"));
+        Assertions.assertThrows(NotificationException.class,
+                () -> new LimitedNotificationService(notificationServiceMock, notificationLimiter).notifyUser("111111111111", "Hi"));
+
+        Assertions.assertEquals(9, reviewLimiter.getLimit());
+        Assertions.assertEquals(0, reviewLimiter.getInFlight());
+        Assertions.assertEquals(9, notificationLimiter.getLimit());
+        Assertions.assertEquals(0, notificationLimiter.getInFlight());
+    }
+
+    @Test
+    public void GivenOverloadedNotificationService_WhenNotifyUserWithBookReviews_ThenNotificationIsNotRetried() {
+        ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+        NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString())).thenReturn(List.of("Good"));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0, Duration.ZERO);
+        InMemoryDatabaseService databaseService = new InMemoryDatabaseService();
+        Library library = new Library(databaseService, reviewServiceMock);
+        library.addBook(new Book("978-0-306-40615-7", "TITLE", "AUTHOR", 1));
+        library.registerUser(new User("Test User", "111111111111", new LimitedNotificationService(notificationServiceMock, limiter)));
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+
+        Assertions.assertThrows(NotificationServiceOverloadedException.class,
+                () -> library.notifyUserWithBookReviews("978-0-306-40615-7", "111111111111"));
+        Mockito.verify(notificationServiceMock, Mockito.never()).notifyUser(Mockito.anyString(), Mockito.anyString());
+        Assertions.assertEquals(1, limiter.getRejectedCount());
+        permit.release(false);
+    }
+
+    @Test
+    public void GivenLimiterBelowTheCache_WhenReviewsAreServedFromCache_ThenNoPermitIsTaken() {
+        ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString())).thenReturn(List.of("Good"));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0, Duration.ZERO, now::get);
+        CachingReviewService cachingReviewService = new CachingReviewService(
+                new LimitedReviewService(reviewServiceMock, limiter), null, 100, 1);
+        try {
+            cachingReviewService.getReviewsForBook("978-0-306-40615-7");
+            // With the only permit taken, cache hits still succeed and teach the limiter nothing.
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+            for (int i = 0; i < 100; i++) {
+                Assertions.assertEquals(List.of("Good"), cachingReviewService.getReviewsForBook("978-0-306-40615-7"));
+            }
+            Assertions.assertEquals(0, limiter.getRejectedCount());
+            Assertions.assertEquals(1, limiter.getInFlight());
+            permit.release(false);
+            Mockito.verify(reviewServiceMock, Mockito.times(1)).getReviewsForBook("978-0-306-40615-7");
+        } finally {
+            cachingReviewService.shutdown();
+        }
+    }
+}
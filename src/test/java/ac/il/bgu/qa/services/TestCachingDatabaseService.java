@@ -0,0 +1,60 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+public class TestCachingDatabaseService {
+
+    DatabaseService databaseServiceMock = Mockito.mock(DatabaseService.class);
+    CachingDatabaseService cachingDatabaseService = new CachingDatabaseService(databaseServiceMock, 2, 2);
+
+    Book book = Mockito.mock(Book.class);
+    User user = Mockito.mock(User.class);
+
+    @Test
+    public void GivenCachedBook_WhenGetBookByISBN_ThenStoreIsReadOnce() {
+        Mockito.when(databaseServiceMock.getBookByISBN("0000000000000")).thenReturn(book);
+        Assertions.assertEquals(book, cachingDatabaseService.getBookByISBN("0000000000000"));
+        Assertions.assertEquals(book, cachingDatabaseService.getBookByISBN("0000000000000"));
+        Mockito.verify(databaseServiceMock, Mockito.times(1)).getBookByISBN("0000000000000");
+        Assertions.assertEquals(1, cachingDatabaseService.getBookCacheStats().getHitCount());
+        Assertions.assertEquals(0.5, cachingDatabaseService.getBookCacheStats().getHitRatio());
+    }
+
+    @Test
+    public void GivenMissingBook_WhenGetBookByISBN_ThenNullIsNotCached() {
+        Assertions.assertNull(cachingDatabaseService.getBookByISBN("0000000000000"));
+        Assertions.assertNull(cachingDatabaseService.getBookByISBN("0000000000000"));
+        Mockito.verify(databaseServiceMock, Mockito.times(2)).getBookByISBN("0000000000000");
+    }
+
+    @Test
+    public void GivenRegisteredUser_WhenGetUserById_ThenStoreIsNotRead() {
+        cachingDatabaseService.registerUser("111111111111", user);
+        Assertions.assertEquals(user, cachingDatabaseService.getUserById("111111111111"));
+        Mockito.verify(databaseServiceMock).registerUser("111111111111", user);
+        Mockito.verify(databaseServiceMock, Mockito.never()).getUserById("111111111111");
+    }
+
+    @Test
+    public void GivenCachedBook_WhenBorrowBook_ThenBookIsReloaded() {
+        cachingDatabaseService.addBook("0000000000000", book);
+        cachingDatabaseService.borrowBook("0000000000000", "111111111111");
+        Mockito.when(databaseServiceMock.getBookByISBN("0000000000000")).thenReturn(book);
+        cachingDatabaseService.getBookByISBN("0000000000000");
+        Mockito.verify(databaseServiceMock).borrowBook("0000000000000", "111111111111");
+        Mockito.verify(databaseServiceMock).getBookByISBN("0000000000000");
+    }
+
+    @Test
+    public void GivenFullCache_WhenAddBook_ThenLeastRecentlyUsedIsEvicted() {
+        CachingDatabaseService singleStripe = new CachingDatabaseService(databaseServiceMock, 1, 1);
+        singleStripe.addBook("0000000000000", book);
+        singleStripe.addBook("1290000000004", book);
+        singleStripe.getBookByISBN("0000000000000");
+        Mockito.verify(databaseServiceMock).getBookByISBN("0000000000000");
+        Assertions.assertEquals(1, singleStripe.getBookCacheStats().getEvictionCount());
+    }
+}
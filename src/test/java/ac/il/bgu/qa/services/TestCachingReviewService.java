@@ -0,0 +1,178 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.ReviewException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCachingReviewService {
+
+    ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+    NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+    CachingReviewService cachingReviewService;
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        if (cachingReviewService != null) {
+            cachingReviewService.shutdown();
+        }
+    }
+
+    @Test
+    public void GivenSavedPopularity_WhenWarmUpAfterRestart_ThenPopularReviewsAreServedFromCache() throws Exception {
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString()))
+                .thenAnswer(invocation -> List.of("Review of " + invocation.getArgument(0)));
+        cachingReviewService = new CachingReviewService(reviewServiceMock, null, 100, 2);
+        for (int i = 0; i < 3; i++) {
+            cachingReviewService.getReviewsForBook("978-0-306-40615-7");
+        }
+        cachingReviewService.getReviewsForBook("978-3-16-148410-0");
+        Path popularityFile = directory.resolve("popularity.txt");
+        cachingReviewService.savePopularity(popularityFile, 1);
+        Assertions.assertEquals(List.of("978-0-306-40615-7"), Files.readAllLines(popularityFile));
+        cachingReviewService.shutdown();
+        Mockito.clearInvocations(reviewServiceMock);
+
+        cachingReviewService = new CachingReviewService(reviewServiceMock, null, 100, 2);
+        Assertions.assertEquals(1, cachingReviewService.warmUp(popularityFile, 10).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(List.of("Review of 978-0-306-40615-7"), cachingReviewService.getReviewsForBook("978-0-306-40615-7"));
+        Mockito.verify(reviewServiceMock, Mockito.times(1)).getReviewsForBook("978-0-306-40615-7");
+        Mockito.verify(reviewServiceMock, Mockito.times(1)).close();
+    }
+
+    @Test
+    public void GivenManyBooksToWarmUp_WhenWarmUp_ThenAtMostParallelismFetchesRunAtOnce() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ReviewService slowReviewService = new ReviewService() {
+            @Override
+            public List<String> getReviewsForBook(String ISBN) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return List.of("Good");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        cachingReviewService = new CachingReviewService(slowReviewService, null, 100, 3);
+        List<String> ISBNs = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ISBNs.add("isbn-" + i);
+        }
+
+        Assertions.assertEquals(30, cachingReviewService.warmUp(ISBNs).get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void GivenMissingPopularityFile_WhenWarmUp_ThenNothingIsFetched() throws Exception {
+        cachingReviewService = new CachingReviewService(reviewServiceMock, null, 100, 2);
+
+        Assertions.assertEquals(0, cachingReviewService.warmUp(directory.resolve("missing.txt"), 10).get(5, TimeUnit.SECONDS));
+        Mockito.verifyNoInteractions(reviewServiceMock);
+    }
+
+    @Test
+    public void GivenFailedOrEmptyFetch_WhenGetReviewsForBook_ThenResultIsNotCached() {
+        Mockito.when(reviewServiceMock.getReviewsForBook("978-0-306-40615-7"))
+                .thenThrow(new ReviewException("Unavailable"))
+                .thenReturn(List.of())
+                .thenReturn(List.of("Good"));
+        cachingReviewService = new CachingReviewService(reviewServiceMock, null, 100, 2);
+
+        Assertions.assertThrows(ReviewException.class, () -> cachingReviewService.getReviewsForBook("978-0-306-40615-7"));
+        Assertions.assertEquals(List.of(), cachingReviewService.getReviewsForBook("978-0-306-40615-7"));
+        Assertions.assertEquals(List.of("Good"), cachingReviewService.getReviewsForBook("978-0-306-40615-7"));
+        Assertions.assertEquals(List.of("Good"), cachingReviewService.getReviewsForBook("978-0-306-40615-7"));
+        Mockito.verify(reviewServiceMock, Mockito.times(3)).getReviewsForBook("978-0-306-40615-7");
+    }
+
+    @Test
+    public void GivenBooksBySameAuthor_WhenBorrowBook_ThenReviewsOfRelatedBooksArePrefetched() throws IOException {
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString())).thenReturn(List.of("Good"));
+        InMemoryDatabaseService databaseService = new InMemoryDatabaseService();
+        cachingReviewService = new CachingReviewService(reviewServiceMock, databaseService, 100, 2);
+        Library library = new Library(databaseService, cachingReviewService);
+        library.addBook(new Book("978-0-306-40615-7", "First", "Author One", 1));
+        library.addBook(new Book("978-3-16-148410-0", "Second", "Author One", 1));
+        library.addBook(new Book("978-1-4028-9462-6", "Other", "Author Two", 1));
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+
+        library.borrowBook("978-0-306-40615-7", "111111111111");
+
+        Mockito.verify(reviewServiceMock, Mockito.timeout(5000)).getReviewsForBook("978-3-16-148410-0");
+        Mockito.verify(reviewServiceMock, Mockito.never()).getReviewsForBook("978-0-306-40615-7");
+        Mockito.verify(reviewServiceMock, Mockito.never()).getReviewsForBook("978-1-4028-9462-6");
+    }
+
+    @Test
+    public void GivenManyLoans_WhenPrefetchRelated_ThenCatalogIsScannedOnlyOnce() throws IOException {
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString())).thenReturn(List.of("Good"));
+        InMemoryDatabaseService databaseService = Mockito.spy(new InMemoryDatabaseService());
+        databaseService.addBook("978-0-306-40615-7", new Book("978-0-306-40615-7", "First", "Author One", 3));
+        cachingReviewService = new CachingReviewService(reviewServiceMock, databaseService, 100, 2);
+        Library library = new Library(databaseService, cachingReviewService);
+        library.addBook(new Book("978-3-16-148410-0", "Second", "Author One", 1));
+        for (int i = 1; i <= 3; i++) {
+            String userId = "11111111111" + i;
+            library.registerUser(new User("Test User", userId, notificationServiceMock));
+            library.borrowBook("978-0-306-40615-7", userId);
+        }
+
+        Mockito.verify(reviewServiceMock, Mockito.timeout(5000)).getReviewsForBook("978-3-16-148410-0");
+        Mockito.verify(databaseService, Mockito.times(1)).scanBooks(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void GivenSmallCache_WhenSavePopularity_ThenMoreBooksThanCachedAreRanked() throws IOException {
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString())).thenReturn(List.of("Good"));
+        cachingReviewService = new CachingReviewService(reviewServiceMock, null, 1, 2, 16);
+        List<String> ISBNs = List.of("978-0-306-40615-7", "978-3-16-148410-0", "978-1-4028-9462-6");
+        for (int i = 0; i < ISBNs.size(); i++) {
+            for (int j = i; j < ISBNs.size(); j++) {
+                cachingReviewService.getReviewsForBook(ISBNs.get(i));
+            }
+        }
+        Path popularityFile = directory.resolve("popularity.txt");
+        cachingReviewService.savePopularity(popularityFile, 3);
+        Assertions.assertEquals(ISBNs, Files.readAllLines(popularityFile));
+    }
+
+    @Test
+    public void GivenLimitedCachingReviewService_WhenBorrowBook_ThenReviewsOfRelatedBooksArePrefetched() throws IOException {
+        Mockito.when(reviewServiceMock.getReviewsForBook(Mockito.anyString())).thenReturn(List.of("Good"));
+        InMemoryDatabaseService databaseService = new InMemoryDatabaseService();
+        cachingReviewService = new CachingReviewService(reviewServiceMock, databaseService, 100, 2);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 16, 0, Duration.ZERO);
+        Library library = new Library(databaseService, new LimitedReviewService(cachingReviewService, limiter));
+        library.addBook(new Book("978-0-306-40615-7", "First", "Author One", 1));
+        library.addBook(new Book("978-3-16-148410-0", "Second", "Author One", 1));
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+
+        library.borrowBook("978-0-306-40615-7", "111111111111");
+
+        Mockito.verify(reviewServiceMock, Mockito.timeout(5000)).getReviewsForBook("978-3-16-148410-0");
+    }
+}
@@ -0,0 +1,170 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.LoanStatus;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+public class TestColumnarDatabaseService {
+
+    ColumnarDatabaseService databaseService = new ColumnarDatabaseService(0);
+    ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+    NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+
+    private static String isbn(int i) {
+        return String.format("%013d", i);
+    }
+
+    @Test
+    public void GivenBooks_WhenGetBookByISBN_ThenViewHoldsStoredState() {
+        Book book = new Book("978-0-306-40615-7", "Ünïcödé Title", "AUTHOR", 3);
+        book.borrow();
+        databaseService.addBook(book.getISBN(), book);
+        databaseService.addBook(isbn(1), new Book(isbn(1), null, null));
+        Book view = databaseService.getBookByISBN("978-0-306-40615-7");
+        Assertions.assertNotSame(book, view);
+        Assertions.assertEquals("978-0-306-40615-7", view.getISBN());
+        Assertions.assertEquals("Ünïcödé Title", view.getTitle());
+        Assertions.assertEquals("AUTHOR", view.getAuthor());
+        Assertions.assertEquals(3, view.getTotalCopies());
+        Assertions.assertEquals(2, view.getAvailableCopies());
+        Assertions.assertEquals(book.getVersion(), view.getVersion());
+        Assertions.assertNull(databaseService.getBookByISBN(isbn(1)).getTitle());
+        Assertions.assertNull(databaseService.getBookByISBN(isbn(2)));
+    }
+
+    @Test
+    public void GivenNonPowerOfTwoExpectedSize_WhenAddBookPastIt_ThenEveryBookIsFound() {
+        ColumnarDatabaseService store = new ColumnarDatabaseService(100);
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 1_000; i++) {
+                store.addBook(isbn(i), new Book(isbn(i), "TITLE", "AUTHOR"));
+            }
+        });
+        for (int i = 0; i < 1_000; i++) {
+            Assertions.assertEquals(isbn(i), store.getBookByISBN(isbn(i)).getISBN());
+        }
+    }
+
+    @Test
+    public void GivenManyBooksBySameAuthors_WhenAddBook_ThenAuthorsAreStoredOnce() {
+        for (int i = 0; i < 100_000; i++) {
+            databaseService.addBook(isbn(i), new Book(isbn(i), "Title number " + i, "Author " + i % 1000));
+        }
+        Assertions.assertEquals(100_000, databaseService.getBookCount());
+        Assertions.assertEquals(1000, databaseService.getAuthorCount());
+        for (int i = 0; i < 100_000; i += 997) {
+            Book view = databaseService.getBookByISBN(isbn(i));
+            Assertions.assertEquals("Title number " + i, view.getTitle());
+            Assertions.assertEquals("Author " + i % 1000, view.getAuthor());
+        }
+    }
+
+    @Test
+    public void GivenManyBooks_WhenAddBook_ThenHeapIsSmallerThanAMapOfBooks() {
+        long mapBytes = retainedBytes(() -> {
+            Map<String, Book> books = new HashMap<>();
+            for (int i = 0; i < 100_000; i++) {
+                books.put(isbn(i), new Book(isbn(i), "Title number " + i, "Author " + i % 1000));
+            }
+            return books;
+        });
+        long columnarBytes = retainedBytes(() -> {
+            ColumnarDatabaseService store = new ColumnarDatabaseService(0);
+            for (int i = 0; i < 100_000; i++) {
+                store.addBook(isbn(i), new Book(isbn(i), "Title number " + i, "Author " + i % 1000));
+            }
+            return store;
+        });
+        Assertions.assertTrue(columnarBytes * 3 < mapBytes, "Bytes per title: " + columnarBytes / 100_000 + " vs " + mapBytes / 100_000);
+    }
+
+    // Measures the heap retained by what the builder returns, from the used heap after full collections.
+    private static long retainedBytes(Supplier<Object> builder) {
+        long before = usedHeap();
+        Object built = builder.get();
+        long after = usedHeap();
+        Reference.reachabilityFence(built);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @Test
+    public void GivenLibraryOverColumnarStore_WhenBorrowAndReturnBook_ThenStoreKeepsCopyCounts() {
+        Library library = new Library(databaseService, reviewServiceMock);
+        String ISBN = "978-0-306-40615-7";
+        library.addBook(new Book(ISBN, "TITLE", "AUTHOR"));
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+        library.registerUser(new User("Test User", "222222222222", notificationServiceMock));
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryBorrow(ISBN, "111111111111"));
+        Assertions.assertTrue(databaseService.getBookByISBN(ISBN).isBorrowed());
+        Assertions.assertEquals(Set.of("111111111111"), databaseService.getBorrowers(ISBN));
+        Assertions.assertEquals(LoanStatus.BOOK_ALREADY_BORROWED, library.tryBorrow(ISBN, "222222222222"));
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryReturn(ISBN, "111111111111"));
+        Assertions.assertFalse(databaseService.getBookByISBN(ISBN).isBorrowed());
+        Assertions.assertEquals(1, databaseService.getAvailableCopies(ISBN));
+    }
+
+    @Test
+    public void GivenConcurrentCheckouts_WhenBorrowBook_ThenNoMoreCopiesThanHeldAreLent() throws InterruptedException {
+        databaseService.addBook(isbn(7), new Book(isbn(7), "TITLE", "AUTHOR", 30));
+        AtomicInteger lent = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 200; i++) {
+            String userId = String.format("%012d", i);
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    databaseService.borrowBook(isbn(7), userId);
+                    lent.incrementAndGet();
+                } catch (IllegalStateException | InterruptedException e) {
+                    // No copy left.
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(30, lent.get());
+        Assertions.assertEquals(0, databaseService.getAvailableCopies(isbn(7)));
+        Assertions.assertEquals(30, databaseService.getBorrowers(isbn(7)).size());
+    }
+
+    @Test
+    public void GivenBooks_WhenScanBooksWithRange_ThenRowsInRangeAreSeen() {
+        for (int i = 0; i < 10_000; i++) {
+            databaseService.addBook(isbn(i), new Book(isbn(i), "TITLE", "AUTHOR"));
+        }
+        Set<String> scanned = StreamSupport.stream(databaseService.scanBooks(isbn(5000), isbn(6000), null), true)
+                .map(Book::getISBN)
+                .collect(Collectors.toSet());
+        Assertions.assertEquals(1000, scanned.size());
+        Assertions.assertEquals(10_000, StreamSupport.stream(databaseService.scanBooks(), true).count());
+    }
+}
@@ -0,0 +1,77 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+public class TestInMemoryDatabaseService {
+
+    InMemoryDatabaseService databaseService = new InMemoryDatabaseService();
+    NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+
+    private static String isbn(int i) {
+        return String.format("%013d", i);
+    }
+
+    private void addBooks(int count) {
+        for (int i = 0; i < count; i++) {
+            Book book = new Book(isbn(i), "TITLE", i % 2 == 0 ? "EVEN" : "ODD");
+            databaseService.addBook(isbn(i), book);
+        }
+    }
+
+    @Test
+    public void GivenManyBooks_WhenScanBooksInParallel_ThenEveryBookIsSeenOnce() {
+        addBooks(100_000);
+        List<String> scanned = StreamSupport.stream(databaseService.scanBooks(), true)
+                .map(Book::getISBN)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(100_000, scanned.size());
+        Assertions.assertEquals(100_000, Set.copyOf(scanned).size());
+    }
+
+    @Test
+    public void GivenManyBooks_WhenScanBooks_ThenSpliteratorSplits() {
+        addBooks(10_000);
+        Spliterator<Book> spliterator = databaseService.scanBooks();
+        Spliterator<Book> prefix = spliterator.trySplit();
+        Assertions.assertNotNull(prefix);
+        long[] counts = new long[2];
+        prefix.forEachRemaining(book -> counts[0]++);
+        while (spliterator.tryAdvance(book -> counts[1]++)) {
+            // Drain the rest one element at a time.
+        }
+        Assertions.assertTrue(counts[0] > 0 && counts[1] > 0);
+        Assertions.assertEquals(10_000, counts[0] + counts[1]);
+    }
+
+    @Test
+    public void GivenRangeAndFilter_WhenScanBooks_ThenOnlyMatchingBooksAreSeen() {
+        addBooks(1000);
+        Set<String> scanned = StreamSupport.stream(databaseService.scanBooks(isbn(100), isbn(200), book -> book.getAuthor().equals("EVEN")), true)
+                .map(Book::getISBN)
+                .collect(Collectors.toSet());
+        Assertions.assertEquals(50, scanned.size());
+        for (String ISBN : scanned) {
+            int i = Integer.parseInt(ISBN);
+            Assertions.assertTrue(i >= 100 && i < 200 && i % 2 == 0, "Unexpected book: " + ISBN);
+        }
+    }
+
+    @Test
+    public void GivenUsers_WhenScanUsersWithRange_ThenUsersInRangeAreSeen() {
+        for (int i = 0; i < 100; i++) {
+            String id = String.format("%012d", i);
+            databaseService.registerUser(id, new User("Test User", id, notificationServiceMock));
+        }
+        long count = StreamSupport.stream(databaseService.scanUsers(String.format("%012d", 90), null, null), false).count();
+        Assertions.assertEquals(10, count);
+    }
+}
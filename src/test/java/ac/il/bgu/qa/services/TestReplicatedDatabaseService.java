@@ -0,0 +1,115 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.BookAlreadyBorrowedException;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class TestReplicatedDatabaseService {
+
+    InMemoryDatabaseService primary = new InMemoryDatabaseService();
+    InMemoryDatabaseService replica = new InMemoryDatabaseService();
+    CountDownLatch borrowGate = new CountDownLatch(0);
+    // A replica whose borrows wait for the gate to open.
+    InMemoryDatabaseService slowReplica = new InMemoryDatabaseService() {
+        @Override
+        public void borrowBook(String ISBN, String userId) {
+            try {
+                borrowGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.borrowBook(ISBN, userId);
+        }
+    };
+    ReplicatedDatabaseService replicatedDatabaseService;
+    ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+    NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+
+    @AfterEach
+    void tearDown() {
+        borrowGate.countDown();
+        if (replicatedDatabaseService != null) {
+            replicatedDatabaseService.close();
+        }
+    }
+
+    @Test
+    public void GivenLibraryMutations_WhenReplicated_ThenReplicasHoldTheirOwnUpToDateCopies() throws InterruptedException {
+        replicatedDatabaseService = new ReplicatedDatabaseService(primary, List.of(replica));
+        Library library = new Library(replicatedDatabaseService, reviewServiceMock);
+        library.addBook(new Book("978-0-306-40615-7", "TITLE", "AUTHOR", 2));
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+        library.borrowBook("978-0-306-40615-7", "111111111111");
+        Assertions.assertTrue(replicatedDatabaseService.awaitReplication(Duration.ofSeconds(5)));
+
+        Book copy = replica.getBookByISBN("978-0-306-40615-7");
+        Assertions.assertNotSame(primary.getBookByISBN("978-0-306-40615-7"), copy);
+        Assertions.assertEquals(1, copy.getBorrowedCopies());
+        Assertions.assertEquals(Set.of("111111111111"), replica.getBorrowers("978-0-306-40615-7"));
+        Assertions.assertNotNull(replica.getUserById("111111111111"));
+
+        library.returnBook("978-0-306-40615-7", "111111111111");
+        Assertions.assertTrue(replicatedDatabaseService.awaitReplication(Duration.ofSeconds(5)));
+        Assertions.assertEquals(0, copy.getBorrowedCopies());
+        Assertions.assertEquals(0, replicatedDatabaseService.getReplicaLag(0));
+        Assertions.assertEquals(Duration.ZERO, replicatedDatabaseService.getReplicaDelay(0));
+    }
+
+    @Test
+    public void GivenSlowReplica_WhenBorrowBook_ThenLagIsReportedAndReadsGoToTheFreshReplica() throws InterruptedException {
+        borrowGate = new CountDownLatch(1);
+        replicatedDatabaseService = new ReplicatedDatabaseService(primary, List.of(slowReplica, replica));
+        Book book = new Book("0000000000000", "TITLE", "AUTHOR");
+        replicatedDatabaseService.addBook(book.getISBN(), book);
+        Assertions.assertTrue(replicatedDatabaseService.awaitReplication(Duration.ofSeconds(5)));
+        book.borrow();
+        replicatedDatabaseService.borrowBook(book.getISBN(), "111111111111");
+        replicatedDatabaseService.returnBook(book.getISBN(), "111111111111");
+
+        Assertions.assertFalse(replicatedDatabaseService.awaitReplication(Duration.ofMillis(50)));
+        Assertions.assertEquals(2, replicatedDatabaseService.getReplicaLag(0));
+        Assertions.assertTrue(replicatedDatabaseService.getReplicaDelay(0).toNanos() > 0);
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertSame(replica.getBookByISBN(book.getISBN()), replicatedDatabaseService.replicaReads().getBookByISBN(book.getISBN()));
+        }
+
+        borrowGate.countDown();
+        Assertions.assertTrue(replicatedDatabaseService.awaitReplication(Duration.ofSeconds(5)));
+        Assertions.assertEquals(0, replicatedDatabaseService.getReplicaLag(0));
+        Assertions.assertFalse(slowReplica.getBookByISBN(book.getISBN()).isBorrowed());
+    }
+
+    @Test
+    public void GivenReplicaReads_WhenMutated_ThenThrowsUnsupportedOperationException() {
+        replicatedDatabaseService = new ReplicatedDatabaseService(primary, List.of(replica));
+        Assertions.assertThrows(UnsupportedOperationException.class,
+                () -> replicatedDatabaseService.replicaReads().borrowBook("0000000000000", "111111111111"));
+    }
+
+    @Test
+    public void GivenLibraryWithReplicaLookups_WhenReplicaLagsBehindALoan_ThenGetBookByISBNStillSeesTheLoan() throws InterruptedException {
+        borrowGate = new CountDownLatch(1);
+        replicatedDatabaseService = new ReplicatedDatabaseService(primary, List.of(slowReplica));
+        Library library = new Library(replicatedDatabaseService, reviewServiceMock);
+        library.setLookupDatabaseService(replicatedDatabaseService.replicaReads());
+        library.addBook(new Book("978-0-306-40615-7", "TITLE", "AUTHOR"));
+        library.addBook(new Book("9780306406164", "TITLE", "AUTHOR"));
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+        library.registerUser(new User("Test User", "222222222222", notificationServiceMock));
+        Assertions.assertTrue(replicatedDatabaseService.awaitReplication(Duration.ofSeconds(5)));
+        library.borrowBook("978-0-306-40615-7", "111111111111");
+
+        // The replica hasn't seen the loan yet, but the borrowed check reads the database.
+        Assertions.assertThrows(BookAlreadyBorrowedException.class, () -> library.getBookByISBN("978-0-306-40615-7", "222222222222"));
+        Assertions.assertSame(primary.getBookByISBN("9780306406164"), library.getBookByISBN("9780306406164", "222222222222"));
+        borrowGate.countDown();
+    }
+}
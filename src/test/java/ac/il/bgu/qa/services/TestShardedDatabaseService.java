@@ -0,0 +1,142 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+public class TestShardedDatabaseService {
+
+    List<InMemoryDatabaseService> shards = new ArrayList<>(List.of(new InMemoryDatabaseService(), new InMemoryDatabaseService(), new InMemoryDatabaseService()));
+    ShardedDatabaseService shardedDatabaseService = new ShardedDatabaseService(shards);
+    ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+    NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+
+    private static String isbn(int i) {
+        return String.format("%013d", i);
+    }
+
+    @Test
+    public void GivenManyBooks_WhenAddBook_ThenBooksAreSpreadOverShards() {
+        for (int i = 0; i < 3000; i++) {
+            shardedDatabaseService.addBook(isbn(i), new Book(isbn(i), "TITLE", "AUTHOR"));
+        }
+        for (InMemoryDatabaseService shard : shards) {
+            Assertions.assertTrue(shard.getBookCount() > 500, "Unbalanced shard: " + shard.getBookCount());
+        }
+        for (int i = 0; i < 3000; i++) {
+            Assertions.assertEquals(isbn(i), shardedDatabaseService.getBookByISBN(isbn(i)).getISBN());
+        }
+    }
+
+    @Test
+    public void GivenBookAndUserOnDifferentShards_WhenBorrowBook_ThenLoanIsRecordedOnBookShard() {
+        Library library = new Library(shardedDatabaseService, reviewServiceMock);
+        String ISBN = "0000000000000";
+        String userId = null;
+        for (int i = 0; userId == null; i++) {
+            String candidate = String.format("%012d", i);
+            if (shardedDatabaseService.shardForUser(candidate) != shardedDatabaseService.shardForBook(ISBN)) {
+                userId = candidate;
+            }
+        }
+        library.addBook(new Book(ISBN, "TITLE", "AUTHOR"));
+        library.registerUser(new User("Test User", userId, notificationServiceMock));
+        library.borrowBook(ISBN, userId);
+        InMemoryDatabaseService bookShard = (InMemoryDatabaseService) shardedDatabaseService.shardForBook(ISBN);
+        Assertions.assertEquals(Set.of(userId), bookShard.getBorrowers(ISBN));
+        Assertions.assertTrue(shardedDatabaseService.getBookByISBN(ISBN).isBorrowed());
+        library.returnBook(ISBN);
+        Assertions.assertTrue(bookShard.getBorrowers(ISBN).isEmpty());
+    }
+
+    @Test
+    public void GivenLoans_WhenAddShard_ThenKeysMoveAndStayReachable() {
+        for (int i = 0; i < 1000; i++) {
+            Book book = new Book(isbn(i), "TITLE", "AUTHOR");
+            shardedDatabaseService.addBook(isbn(i), book);
+            shardedDatabaseService.registerUser(String.format("%012d", i), new User("Test User", String.format("%012d", i), notificationServiceMock));
+            book.borrow();
+            shardedDatabaseService.borrowBook(isbn(i), String.format("%012d", i));
+        }
+        InMemoryDatabaseService added = new InMemoryDatabaseService();
+        shardedDatabaseService.addShard(added);
+        Assertions.assertTrue(added.getBookCount() > 100);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertNotNull(shardedDatabaseService.getBookByISBN(isbn(i)));
+            Assertions.assertNotNull(shardedDatabaseService.getUserById(String.format("%012d", i)));
+            InMemoryDatabaseService owner = (InMemoryDatabaseService) shardedDatabaseService.shardForBook(isbn(i));
+            Assertions.assertEquals(Set.of(String.format("%012d", i)), owner.getBorrowers(isbn(i)));
+        }
+    }
+
+    @Test
+    public void GivenShardBeingAdded_WhenGetBookByISBN_ThenReadsDoNotWaitForTheMove() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            shardedDatabaseService.addBook(isbn(i), new Book(isbn(i), "TITLE", "AUTHOR"));
+        }
+        CountDownLatch moving = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        InMemoryDatabaseService added = Mockito.spy(new InMemoryDatabaseService());
+        Mockito.doAnswer(invocation -> {
+            moving.countDown();
+            resume.await();
+            return invocation.callRealMethod();
+        }).when(added).addBook(Mockito.anyString(), Mockito.any());
+        Thread rebalancer = Thread.ofPlatform().start(() -> shardedDatabaseService.addShard(added));
+        Assertions.assertTrue(moving.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            for (int i = 0; i < 1000; i++) {
+                Assertions.assertEquals(isbn(i), shardedDatabaseService.getBookByISBN(isbn(i)).getISBN());
+            }
+        });
+        resume.countDown();
+        rebalancer.join();
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(isbn(i), shardedDatabaseService.getBookByISBN(isbn(i)).getISBN());
+        }
+        Assertions.assertTrue(added.getBookCount() > 100);
+    }
+
+    @Test
+    public void GivenLoansOnColumnarShards_WhenAddShard_ThenMovedBooksKeepTheirCopyCounts() {
+        ShardedDatabaseService columnarShards = new ShardedDatabaseService(List.of(new ColumnarDatabaseService(0), new ColumnarDatabaseService(0)));
+        for (int i = 0; i < 1000; i++) {
+            columnarShards.addBook(isbn(i), new Book(isbn(i), "TITLE", "AUTHOR", i % 2 == 0 ? 1 : 3));
+            columnarShards.borrowBook(isbn(i), String.format("%012d", i));
+        }
+        ColumnarDatabaseService added = new ColumnarDatabaseService(0);
+        columnarShards.addShard(added);
+        Assertions.assertTrue(added.getBookCount() > 100);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(1, columnarShards.getBookByISBN(isbn(i)).getBorrowedCopies());
+            Assertions.assertEquals(i % 2 == 0 ? 0 : 2, columnarShards.getAvailableCopies(isbn(i)));
+            Assertions.assertEquals(Set.of(String.format("%012d", i)), columnarShards.getBorrowers(isbn(i)));
+        }
+    }
+
+    @Test
+    public void GivenStaleCopiesAfterAddShard_WhenScanBooks_ThenEveryBookIsSeenOnce() {
+        for (int i = 0; i < 1000; i++) {
+            shardedDatabaseService.addBook(isbn(i), new Book(isbn(i), "TITLE", "AUTHOR"));
+        }
+        shardedDatabaseService.addShard(new InMemoryDatabaseService());
+        List<String> scanned = StreamSupport.stream(shardedDatabaseService.scanBooks(), true)
+                .map(Book::getISBN)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(1000, scanned.size());
+        Assertions.assertEquals(1000, Set.copyOf(scanned).size());
+        Assertions.assertEquals(10, StreamSupport.stream(shardedDatabaseService.scanBooks(isbn(0), isbn(10), null), true).count());
+    }
+}
@@ -0,0 +1,131 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.LoanStatus;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.stream.StreamSupport;
+
+public class TestTieredDatabaseService {
+
+    // Room for about ten books on the heap.
+    private static final long HEAP_CAPACITY = 4000;
+
+    @TempDir
+    Path directory;
+
+    TieredDatabaseService tieredDatabaseService;
+    ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+    NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tieredDatabaseService = new TieredDatabaseService(HEAP_CAPACITY, directory.resolve("cold.tier"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        tieredDatabaseService.close();
+    }
+
+    private static String isbn(int i) {
+        return String.format("%013d", i);
+    }
+
+    private void addBooks(int count) {
+        for (int i = 0; i < count; i++) {
+            tieredDatabaseService.addBook(isbn(i), new Book(isbn(i), "Title " + i, "Author " + i % 7, 2));
+        }
+    }
+
+    @Test
+    public void GivenMoreBooksThanHeapCapacity_WhenAddBook_ThenHeapTierStaysBoundedAndBooksStayReachable() {
+        addBooks(500);
+        Assertions.assertTrue(tieredDatabaseService.getHeapBytes() <= HEAP_CAPACITY);
+        Assertions.assertTrue(tieredDatabaseService.getFileBytes() > 0);
+        for (int i = 0; i < 500; i++) {
+            Book book = tieredDatabaseService.getBookByISBN(isbn(i));
+            Assertions.assertEquals("Title " + i, book.getTitle());
+            Assertions.assertEquals("Author " + i % 7, book.getAuthor());
+            Assertions.assertEquals(2, book.getAvailableCopies());
+        }
+        Assertions.assertTrue(tieredDatabaseService.getHeapBytes() <= HEAP_CAPACITY);
+        Assertions.assertNull(tieredDatabaseService.getBookByISBN(isbn(1000)));
+        Assertions.assertEquals(500, StreamSupport.stream(tieredDatabaseService.scanBooks(), true).count());
+    }
+
+    @Test
+    public void GivenFrequentlyReadColdBooks_WhenGetBookByISBN_ThenTheyArePromotedAndHitTheHeapTier() {
+        addBooks(500);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 400; i < 405; i++) {
+                tieredDatabaseService.getBookByISBN(isbn(i));
+            }
+            // One-off lookups of the long tail.
+            tieredDatabaseService.getBookByISBN(isbn(100 + round));
+        }
+        for (int i = 400; i < 405; i++) {
+            Assertions.assertTrue(tieredDatabaseService.isHot(isbn(i)), "Not promoted: " + isbn(i));
+        }
+        Assertions.assertTrue(tieredDatabaseService.getHeapTierStats().getHitRatio() > 0.7);
+        Assertions.assertTrue(tieredDatabaseService.getHeapTierStats().getEvictionCount() > 0);
+        Assertions.assertTrue(tieredDatabaseService.getFileTierStats().getHitCount() > 0);
+    }
+
+    @Test
+    public void GivenEntriesMovingBetweenTiers_WhenGetBookByISBN_ThenFileTierReusesFreedSlots() {
+        addBooks(500);
+        long initialBytes = tieredDatabaseService.getFileBytes();
+        for (int round = 0; round < 200; round++) {
+            // Every round, a new set of books becomes more popular than the previous one and
+            // displaces it from the heap tier.
+            for (int lookup = 0; lookup < round + 2; lookup++) {
+                for (int i = 0; i < 5; i++) {
+                    tieredDatabaseService.getBookByISBN(isbn((round * 5 + i) % 500));
+                }
+            }
+        }
+        Assertions.assertTrue(tieredDatabaseService.getHeapTierStats().getEvictionCount() > 500);
+        Assertions.assertTrue(tieredDatabaseService.getFileBytes() < 2 * initialBytes,
+                tieredDatabaseService.getFileBytes() + " bytes, from " + initialBytes);
+        for (int i = 0; i < 500; i++) {
+            Assertions.assertEquals("Title " + i, tieredDatabaseService.getBookByISBN(isbn(i)).getTitle());
+        }
+    }
+
+    @Test
+    public void GivenBookInFileTier_WhenLibraryBorrowsIt_ThenCopyCountsAreKept() {
+        addBooks(500);
+        Library library = new Library(tieredDatabaseService, reviewServiceMock);
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+        library.registerUser(new User("Test User", "222222222222", notificationServiceMock));
+        library.registerUser(new User("Test User", "333333333333", notificationServiceMock));
+        String ISBN = isbn(499);
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryBorrow(ISBN, "111111111111"));
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryBorrow(ISBN, "222222222222"));
+        Assertions.assertEquals(LoanStatus.BOOK_ALREADY_BORROWED, library.tryBorrow(ISBN, "333333333333"));
+        Assertions.assertEquals(0, tieredDatabaseService.getAvailableCopies(ISBN));
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryReturn(ISBN, "111111111111"));
+        Assertions.assertEquals(1, tieredDatabaseService.getBookByISBN(ISBN).getAvailableCopies());
+        Assertions.assertEquals(1, tieredDatabaseService.getBorrowers(ISBN).size());
+    }
+
+    @Test
+    public void GivenUsersInFileTier_WhenGetUserById_ThenUsersAreRecreatedWithTheirNotificationService() {
+        addBooks(100);
+        for (int i = 0; i < 100; i++) {
+            String id = String.format("%012d", i);
+            tieredDatabaseService.registerUser(id, new User("User " + i, id, notificationServiceMock));
+        }
+        User user = tieredDatabaseService.getUserById(String.format("%012d", 99));
+        Assertions.assertEquals("User 99", user.getName());
+        Assertions.assertSame(notificationServiceMock, user.getNotificationService());
+        Assertions.assertEquals(100, StreamSupport.stream(tieredDatabaseService.scanUsers(), false).count());
+    }
+}
@@ -0,0 +1,118 @@
+package ac.il.bgu.qa.snapshot;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.LoanStatus;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.InMemoryDatabaseService;
+import ac.il.bgu.qa.services.NotificationService;
+import ac.il.bgu.qa.services.ReviewService;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+public class TestSnapshotDatabaseService {
+
+    @TempDir
+    Path directory;
+
+    InMemoryDatabaseService source = new InMemoryDatabaseService();
+    ReviewService reviewServiceMock = Mockito.mock(ReviewService.class);
+    NotificationService notificationServiceMock = Mockito.mock(NotificationService.class);
+
+    private static String isbn(int i) {
+        return String.format("%013d", i);
+    }
+
+    private static String userId(int i) {
+        return String.format("%012d", i);
+    }
+
+    private Path writeCatalog(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            source.addBook(isbn(i), new Book(isbn(i), "Title " + i, i % 3 == 0 ? null : "Author " + i % 10, 1 + i % 3));
+            source.registerUser(userId(i), new User("User " + i, userId(i), notificationServiceMock));
+        }
+        Path file = directory.resolve("catalog.snapshot");
+        SnapshotWriter.write(source, file);
+        return file;
+    }
+
+    @Test
+    public void GivenSnapshot_WhenOpen_ThenBooksAndUsersAreServedBeforeLoading() throws IOException {
+        Library library = new Library(source, reviewServiceMock);
+        library.addBook(new Book("978-0-306-40615-7", "TITLE", "AUTHOR", 2));
+        library.registerUser(new User("Test User", "111111111111", notificationServiceMock));
+        library.borrowBook("978-0-306-40615-7", "111111111111");
+        Path file = writeCatalog(1000);
+
+        SnapshotDatabaseService restored = SnapshotDatabaseService.open(file, notificationServiceMock);
+        Assertions.assertFalse(restored.isLoaded());
+        Assertions.assertNotNull(restored.getOpenDuration());
+        Book book = restored.getBookByISBN("978-0-306-40615-7");
+        Assertions.assertEquals("TITLE", book.getTitle());
+        Assertions.assertEquals(1, book.getBorrowedCopies());
+        Assertions.assertSame(book, restored.getBookByISBN("978-0-306-40615-7"));
+        Assertions.assertEquals(Set.of("111111111111"), restored.getBorrowers("978-0-306-40615-7"));
+        Assertions.assertNull(restored.getBookByISBN(isbn(3)).getAuthor());
+        Assertions.assertEquals(3, restored.getBookByISBN(isbn(2)).getTotalCopies());
+        Assertions.assertNull(restored.getBookByISBN(isbn(5000)));
+        User user = restored.getUserById(userId(42));
+        Assertions.assertEquals("User 42", user.getName());
+        Assertions.assertSame(notificationServiceMock, user.getNotificationService());
+    }
+
+    @Test
+    public void GivenSnapshot_WhenLoad_ThenEveryEntryIsDecodedAndLoadTimeIsReported() throws Exception {
+        Path file = writeCatalog(5000);
+        SnapshotDatabaseService restored = SnapshotDatabaseService.open(file, notificationServiceMock);
+        Duration loadTime = restored.load().get(10, TimeUnit.SECONDS);
+        Assertions.assertTrue(restored.isLoaded());
+        Assertions.assertEquals(loadTime, restored.getLoadDuration());
+        Assertions.assertEquals(5000, StreamSupport.stream(restored.scanBooks(), true).count());
+        Assertions.assertEquals(5000, StreamSupport.stream(restored.scanUsers(), true).count());
+        Assertions.assertEquals("Title 4999", restored.getBookByISBN(isbn(4999)).getTitle());
+    }
+
+    @Test
+    public void GivenRestoredStore_WhenLibraryBorrowsAndAddsBooks_ThenChangesAreKept() throws IOException {
+        Path file = writeCatalog(10);
+        SnapshotDatabaseService restored = SnapshotDatabaseService.open(file, notificationServiceMock);
+        Library library = new Library(restored, reviewServiceMock);
+        Assertions.assertEquals(LoanStatus.SUCCESS, library.tryBorrow(isbn(0), userId(1)));
+        Assertions.assertTrue(restored.getBookByISBN(isbn(0)).isBorrowed());
+        Assertions.assertEquals(Set.of(userId(1)), restored.getBorrowers(isbn(0)));
+        library.addBook(new Book("978-0-306-40615-7", "TITLE", "AUTHOR"));
+        Assertions.assertEquals("TITLE", restored.getBookByISBN("978-0-306-40615-7").getTitle());
+    }
+
+    @Test
+    public void GivenCorruptHeader_WhenOpen_ThenThrowsIOException() throws IOException {
+        Path file = writeCatalog(10);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[9] ^= 1;
+        Files.write(file, bytes);
+        Assertions.assertThrows(IOException.class, () -> SnapshotDatabaseService.open(file, notificationServiceMock));
+    }
+
+    @Test
+    public void GivenCorruptBody_WhenLoad_ThenLoadFailsAndLookupsThrow() throws IOException {
+        Path file = writeCatalog(10);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        SnapshotDatabaseService restored = SnapshotDatabaseService.open(file, notificationServiceMock);
+        ExecutionException thrown = Assertions.assertThrows(ExecutionException.class, () -> restored.load().get(10, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IOException.class, thrown.getCause());
+        Assertions.assertThrows(IllegalStateException.class, () -> restored.getBookByISBN(isbn(5)));
+    }
+}
@@ -0,0 +1,50 @@
+package ac.il.bgu.qa.util;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCopyCounter {
+
+    @Test
+    public void GivenAllCopiesTaken_WhenTryAcquire_ThenReturnsFalse() {
+        CopyCounter copyCounter = new CopyCounter(5, 4);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertTrue(copyCounter.tryAcquire());
+        }
+        Assertions.assertFalse(copyCounter.tryAcquire());
+        Assertions.assertEquals(0, copyCounter.getAvailable());
+    }
+
+    @Test
+    public void GivenAllCopiesAvailable_WhenTryRelease_ThenReturnsFalse() {
+        CopyCounter copyCounter = new CopyCounter(5, 4);
+        Assertions.assertFalse(copyCounter.tryRelease());
+        copyCounter.tryAcquire();
+        Assertions.assertTrue(copyCounter.tryRelease());
+        Assertions.assertEquals(5, copyCounter.getAvailable());
+    }
+
+    @Test
+    public void GivenConcurrentCheckouts_WhenCopiesRunOut_ThenExactlyTotalCopiesAreTaken() throws InterruptedException {
+        CopyCounter copyCounter = new CopyCounter(1000, 8);
+        AtomicInteger taken = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 500; i++) {
+                    if (copyCounter.tryAcquire()) {
+                        taken.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(1000, taken.get());
+        Assertions.assertEquals(0, copyCounter.getAvailable());
+    }
+}
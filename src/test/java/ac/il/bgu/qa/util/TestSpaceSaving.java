@@ -0,0 +1,79 @@
+package ac.il.bgu.qa.util;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TestSpaceSaving {
+
+    @Test
+    public void GivenSkewedStream_WhenAdd_ThenHeavyKeysAreMonitoredWithinTheirError() {
+        SpaceSaving spaceSaving = new SpaceSaving(16);
+        Map<String, Long> counts = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            // Every other key is one of three heavy keys, the rest is a long tail counted twice.
+            String key = i % 2 == 0 ? "heavy" + i % 3 : "tail" + random.nextInt(50_000);
+            long count = 1 + i % 2;
+            spaceSaving.add(key, count);
+            counts.merge(key, count, Long::sum);
+        }
+        long total = counts.values().stream().mapToLong(Long::longValue).sum();
+        List<SpaceSaving.Counter> top = spaceSaving.top(16);
+        Assertions.assertEquals(16, top.size());
+        Assertions.assertEquals(total, top.stream().mapToLong(SpaceSaving.Counter::getCount).sum());
+        for (SpaceSaving.Counter counter : top) {
+            long actual = counts.get(counter.getKey());
+            Assertions.assertTrue(counter.getCount() >= actual && counter.getCount() - counter.getError() <= actual, counter.getKey());
+        }
+        List<String> keys = new ArrayList<>();
+        for (SpaceSaving.Counter counter : spaceSaving.top(3)) {
+            keys.add(counter.getKey());
+        }
+        Assertions.assertTrue(keys.containsAll(List.of("heavy0", "heavy1", "heavy2")), keys.toString());
+    }
+
+    @Test
+    public void GivenFullTracker_WhenManyNewKeysAreAdded_ThenEachReplacementIsCheap() {
+        SpaceSaving spaceSaving = new SpaceSaving(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            spaceSaving.add("warm" + i, 1 + i % 10);
+        }
+        // A scan over the monitored keys per replacement would take minutes here.
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 200_000; i++) {
+                spaceSaving.add("new" + i, 1);
+            }
+        });
+        Assertions.assertEquals(100_000, spaceSaving.top(Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void GivenConcurrentAdds_WhenDone_ThenEveryCountIsKept() throws InterruptedException {
+        SpaceSaving spaceSaving = new SpaceSaving(8);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    spaceSaving.add("key" + (i * 7 + offset) % 32, 1);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<SpaceSaving.Counter> top = spaceSaving.top(8);
+        Assertions.assertEquals(8, top.size());
+        // Counts racing with the replacement of their key may be lost, never invented.
+        Assertions.assertTrue(top.stream().mapToLong(SpaceSaving.Counter::getCount).sum() <= 200_000);
+        spaceSaving.clear();
+        spaceSaving.add("key0", 1);
+        Assertions.assertEquals(1, spaceSaving.top(8).size());
+    }
+}
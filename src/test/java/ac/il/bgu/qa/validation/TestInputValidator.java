@@ -0,0 +1,158 @@
+package ac.il.bgu.qa.validation;
+
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+import java.util.Random;
+
+public class TestInputValidator {
+
+    InputValidator inputValidator = new InputValidator();
+    InputValidator memoizingInputValidator = new InputValidator(64);
+
+    // Characters the generated inputs are drawn from: ASCII letters, digits and punctuation,
+    // non-ASCII letters and digits, non-letters and halves of surrogate pairs.
+    static final String ALPHABET = "aZm09 -'.-'. _,\téß中א٣１ —·𝒜😀";
+
+    // The user Id check the library used to run.
+    private static boolean legacyIsUserIdValid(String userId) {
+        return userId != null && userId.matches("\\d{12}");
+    }
+
+    // The ISBN check the library used to run.
+    private static boolean legacyIsISBNValid(String isbn) {
+        if (isbn == null) {
+            return false;
+        }
+        isbn = isbn.replaceAll("-", "");
+        if (isbn.length() != 13 || !isbn.matches("\\d+")) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = Integer.parseInt(String.valueOf(isbn.charAt(i)));
+            if (i % 2 == 0) {
+                sum += digit;
+            } else {
+                sum += digit * 3;
+            }
+        }
+        int checkDigit = 10 - (sum % 10);
+        if (checkDigit == 10) {
+            checkDigit = 0;
+        }
+        return checkDigit == Integer.parseInt(String.valueOf(isbn.charAt(12)));
+    }
+
+    // The author check the library used to run.
+    private static boolean legacyIsAuthorValid(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        if (!Character.isLetter(name.charAt(0)) || !Character.isLetter(name.charAt(name.length() - 1))) {
+            return false;
+        }
+        for (int i = 0; i < name.length() - 1; i++) {
+            char current = name.charAt(i);
+            char next = name.charAt(i + 1);
+            if (!Character.isLetter(current) && current != '-' && current != ' ' && current != '\'' && current != '.') {
+                return false;
+            }
+            if ((current == '-' && next == '-')
+                    || (current == '\'' && next == '\'')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    // Builds a hyphenated ISBN-13 with a correct check digit, one digit changed with the given odds.
+    private static String randomISBN(Random random, double corruption) {
+        StringBuilder digits = new StringBuilder();
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = random.nextInt(10);
+            sum += i % 2 == 0 ? digit : digit * 3;
+            digits.append(digit);
+        }
+        digits.append((10 - sum % 10) % 10);
+        if (random.nextDouble() < corruption) {
+            digits.setCharAt(random.nextInt(13), (char) ('0' + random.nextInt(10)));
+        }
+        for (int i = random.nextInt(5); i > 0; i--) {
+            digits.insert(random.nextInt(digits.length() + 1), '-');
+        }
+        return digits.toString();
+    }
+
+    @Test
+    public void GivenKnownAuthorNames_WhenIsValidAuthor_ThenMatchesLegacyCheck() {
+        List<String> names = List.of("J.K. Rowling", "Jean-Paul Sartre", "O'Brien", "A", "Gabriel García Márquez",
+                "Ab--c", "Ab''c", "Ab-'c", "A..b", "A  b", " Ab", "Ab ", "-Ab", "Ab-", "A1b", "A_b", "A b",
+                "中文", "A𝒜", "𝒜A", "A—b", "é", "'", "--", "A'-'b");
+        for (String name : names) {
+            Assertions.assertEquals(legacyIsAuthorValid(name), inputValidator.isValidAuthor(name), name);
+            Assertions.assertEquals(legacyIsAuthorValid(name), memoizingInputValidator.isValidAuthor(name), name);
+        }
+        Assertions.assertFalse(inputValidator.isValidAuthor(null));
+        Assertions.assertFalse(inputValidator.isValidAuthor(""));
+    }
+
+    @Test
+    public void GivenRandomAuthorNames_WhenIsValidAuthor_ThenMatchesLegacyCheck() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            String name = randomString(random, ALPHABET, 8);
+            Assertions.assertEquals(legacyIsAuthorValid(name), inputValidator.isValidAuthor(name), name);
+            Assertions.assertEquals(legacyIsAuthorValid(name), memoizingInputValidator.isValidAuthor(name), name);
+        }
+    }
+
+    @Test
+    public void GivenRandomUserIds_WhenIsValidUserId_ThenMatchesLegacyCheck() {
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            String userId = randomString(random, i % 2 == 0 ? "0123456789" : "0123456789٣１a -", 14);
+            Assertions.assertEquals(legacyIsUserIdValid(userId), inputValidator.isValidUserId(userId), userId);
+        }
+        Assertions.assertTrue(inputValidator.isValidUserId("123456789012"));
+        Assertions.assertFalse(inputValidator.isValidUserId("12345678901٣"));
+        Assertions.assertFalse(inputValidator.isValidUserId(null));
+    }
+
+    @Test
+    public void GivenRandomISBNs_WhenIsValidISBN_ThenMatchesLegacyCheck() {
+        Random random = new Random(13);
+        for (int i = 0; i < 100_000; i++) {
+            String ISBN = randomISBN(random, 0.5);
+            Assertions.assertEquals(legacyIsISBNValid(ISBN), inputValidator.isValidISBN(ISBN), ISBN);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            String ISBN = randomString(random, "0123456789--٣x", 16);
+            Assertions.assertEquals(legacyIsISBNValid(ISBN), inputValidator.isValidISBN(ISBN), ISBN);
+        }
+        Assertions.assertTrue(inputValidator.isValidISBN("978-0-306-40615-7"));
+        Assertions.assertFalse(inputValidator.isValidISBN(null));
+    }
+
+    @Test
+    public void GivenRepeatedAuthors_WhenMemoizing_ThenRepeatsHitTheCache() {
+        for (int i = 0; i < 10; i++) {
+            memoizingInputValidator.isValidAuthor("Jean-Paul Sartre");
+            memoizingInputValidator.isValidAuthor("Ab--c");
+        }
+
+        Assertions.assertEquals(18, memoizingInputValidator.getAuthorCacheStats().getHitCount());
+        Assertions.assertEquals(2, memoizingInputValidator.getAuthorCacheStats().getMissCount());
+        Assertions.assertNull(inputValidator.getAuthorCacheStats());
+    }
+}